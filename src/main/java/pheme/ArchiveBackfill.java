@@ -0,0 +1,299 @@
+package pheme;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import timedelayqueue.BasicMessageType;
+import timedelayqueue.PubSubMessage;
+import twitter.PatternMatcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/* Class Description:
+ * Turns an archive of tweets, one tweet JSON object per line, into inbox messages for every user
+ * subscribed to the tweet's author. The archive is memory-mapped and split at line boundaries into
+ * chunks that are parsed in parallel with Gson's streaming JsonReader, reading only the fields a
+ * message needs. The messages of each chunk are handed on as soon as it is parsed, in archive
+ * order, and only a few chunks are parsed ahead of the one being handed on, so an archive of any
+ * size is backfilled in bounded memory. A line that is not a tweet JSON object, or lacks a field a message needs, is
+ * skipped and counted rather than failing the whole backfill.
+ *
+ * Both the TweetData field names (authorId, createdAt) and the Twitter API ones (author_id,
+ * created_at) are accepted; created_at values with a zone offset are converted to local time.
+ *
+ * Rep Invariant & Abstraction Function:
+ * everyTweet maps a Twitter user ID to the users subscribed to all of that account's tweets;
+ * patterns maps a Twitter user ID to an automaton over the patterns users subscribed to for it
+ *
+ * Thread Safety Argument:
+ * Subscriptions must all be added before run is called; run only reads them, and each parsing
+ * task collects its messages into its own map, which is handed on from the thread calling run.
+ * malformedLines is atomic, as the parsing tasks all add to it
+ * */
+public class ArchiveBackfill {
+
+    // largest region parsed as one chunk, which bounds the messages held per chunk
+    private static final long MAX_CHUNK_BYTES = 1L << 23;
+    // chunks parsed ahead per thread, so threads keep parsing while a chunk is handed on
+    private static final int CHUNKS_AHEAD_PER_THREAD = 2;
+    // how much is read at a time when looking for the end of a line to cut at
+    private static final int SCAN_BLOCK_BYTES = 8192;
+
+    private final Map<String, Set<UUID>> everyTweet;
+    private final Map<String, PatternMatcher<UUID>> patterns;
+    private final AtomicLong malformedLines = new AtomicLong();
+
+    /**
+     * Create a new ArchiveBackfill with no subscriptions
+     */
+    public ArchiveBackfill() {
+        this.everyTweet = new HashMap<>();
+        this.patterns = new HashMap<>();
+    }
+
+    /**
+     * Subscribe a user to a Twitter account for the backfill
+     *
+     * @param twitterUserID is the ID of a Twitter user
+     * @param receiver      is the ID of the user whose inbox the tweets go to
+     * @param userPatterns  the patterns a tweet must match one of, or an empty list for every tweet
+     */
+    public void subscribe(String twitterUserID, UUID receiver, List<String> userPatterns) {
+        if (userPatterns.isEmpty()) {
+            everyTweet.computeIfAbsent(twitterUserID, id -> new HashSet<>()).add(receiver);
+            return;
+        }
+        PatternMatcher<UUID> matcher = patterns.computeIfAbsent(twitterUserID, id -> new PatternMatcher<>());
+        for (String pattern : userPatterns) {
+            matcher.addPattern(pattern, receiver);
+        }
+    }
+
+    /**
+     * Parse an archive and build the messages for every subscribed user
+     *
+     * @param archive is a file of tweet JSON lines
+     * @param threads the number of chunks parsed at once, > 0
+     * @return map from receiver ID to the messages for that receiver, in archive order
+     */
+    public Map<UUID, List<PubSubMessage>> run(File archive, int threads) {
+        Map<UUID, List<PubSubMessage>> inboxes = new HashMap<>();
+        run(archive, threads, part -> {
+            for (Map.Entry<UUID, List<PubSubMessage>> entry : part.entrySet()) {
+                inboxes.computeIfAbsent(entry.getKey(), id -> new ArrayList<>()).addAll(entry.getValue());
+            }
+        });
+        return inboxes;
+    }
+
+    /**
+     * Parse an archive, handing on the messages for subscribed users one chunk at a time
+     *
+     * @param archive is a file of tweet JSON lines
+     * @param threads the number of chunks parsed at once, > 0
+     * @param sink    is given, on the calling thread and in archive order, a map from receiver ID
+     *                to the messages of one chunk for that receiver
+     */
+    public void run(File archive, int threads, Consumer<Map<UUID, List<PubSubMessage>>> sink) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ)) {
+            List<long[]> chunks = split(channel, threads);
+            Deque<Future<Map<UUID, List<PubSubMessage>>>> parts = new ArrayDeque<>();
+            int next = 0;
+            while (next < chunks.size() || !parts.isEmpty()) {
+                while (next < chunks.size() && parts.size() < threads * CHUNKS_AHEAD_PER_THREAD) {
+                    long[] chunk = chunks.get(next++);
+                    MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, chunk[0], chunk[1] - chunk[0]);
+                    parts.add(pool.submit(() -> parse(region)));
+                }
+                sink.accept(parts.poll().get());
+            }
+        }
+        catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("backfill interrupted", ie);
+        }
+        catch (ExecutionException ee) {
+            throw new IllegalStateException("backfill failed: " + ee.getCause(), ee.getCause());
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Get the number of lines skipped because they could not be turned into a message
+     *
+     * @return the number of malformed lines seen by every run so far
+     */
+    public long getMalformedLines() {
+        return malformedLines.get();
+    }
+
+    // cut the file into about `parts` ranges of at most MAX_CHUNK_BYTES, each ending just after a newline
+    private static List<long[]> split(FileChannel channel, int parts) throws IOException {
+        long size = channel.size();
+        long target = Math.max(1, Math.min(MAX_CHUNK_BYTES, (size + parts - 1) / parts));
+        List<long[]> chunks = new ArrayList<>();
+        ByteBuffer block = ByteBuffer.allocate(SCAN_BLOCK_BYTES);
+        long start = 0;
+        while (start < size) {
+            long end = Math.min(size, start + target);
+            if (end < size) {
+                // move the cut forward to the end of the line it falls in
+                end = lineEnd(channel, block, end - 1, size);
+            }
+            chunks.add(new long[]{start, end});
+            start = end;
+        }
+        return chunks;
+    }
+
+    // the position just after the first newline at or after `from`, or size if there is none
+    private static long lineEnd(FileChannel channel, ByteBuffer block, long from, long size) throws IOException {
+        long position = from;
+        while (position < size) {
+            block.clear();
+            int read = channel.read(block, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (block.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    private Map<UUID, List<PubSubMessage>> parse(ByteBuffer region) {
+        Map<UUID, List<PubSubMessage>> inboxes = new HashMap<>();
+        int lineStart = 0;
+        int limit = region.limit();
+        for (int i = 0; i <= limit; i++) {
+            if (i < limit && region.get(i) != '\n') {
+                continue;
+            }
+            if (i > lineStart) {
+                ByteBuffer line = region.duplicate();
+                line.limit(i).position(lineStart);
+                try {
+                    parseLine(inboxes, line);
+                }
+                catch (IOException | RuntimeException e) {
+                    // not JSON, not an object, or a field of the wrong type or format
+                    malformedLines.incrementAndGet();
+                }
+            }
+            lineStart = i + 1;
+        }
+        return inboxes;
+    }
+
+    private void parseLine(Map<UUID, List<PubSubMessage>> inboxes, ByteBuffer line) throws IOException {
+        JsonReader reader = new JsonReader(new StringReader(StandardCharsets.UTF_8.decode(line).toString()));
+        if (reader.peek() == JsonToken.END_DOCUMENT) {
+            // a blank line
+            return;
+        }
+        String id = null;
+        String text = null;
+        String authorID = null;
+        String createdAt = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "id":
+                    id = reader.nextString();
+                    break;
+                case "text":
+                    text = reader.nextString();
+                    break;
+                case "authorId":
+                case "author_id":
+                    authorID = reader.nextString();
+                    break;
+                case "createdAt":
+                case "created_at":
+                    createdAt = reader.nextString();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (reader.peek() != JsonToken.END_DOCUMENT || id == null || text == null || authorID == null
+                || createdAt == null) {
+            malformedLines.incrementAndGet();
+            return;
+        }
+        deliver(inboxes, id, text, authorID, toLocal(createdAt));
+    }
+
+    private void deliver(Map<UUID, List<PubSubMessage>> inboxes,
+                         String tweetID, String text, String authorID, LocalDateTime createdAt) {
+        Set<UUID> receivers = new HashSet<>();
+        Set<UUID> all = everyTweet.get(authorID);
+        if (all != null) {
+            receivers.addAll(all);
+        }
+        PatternMatcher<UUID> matcher = patterns.get(authorID);
+        if (matcher != null) {
+            receivers.addAll(matcher.match(text));
+        }
+        if (receivers.isEmpty()) {
+            return;
+        }
+        Timestamp timestamp = Timestamp.valueOf(createdAt);
+        UUID sender = UUID.nameUUIDFromBytes(authorID.getBytes());
+        for (UUID receiver : receivers) {
+            PubSubMessage msg = new PubSubMessage(PhemeService.tweetMessageID(tweetID, receiver), timestamp,
+                    sender, receiver, text, BasicMessageType.TWEET);
+            inboxes.computeIfAbsent(receiver, id -> new ArrayList<>()).add(msg);
+        }
+    }
+
+    private static LocalDateTime toLocal(String createdAt) {
+        char last = createdAt.charAt(createdAt.length() - 1);
+        if (last == 'Z' || createdAt.lastIndexOf('+') > 10 || createdAt.lastIndexOf('-') > 10) {
+            return OffsetDateTime.parse(createdAt).atZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime();
+        }
+        return LocalDateTime.parse(createdAt);
+    }
+}
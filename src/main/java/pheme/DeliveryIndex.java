@@ -0,0 +1,275 @@
+package pheme;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.UUID;
+
+/* Class Description:
+ * Tracks which receivers each message was delivered to, for answering read-receipt queries.
+ * A message's receivers are kept as a sorted array of UUID bits, so checking many receivers of
+ * one message costs one map lookup and a binary search per receiver. Each receiver has a
+ * watermark: the newest message timestamp delivered to them. A message at or below a receiver's
+ * watermark counts as delivered to them, so the common case of messages reaching receivers in
+ * time order needs no per-receiver state. Only a receiver whose watermark had already passed the
+ * message when it was recorded is held in the message's pending set until it is marked, and is
+ * evicted from it then. Messages are forgotten once they are older than the time-to-live or once
+ * more than maxMessages are tracked, oldest first, so memory use stays bounded; a forgotten
+ * message reports as not delivered.
+ *
+ * Rep Invariant & Abstraction Function:
+ * ttlMillis > 0 && maxMessages > 0 && entries.size() <= maxMessages
+ * order holds the values of entries in the order they were recorded; for each entry, (msgMsb,
+ * msgLsb) is the key it is mapped under, timestamp is the message's timestamp, receivers holds
+ * the (most, least) significant bits of each distinct receiver in ascending order, and pending is
+ * null or has bit i set iff the receiver at position i has not been marked although their
+ * watermark is at or past timestamp; the message reached the receiver at position i iff bit i
+ * of pending is clear and timestamp <= the receiver's watermark
+ *
+ * Thread Safety Argument:
+ * Every method that reads or writes entries or watermarks is synchronized
+ * */
+public class DeliveryIndex {
+
+    private static class Entry {
+        final long msgMsb;
+        final long msgLsb;
+        final long recordedAt;
+        final long timestamp;
+        long[] receivers;
+        BitSet pending;
+
+        Entry(UUID msgID, long recordedAt, long timestamp, long[] receivers) {
+            this.msgMsb = msgID.getMostSignificantBits();
+            this.msgLsb = msgID.getLeastSignificantBits();
+            this.recordedAt = recordedAt;
+            this.timestamp = timestamp;
+            this.receivers = receivers;
+        }
+
+        boolean isPending(int i) {
+            return pending != null && pending.get(i);
+        }
+
+        void clearPending(int i) {
+            if (pending != null) {
+                pending.clear(i);
+                if (pending.isEmpty()) {
+                    pending = null;
+                }
+            }
+        }
+
+        // position of a receiver in the sorted array, or -(insertion point) - 1 if absent
+        int indexOf(UUID receiver) {
+            long msb = receiver.getMostSignificantBits();
+            long lsb = receiver.getLeastSignificantBits();
+            int low = 0;
+            int high = receivers.length / 2 - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = Long.compare(receivers[2 * mid], msb);
+                if (cmp == 0) {
+                    cmp = Long.compare(receivers[2 * mid + 1], lsb);
+                }
+                if (cmp < 0) {
+                    low = mid + 1;
+                }
+                else if (cmp > 0) {
+                    high = mid - 1;
+                }
+                else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+
+        // add a receiver that was not addressed when the message was recorded, keeping the order
+        int insert(int insertionPoint, UUID receiver) {
+            long[] grown = new long[receivers.length + 2];
+            System.arraycopy(receivers, 0, grown, 0, 2 * insertionPoint);
+            grown[2 * insertionPoint] = receiver.getMostSignificantBits();
+            grown[2 * insertionPoint + 1] = receiver.getLeastSignificantBits();
+            System.arraycopy(receivers, 2 * insertionPoint, grown, 2 * insertionPoint + 2,
+                    receivers.length - 2 * insertionPoint);
+            if (pending != null) {
+                for (int i = receivers.length / 2 - 1; i >= insertionPoint; i--) {
+                    pending.set(i + 1, pending.get(i));
+                }
+                pending.clear(insertionPoint);
+            }
+            receivers = grown;
+            return insertionPoint;
+        }
+    }
+
+    private final UUIDMap<Entry> entries;
+    private final ArrayDeque<Entry> order;
+    private final UUIDMap<long[]> watermarks;
+    private final long ttlMillis;
+    private final int maxMessages;
+
+    /**
+     * Create a new, empty DeliveryIndex
+     *
+     * @param ttlMillis   how long, in milliseconds, a message is tracked after it is recorded, > 0
+     * @param maxMessages the most messages tracked at once, > 0
+     */
+    public DeliveryIndex(long ttlMillis, int maxMessages) {
+        this.entries = new UUIDMap<>();
+        this.order = new ArrayDeque<>();
+        this.watermarks = new UUIDMap<>();
+        this.ttlMillis = ttlMillis;
+        this.maxMessages = maxMessages;
+    }
+
+    /**
+     * Start tracking a message, with none of its receivers reached yet
+     *
+     * @param msgID     is not null
+     * @param timestamp the timestamp of the message, in epoch milliseconds
+     * @param receivers the receivers the message is addressed to, is not null
+     */
+    public synchronized void record(UUID msgID, long timestamp, List<UUID> receivers) {
+        if (entries.containsKey(msgID)) {
+            return;
+        }
+        UUID[] sorted = receivers.toArray(new UUID[0]);
+        Arrays.sort(sorted);
+        long[] bits = new long[2 * sorted.length];
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i > 0 && sorted[i].equals(sorted[i - 1])) {
+                continue;
+            }
+            bits[2 * distinct] = sorted[i].getMostSignificantBits();
+            bits[2 * distinct + 1] = sorted[i].getLeastSignificantBits();
+            distinct++;
+        }
+        long now = System.currentTimeMillis();
+        Entry entry = new Entry(msgID, now, timestamp, Arrays.copyOf(bits, 2 * distinct));
+        // receivers already past this message would otherwise count as reached by it
+        for (int i = 0; i < distinct; i++) {
+            long[] watermark = watermarks.get(bits[2 * i], bits[2 * i + 1]);
+            if (watermark != null && watermark[0] >= timestamp) {
+                if (entry.pending == null) {
+                    entry.pending = new BitSet(distinct);
+                }
+                entry.pending.set(i);
+            }
+        }
+        entries.put(msgID, entry);
+        order.addLast(entry);
+        evict(now);
+    }
+
+    /**
+     * Record that a message reached one of its receivers, tracking the message
+     * if it was not recorded before
+     *
+     * @param msgID     is not null
+     * @param timestamp the timestamp of the message, in epoch milliseconds
+     * @param receiver  is not null
+     */
+    public synchronized void markDelivered(UUID msgID, long timestamp, UUID receiver) {
+        Entry entry = entries.get(msgID);
+        if (entry == null) {
+            record(msgID, timestamp, List.of(receiver));
+            entry = entries.get(msgID);
+        }
+        int i = entry.indexOf(receiver);
+        if (i < 0) {
+            i = entry.insert(-(i + 1), receiver);
+        }
+        entry.clearPending(i);
+        long[] watermark = watermarks.get(receiver);
+        if (watermark == null) {
+            watermarks.put(receiver, new long[]{timestamp});
+        }
+        else {
+            watermark[0] = Math.max(watermark[0], timestamp);
+        }
+    }
+
+    /**
+     * Check whether a message reached a receiver
+     *
+     * @param msgID    is not null
+     * @param receiver is not null
+     * @return true if the message is tracked and reached <code>receiver</code>
+     */
+    public synchronized boolean isDelivered(UUID msgID, UUID receiver) {
+        Entry entry = entries.get(msgID);
+        return entry != null && reached(entry, receiver);
+    }
+
+    /**
+     * Check whether a message reached each of several receivers
+     *
+     * @param msgID     is not null
+     * @param receivers is not null
+     * @return for each receiver, in order, whether the message is tracked and reached it
+     */
+    public synchronized List<Boolean> isDelivered(UUID msgID, List<UUID> receivers) {
+        List<Boolean> result = new ArrayList<>(receivers.size());
+        Entry entry = entries.get(msgID);
+        for (UUID receiver : receivers) {
+            result.add(entry != null && reached(entry, receiver));
+        }
+        return result;
+    }
+
+    /**
+     * Get the newest message timestamp delivered to a receiver
+     *
+     * @param receiver is not null
+     * @return the timestamp in epoch milliseconds, or 0 if nothing was delivered to <code>receiver</code>
+     */
+    public synchronized long getWatermark(UUID receiver) {
+        long[] watermark = watermarks.get(receiver);
+        return watermark == null ? 0 : watermark[0];
+    }
+
+    /**
+     * Forget the watermark of a receiver, such as a user who was removed
+     *
+     * @param receiver is not null
+     */
+    public synchronized void forgetReceiver(UUID receiver) {
+        watermarks.remove(receiver);
+    }
+
+    /**
+     * Get the number of messages tracked
+     *
+     * @return the number of messages tracked
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    // whether a tracked message reached a receiver, answered from the receiver's watermark
+    private boolean reached(Entry entry, UUID receiver) {
+        int i = entry.indexOf(receiver);
+        if (i < 0 || entry.isPending(i)) {
+            return false;
+        }
+        long[] watermark = watermarks.get(receiver);
+        return watermark != null && entry.timestamp <= watermark[0];
+    }
+
+    // drop the oldest messages while they have outlived the TTL or there are too many
+    private void evict(long now) {
+        while (!order.isEmpty()) {
+            Entry oldest = order.peekFirst();
+            if (entries.size() <= maxMessages && now - oldest.recordedAt < ttlMillis) {
+                return;
+            }
+            order.pollFirst();
+            entries.remove(oldest.msgMsb, oldest.msgLsb);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package pheme;
+
+import timedelayqueue.BasicMessageType;
+import timedelayqueue.MessageType;
+import timedelayqueue.PubSubMessage;
+import timedelayqueue.TimeOrderedIdGenerator;
+import timedelayqueue.TransientPubSubMessage;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/* Class Description:
+ * Indexes the messages of one user's inbox by time, by sender and by type, so that messages from
+ * one sender, of one type, or within a time range can be listed without draining the user's
+ * queue. Each index is a set ordered by timestamp and then by ID, so a query seeks to the start
+ * of its range and walks only the messages it returns. Messages stay indexed after they are
+ * read, until they are older than the retention period or the index holds more than maxMessages,
+ * when the oldest are dropped first.
+ *
+ * Rep Invariant & Abstraction Function:
+ * retentionMillis > 0 && maxMessages > 0 && byTime.size() <= maxMessages
+ * byTime holds every indexed message; bySender.get(s) holds exactly the indexed messages sent by
+ * s, byType.get(t) exactly those of type t, and no set in either map is empty
+ *
+ * Thread Safety Argument:
+ * Every method is synchronized
+ * */
+public class InboxIndex {
+
+    // the same order TimeDelayQueue uses: by timestamp, then by ID as an unsigned number
+    private static final Comparator<PubSubMessage> CHRONOLOGICAL =
+            Comparator.comparing(PubSubMessage::getTimestamp)
+                    .thenComparing(PubSubMessage::getId, TimeOrderedIdGenerator::compareUnsigned);
+    private static final UUID LOWEST_ID = new UUID(0, 0);
+    private static final UUID HIGHEST_ID = new UUID(-1, -1);
+
+    private final NavigableSet<PubSubMessage> byTime;
+    private final Map<UUID, NavigableSet<PubSubMessage>> bySender;
+    private final Map<MessageType, NavigableSet<PubSubMessage>> byType;
+    private final long retentionMillis;
+    private final int maxMessages;
+
+    /**
+     * Create a new, empty InboxIndex
+     *
+     * @param retentionMillis how long, in milliseconds after its timestamp, a message stays indexed, > 0
+     * @param maxMessages     the most messages indexed at once, > 0
+     */
+    public InboxIndex(long retentionMillis, int maxMessages) {
+        this.byTime = new TreeSet<>(CHRONOLOGICAL);
+        this.bySender = new HashMap<>();
+        this.byType = new HashMap<>();
+        this.retentionMillis = retentionMillis;
+        this.maxMessages = maxMessages;
+    }
+
+    /**
+     * Index a message
+     *
+     * @param msg is not null
+     * @return true if the message was not already indexed
+     */
+    public synchronized boolean add(PubSubMessage msg) {
+        if (!byTime.add(msg)) {
+            return false;
+        }
+        bySender.computeIfAbsent(msg.getSender(), s -> new TreeSet<>(CHRONOLOGICAL)).add(msg);
+        byType.computeIfAbsent(msg.getType(), t -> new TreeSet<>(CHRONOLOGICAL)).add(msg);
+        evict(System.currentTimeMillis());
+        return true;
+    }
+
+    /**
+     * List indexed messages matching every given criterion, oldest first
+     *
+     * @param sender only messages from this sender, or null for any sender
+     * @param type   only messages of this type, or null for any type
+     * @param from   only messages with timestamps at or after this, or null for no lower bound
+     * @param to     only messages with timestamps at or before this, or null for no upper bound
+     * @param limit  the most messages to return, > 0
+     * @return matching messages in chronological order, leaving out transient messages that expired
+     */
+    public synchronized List<PubSubMessage> query(UUID sender, MessageType type,
+                                                  Timestamp from, Timestamp to, int limit) {
+        NavigableSet<PubSubMessage> candidates = byTime;
+        if (sender != null) {
+            candidates = bySender.getOrDefault(sender, Collections.emptyNavigableSet());
+        }
+        if (type != null) {
+            NavigableSet<PubSubMessage> ofType = byType.getOrDefault(type, Collections.emptyNavigableSet());
+            // walk the smaller index and filter by the other criterion
+            if (sender == null || ofType.size() < candidates.size()) {
+                candidates = ofType;
+            }
+        }
+        if (from != null || to != null) {
+            PubSubMessage low = from == null ? null : bound(from, LOWEST_ID);
+            PubSubMessage high = to == null ? null : bound(to, HIGHEST_ID);
+            if (low != null && high != null) {
+                candidates = low.getTimestamp().after(high.getTimestamp())
+                        ? Collections.emptyNavigableSet() : candidates.subSet(low, true, high, true);
+            } else if (low != null) {
+                candidates = candidates.tailSet(low, true);
+            } else {
+                candidates = candidates.headSet(high, true);
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        List<PubSubMessage> result = new ArrayList<>(Math.min(limit, 64));
+        for (PubSubMessage msg : candidates) {
+            if (result.size() == limit) {
+                break;
+            }
+            if (sender != null && !sender.equals(msg.getSender())) {
+                continue;
+            }
+            if (type != null && !type.equals(msg.getType())) {
+                continue;
+            }
+            if (msg.isTransient()
+                    && now - msg.getTimestamp().getTime() > ((TransientPubSubMessage) msg).getLifetime()) {
+                continue;
+            }
+            result.add(msg);
+        }
+        return result;
+    }
+
+    /**
+     * Get the number of messages indexed
+     *
+     * @return the number of messages indexed
+     */
+    public synchronized int size() {
+        return byTime.size();
+    }
+
+    // a key that sorts before (LOWEST_ID) or after (HIGHEST_ID) every message with this timestamp
+    private static PubSubMessage bound(Timestamp timestamp, UUID id) {
+        return new PubSubMessage(id, timestamp, LOWEST_ID, LOWEST_ID, "", BasicMessageType.SIMPLEMSG);
+    }
+
+    private void evict(long now) {
+        while (!byTime.isEmpty()) {
+            PubSubMessage oldest = byTime.first();
+            if (byTime.size() <= maxMessages && now - oldest.getTimestamp().getTime() < retentionMillis) {
+                return;
+            }
+            byTime.pollFirst();
+            remove(bySender, oldest.getSender(), oldest);
+            remove(byType, oldest.getType(), oldest);
+        }
+    }
+
+    private static <K> void remove(Map<K, NavigableSet<PubSubMessage>> index, K key, PubSubMessage msg) {
+        NavigableSet<PubSubMessage> set = index.get(key);
+        set.remove(msg);
+        if (set.isEmpty()) {
+            index.remove(key);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package pheme;
+
+import timedelayqueue.PubSubMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/* Class Description:
+ * One bounded batch of inbox messages returned by a paged read, with the cursor that resumes the
+ * read where this batch stopped.
+ *
+ * Rep Invariant & Abstraction Function:
+ * messages != null; nextCursor is null iff no message that was active when the read began is left
+ *
+ * Thread Safety Argument:
+ * Immutable
+ * */
+public class InboxPage {
+
+    public static final InboxPage EMPTY = new InboxPage(new ArrayList<>(), null);
+
+    private final List<PubSubMessage> messages;
+    private final String nextCursor;
+
+    InboxPage(List<PubSubMessage> messages, String nextCursor) {
+        this.messages = messages;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Get the messages in this page
+     *
+     * @return the messages in chronological order
+     */
+    public List<PubSubMessage> getMessages() {
+        return new ArrayList<>(messages);
+    }
+
+    /**
+     * Get the cursor for the next page
+     *
+     * @return the cursor to pass to the next call, or null if this is the last page
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * Check whether there are more pages
+     *
+     * @return true if a next page may hold messages
+     */
+    public boolean hasMore() {
+        return nextCursor != null;
+    }
+}
@@ -0,0 +1,184 @@
+package pheme;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import security.SegmentCipher;
+import timedelayqueue.PubSubMessage;
+import timedelayqueue.PubSubMessageCodec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/* Class Description:
+ * Persists queued messages in encrypted segment files, so that inbox contents never reach disk in
+ * plaintext. Each segment is a JSON array of messages encoded by PubSubMessageCodec and encrypted
+ * by a SegmentCipher under a key derived from the master key and the segment's name. Recovery
+ * decrypts each segment chunk by chunk straight into a streaming JsonReader, so a segment is never
+ * held in memory whole, either as ciphertext or as plaintext.
+ *
+ * Segments live in <dir>/<sequence number>.seg and are written to a temporary file that is renamed
+ * into place, so a crash never leaves a partial segment behind.
+ *
+ * Rep Invariant & Abstraction Function:
+ * dir, cipher != null; nextSequence is greater than the sequence number of every segment in dir
+ *
+ * Thread Safety Argument:
+ * nextSequence is guarded by this journal's lock; segments are immutable once renamed into place
+ * */
+public class MessageJournal {
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int IO_BUFFER = 1 << 16;
+
+    private final Path dir;
+    private final SegmentCipher cipher;
+    private long nextSequence;
+
+    /**
+     * Open a journal, creating its directory if it does not exist
+     *
+     * @param dir       the directory holding the segments, is not null
+     * @param masterKey the key segment keys are derived from, at least 16 bytes, is not null
+     */
+    public MessageJournal(File dir, byte[] masterKey) {
+        this.dir = dir.toPath();
+        this.cipher = new SegmentCipher(masterKey);
+        try {
+            Files.createDirectories(this.dir);
+        }
+        catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+        List<String> existing = getSegments();
+        this.nextSequence = existing.isEmpty() ? 0 : Long.parseLong(existing.get(existing.size() - 1)) + 1;
+    }
+
+    /**
+     * Write messages to a new segment
+     *
+     * @param msgs are messages whose types are BasicMessageTypes
+     * @return the name of the new segment
+     */
+    public String writeSegment(Collection<PubSubMessage> msgs) {
+        return writeSegment(msgs, null);
+    }
+
+    /**
+     * Write messages to a new segment, each addressed only to the given receivers
+     *
+     * @param msgs      are messages whose types are BasicMessageTypes
+     * @param receivers maps a message to the receivers to record for it, or is null to keep
+     *                  every message's own receivers
+     * @return the name of the new segment
+     */
+    public String writeSegment(Collection<PubSubMessage> msgs, Map<PubSubMessage, List<UUID>> receivers) {
+        String segment;
+        synchronized (this) {
+            segment = String.format("%019d", nextSequence++);
+        }
+        Path file = dir.resolve(segment + SEGMENT_SUFFIX);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (JsonWriter out = new JsonWriter(new OutputStreamWriter(
+                    cipher.encrypt(new BufferedOutputStream(Files.newOutputStream(tmp), IO_BUFFER), segment),
+                    StandardCharsets.UTF_8))) {
+                out.beginArray();
+                for (PubSubMessage msg : msgs) {
+                    if (receivers == null) {
+                        PubSubMessageCodec.write(out, msg);
+                    }
+                    else {
+                        PubSubMessageCodec.write(out, msg, receivers.get(msg));
+                    }
+                }
+                out.endArray();
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+        return segment;
+    }
+
+    /**
+     * Decrypt every segment, oldest first, handing each message to a consumer as it is decoded
+     *
+     * @param sink receives every message in the journal
+     * @return the number of messages recovered
+     * @throws UncheckedIOException if a segment cannot be read, was tampered with, or was
+     *                              sealed under a different master key
+     */
+    public long recover(Consumer<PubSubMessage> sink) {
+        long recovered = 0;
+        for (String segment : getSegments()) {
+            Path file = dir.resolve(segment + SEGMENT_SUFFIX);
+            try (JsonReader in = new JsonReader(new InputStreamReader(
+                    cipher.decrypt(new BufferedInputStream(Files.newInputStream(file), IO_BUFFER), segment),
+                    StandardCharsets.UTF_8))) {
+                in.beginArray();
+                while (in.peek() != JsonToken.END_ARRAY) {
+                    sink.accept(PubSubMessageCodec.read(in));
+                    recovered++;
+                }
+                in.endArray();
+            }
+            catch (IOException ioe) {
+                throw new UncheckedIOException("cannot recover segment " + segment, ioe);
+            }
+        }
+        return recovered;
+    }
+
+    /**
+     * Get the names of the segments in the journal
+     *
+     * @return segment names, oldest first
+     */
+    public List<String> getSegments() {
+        List<String> segments = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> name.substring(0, name.length() - SEGMENT_SUFFIX.length()))
+                    .sorted()
+                    .forEach(segments::add);
+        }
+        catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+        return segments;
+    }
+
+    /**
+     * Delete a segment, for example once a newer checkpoint supersedes it
+     *
+     * @param segment is the name of a segment
+     * @return true if the segment existed
+     */
+    public boolean deleteSegment(String segment) {
+        try {
+            return Files.deleteIfExists(dir.resolve(segment + SEGMENT_SUFFIX));
+        }
+        catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+}
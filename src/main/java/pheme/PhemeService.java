@@ -1,14 +1,37 @@
 package pheme;
 
 import io.github.redouane59.twitter.dto.tweet.TweetV2;
+import security.BlowfishCipher;
+import timedelayqueue.AddResult;
 import timedelayqueue.BasicMessageType;
+import timedelayqueue.MessageType;
+import timedelayqueue.OverflowPolicy;
+import timedelayqueue.OverflowStats;
 import timedelayqueue.PubSubMessage;
+import timedelayqueue.QueueCapacity;
+import timedelayqueue.QueuePublisher;
+import timedelayqueue.QueueSelector;
 import timedelayqueue.TimeDelayQueue;
+import timedelayqueue.TopicPubSubMessage;
+import twitter.PollingScheduler;
+import twitter.TokenBucket;
+import twitter.TweetSource;
 import twitter.TwitterListener;
 
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.sql.Timestamp;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 
 /* Class Description:
@@ -18,25 +41,95 @@ import java.util.*;
  * credentialsFile =! null && credentialsFile.contains(apiKey, apiSecretKey, accessToken, accessTokenSecret)
  *
  * Thread Safety Argument:
- * Not neccessary since TimeDelayQueue deals with thread safety
+ * Not thread-safe; callers must not call it concurrently, since its maps are unguarded. The
+ * exceptions are deliverReady and the inbox publishers, which may run on other threads but only
+ * use the thread-safe QueueSelector, TimeDelayQueue and DeliveryIndex, and the poller thread,
+ * which delivers polled tweets while holding deliveryLock. Callers hold deliveryLock too while
+ * they change the maps and the TweetRouter that delivery reads; the indexes, queues and
+ * RecentIdFilter it writes to are thread-safe. Password-hashing threads never touch a UserInfo:
+ * hashes loginAsync upgrades are handed back through a concurrent map and swapped in by callers
  * */
 public class PhemeService {
 
     public static final int DELAY = 1000; // 1 second or 1000 milliseconds
+    public static final long SESSION_TTL = 12 * 60 * 60 * 1000; // 12 hours
+    public static final long TARGET_LOGIN_MILLIS = 250; // bcrypt cost per login we aim for
+    // remember delivered tweet IDs for an hour, in 4 buckets of at most 2^16 IDs each
+    private static final int SEEN_BUCKETS = 4;
+    private static final long SEEN_BUCKET_MILLIS = 15 * 60 * 1000;
+    private static final int SEEN_BUCKET_CAPACITY = 1 << 16;
+    // answer delivery queries for a day after sending, about 1M messages at most
+    private static final long DELIVERY_TTL = 24 * 60 * 60 * 1000;
+    private static final int MAX_TRACKED_MESSAGES = 1 << 20;
+    // keep a week of messages, at most 100k per user, searchable after they are read
+    private static final long INBOX_RETENTION = 7 * 24 * 60 * 60 * 1000;
+    private static final int MAX_INDEXED_PER_USER = 100_000;
+    // full-text search covers a week of messages per user, read or not, at most 1M messages or 64 MiB
+    private static final long SEARCH_RETENTION = 7 * 24 * 60 * 60 * 1000;
+    private static final int MAX_SEARCHABLE_PER_USER = 1_000_000;
+    private static final long MAX_SEARCHABLE_BYTES_PER_USER = 64L * 1024 * 1024;
+    // by default a user's queue holds 100k messages or 64 MiB, and refuses more
+    private static final QueueCapacity DEFAULT_QUEUE_CAPACITY =
+            new QueueCapacity(100_000, 64L * 1024 * 1024, OverflowPolicy.REJECT_NEW);
     private File twitterCredentialsFile;
+    private TweetSource tweetSource;
+    private QueueCapacity queueCapacity;
 
     private HashMap<String, UserInfo> usersMap;
 
     //          userName, twitterListener.
     private Map<String, TwitterListener> subscriptions = new HashMap<>();
 
-    private HashMap<UUID, String> usersMapByID;
+    private UUIDMap<String> usersMapByID;
 
     //          ID of receiver, message.
-    private Map<UUID, TimeDelayQueue> messages;
+    private UUIDMap<TimeDelayQueue> messages;
 
-    //          PumSubMessage ID, queue of messages.
-    private Map<UUID, List<UUID>> deliveredMessages;
+    //          ID of receiver, index of their recent messages.
+    private UUIDMap<InboxIndex> inboxes;
+
+    //          ID of receiver, full-text index of their messages.
+    private UUIDMap<SearchIndex> searchIndexes;
+
+    //          PubSubMessage ID, receivers it reached.
+    private DeliveryIndex deliveredMessages;
+
+    //          session token, logged-in user.
+    private SessionTable sessions;
+
+    //          topic pattern, subscribed users.
+    private TopicRouter topics;
+
+    //          ID of receiver, message queue, watched for active messages.
+    private QueueSelector<UUID> readyQueues;
+
+    //          ID of receiver, publisher of their messages.
+    private UUIDMap<QueuePublisher> inboxPublishers;
+
+    //          IDs of tweet messages already queued, to drop re-fetched tweets.
+    private RecentIdFilter recentTweets;
+
+    //          IDs of tweet messages queued by backfills, kept apart so an archive cannot crowd live IDs out.
+    private RecentIdFilter backfilledTweets;
+
+    //          archive lines skipped by backfills because they could not be parsed.
+    private long malformedArchiveLines;
+
+    //          polls subscribed Twitter accounts in the background once started, null otherwise.
+    private PollingScheduler poller;
+
+    //          Twitter account ID, users its tweets go to, shared by all users' subscriptions.
+    private TweetRouter tweetRoutes = new TweetRouter();
+
+    //          IDs of the Twitter accounts registered with the poller.
+    private Set<String> polledAccounts = new HashSet<>();
+
+    //          held by the poller thread while it delivers tweets, and by callers while they
+    //          change what it reads: the user maps and tweetRoutes.
+    private final Object deliveryLock = new Object();
+
+    //          login hashes loginAsync re-hashed on the password-hashing pool, not yet swapped in.
+    private final Map<UserInfo, String> upgradedHashes = new ConcurrentHashMap<>();
 
     /**
      * Create a new PhemeService
@@ -44,11 +137,43 @@ public class PhemeService {
      * @param twitterCredentialsFile is a file containing a valid apiKey, apiSecretKey, accessToken, and accessTokenSecret
      */
     public PhemeService(File twitterCredentialsFile) {
+        this(TwitterListener.defaultSource(twitterCredentialsFile));
         this.twitterCredentialsFile = twitterCredentialsFile;
+    }
+
+    /**
+     * Create a new PhemeService that obtains tweets from a given source,
+     * such as a recording replayed by a ReplayTweetSource
+     *
+     * @param tweetSource is not null
+     */
+    public PhemeService(TweetSource tweetSource) {
+        this(tweetSource, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Create a new PhemeService whose users' queues are bounded by given limits
+     *
+     * @param tweetSource   is not null
+     * @param queueCapacity the limits of each user's queue and what to do with messages beyond them
+     */
+    public PhemeService(TweetSource tweetSource, QueueCapacity queueCapacity) {
+        // calibrate the bcrypt cost in the background, so neither this nor usually the first login waits for it
+        Calibration.start();
+        this.tweetSource = tweetSource;
+        this.queueCapacity = queueCapacity;
         this.usersMap = new HashMap<>();
-        this.usersMapByID = new HashMap<>();
-        this.messages = new HashMap<>();
-        this.deliveredMessages = new HashMap<>();
+        this.usersMapByID = new UUIDMap<>();
+        this.messages = new UUIDMap<>();
+        this.inboxes = new UUIDMap<>();
+        this.searchIndexes = new UUIDMap<>();
+        this.deliveredMessages = new DeliveryIndex(DELIVERY_TTL, MAX_TRACKED_MESSAGES);
+        this.sessions = new SessionTable(SESSION_TTL);
+        this.topics = new TopicRouter();
+        this.readyQueues = new QueueSelector<>();
+        this.inboxPublishers = new UUIDMap<>();
+        this.recentTweets = new RecentIdFilter(SEEN_BUCKETS, SEEN_BUCKET_MILLIS, SEEN_BUCKET_CAPACITY);
+        this.backfilledTweets = new RecentIdFilter(SEEN_BUCKETS, SEEN_BUCKET_MILLIS, SEEN_BUCKET_CAPACITY);
     }
 
 
@@ -66,10 +191,12 @@ public class PhemeService {
      * @param userID       is not null
      * @param userName     is not null
      * @param hashPassword is not null
-     * @return true if new unique user added successfully, false otherwise
+     * @return true if new unique user added successfully, false otherwise, e.g. if the name
+     * or the ID is already taken
      */
     public boolean addUser(UUID userID, String userName, String hashPassword) {
-        if (usersMap.containsKey(userName)) {
+        // an ID already in use would have its queue registered twice, so it is refused before any change
+        if (usersMap.containsKey(userName) || usersMapByID.containsKey(userID)) {
             return false;
         }
         usersMap.put(userName, new UserInfo(userName, userID, hashPassword));
@@ -78,13 +205,179 @@ public class PhemeService {
 
         if (usersMap.get(userName).getUserID() == userID
                 && Objects.equals(usersMap.get(userName).getPassword(), hashPassword)) {
-            subscriptions.put(userName, new TwitterListener(twitterCredentialsFile));
-            messages.put(userID, new TimeDelayQueue(DELAY));
+            subscriptions.put(userName, new TwitterListener(tweetSource));
+            TimeDelayQueue queue = new TimeDelayQueue(DELAY, queueCapacity);
+            synchronized (deliveryLock) {
+                messages.put(userID, queue);
+                inboxes.put(userID, new InboxIndex(INBOX_RETENTION, MAX_INDEXED_PER_USER));
+                searchIndexes.put(userID, new SearchIndex(SEARCH_RETENTION, MAX_SEARCHABLE_PER_USER, MAX_SEARCHABLE_BYTES_PER_USER));
+            }
+            readyQueues.register(userID, queue);
             return true;
         }
         return false;
     }
 
+    /**
+     * Log a user in, checking their password once and issuing a session token
+     * that the token-based methods accept in place of the password hash. Once the
+     * bcrypt cost has been calibrated, a login hash made at a lower cost is replaced
+     * by one at the calibrated cost; the hash clients registered with stays their
+     * credential for the name-and-hash methods
+     *
+     * @param userName is not null
+     * @param password is the plaintext password, is not null
+     * @return a session token, or null if the user does not exist or the password is wrong
+     */
+    public String login(String userName, String password) {
+        UserInfo user = usersMap.get(userName);
+        if (user == null) {
+            return null;
+        }
+        applyUpgradedHash(user);
+        try {
+            if (!BlowfishCipher.verifyPassword(password, user.getPasswordHash())) {
+                return null;
+            }
+        }
+        catch (IllegalArgumentException e) {
+            // the stored hash is not a bcrypt hash, so no password can match it
+            return null;
+        }
+        int logRounds = calibratedLogRounds();
+        if (needsRehash(user.getPasswordHash(), logRounds)) {
+            user.setPasswordHash(BlowfishCipher.hashPassword(password, BlowfishCipher.gensalt(logRounds)));
+        }
+        return sessions.create(userName, user.getUserID());
+    }
+
+    /**
+     * Get the bcrypt work factor calibrated for this host, so that hashing
+     * a password takes about TARGET_LOGIN_MILLIS; measured once per JVM in the
+     * background, and waited for if it has not finished yet
+     *
+     * @return the log2 of the number of bcrypt rounds new hashes should use
+     */
+    public static int getLogRounds() {
+        return Calibration.LOG_ROUNDS.join();
+    }
+
+    /**
+     * Get the bcrypt work factor of the hash a user's logins are verified against
+     *
+     * @param userName is not null
+     * @return the log2 of the number of rounds the login hash was made with, or -1 if there is
+     * no such user or the login hash is not a bcrypt hash
+     */
+    public int getPasswordLogRounds(String userName) {
+        UserInfo user = usersMap.get(userName);
+        if (user == null) {
+            return -1;
+        }
+        applyUpgradedHash(user);
+        try {
+            return BlowfishCipher.getLogRounds(user.getPasswordHash());
+        }
+        catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    // holder so calibration starts once per JVM, on a daemon thread, when the class is first touched
+    private static class Calibration {
+        private static final CompletableFuture<Integer> LOG_ROUNDS = new CompletableFuture<>();
+
+        static {
+            Thread thread = new Thread(() -> {
+                try {
+                    LOG_ROUNDS.complete(BlowfishCipher.calibrateLogRounds(TARGET_LOGIN_MILLIS));
+                }
+                catch (Throwable t) {
+                    LOG_ROUNDS.completeExceptionally(t);
+                }
+            }, "bcrypt-calibration");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        static void start() {
+            // loading the class is what starts the calibration
+        }
+    }
+
+    // the calibrated cost, or -1 while calibration is still running or if it failed; never waits
+    private static int calibratedLogRounds() {
+        CompletableFuture<Integer> rounds = Calibration.LOG_ROUNDS;
+        if (!rounds.isDone() || rounds.isCompletedExceptionally()) {
+            return -1;
+        }
+        return rounds.join();
+    }
+
+    // only ever raise the cost, so a host that calibrates lower does not weaken existing hashes
+    private static boolean needsRehash(String hash, int logRounds) {
+        return logRounds > 0 && BlowfishCipher.getLogRounds(hash) < logRounds;
+    }
+
+    // swap in a login hash loginAsync re-hashed in the background, on the caller's thread
+    private void applyUpgradedHash(UserInfo user) {
+        String upgraded = upgradedHashes.remove(user);
+        if (upgraded != null && BlowfishCipher.getLogRounds(upgraded) > BlowfishCipher.getLogRounds(user.getPasswordHash())) {
+            user.setPasswordHash(upgraded);
+        }
+    }
+
+    /**
+     * Log a user in without blocking the calling thread; the password is checked
+     * on the shared password-hashing pool. A login hash made at a lower cost than the
+     * calibrated one is re-hashed there too, and takes effect on the user's next login
+     *
+     * @param userName is not null
+     * @param password is the plaintext password, is not null
+     * @return a future completed with a session token, or with null if the user does not exist or the
+     * password is wrong; completed exceptionally if the password-hashing pool is saturated
+     */
+    public CompletableFuture<String> loginAsync(String userName, String password) {
+        UserInfo user = usersMap.get(userName);
+        if (user == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        applyUpgradedHash(user);
+        String hash = user.getPasswordHash();
+        return BlowfishCipher.verifyPasswordAsync(password, hash)
+                .exceptionally(e -> {
+                    Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                    if (cause instanceof IllegalArgumentException) {
+                        // the stored hash is not a bcrypt hash, so no password can match it
+                        return false;
+                    }
+                    throw new CompletionException(cause);
+                })
+                .thenApply(matches -> {
+                    if (!matches) {
+                        return null;
+                    }
+                    int logRounds = calibratedLogRounds();
+                    if (needsRehash(hash, logRounds)) {
+                        // upgrade in the background; the login does not wait for it, and the
+                        // new hash is only handed over, for the caller's thread to swap in
+                        BlowfishCipher.hashPasswordAsync(password, BlowfishCipher.gensalt(logRounds))
+                                .thenAccept(upgraded -> upgradedHashes.put(user, upgraded));
+                    }
+                    return sessions.create(userName, user.getUserID());
+                });
+    }
+
+    /**
+     * Log out a session, invalidating its token
+     *
+     * @param sessionToken is not null
+     * @return true if the token was valid, false otherwise
+     */
+    public boolean logout(String sessionToken) {
+        return sessions.invalidate(sessionToken);
+    }
+
     /**
      * Remove a user from Twitter
      *
@@ -100,10 +393,30 @@ public class PhemeService {
             return false;
         }
         UUID id = usersMap.get(userName).getUserID();
-        usersMap.remove(userName);
+        upgradedHashes.remove(usersMap.remove(userName));
         usersMapByID.remove(id);
-        subscriptions.remove(userName);
-        messages.remove(id);
+        sessions.invalidateUser(userName);
+        TwitterListener listener = subscriptions.remove(userName);
+        TimeDelayQueue queue;
+        synchronized (deliveryLock) {
+            if (listener != null) {
+                tweetRoutes.update(id, listener.getSubscribers(), Map.of());
+            }
+            queue = messages.remove(id);
+            inboxes.remove(id);
+            searchIndexes.remove(id);
+        }
+        if (queue != null) {
+            queue.discardSpilled();
+        }
+        readyQueues.deregister(id);
+        QueuePublisher publisher = inboxPublishers.remove(id);
+        if (publisher != null) {
+            publisher.close();
+        }
+        topics.unsubscribeAll(id);
+        deliveredMessages.forgetReceiver(id);
+        syncPolledAccounts();
 
         if (usersMap.containsKey(userName)) {
             return false;
@@ -130,7 +443,7 @@ public class PhemeService {
             return false;
         }
 
-        return subscriptions.get(userName).cancelSubscription(twitterUserName);
+        return resubscribe(userName, listener -> listener.cancelSubscription(twitterUserName));
     }
 
     /**
@@ -153,7 +466,7 @@ public class PhemeService {
             return false;
         }
 
-        return subscriptions.get(userName).cancelSubscription(twitterUserName, pattern);
+        return resubscribe(userName, listener -> listener.cancelSubscription(twitterUserName, pattern));
     }
 
     /**
@@ -175,7 +488,7 @@ public class PhemeService {
             return false;
         }
 
-        return subscriptions.get(userName).addSubscription(twitterUserName);
+        return resubscribe(userName, listener -> listener.addSubscription(twitterUserName));
     }
 
     /**
@@ -198,7 +511,7 @@ public class PhemeService {
             return false;
         }
 
-        return subscriptions.get(userName).addSubscription(twitterUserName, pattern);
+        return resubscribe(userName, listener -> listener.addSubscription(twitterUserName, pattern));
     }
 
 
@@ -208,7 +521,8 @@ public class PhemeService {
      * @param userName     is a valid username
      * @param hashPassword is not null
      * @param msg          is not null
-     * @return true if message sent successfully, false otherwise
+     * @return true if at least one receiver's queue took the message, false if the user or password
+     * is not valid or every receiver was unknown or refused it
      */
     public boolean sendMessage(String userName,
                                String hashPassword,
@@ -219,33 +533,226 @@ public class PhemeService {
         if (!usersMap.get(userName).getPassword().equals(hashPassword)) {
             return false;
         }
+        return send(msg);
+    }
+
+    /**
+     * Send a message on behalf of a logged-in user
+     *
+     * @param sessionToken is a token returned by login
+     * @param msg          is not null
+     * @return true if at least one receiver's queue took the message, false if the token is not
+     * valid, the message is not sent by the session's user, or every receiver was unknown or refused it
+     */
+    public boolean sendMessage(String sessionToken, PubSubMessage msg) {
+        SessionTable.Session session = sessions.lookup(sessionToken);
+        if (session == null || !session.getUserID().equals(msg.getSender())) {
+            return false;
+        }
+        return send(msg);
+    }
+
+    /**
+     * Subscribe a user to a topic, or to every topic matching a pattern in which "*" stands for
+     * one level and a final "#" for any number of levels, e.g. "team.*.alerts" or "team.#"
+     *
+     * @param userName     is not null
+     * @param hashPassword is not null
+     * @param pattern      is a valid pattern
+     * @return true if the user was not already subscribed to the pattern, false if they were or
+     * the user or password is not valid
+     * @throws IllegalArgumentException if the pattern is not valid
+     */
+    public boolean subscribeTopic(String userName, String hashPassword, String pattern) {
+        if (!usersMap.containsKey(userName)) {
+            return false;
+        }
+        if (!Objects.equals(usersMap.get(userName).getPassword(), hashPassword)) {
+            return false;
+        }
+        return topics.subscribe(usersMap.get(userName).getUserID(), pattern);
+    }
 
+    /**
+     * Subscribe a logged-in user to a topic or pattern
+     *
+     * @param sessionToken is a token returned by login
+     * @param pattern      is a valid pattern
+     * @return true if the user was not already subscribed to the pattern, false if they were or
+     * the token is not valid
+     * @throws IllegalArgumentException if the pattern is not valid
+     */
+    public boolean subscribeTopic(String sessionToken, String pattern) {
+        SessionTable.Session session = sessions.lookup(sessionToken);
+        if (session == null) {
+            return false;
+        }
+        return topics.subscribe(session.getUserID(), pattern);
+    }
+
+    /**
+     * Unsubscribe a user from a topic or pattern
+     *
+     * @param userName     is not null
+     * @param hashPassword is not null
+     * @param pattern      is a valid pattern
+     * @return true if the user was subscribed to the pattern, false if not or the user or
+     * password is not valid
+     * @throws IllegalArgumentException if the pattern is not valid
+     */
+    public boolean unsubscribeTopic(String userName, String hashPassword, String pattern) {
+        if (!usersMap.containsKey(userName)) {
+            return false;
+        }
+        if (!Objects.equals(usersMap.get(userName).getPassword(), hashPassword)) {
+            return false;
+        }
+        return topics.unsubscribe(usersMap.get(userName).getUserID(), pattern);
+    }
+
+    /**
+     * Unsubscribe a logged-in user from a topic or pattern
+     *
+     * @param sessionToken is a token returned by login
+     * @param pattern      is a valid pattern
+     * @return true if the user was subscribed to the pattern, false if not or the token is not valid
+     * @throws IllegalArgumentException if the pattern is not valid
+     */
+    public boolean unsubscribeTopic(String sessionToken, String pattern) {
+        SessionTable.Session session = sessions.lookup(sessionToken);
+        if (session == null) {
+            return false;
+        }
+        return topics.unsubscribe(session.getUserID(), pattern);
+    }
+
+    /**
+     * Publish a message to a topic. The message is created once, addressed to every user
+     * subscribed to a matching pattern, and shared by all of their queues
+     *
+     * @param userName     is not null
+     * @param hashPassword is not null
+     * @param topic        is a valid topic, without wildcards
+     * @param content      is not null
+     * @return the message sent, which may have no receivers; null if the user or password is not valid
+     * @throws IllegalArgumentException if the topic is not valid
+     */
+    public PubSubMessage publish(String userName, String hashPassword, String topic, String content) {
+        if (!usersMap.containsKey(userName)) {
+            return null;
+        }
+        if (!Objects.equals(usersMap.get(userName).getPassword(), hashPassword)) {
+            return null;
+        }
+        return publish(usersMap.get(userName).getUserID(), topic, content);
+    }
+
+    /**
+     * Publish a message to a topic on behalf of a logged-in user
+     *
+     * @param sessionToken is a token returned by login
+     * @param topic        is a valid topic, without wildcards
+     * @param content      is not null
+     * @return the message sent, which may have no receivers; null if the token is not valid
+     * @throws IllegalArgumentException if the topic is not valid
+     */
+    public PubSubMessage publish(String sessionToken, String topic, String content) {
+        SessionTable.Session session = sessions.lookup(sessionToken);
+        if (session == null) {
+            return null;
+        }
+        return publish(session.getUserID(), topic, content);
+    }
+
+    private PubSubMessage publish(UUID sender, String topic, String content) {
+        PubSubMessage msg = new TopicPubSubMessage(sender, new ArrayList<>(topics.route(topic)), content, topic);
+        // a topic may have no subscribers, or only ones whose queues are full; it is published all the same
+        send(msg);
+        return msg;
+    }
+
+    // queue a message for each of its receivers; false if none of them took it
+    private boolean send(PubSubMessage msg) {
+        // only receivers whose queue took the message are tracked, so a refused receiver never
+        // counts as reached once a newer message raises their watermark
+        List<UUID> reached = new ArrayList<>();
         for (UUID user : msg.getReceiver()) {
-            messages.get(user).add(msg);
+            if (enqueue(user, msg)) {
+                reached.add(user);
+            }
+        }
+        long timestamp = msg.getTimestamp().getTime();
+        deliveredMessages.record(msg.getId(), timestamp, reached);
+        for (UUID user : reached) {
+            deliveredMessages.markDelivered(msg.getId(), timestamp, user);
+        }
+        return !reached.isEmpty();
+    }
+
+    // add a message to a user's queue and indexes; false if there is no such user or the queue refused it
+    private boolean enqueue(UUID receiver, PubSubMessage msg) {
+        TimeDelayQueue queue = messages.get(receiver);
+        if (queue == null) {
+            return false;
+        }
+        AddResult result = queue.offer(msg);
+        if (result == AddResult.REJECTED) {
+            return false;
+        }
+        if (result.isAccepted()) {
+            inboxes.get(receiver).add(msg);
+            searchIndexes.get(receiver).add(msg);
         }
-        deliveredMessages.put(msg.getId(), msg.getReceiver());
         return true;
     }
 
+    // add batches of messages to users' queues and indexes, returning how many were new;
+    // the accepted ones are marked in seen unless it is null
+    private long enqueueAll(Map<UUID, List<PubSubMessage>> batches, RecentIdFilter seen) {
+        long added = 0;
+        for (Map.Entry<UUID, List<PubSubMessage>> batch : batches.entrySet()) {
+            TimeDelayQueue queue = messages.get(batch.getKey());
+            if (queue != null) {
+                List<AddResult> results = queue.offerAll(batch.getValue());
+                InboxIndex index = inboxes.get(batch.getKey());
+                SearchIndex search = searchIndexes.get(batch.getKey());
+                for (int i = 0; i < results.size(); i++) {
+                    if (results.get(i).isAccepted()) {
+                        added++;
+                        if (seen != null) {
+                            seen.markSeen(batch.getValue().get(i).getId());
+                        }
+                        index.add(batch.getValue().get(i));
+                        search.add(batch.getValue().get(i));
+                    }
+                }
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Add up the overflow counters and usage of every user's queue
+     *
+     * @return the total messages refused, dropped and spilled so far, and the messages and bytes queued now
+     */
+    public OverflowStats getOverflowStats() {
+        OverflowStats total = OverflowStats.NONE;
+        for (TimeDelayQueue queue : messages.values()) {
+            total = total.plus(queue.getOverflowStats());
+        }
+        return total;
+    }
+
     /**
      * Checking if users receive a tweet
      *
      * @param msgID    is not null
      * @param userList is a list of users receiving the message and is not null
-     * @return true if message was delivered successfully, false otherwise
+     * @return for each user, in order, true if message was delivered successfully, false otherwise
      */
     public List<Boolean> isDelivered(UUID msgID, List<UUID> userList) {
-        List<Boolean> isDelivered = new ArrayList<>();
-        if (deliveredMessages.containsKey(msgID)) {
-            for (UUID user : userList) {
-                if (!deliveredMessages.get(msgID).contains(user)) {
-                    isDelivered.add(false);
-                } else {
-                    isDelivered.add(true);
-                }
-            }
-        }
-        return isDelivered;
+        return deliveredMessages.isDelivered(msgID, userList);
     }
 
     /**
@@ -256,12 +763,7 @@ public class PhemeService {
      * @return true if message was delivered successfully, false otherwise
      */
     public boolean isDelivered(UUID msgID, UUID user) {
-        if (deliveredMessages.containsKey(msgID)) {
-            if (deliveredMessages.get(msgID).contains(user)) {
-                return true;
-            }
-        }
-        return false;
+        return deliveredMessages.isDelivered(msgID, user);
     }
 
     /**
@@ -292,27 +794,44 @@ public class PhemeService {
         if (!usersMap.get(userName).getPassword().equals(hashPassword)) {
             return PubSubMessage.NO_MSG;
         }
-        if (subscriptions.containsKey(userName)) {
-            for (TweetV2.TweetData tweet : subscriptions.get(userName).getRecentTweets()) {
-                PubSubMessage msg = new PubSubMessage(UUID.randomUUID(), Timestamp.valueOf(tweet.getCreatedAt()),
-                        UUID.nameUUIDFromBytes(tweet.getAuthorId().getBytes()), usersMap.get(userName).getUserID(),
-                        tweet.getText(), BasicMessageType.TWEET);
-                messages.get(usersMap.get(userName).getUserID()).add(msg);
-            }
+        return next(userName);
+    }
+
+    /**
+     * Get the next message in chronological order for a logged-in user
+     *
+     * @param sessionToken is a token returned by login
+     * @return active message that is next in chronological order, NO_MSG if the token is not valid
+     */
+    public PubSubMessage getNext(String sessionToken) {
+        SessionTable.Session session = sessions.lookup(sessionToken);
+        if (session == null) {
+            return PubSubMessage.NO_MSG;
+        }
+        return next(session.getUserName());
+    }
+
+    // without a poller, fetch the user's tweets and wait for them to become deliverable; while
+    // upstream is degraded, serve what is already queued without waiting on it
+    private void awaitFetchedTweets(String userName) {
+        if (poller == null && subscriptions.containsKey(userName) && fetchRecentTweets(userName)) {
             try {
                 Thread.sleep(DELAY);
-            } catch (InterruptedException e) {
-                System.out.println("fail");
+            }
+            catch (InterruptedException e) {
+                // serve what is deliverable now, leaving the interrupt for the caller to see
+                Thread.currentThread().interrupt();
             }
         }
+    }
 
-        PubSubMessage next = messages.get(usersMap.get(userName).getUserID()).getNext();
+    private PubSubMessage next(String userName) {
+        awaitFetchedTweets(userName);
 
-        if (!deliveredMessages.containsKey((next.getId()))) {
-            deliveredMessages.put(next.getId(), new ArrayList<>(List.of(usersMap.get(userName).getUserID())));
-        }
-        else {
-            deliveredMessages.get(next.getId()).add(usersMap.get(userName).getUserID());
+        UUID userID = usersMap.get(userName).getUserID();
+        PubSubMessage next = messages.get(userID).getNext();
+        if (!next.equals(PubSubMessage.NO_MSG)) {
+            deliveredMessages.markDelivered(next.getId(), next.getTimestamp().getTime(), userID);
         }
         return next;
     }
@@ -331,33 +850,579 @@ public class PhemeService {
         if (!usersMap.get(userName).getPassword().equals(hashPassword)) {
             return new ArrayList<>();
         }
+        return allRecent(userName);
+    }
+
+    /**
+     * Get the all recent messages since last check for a logged-in user
+     *
+     * @param sessionToken is a token returned by login
+     * @return list of subscribed messages since the last check, empty if the token is not valid
+     */
+    public List<PubSubMessage> getAllRecent(String sessionToken) {
+        SessionTable.Session session = sessions.lookup(sessionToken);
+        if (session == null) {
+            return new ArrayList<>();
+        }
+        return allRecent(session.getUserName());
+    }
+
+    private List<PubSubMessage> allRecent(String userName) {
+        awaitFetchedTweets(userName);
+
+        List<PubSubMessage> listOfStuff = new ArrayList<>();
+        UUID userID = usersMap.get(userName).getUserID();
+
+        PubSubMessage temporaryMessage = messages.get(userID).getNext();
+
+        while (!temporaryMessage.equals(PubSubMessage.NO_MSG)) {
+            listOfStuff.add(temporaryMessage);
+            deliveredMessages.markDelivered(temporaryMessage.getId(), temporaryMessage.getTimestamp().getTime(), userID);
+            temporaryMessage = messages.get(userID).getNext();
+        }
 
-        if (subscriptions.containsKey(userName)) {
-            for (TweetV2.TweetData tweet : subscriptions.get(userName).getRecentTweets()) {
-                PubSubMessage msg = new PubSubMessage(UUID.randomUUID(), Timestamp.valueOf(tweet.getCreatedAt()),
-                        UUID.nameUUIDFromBytes(tweet.getAuthorId().getBytes()), usersMap.get(userName).getUserID(),
-                        tweet.getText(), BasicMessageType.TWEET);
-                messages.get(usersMap.get(userName).getUserID()).add(msg);
+        return listOfStuff;
+    }
+
+    /**
+     * Get one page of recent messages, removing them from the user's queue. A read starts
+     * with a null cursor and continues with each page's next cursor; it returns only messages
+     * that were already active when it started, so it ends even while new messages arrive.
+     *
+     * @param userName     is not null
+     * @param hashPassword is not null
+     * @param limit        the most messages in the page, > 0
+     * @param cursor       is null to start a read, or the next cursor of the previous page
+     * @return the page, empty with no next cursor if the user or password is not valid
+     */
+    public InboxPage getRecent(String userName, String hashPassword, int limit, String cursor) {
+        if (!usersMap.containsKey(userName)) {
+            return InboxPage.EMPTY;
+        }
+        if (!usersMap.get(userName).getPassword().equals(hashPassword)) {
+            return InboxPage.EMPTY;
+        }
+        return recent(userName, limit, cursor);
+    }
+
+    /**
+     * Get one page of recent messages for a logged-in user, removing them from their queue
+     *
+     * @param sessionToken is a token returned by login
+     * @param limit        the most messages in the page, > 0
+     * @param cursor       is null to start a read, or the next cursor of the previous page
+     * @return the page, empty with no next cursor if the token is not valid
+     */
+    public InboxPage getRecent(String sessionToken, int limit, String cursor) {
+        SessionTable.Session session = sessions.lookup(sessionToken);
+        if (session == null) {
+            return InboxPage.EMPTY;
+        }
+        return recent(session.getUserName(), limit, cursor);
+    }
+
+    /**
+     * Stream recent messages for a logged-in user, reading one page at a time as the stream is
+     * consumed, so that at most <code>pageSize</code> messages are held at once
+     *
+     * @param sessionToken is a token returned by login
+     * @param pageSize     the most messages read from the queue at once, > 0
+     * @return the messages that were active when the stream was opened, in chronological order;
+     * a message is removed from the queue when its page is read
+     */
+    public Stream<PubSubMessage> streamRecent(String sessionToken, int pageSize) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterateRecent(sessionToken, pageSize),
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Iterate over recent messages for a logged-in user, reading one page at a time
+     *
+     * @param sessionToken is a token returned by login
+     * @param pageSize     the most messages read from the queue at once, > 0
+     * @return an iterator over the messages that were active when it was created
+     */
+    public Iterator<PubSubMessage> iterateRecent(String sessionToken, int pageSize) {
+        return new Iterator<>() {
+            private InboxPage page = getRecent(sessionToken, pageSize, null);
+            private Iterator<PubSubMessage> current = page.getMessages().iterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && page.hasMore()) {
+                    page = getRecent(sessionToken, pageSize, page.getNextCursor());
+                    current = page.getMessages().iterator();
+                }
+                return current.hasNext();
             }
 
+            @Override
+            public PubSubMessage next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    /**
+     * Wait until some users have active messages, take those messages from their queues and hand
+     * each user's messages to a sink, e.g. to push them over the user's connection. Any number of
+     * worker threads may call this at once; each user is served by one of them at a time
+     *
+     * @param timeoutMillis      the longest time to wait for active messages, in milliseconds
+     * @param maxUsers           the most users to serve in this call, > 0
+     * @param maxMessagesPerUser the most messages handed on per user, > 0; a user with more active
+     *                           messages is ready again at once, to be served by a later call
+     * @param sink               receives each served user's ID and active messages in chronological order
+     * @return the number of users whose messages were handed to the sink, 0 if none were ready in time
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public int deliverReady(long timeoutMillis, int maxUsers, int maxMessagesPerUser,
+                            BiConsumer<UUID, List<PubSubMessage>> sink) throws InterruptedException {
+        if (maxMessagesPerUser <= 0) {
+            throw new IllegalArgumentException("maxMessagesPerUser must be positive: " + maxMessagesPerUser);
+        }
+        int served = 0;
+        for (Map.Entry<UUID, TimeDelayQueue> ready : readyQueues.select(timeoutMillis, maxUsers).entrySet()) {
+            UUID userID = ready.getKey();
             try {
-                Thread.sleep(DELAY);
+                List<PubSubMessage> batch = ready.getValue().getNext(maxMessagesPerUser, System.currentTimeMillis());
+                if (batch.isEmpty()) {
+                    continue;
+                }
+                for (PubSubMessage msg : batch) {
+                    deliveredMessages.markDelivered(msg.getId(), msg.getTimestamp().getTime(), userID);
+                }
+                sink.accept(userID, batch);
+                served++;
             }
-            catch (InterruptedException e) {
-                System.out.println("it did not meet the delay.");
+            finally {
+                // makes the user ready again at once if messages beyond the batch are still active
+                readyQueues.rearm(userID);
             }
+        }
+        return served;
+    }
 
+    /**
+     * Make every thread blocked in deliverReady return at once, e.g. to shut workers down
+     */
+    public void wakeDeliveryWorkers() {
+        readyQueues.wakeup();
+    }
+
+    /**
+     * Get a publisher that pushes a user's messages to Flow subscribers as they become active,
+     * honouring each subscriber's demand; messages not yet requested stay in the user's queue.
+     * Subscriptions are completed when the user is removed
+     *
+     * @param userName     is not null
+     * @param hashPassword is not null
+     * @param executor     runs the tasks that signal subscribers, e.g. a virtual-thread-per-task
+     *                     executor or a small pool; is not null
+     * @return a publisher of the user's messages, null if the user or password is not valid
+     */
+    public Flow.Publisher<PubSubMessage> inboxPublisher(String userName, String hashPassword, Executor executor) {
+        if (!usersMap.containsKey(userName)) {
+            return null;
+        }
+        if (!usersMap.get(userName).getPassword().equals(hashPassword)) {
+            return null;
         }
+        return inboxPublisher(usersMap.get(userName).getUserID(), executor);
+    }
 
-        List<PubSubMessage> listOfStuff = new ArrayList<>();
+    /**
+     * Get a publisher that pushes a logged-in user's messages to Flow subscribers as they become active
+     *
+     * @param sessionToken is a token returned by login
+     * @param executor     runs the tasks that signal subscribers, is not null
+     * @return a publisher of the user's messages, null if the token is not valid
+     */
+    public Flow.Publisher<PubSubMessage> inboxPublisher(String sessionToken, Executor executor) {
+        SessionTable.Session session = sessions.lookup(sessionToken);
+        if (session == null) {
+            return null;
+        }
+        return inboxPublisher(session.getUserID(), executor);
+    }
 
-        PubSubMessage temporaryMessage = messages.get(usersMap.get(userName).getUserID()).getNext();
+    // one QueuePublisher, and so one readiness listener, per user however often this is called;
+    // each caller's subscribers are signalled on the caller's executor
+    private Flow.Publisher<PubSubMessage> inboxPublisher(UUID userID, Executor executor) {
+        QueuePublisher publisher = inboxPublishers.get(userID);
+        if (publisher == null) {
+            publisher = new QueuePublisher(messages.get(userID), executor,
+                    msg -> deliveredMessages.markDelivered(msg.getId(), msg.getTimestamp().getTime(), userID));
+            inboxPublishers.put(userID, publisher);
+        }
+        QueuePublisher shared = publisher;
+        return subscriber -> shared.subscribe(subscriber, executor);
+    }
 
-        while (!temporaryMessage.equals(PubSubMessage.NO_MSG)) {
-            listOfStuff.add(temporaryMessage);
-            temporaryMessage = messages.get(usersMap.get(userName).getUserID()).getNext();
+    /**
+     * Find a user's recent messages by sender, type and time range without removing them from
+     * their queue; messages that were already read stay searchable for a week
+     *
+     * @param userName     is not null
+     * @param hashPassword is not null
+     * @param sender       only messages from this sender, or null for any sender
+     * @param type         only messages of this type, or null for any type
+     * @param from         only messages at or after this time, or null for no lower bound
+     * @param to           only messages at or before this time, or null for no upper bound
+     * @param limit        the most messages to return, > 0
+     * @return active matching messages in chronological order, empty if the user or password is not valid
+     */
+    public List<PubSubMessage> findMessages(String userName, String hashPassword, UUID sender,
+                                            MessageType type, Timestamp from, Timestamp to, int limit) {
+        if (!usersMap.containsKey(userName)) {
+            return new ArrayList<>();
+        }
+        if (!usersMap.get(userName).getPassword().equals(hashPassword)) {
+            return new ArrayList<>();
         }
+        return find(usersMap.get(userName).getUserID(), sender, type, from, to, limit);
+    }
 
-        return listOfStuff;
+    /**
+     * Find a logged-in user's recent messages by sender, type and time range without removing
+     * them from their queue
+     *
+     * @param sessionToken is a token returned by login
+     * @param sender       only messages from this sender, or null for any sender
+     * @param type         only messages of this type, or null for any type
+     * @param from         only messages at or after this time, or null for no lower bound
+     * @param to           only messages at or before this time, or null for no upper bound
+     * @param limit        the most messages to return, > 0
+     * @return active matching messages in chronological order, empty if the token is not valid
+     */
+    public List<PubSubMessage> findMessages(String sessionToken, UUID sender, MessageType type,
+                                            Timestamp from, Timestamp to, int limit) {
+        SessionTable.Session session = sessions.lookup(sessionToken);
+        if (session == null) {
+            return new ArrayList<>();
+        }
+        return find(session.getUserID(), sender, type, from, to, limit);
+    }
+
+    private List<PubSubMessage> find(UUID userID, UUID sender, MessageType type,
+                                     Timestamp from, Timestamp to, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive: " + limit);
+        }
+        // like getNext, only show messages that have been in the system for DELAY
+        Timestamp active = new Timestamp(System.currentTimeMillis() - DELAY);
+        if (to == null || to.after(active)) {
+            to = active;
+        }
+        return inboxes.get(userID).query(sender, type, from, to, limit);
+    }
+
+    /**
+     * Search the content of a user's messages, read or not, for every word of a query
+     *
+     * @param userName     is not null
+     * @param hashPassword is not null
+     * @param query        words to look for; case and punctuation are ignored
+     * @param limit        the most messages to return, > 0
+     * @return active messages containing every word of the query, the most recently received
+     * first; empty if the user or password is not valid
+     */
+    public List<PubSubMessage> search(String userName, String hashPassword, String query, int limit) {
+        if (!usersMap.containsKey(userName)) {
+            return new ArrayList<>();
+        }
+        if (!usersMap.get(userName).getPassword().equals(hashPassword)) {
+            return new ArrayList<>();
+        }
+        return search(usersMap.get(userName).getUserID(), query, limit);
+    }
+
+    /**
+     * Search the content of a logged-in user's messages, read or not, for every word of a query
+     *
+     * @param sessionToken is a token returned by login
+     * @param query        words to look for; case and punctuation are ignored
+     * @param limit        the most messages to return, > 0
+     * @return active messages containing every word of the query, the most recently received
+     * first; empty if the token is not valid
+     */
+    public List<PubSubMessage> search(String sessionToken, String query, int limit) {
+        SessionTable.Session session = sessions.lookup(sessionToken);
+        if (session == null) {
+            return new ArrayList<>();
+        }
+        return search(session.getUserID(), query, limit);
+    }
+
+    private List<PubSubMessage> search(UUID userID, String query, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive: " + limit);
+        }
+        return searchIndexes.get(userID).search(query, limit, System.currentTimeMillis() - DELAY);
+    }
+
+    private InboxPage recent(String userName, int limit, String cursor) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive: " + limit);
+        }
+        long horizon;
+        if (cursor == null) {
+            awaitFetchedTweets(userName);
+            horizon = System.currentTimeMillis();
+        }
+        else {
+            horizon = decodeCursor(cursor);
+        }
+
+        UUID userID = usersMap.get(userName).getUserID();
+        List<PubSubMessage> page = messages.get(userID).getNext(limit, horizon);
+        for (PubSubMessage msg : page) {
+            deliveredMessages.markDelivered(msg.getId(), msg.getTimestamp().getTime(), userID);
+        }
+        return new InboxPage(page, page.size() == limit ? encodeCursor(horizon) : null);
+    }
+
+    // a cursor records the time its read started, so later pages skip messages that became active since
+    private static String encodeCursor(long horizon) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(ByteBuffer.allocate(Long.BYTES).putLong(horizon).array());
+    }
+
+    private static long decodeCursor(String cursor) {
+        byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(cursor);
+        }
+        catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("malformed cursor: " + cursor, e);
+        }
+        if (bytes.length != Long.BYTES) {
+            throw new IllegalArgumentException("malformed cursor: " + cursor);
+        }
+        return Math.min(ByteBuffer.wrap(bytes).getLong(), System.currentTimeMillis());
+    }
+
+    /**
+     * Seed inboxes from an archive of tweets, one tweet JSON object per line, delivering each
+     * tweet to every user whose subscriptions it matches. Tweets delivered recently are not
+     * delivered again, and backfilled tweets are not delivered again when fetched from Twitter;
+     * lines that cannot be parsed are skipped and counted
+     *
+     * @param archive is a file of tweet JSON lines
+     * @return the number of messages added to user queues
+     */
+    public long backfill(File archive) {
+        ArchiveBackfill backfill = new ArchiveBackfill();
+        for (Map.Entry<String, TwitterListener> entry : subscriptions.entrySet()) {
+            UUID receiver = usersMap.get(entry.getKey()).getUserID();
+            for (Map.Entry<String, List<String>> subscription : entry.getValue().getSubscribers().entrySet()) {
+                backfill.subscribe(subscription.getKey(), receiver, subscription.getValue());
+            }
+        }
+
+        long[] added = new long[1];
+        try {
+            backfill.run(archive, Runtime.getRuntime().availableProcessors(), batches -> {
+                for (List<PubSubMessage> batch : batches.values()) {
+                    batch.removeIf(msg -> isTweetSeen(msg.getId()));
+                }
+                added[0] += enqueueAll(batches, backfilledTweets);
+            });
+        }
+        finally {
+            malformedArchiveLines += backfill.getMalformedLines();
+        }
+        return added[0];
+    }
+
+    // whether a tweet message was queued recently, by a fetch or by a backfill
+    private boolean isTweetSeen(UUID msgID) {
+        return recentTweets.contains(msgID) || backfilledTweets.contains(msgID);
+    }
+
+    /**
+     * Get the number of archive lines backfills skipped because they could not be parsed
+     *
+     * @return the number of malformed lines over every backfill so far
+     */
+    public long getMalformedArchiveLines() {
+        return malformedArchiveLines;
+    }
+
+    /**
+     * Write every queued message to a new encrypted journal segment, and delete the
+     * older segments it supersedes
+     *
+     * @param journal is not null
+     * @return the number of distinct messages written
+     */
+    public int checkpoint(MessageJournal journal) {
+        List<String> superseded = journal.getSegments();
+        // a message sent to several users is written once, addressed to those who have not read it yet
+        Map<PubSubMessage, List<UUID>> pending = new LinkedHashMap<>();
+        messages.forEach((receiver, queue) -> {
+            for (PubSubMessage msg : queue.getPending()) {
+                pending.computeIfAbsent(msg, m -> new ArrayList<>()).add(receiver);
+            }
+        });
+        journal.writeSegment(pending.keySet(), pending);
+        for (String segment : superseded) {
+            journal.deleteSegment(segment);
+        }
+        return pending.size();
+    }
+
+    /**
+     * Queue every message in a journal for its receivers
+     *
+     * @param journal is not null
+     * @return the number of messages added to user queues
+     */
+    public long restore(MessageJournal journal) {
+        Map<UUID, List<PubSubMessage>> recovered = new HashMap<>();
+        journal.recover(msg -> {
+            for (UUID receiver : msg.getReceiver()) {
+                recovered.computeIfAbsent(receiver, id -> new ArrayList<>()).add(msg);
+            }
+        });
+        return enqueueAll(recovered, null);
+    }
+
+    /**
+     * Wrap every newly fetched tweet for a user in a message and add it to their queue,
+     * dropping tweets that were already delivered to that user recently
+     *
+     * @param userName is a valid user with a TwitterListener
+     * @return true if every subscribed Twitter user could be reached, false if the tweet source is degraded
+     */
+    private boolean fetchRecentTweets(String userName) {
+        enqueueTweets(usersMap.get(userName).getUserID(), subscriptions.get(userName).getRecentTweets());
+        return subscriptions.get(userName).isUpstreamAvailable();
+    }
+
+    // wrap tweets in messages for a receiver and queue those not delivered to them recently
+    private void enqueueTweets(UUID receiver, List<TweetV2.TweetData> tweets) {
+        for (TweetV2.TweetData tweet : tweets) {
+            UUID msgID = tweetMessageID(tweet.getId(), receiver);
+            if (isTweetSeen(msgID)) {
+                continue;
+            }
+            PubSubMessage msg = new PubSubMessage(msgID, Timestamp.valueOf(tweet.getCreatedAt()),
+                    UUID.nameUUIDFromBytes(tweet.getAuthorId().getBytes()), receiver,
+                    tweet.getText(), BasicMessageType.TWEET);
+            // a tweet the queue refused is not marked seen, so the next fetch offers it again
+            if (enqueue(receiver, msg)) {
+                recentTweets.markSeen(msgID);
+            }
+        }
+    }
+
+    /**
+     * Poll subscribed Twitter accounts in the background instead of on every read. Each account is
+     * polled at an interval that follows its tweet rate, within a budget of upstream calls shared by
+     * all accounts, and reads no longer wait on Twitter: they deliver whatever was polled since the
+     * last read to every user whose subscriptions match it
+     *
+     * @param budget            limits the rate of upstream calls across all accounts, is not null
+     * @param minIntervalMillis the shortest time between two polls of an account, > 0
+     * @param maxIntervalMillis the longest time between two polls of an account, >= minIntervalMillis
+     * @return true if polling started, false if it was already running
+     */
+    public boolean startPolling(TokenBucket budget, long minIntervalMillis, long maxIntervalMillis) {
+        if (poller != null) {
+            return false;
+        }
+        poller = new PollingScheduler(tweetSource, this::deliverPolledTweets,
+                budget, minIntervalMillis, maxIntervalMillis);
+        syncPolledAccounts();
+        poller.start();
+        return true;
+    }
+
+    /**
+     * Stop background polling and go back to fetching tweets on each read
+     */
+    public void stopPolling() {
+        if (poller == null) {
+            return;
+        }
+        poller.stop();
+        poller = null;
+        polledAccounts.clear();
+    }
+
+    /**
+     * Get the poller started by startPolling, e.g. to read its freshness lags and counters
+     *
+     * @return the poller, or null if background polling is not running
+     */
+    public PollingScheduler getPoller() {
+        return poller;
+    }
+
+    // queue polled tweets for the users whose subscriptions ask for them, scanning each tweet once;
+    // runs on the poller thread as soon as the tweets are fetched, so push consumers get them too
+    private void deliverPolledTweets(String twitterUserID, List<TweetV2.TweetData> tweets) {
+        synchronized (deliveryLock) {
+            Map<UUID, List<TweetV2.TweetData>> byReceiver = new HashMap<>();
+            for (TweetV2.TweetData tweet : tweets) {
+                for (UUID receiver : tweetRoutes.route(twitterUserID, tweet.getText())) {
+                    byReceiver.computeIfAbsent(receiver, id -> new ArrayList<>()).add(tweet);
+                }
+            }
+            byReceiver.forEach(this::enqueueTweets);
+        }
+    }
+
+    // change a user's subscriptions and, if they changed, route tweets and poll accounts accordingly
+    private boolean resubscribe(String userName, Predicate<TwitterListener> change) {
+        TwitterListener listener = subscriptions.get(userName);
+        Map<String, List<String>> before = TweetRouter.snapshot(listener.getSubscribers());
+        if (!change.test(listener)) {
+            return false;
+        }
+        synchronized (deliveryLock) {
+            tweetRoutes.update(usersMap.get(userName).getUserID(), before, listener.getSubscribers());
+        }
+        syncPolledAccounts();
+        return true;
+    }
+
+    // register every subscribed account with the poller, weighted by its number of subscribers, and
+    // unregister accounts nobody subscribes to any more
+    private void syncPolledAccounts() {
+        if (poller == null) {
+            return;
+        }
+        Map<String, Integer> subscribers = new HashMap<>();
+        for (TwitterListener listener : subscriptions.values()) {
+            for (String account : listener.getSubscribers().keySet()) {
+                subscribers.merge(account, 1, Integer::sum);
+            }
+        }
+        for (Map.Entry<String, Integer> account : subscribers.entrySet()) {
+            poller.register(account.getKey(), account.getValue(), TwitterListener.FIRST_FETCH_START);
+        }
+        for (String account : polledAccounts) {
+            if (!subscribers.containsKey(account)) {
+                poller.unregister(account);
+            }
+        }
+        polledAccounts = new HashSet<>(subscribers.keySet());
+    }
+
+    /**
+     * Derive the message ID for a tweet delivered to a receiver, so that the same tweet
+     * fetched twice for the same receiver always maps to the same message
+     *
+     * @param tweetID  is not null
+     * @param receiver is not null
+     * @return a name-based UUID for the (tweet, receiver) pair
+     */
+    public static UUID tweetMessageID(String tweetID, UUID receiver) {
+        return UUID.nameUUIDFromBytes((tweetID + ":" + receiver).getBytes(StandardCharsets.UTF_8));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,106 @@
+package pheme;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/* Class Description:
+ * Remembers the message IDs seen over a sliding time window so that re-fetched tweets
+ * can be dropped before they reach a TimeDelayQueue.
+ *
+ * Rep Invariant & Abstraction Function:
+ * buckets.length >= 2 && bucketMillis > 0 && maxIdsPerBucket > 0
+ * buckets[current].size() <= maxIdsPerBucket
+ * the set of recently seen IDs is the union of all buckets; buckets[current] holds the IDs
+ * first seen since currentStart, and older buckets are cleared as the window slides past them
+ *
+ * Thread Safety Argument:
+ * Every method that reads or writes the buckets is synchronized
+ * */
+public class RecentIdFilter {
+
+    private final Set<UUID>[] buckets;
+    private final long bucketMillis;
+    private final int maxIdsPerBucket;
+
+    private int current;
+    private long currentStart;
+
+    /**
+     * Create a new RecentIdFilter
+     *
+     * @param numBuckets      the number of buckets the window is split into, >= 2
+     * @param bucketMillis    how long, in milliseconds, each bucket stays current, > 0
+     * @param maxIdsPerBucket the most IDs a bucket may hold before the window slides early, > 0
+     */
+    @SuppressWarnings("unchecked")
+    public RecentIdFilter(int numBuckets, long bucketMillis, int maxIdsPerBucket) {
+        this.buckets = new Set[numBuckets];
+        for (int i = 0; i < numBuckets; i++) {
+            buckets[i] = new HashSet<>();
+        }
+        this.bucketMillis = bucketMillis;
+        this.maxIdsPerBucket = maxIdsPerBucket;
+        this.current = 0;
+        this.currentStart = System.currentTimeMillis();
+    }
+
+    /**
+     * Record an ID as seen
+     *
+     * @param id is not null
+     * @return true if the ID was not seen within the window, false if it is a repeat
+     */
+    public synchronized boolean markSeen(UUID id) {
+        for (Set<UUID> bucket : buckets) {
+            if (bucket.contains(id)) {
+                return false;
+            }
+        }
+        slide(System.currentTimeMillis());
+        buckets[current].add(id);
+        return true;
+    }
+
+    /**
+     * Check whether an ID was seen within the window
+     *
+     * @param id is not null
+     * @return true if the ID was seen recently, false otherwise
+     */
+    public synchronized boolean contains(UUID id) {
+        for (Set<UUID> bucket : buckets) {
+            if (bucket.contains(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the number of IDs currently remembered
+     *
+     * @return the number of IDs across all buckets
+     */
+    public synchronized int size() {
+        int size = 0;
+        for (Set<UUID> bucket : buckets) {
+            size += bucket.size();
+        }
+        return size;
+    }
+
+    // advance the current bucket, clearing the oldest ones, once it is too old or too full
+    private void slide(long now) {
+        long elapsed = (now - currentStart) / bucketMillis;
+        if (elapsed == 0 && buckets[current].size() < maxIdsPerBucket) {
+            return;
+        }
+        long steps = Math.max(1, Math.min(elapsed, buckets.length));
+        for (long i = 0; i < steps; i++) {
+            current = (current + 1) % buckets.length;
+            buckets[current].clear();
+        }
+        currentStart = now;
+    }
+}
@@ -0,0 +1,488 @@
+package pheme;
+
+import timedelayqueue.PubSubMessage;
+import timedelayqueue.QueueCapacity;
+import timedelayqueue.TransientPubSubMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/* Class Description:
+ * A full-text index over the content of one user's messages. Every message added gets the next
+ * document number, and its content is split into lower-cased runs of letters and digits. New
+ * postings collect in an in-memory buffer that is frozen into an immutable segment every
+ * FLUSH_DOCS messages. A segment keeps its terms sorted and each term's document numbers as
+ * varint-encoded gaps in one shared byte array. Whenever MERGE_FACTOR segments of the same size
+ * class sit next to each other, a background thread merges them into one segment of the next
+ * size class, so the number of segments grows only logarithmically with the number of messages.
+ *
+ * A search matches the messages containing every term of the query and returns the most recently
+ * added first: it walks the buffer and then the segments from newest to oldest, and stops as soon
+ * as it has enough results. The oldest messages are dropped once they are older than the retention
+ * period, or while more than maxDocs messages or more than maxBytes of messages are held; their
+ * postings are skipped by searches and removed by the next merge that covers them. Messages are
+ * dropped in the order they were added, so a search also skips a message that is past the
+ * retention period but was added after a newer one.
+ *
+ * Rep Invariant & Abstraction Function:
+ * retentionMillis > 0 && maxDocs > 0 && maxBytes > 0; docs.get(i) is the message with document
+ * number firstDoc + i, or null if dropped; every document number below minLiveDoc is dropped;
+ * usedBytes is the sum of QueueCapacity.estimateSize over the messages not dropped; segments cover disjoint, ascending ranges of
+ * document numbers below bufferStart, and buffer holds the postings of documents from bufferStart
+ * up to nextDoc
+ *
+ * Thread Safety Argument:
+ * docs, buffer and the segment list are guarded by this index's lock. Segments are immutable, so
+ * the merge thread reads them without the lock and only takes it to swap in the merged segment
+ * */
+public class SearchIndex {
+
+    private static final int FLUSH_DOCS = 4096;
+    private static final int MERGE_FACTOR = 4;
+    private static final int MAX_TOKEN_LENGTH = 64;
+
+    // one merge thread shared by every index; merges are short and independent
+    private static final ExecutorService MERGER = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "search-merge");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // a growable list of document numbers
+    private static class Postings {
+        int[] docs = new int[4];
+        int size;
+
+        void add(int doc) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+            }
+            docs[size++] = doc;
+        }
+    }
+
+    private static class Segment {
+        final String[] terms;
+        final int[] offsets;
+        final int[] counts;
+        final byte[] data;
+        final int maxDoc;
+        final int level;
+
+        Segment(String[] terms, int[] offsets, int[] counts, byte[] data, int maxDoc, int level) {
+            this.terms = terms;
+            this.offsets = offsets;
+            this.counts = counts;
+            this.data = data;
+            this.maxDoc = maxDoc;
+            this.level = level;
+        }
+
+        // the document numbers of a term in ascending order, or null if the term does not occur
+        int[] postings(String term) {
+            int i = Arrays.binarySearch(terms, term);
+            return i < 0 ? null : decode(i);
+        }
+
+        int[] decode(int i) {
+            int[] result = new int[counts[i]];
+            int pos = offsets[i];
+            int doc = 0;
+            for (int n = 0; n < result.length; n++) {
+                int gap = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[pos++];
+                    gap |= (b & 0x7f) << shift;
+                    shift += 7;
+                } while (b < 0);
+                doc += gap;
+                result[n] = doc;
+            }
+            return result;
+        }
+    }
+
+    // builds a segment term by term, in sorted term order
+    private static class SegmentWriter {
+        final List<String> terms = new ArrayList<>();
+        final List<Integer> offsets = new ArrayList<>();
+        final List<Integer> counts = new ArrayList<>();
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        int maxDoc = -1;
+
+        void add(String term, int[] docs, int count) {
+            if (count == 0) {
+                return;
+            }
+            terms.add(term);
+            offsets.add(data.size());
+            counts.add(count);
+            int previous = 0;
+            for (int n = 0; n < count; n++) {
+                int gap = docs[n] - previous;
+                previous = docs[n];
+                while ((gap & ~0x7f) != 0) {
+                    data.write((gap & 0x7f) | 0x80);
+                    gap >>>= 7;
+                }
+                data.write(gap);
+            }
+            maxDoc = Math.max(maxDoc, docs[count - 1]);
+        }
+
+        Segment build(int level) {
+            int[] offsetArray = new int[offsets.size()];
+            int[] countArray = new int[counts.size()];
+            for (int i = 0; i < offsetArray.length; i++) {
+                offsetArray[i] = offsets.get(i);
+                countArray[i] = counts.get(i);
+            }
+            return new Segment(terms.toArray(new String[0]), offsetArray, countArray, data.toByteArray(), maxDoc, level);
+        }
+    }
+
+    private final long retentionMillis;
+    private final int maxDocs;
+    private final long maxBytes;
+    private final List<PubSubMessage> docs;
+    private long usedBytes;
+    private int firstDoc;
+    private int minLiveDoc;
+    private int nextDoc;
+    private Map<String, Postings> buffer;
+    private int bufferStart;
+    private List<Segment> segments;
+    private boolean merging;
+
+    /**
+     * Create a new, empty SearchIndex
+     *
+     * @param retentionMillis how long, in milliseconds after its timestamp, a message stays searchable, > 0
+     * @param maxDocs         the most messages held at once, > 0
+     * @param maxBytes        the most bytes of messages held at once, as estimated by QueueCapacity, > 0
+     */
+    public SearchIndex(long retentionMillis, int maxDocs, long maxBytes) {
+        this.retentionMillis = retentionMillis;
+        this.maxDocs = maxDocs;
+        this.maxBytes = maxBytes;
+        this.docs = new ArrayList<>();
+        this.buffer = new HashMap<>();
+        this.segments = new ArrayList<>();
+    }
+
+    /**
+     * Split text into search terms: lower-cased runs of letters and digits
+     *
+     * @param text is not null
+     * @return the distinct terms of <code>text</code>, in order of first occurrence
+     */
+    public static Set<String> tokenize(String text) {
+        Set<String> tokens = new LinkedHashSet<>();
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i < text.length(); ) {
+            int c = text.codePointAt(i);
+            i += Character.charCount(c);
+            if (Character.isLetterOrDigit(c)) {
+                token.appendCodePoint(Character.toLowerCase(c));
+            } else if (token.length() > 0) {
+                addToken(tokens, token);
+            }
+        }
+        if (token.length() > 0) {
+            addToken(tokens, token);
+        }
+        return tokens;
+    }
+
+    private static void addToken(Set<String> tokens, StringBuilder token) {
+        if (token.length() <= MAX_TOKEN_LENGTH) {
+            tokens.add(token.toString());
+        }
+        token.setLength(0);
+    }
+
+    /**
+     * Index a message
+     *
+     * @param msg is not null
+     */
+    public synchronized void add(PubSubMessage msg) {
+        int doc = nextDoc++;
+        docs.add(msg);
+        usedBytes += QueueCapacity.estimateSize(msg);
+        for (String term : tokenize(msg.getContent())) {
+            buffer.computeIfAbsent(term, t -> new Postings()).add(doc);
+        }
+        evict(System.currentTimeMillis());
+        if (nextDoc - bufferStart >= FLUSH_DOCS) {
+            flush();
+        }
+    }
+
+    /**
+     * Find the messages whose content contains every term of a query
+     *
+     * @param query is not null
+     * @param limit the most messages to return, > 0
+     * @param asOf  only messages with timestamps at or before this time, in epoch milliseconds
+     * @return matching messages, the most recently added first; empty if the query has no terms
+     */
+    public synchronized List<PubSubMessage> search(String query, int limit, long asOf) {
+        List<PubSubMessage> result = new ArrayList<>();
+        Set<String> terms = tokenize(query);
+        if (terms.isEmpty()) {
+            return result;
+        }
+        long now = System.currentTimeMillis();
+        evict(now);
+
+        List<int[]> postings = new ArrayList<>();
+        for (String term : terms) {
+            Postings p = buffer.get(term);
+            postings.add(p == null ? null : Arrays.copyOf(p.docs, p.size));
+        }
+        collect(intersect(postings), limit, asOf, now, result);
+        for (int s = segments.size() - 1; s >= 0 && result.size() < limit; s--) {
+            Segment segment = segments.get(s);
+            if (segment.maxDoc < minLiveDoc) {
+                break;
+            }
+            postings.clear();
+            for (String term : terms) {
+                postings.add(segment.postings(term));
+            }
+            collect(intersect(postings), limit, asOf, now, result);
+        }
+        return result;
+    }
+
+    /**
+     * Get the number of messages held
+     *
+     * @return the number of messages that searches can return
+     */
+    public synchronized int size() {
+        return nextDoc - minLiveDoc;
+    }
+
+    /**
+     * Get the number of segments, not counting the in-memory buffer
+     *
+     * @return the number of segments
+     */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    // the document numbers in every list, ascending; empty if any list is null
+    private static int[] intersect(List<int[]> postings) {
+        int[] shortest = null;
+        for (int[] p : postings) {
+            if (p == null) {
+                return new int[0];
+            }
+            if (shortest == null || p.length < shortest.length) {
+                shortest = p;
+            }
+        }
+        int[] result = shortest;
+        int size = shortest.length;
+        for (int[] p : postings) {
+            if (p == shortest) {
+                continue;
+            }
+            int kept = 0;
+            int j = 0;
+            int[] next = new int[size];
+            for (int i = 0; i < size; i++) {
+                // gallop through the longer list to the next candidate
+                j = Arrays.binarySearch(p, j, p.length, result[i]);
+                if (j >= 0) {
+                    next[kept++] = result[i];
+                } else {
+                    j = -(j + 1);
+                }
+                if (j >= p.length) {
+                    break;
+                }
+            }
+            result = next;
+            size = kept;
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    private void collect(int[] matches, int limit, long asOf, long now, List<PubSubMessage> result) {
+        for (int i = matches.length - 1; i >= 0 && result.size() < limit; i--) {
+            int doc = matches[i];
+            if (doc < minLiveDoc) {
+                break;
+            }
+            PubSubMessage msg = docs.get(doc - firstDoc);
+            long timestamp = msg.getTimestamp().getTime();
+            if (timestamp > asOf || now - timestamp >= retentionMillis) {
+                continue;
+            }
+            if (msg.isTransient() && now - timestamp > ((TransientPubSubMessage) msg).getLifetime()) {
+                continue;
+            }
+            result.add(msg);
+        }
+    }
+
+    /**
+     * Get the estimated size of the messages held
+     *
+     * @return the sum of QueueCapacity.estimateSize over the messages that searches can return
+     */
+    public synchronized long getBytes() {
+        return usedBytes;
+    }
+
+    // drop the oldest documents while they have outlived the retention period or there are too many
+    private void evict(long now) {
+        int newMinLiveDoc = minLiveDoc;
+        long bytes = usedBytes;
+        while (newMinLiveDoc < nextDoc) {
+            PubSubMessage oldest = docs.get(newMinLiveDoc - firstDoc);
+            if (nextDoc - newMinLiveDoc <= maxDocs && bytes <= maxBytes
+                    && now - oldest.getTimestamp().getTime() < retentionMillis) {
+                break;
+            }
+            bytes -= QueueCapacity.estimateSize(oldest);
+            newMinLiveDoc++;
+        }
+        if (newMinLiveDoc > minLiveDoc) {
+            drop(newMinLiveDoc);
+        }
+    }
+
+    // drop every document below a new minimum
+    private void drop(int newMinLiveDoc) {
+        for (int doc = minLiveDoc; doc < newMinLiveDoc; doc++) {
+            usedBytes -= QueueCapacity.estimateSize(docs.set(doc - firstDoc, null));
+        }
+        minLiveDoc = newMinLiveDoc;
+        // release the dropped prefix once it is most of the list, so trimming stays amortized O(1)
+        if (minLiveDoc - firstDoc > docs.size() / 2) {
+            docs.subList(0, minLiveDoc - firstDoc).clear();
+            firstDoc = minLiveDoc;
+        }
+        List<Segment> live = new ArrayList<>(segments);
+        live.removeIf(segment -> segment.maxDoc < minLiveDoc);
+        segments = live;
+    }
+
+    private void flush() {
+        String[] terms = buffer.keySet().toArray(new String[0]);
+        Arrays.sort(terms);
+        SegmentWriter writer = new SegmentWriter();
+        for (String term : terms) {
+            Postings p = buffer.get(term);
+            writer.add(term, p.docs, p.size);
+        }
+        List<Segment> grown = new ArrayList<>(segments);
+        grown.add(writer.build(0));
+        segments = grown;
+        buffer = new HashMap<>();
+        bufferStart = nextDoc;
+        maybeMerge();
+    }
+
+    // merge the newest run of MERGE_FACTOR or more adjacent segments of the same level, if any;
+    // flushes can outpace merges, so such a run need not be at the end of the list
+    private void maybeMerge() {
+        if (merging) {
+            return;
+        }
+        int end = segments.size();
+        int start = end;
+        while (end > 0) {
+            int level = segments.get(end - 1).level;
+            start = end - 1;
+            while (start > 0 && segments.get(start - 1).level == level) {
+                start--;
+            }
+            if (end - start >= MERGE_FACTOR) {
+                break;
+            }
+            end = start;
+        }
+        if (end == 0) {
+            return;
+        }
+        int level = segments.get(start).level;
+        List<Segment> run = new ArrayList<>(segments.subList(start, end));
+        int minLive = minLiveDoc;
+        merging = true;
+        MERGER.execute(() -> {
+            Segment merged = null;
+            try {
+                merged = merge(run, minLive, level + 1);
+            }
+            finally {
+                finishMerge(run, merged);
+            }
+        });
+    }
+
+    private synchronized void finishMerge(List<Segment> run, Segment merged) {
+        merging = false;
+        int start = segments.indexOf(run.get(0));
+        // the run may have been dropped meanwhile; then the merged segment is obsolete too
+        if (merged != null && start >= 0 && segments.size() >= start + run.size()
+                && segments.subList(start, start + run.size()).equals(run)) {
+            List<Segment> swapped = new ArrayList<>(segments.subList(0, start));
+            if (merged.maxDoc >= minLiveDoc) {
+                swapped.add(merged);
+            }
+            swapped.addAll(segments.subList(start + run.size(), segments.size()));
+            segments = swapped;
+        }
+        maybeMerge();
+    }
+
+    // merge segments covering ascending document ranges, leaving out documents below minLive
+    private static Segment merge(List<Segment> run, int minLive, int level) {
+        int[] positions = new int[run.size()];
+        SegmentWriter writer = new SegmentWriter();
+        while (true) {
+            String term = null;
+            for (int s = 0; s < run.size(); s++) {
+                Segment segment = run.get(s);
+                if (positions[s] < segment.terms.length
+                        && (term == null || segment.terms[positions[s]].compareTo(term) < 0)) {
+                    term = segment.terms[positions[s]];
+                }
+            }
+            if (term == null) {
+                return writer.build(level);
+            }
+            int[] merged = new int[0];
+            int size = 0;
+            for (int s = 0; s < run.size(); s++) {
+                Segment segment = run.get(s);
+                if (positions[s] < segment.terms.length && segment.terms[positions[s]].equals(term)) {
+                    int[] docs = segment.decode(positions[s]++);
+                    merged = Arrays.copyOf(merged, size + docs.length);
+                    for (int doc : docs) {
+                        if (doc >= minLive) {
+                            merged[size++] = doc;
+                        }
+                    }
+                }
+            }
+            writer.add(term, merged, size);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package pheme;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* Class Description:
+ * Issues opaque session tokens to users who have logged in and resolves them back to the user,
+ * so that a credential is verified once at login instead of on every call. Tokens expire a fixed
+ * time after they are issued.
+ *
+ * Rep Invariant & Abstraction Function:
+ * sessions != null && ttlMillis > 0
+ * each token in sessions maps to the user it was issued to and the time it stops being valid
+ *
+ * Thread Safety Argument:
+ * sessions is a ConcurrentHashMap and each Session is immutable, so lookups never block
+ * */
+public class SessionTable {
+
+    // sweep out expired sessions once every this many logins
+    private static final int PURGE_EVERY = 1024;
+    private static final int TOKEN_BYTES = 32;
+
+    public static class Session {
+        private final String userName;
+        private final UUID userID;
+        private final long expiresAt;
+
+        private Session(String userName, UUID userID, long expiresAt) {
+            this.userName = userName;
+            this.userID = userID;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getUserName() {
+            return userName;
+        }
+
+        public UUID getUserID() {
+            return userID;
+        }
+
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+    }
+
+    private final ConcurrentMap<String, Session> sessions;
+    private final long ttlMillis;
+    private final SecureRandom random;
+    private final AtomicInteger issued;
+
+    /**
+     * Create a new, empty SessionTable
+     *
+     * @param ttlMillis how long, in milliseconds, a token stays valid after it is issued, > 0
+     */
+    public SessionTable(long ttlMillis) {
+        this.sessions = new ConcurrentHashMap<>();
+        this.ttlMillis = ttlMillis;
+        this.random = new SecureRandom();
+        this.issued = new AtomicInteger();
+    }
+
+    /**
+     * Issue a new token for a user
+     *
+     * @param userName is a valid user
+     * @param userID   is the ID of that user
+     * @return a new, unguessable session token
+     */
+    public String create(String userName, UUID userID) {
+        if (issued.incrementAndGet() % PURGE_EVERY == 0) {
+            purgeExpired();
+        }
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        sessions.put(token, new Session(userName, userID, System.currentTimeMillis() + ttlMillis));
+        return token;
+    }
+
+    /**
+     * Resolve a token to its session
+     *
+     * @param token may be null
+     * @return the session the token was issued for, or null if the token is unknown or expired
+     */
+    public Session lookup(String token) {
+        if (token == null) {
+            return null;
+        }
+        Session session = sessions.get(token);
+        if (session == null) {
+            return null;
+        }
+        if (session.expiresAt <= System.currentTimeMillis()) {
+            sessions.remove(token, session);
+            return null;
+        }
+        return session;
+    }
+
+    /**
+     * Invalidate a token
+     *
+     * @param token is not null
+     * @return true if the token was valid, false otherwise
+     */
+    public boolean invalidate(String token) {
+        return sessions.remove(token) != null;
+    }
+
+    /**
+     * Invalidate every token issued to a user
+     *
+     * @param userName is not null
+     */
+    public void invalidateUser(String userName) {
+        sessions.values().removeIf(session -> session.userName.equals(userName));
+    }
+
+    /**
+     * Get the number of sessions held, including any expired ones not yet swept out
+     *
+     * @return the number of sessions
+     */
+    public int size() {
+        return sessions.size();
+    }
+
+    private void purgeExpired() {
+        long now = System.currentTimeMillis();
+        sessions.values().removeIf(session -> session.expiresAt <= now);
+    }
+}
@@ -0,0 +1,202 @@
+package pheme;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/* Class Description:
+ * Routes topics to the users subscribed to them. A topic is a dot-separated path such as
+ * "team.backend.alerts". A subscription names a topic or a pattern, in which "*" stands for
+ * exactly one level and a final "#" for any number of remaining levels, including none, so
+ * "team.*.alerts" matches "team.backend.alerts" and "team.#" matches every topic under "team".
+ *
+ * Subscriptions are kept in a trie with one level per node and one edge per pattern level,
+ * wildcards included. Routing a topic walks only the edges that can match it, the literal level,
+ * "*" and "#", so its cost depends on the depth of the topic and the number of matching
+ * subscriptions, not on how many topics exist.
+ *
+ * Rep Invariant & Abstraction Function:
+ * patterns.get(u) is the set of patterns u subscribed to and not unsubscribed from, and never
+ * empty; u is in the subscribers of the node reached by following the levels of p from root
+ * exactly when p is in patterns.get(u); every node other than root has subscribers or children
+ *
+ * Thread Safety Argument:
+ * Every method is synchronized
+ * */
+public class TopicRouter {
+
+    public static final String ANY_LEVEL = "*";
+    public static final String ANY_LEVELS = "#";
+
+    private static class Node {
+        final Map<String, Node> children = new HashMap<>();
+        final Set<UUID> subscribers = new HashSet<>();
+
+        boolean isEmpty() {
+            return children.isEmpty() && subscribers.isEmpty();
+        }
+    }
+
+    private final Node root;
+    private final Map<UUID, Set<String>> patterns;
+
+    /**
+     * Create a new TopicRouter with no subscriptions
+     */
+    public TopicRouter() {
+        this.root = new Node();
+        this.patterns = new HashMap<>();
+    }
+
+    /**
+     * Subscribe a user to a topic or pattern
+     *
+     * @param subscriber is not null
+     * @param pattern    is a valid pattern
+     * @return true if the user was not already subscribed to the pattern
+     * @throws IllegalArgumentException if the pattern is not valid
+     */
+    public synchronized boolean subscribe(UUID subscriber, String pattern) {
+        String[] levels = parse(pattern, true);
+        Node node = root;
+        for (String level : levels) {
+            node = node.children.computeIfAbsent(level, l -> new Node());
+        }
+        if (!node.subscribers.add(subscriber)) {
+            return false;
+        }
+        patterns.computeIfAbsent(subscriber, s -> new HashSet<>()).add(pattern);
+        return true;
+    }
+
+    /**
+     * Unsubscribe a user from a topic or pattern
+     *
+     * @param subscriber is not null
+     * @param pattern    is a valid pattern
+     * @return true if the user was subscribed to the pattern
+     * @throws IllegalArgumentException if the pattern is not valid
+     */
+    public synchronized boolean unsubscribe(UUID subscriber, String pattern) {
+        String[] levels = parse(pattern, true);
+        if (!remove(root, levels, 0, subscriber)) {
+            return false;
+        }
+        Set<String> subscribed = patterns.get(subscriber);
+        subscribed.remove(pattern);
+        if (subscribed.isEmpty()) {
+            patterns.remove(subscriber);
+        }
+        return true;
+    }
+
+    /**
+     * Remove every subscription of a user
+     *
+     * @param subscriber is not null
+     */
+    public synchronized void unsubscribeAll(UUID subscriber) {
+        Set<String> subscribed = patterns.remove(subscriber);
+        if (subscribed == null) {
+            return;
+        }
+        for (String pattern : subscribed) {
+            remove(root, parse(pattern, true), 0, subscriber);
+        }
+    }
+
+    /**
+     * Get the patterns a user is subscribed to
+     *
+     * @param subscriber is not null
+     * @return the user's patterns, empty if they have none
+     */
+    public synchronized Set<String> getSubscriptions(UUID subscriber) {
+        Set<String> subscribed = patterns.get(subscriber);
+        return subscribed == null ? Collections.emptySet() : new HashSet<>(subscribed);
+    }
+
+    /**
+     * Find the users subscribed to a topic
+     *
+     * @param topic is a valid topic, without wildcards
+     * @return every user with at least one pattern matching the topic, each once
+     * @throws IllegalArgumentException if the topic is not valid
+     */
+    public synchronized Set<UUID> route(String topic) {
+        String[] levels = parse(topic, false);
+        Set<UUID> matched = new LinkedHashSet<>();
+        collect(root, levels, 0, matched);
+        return matched;
+    }
+
+    private static void collect(Node node, String[] levels, int i, Set<UUID> matched) {
+        Node rest = node.children.get(ANY_LEVELS);
+        if (rest != null) {
+            matched.addAll(rest.subscribers);
+        }
+        if (i == levels.length) {
+            matched.addAll(node.subscribers);
+            return;
+        }
+        Node literal = node.children.get(levels[i]);
+        if (literal != null) {
+            collect(literal, levels, i + 1, matched);
+        }
+        Node any = node.children.get(ANY_LEVEL);
+        if (any != null) {
+            collect(any, levels, i + 1, matched);
+        }
+    }
+
+    // remove a subscriber from the node at the end of a path, pruning nodes left empty
+    private static boolean remove(Node node, String[] levels, int i, UUID subscriber) {
+        if (i == levels.length) {
+            return node.subscribers.remove(subscriber);
+        }
+        Node child = node.children.get(levels[i]);
+        if (child == null || !remove(child, levels, i + 1, subscriber)) {
+            return false;
+        }
+        if (child.isEmpty()) {
+            node.children.remove(levels[i]);
+        }
+        return true;
+    }
+
+    private static String[] parse(String topic, boolean allowWildcards) {
+        if (topic == null || topic.isEmpty()) {
+            throw new IllegalArgumentException("topic must not be empty");
+        }
+        List<String> levels = new ArrayList<>();
+        int start = 0;
+        while (true) {
+            int end = topic.indexOf('.', start);
+            String level = topic.substring(start, end < 0 ? topic.length() : end);
+            if (level.isEmpty()) {
+                throw new IllegalArgumentException("empty level in topic: " + topic);
+            }
+            boolean wildcard = level.equals(ANY_LEVEL) || level.equals(ANY_LEVELS);
+            if (!wildcard && (level.contains(ANY_LEVEL) || level.contains(ANY_LEVELS))) {
+                throw new IllegalArgumentException("wildcards must be whole levels: " + topic);
+            }
+            if (wildcard && !allowWildcards) {
+                throw new IllegalArgumentException("topic must not contain wildcards: " + topic);
+            }
+            if (level.equals(ANY_LEVELS) && end >= 0) {
+                throw new IllegalArgumentException(ANY_LEVELS + " must be the last level: " + topic);
+            }
+            levels.add(level);
+            if (end < 0) {
+                return levels.toArray(new String[0]);
+            }
+            start = end + 1;
+        }
+    }
+}
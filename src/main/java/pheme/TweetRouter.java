@@ -0,0 +1,140 @@
+package pheme;
+
+import twitter.PatternMatcher;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/* Class Description:
+ * Routes the tweets of subscribed Twitter accounts to the users subscribed to them. Each account
+ * has one automaton over the patterns of all its subscribers, so a tweet is scanned once however
+ * many users follow its author, plus the set of users who take every tweet of the account. It
+ * mirrors the subscriptions users keep in their TwitterListeners: after a user's subscriptions
+ * change, update is given them before and after the change and applies only the difference.
+ *
+ * Rep Invariant & Abstraction Function:
+ * everyTweet maps a Twitter user ID to the users subscribed to all of that account's tweets, and
+ * patterns maps it to an automaton over the patterns users subscribed to for it; no set in
+ * everyTweet is empty
+ *
+ * Thread Safety Argument:
+ * Not thread-safe; it is only used by the threads calling PhemeService, which must not call it concurrently
+ * */
+public class TweetRouter {
+
+    private final Map<String, Set<UUID>> everyTweet;
+    private final Map<String, PatternMatcher<UUID>> patterns;
+
+    /**
+     * Create a new TweetRouter with no subscriptions
+     */
+    public TweetRouter() {
+        this.everyTweet = new HashMap<>();
+        this.patterns = new HashMap<>();
+    }
+
+    /**
+     * Copy a user's subscriptions, e.g. before changing them
+     *
+     * @param subscriptions maps a Twitter user ID to the patterns subscribed to, empty for every tweet
+     * @return a copy that later changes to <code>subscriptions</code> do not affect
+     */
+    public static Map<String, List<String>> snapshot(Map<String, List<String>> subscriptions) {
+        Map<String, List<String>> copy = new HashMap<>();
+        for (Map.Entry<String, List<String>> entry : subscriptions.entrySet()) {
+            copy.put(entry.getKey(), List.copyOf(entry.getValue()));
+        }
+        return copy;
+    }
+
+    /**
+     * Apply a change to a user's subscriptions
+     *
+     * @param receiver is the ID of the user
+     * @param before   the user's subscriptions before the change, as returned by snapshot
+     * @param after    the user's subscriptions after the change; empty if the user was removed
+     */
+    public void update(UUID receiver, Map<String, List<String>> before, Map<String, List<String>> after) {
+        for (Map.Entry<String, List<String>> entry : before.entrySet()) {
+            List<String> now = after.get(entry.getKey());
+            if (!entry.getValue().equals(now)) {
+                remove(entry.getKey(), receiver, entry.getValue(), now);
+            }
+        }
+        for (Map.Entry<String, List<String>> entry : after.entrySet()) {
+            List<String> then = before.get(entry.getKey());
+            if (!entry.getValue().equals(then)) {
+                add(entry.getKey(), receiver, entry.getValue(), then);
+            }
+        }
+    }
+
+    /**
+     * Find the users a tweet goes to
+     *
+     * @param twitterUserID is the ID of the tweet's author
+     * @param text          the text of the tweet, may be null
+     * @return the IDs of the users subscribed to the tweet, empty if there are none
+     */
+    public Set<UUID> route(String twitterUserID, String text) {
+        Set<UUID> receivers = new HashSet<>();
+        Set<UUID> all = everyTweet.get(twitterUserID);
+        if (all != null) {
+            receivers.addAll(all);
+        }
+        PatternMatcher<UUID> matcher = patterns.get(twitterUserID);
+        if (matcher != null && text != null) {
+            receivers.addAll(matcher.match(text));
+        }
+        return receivers;
+    }
+
+    /**
+     * Check whether anyone is subscribed to a Twitter account
+     *
+     * @param twitterUserID is not null
+     * @return true if at least one user is subscribed to the account
+     */
+    public boolean isSubscribed(String twitterUserID) {
+        return everyTweet.containsKey(twitterUserID) || patterns.containsKey(twitterUserID);
+    }
+
+    // undo a subscription, keeping the patterns it still has afterwards
+    private void remove(String account, UUID receiver, List<String> old, List<String> kept) {
+        if (old.isEmpty()) {
+            Set<UUID> all = everyTweet.get(account);
+            all.remove(receiver);
+            if (all.isEmpty()) {
+                everyTweet.remove(account);
+            }
+            return;
+        }
+        PatternMatcher<UUID> matcher = patterns.get(account);
+        for (String pattern : old) {
+            if (kept == null || !kept.contains(pattern)) {
+                matcher.removePattern(pattern, receiver);
+            }
+        }
+        if (matcher.size() == 0) {
+            patterns.remove(account);
+        }
+    }
+
+    // apply a subscription, skipping the patterns it already had before
+    private void add(String account, UUID receiver, List<String> current, List<String> had) {
+        if (current.isEmpty()) {
+            everyTweet.computeIfAbsent(account, id -> new HashSet<>()).add(receiver);
+            return;
+        }
+        PatternMatcher<UUID> matcher = patterns.computeIfAbsent(account, id -> new PatternMatcher<>());
+        for (String pattern : current) {
+            if (had == null || !had.contains(pattern)) {
+                matcher.addPattern(pattern, receiver);
+            }
+        }
+    }
+}
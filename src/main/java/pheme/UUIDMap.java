@@ -0,0 +1,260 @@
+package pheme;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+
+/* Class Description:
+ * A hash map from UUIDs to values that stores each key as its two 64-bit halves in parallel
+ * long arrays, with open addressing and linear probing, instead of one UUID object and one
+ * HashMap.Node per entry. A lookup hashes the key bits and compares longs, so it allocates
+ * nothing and touches no key objects. Removal shifts later entries of the probe run back into
+ * the freed slot, so no tombstones build up.
+ *
+ * Rep Invariant & Abstraction Function:
+ * msbs.length == lsbs.length == values.length == a power of two >= MIN_CAPACITY
+ * size == the number of non-null values && size <= values.length * MAX_LOAD
+ * the map holds (new UUID(msbs[i], lsbs[i]), values[i]) for every i with values[i] != null,
+ * and every such entry is reachable by probing forward from the slot its key hashes to
+ * without crossing an empty slot
+ *
+ * Thread Safety Argument:
+ * Not thread-safe; callers must not use one map from several threads at once. DeliveryIndex
+ * only touches its maps while holding its own lock, and PhemeService's maps are only touched by
+ * the threads calling PhemeService, which must not call it concurrently
+ * */
+public class UUIDMap<V> {
+
+    private static final int MIN_CAPACITY = 16;
+    private static final float MAX_LOAD = 0.7f;
+
+    private long[] msbs;
+    private long[] lsbs;
+    private Object[] values;
+    private int size;
+
+    /**
+     * Create a new, empty UUIDMap
+     */
+    public UUIDMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * Create a new, empty UUIDMap sized to hold a number of entries without growing
+     *
+     * @param expectedSize the number of entries expected, >= 0
+     */
+    public UUIDMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * MAX_LOAD < expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * Get the value of a key
+     *
+     * @param key is not null
+     * @return the value mapped to <code>key</code>, or null if there is none
+     */
+    public V get(UUID key) {
+        return get(key.getMostSignificantBits(), key.getLeastSignificantBits());
+    }
+
+    /**
+     * Get the value of a key given as its two halves
+     *
+     * @param msb the most significant 64 bits of the key
+     * @param lsb the least significant 64 bits of the key
+     * @return the value mapped to the key, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long msb, long lsb) {
+        int slot = find(msb, lsb);
+        return slot < 0 ? null : (V) values[slot];
+    }
+
+    /**
+     * Check whether a key is mapped
+     *
+     * @param key is not null
+     * @return true if <code>key</code> has a value
+     */
+    public boolean containsKey(UUID key) {
+        return find(key.getMostSignificantBits(), key.getLeastSignificantBits()) >= 0;
+    }
+
+    /**
+     * Map a key to a value, replacing any value it had
+     *
+     * @param key   is not null
+     * @param value is not null
+     * @return the value <code>key</code> was mapped to before, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V put(UUID key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("null values are not supported");
+        }
+        long msb = key.getMostSignificantBits();
+        long lsb = key.getLeastSignificantBits();
+        int mask = values.length - 1;
+        int slot = hash(msb, lsb) & mask;
+        while (values[slot] != null) {
+            if (msbs[slot] == msb && lsbs[slot] == lsb) {
+                V previous = (V) values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        msbs[slot] = msb;
+        lsbs[slot] = lsb;
+        values[slot] = value;
+        if (++size > values.length * MAX_LOAD) {
+            resize(values.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * Remove the mapping of a key
+     *
+     * @param key is not null
+     * @return the value <code>key</code> was mapped to, or null if there was none
+     */
+    public V remove(UUID key) {
+        return remove(key.getMostSignificantBits(), key.getLeastSignificantBits());
+    }
+
+    /**
+     * Remove the mapping of a key given as its two halves
+     *
+     * @param msb the most significant 64 bits of the key
+     * @param lsb the least significant 64 bits of the key
+     * @return the value the key was mapped to, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long msb, long lsb) {
+        int slot = find(msb, lsb);
+        if (slot < 0) {
+            return null;
+        }
+        V previous = (V) values[slot];
+        size--;
+        // shift back entries after the hole that would otherwise become unreachable
+        int mask = values.length - 1;
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (values[next] != null) {
+            int home = hash(msbs[next], lsbs[next]) & mask;
+            // the entry may fill the hole only if its home slot is not in (hole, next]
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                msbs[hole] = msbs[next];
+                lsbs[hole] = lsbs[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        values[hole] = null;
+        return previous;
+    }
+
+    /**
+     * Get the number of keys mapped
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Check whether the map is empty
+     *
+     * @return true if no key is mapped
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Call an action for every entry, in no particular order; the map must not be changed meanwhile
+     *
+     * @param action is not null
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<UUID, V> action) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                action.accept(new UUID(msbs[i], lsbs[i]), (V) values[i]);
+            }
+        }
+    }
+
+    /**
+     * Get every value in the map
+     *
+     * @return a new list of the values, in no particular order
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        List<V> all = new ArrayList<>(size);
+        for (Object value : values) {
+            if (value != null) {
+                all.add((V) value);
+            }
+        }
+        return all;
+    }
+
+    private int find(long msb, long lsb) {
+        int mask = values.length - 1;
+        int slot = hash(msb, lsb) & mask;
+        while (values[slot] != null) {
+            if (msbs[slot] == msb && lsbs[slot] == lsb) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    // random UUIDs are already well mixed, but name-based and time-ordered ones are not
+    private static int hash(long msb, long lsb) {
+        long h = msb * 0x9E3779B97F4A7C15L ^ lsb;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    private void allocate(int capacity) {
+        msbs = new long[capacity];
+        lsbs = new long[capacity];
+        values = new Object[capacity];
+    }
+
+    private void resize(int capacity) {
+        long[] oldMsbs = msbs;
+        long[] oldLsbs = lsbs;
+        Object[] oldValues = values;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int slot = hash(oldMsbs[i], oldLsbs[i]) & mask;
+                while (values[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                msbs[slot] = oldMsbs[i];
+                lsbs[slot] = oldLsbs[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
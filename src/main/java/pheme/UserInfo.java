@@ -14,10 +14,15 @@ public class UserInfo {
 
     private final String password;
 
+    // the bcrypt hash logins are verified against; starts as the registered hash and
+    // may later be re-hashed at a higher cost, while password stays what clients hold
+    private String passwordHash;
+
     public UserInfo(String username, UUID usersID, String Password) {
         this.userName = username;
         this.usersID = usersID;
         this.password = Password;
+        this.passwordHash = Password;
     }
 
     public String getUserName() {
@@ -32,4 +37,12 @@ public class UserInfo {
         return password;
     }
 
+    public String getPasswordHash() {
+        return passwordHash;
+    }
+
+    public void setPasswordHash(String passwordHash) {
+        this.passwordHash = passwordHash;
+    }
+
 }
@@ -0,0 +1,317 @@
+package security;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Provides high-throughput authenticated encryption with AES-GCM.
+ *
+ * <p>
+ * Unlike <code>AESCipher</code>, an <code>AESEngine</code> uses one
+ * <code>Cipher</code> per thread, shared by all engines, instead of calling
+ * <code>Cipher.getInstance</code> on every call, and works directly on
+ * <code>ByteBuffer</code>s (heap or direct), including in place. An engine
+ * is therefore cheap enough to create for a single message's key.
+ * </p>
+ *
+ * <p>
+ * A sealed message is laid out as
+ * <code>ciphertext || tag (16 bytes) || nonce (12 bytes)</code>, so it is
+ * exactly <code>OVERHEAD</code> bytes longer than the plaintext. Putting
+ * the nonce last lets the ciphertext overwrite the plaintext where it lies.
+ * Nonces are a random 32-bit prefix chosen per engine followed by a
+ * 64-bit counter that starts at a random value, so one engine never
+ * repeats a nonce.
+ * </p>
+ *
+ * <p>
+ * Callers may bind additional data to a message, such as a header sent
+ * alongside it: the data is authenticated but not encrypted or stored, and
+ * must be passed again to decrypt. Decryption fails with an
+ * <code>AEADBadTagException</code> if the sealed bytes were tampered with,
+ * sealed under a different key, or sealed with different additional data.
+ * </p>
+ */
+public class AESEngine {
+
+    public static final int NONCE_LENGTH = 12;
+    public static final int TAG_LENGTH = 16;
+    public static final int OVERHEAD = NONCE_LENGTH + TAG_LENGTH;
+
+    private static final String AES_ALGORITHM = "AES/GCM/NoPadding";
+    private static final SecureRandom RANDOM = new SecureRandom();
+    // every use initialises the cipher with the engine's key, so engines can share them
+    private static final ThreadLocal<Cipher> CIPHERS = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance(AES_ALGORITHM);
+        }
+        catch (GeneralSecurityException e) {
+            throw new IllegalStateException(AES_ALGORITHM + " is not supported", e);
+        }
+    });
+
+    private final SecretKey secretKey;
+    private final int noncePrefix;
+    private final AtomicLong nonceCounter;
+
+    /**
+     * Create an AESEngine from a raw key
+     *
+     * @param key a 16, 24 or 32 byte AES key, is not null
+     */
+    public AESEngine(final byte[] key) {
+        this(new SecretKeySpec(key, "AES"));
+    }
+
+    /**
+     * Create an AESEngine from a key
+     *
+     * @param key an AES key, is not null
+     */
+    public AESEngine(final SecretKey key) {
+        this.secretKey = key;
+        this.noncePrefix = RANDOM.nextInt();
+        this.nonceCounter = new AtomicLong(RANDOM.nextLong());
+    }
+
+    /**
+     * Create an AESEngine whose 256-bit key is the SHA-256 digest of a seed
+     *
+     * @param seed seed to generate a symmetric key, is not null
+     * @return an AESEngine using the derived key
+     */
+    public static AESEngine fromSeed(final String seed) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            return new AESEngine(sha.digest(seed.getBytes(StandardCharsets.UTF_8)));
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    }
+
+    /**
+     * Encrypt the remaining bytes of <code>src</code> into <code>dst</code>.
+     * <code>dst</code> may share storage with <code>src</code> as long as it
+     * starts at the same position, which encrypts in place.
+     *
+     * @param src the plaintext, from its position to its limit; its position is advanced to its limit
+     * @param dst receives the sealed message at its position, and needs
+     *            <code>src.remaining() + OVERHEAD</code> bytes remaining
+     * @return the number of bytes written to <code>dst</code>
+     * @throws GeneralSecurityException if the cipher cannot be used
+     */
+    public int encrypt(ByteBuffer src, ByteBuffer dst) throws GeneralSecurityException {
+        return encrypt(src, dst, null);
+    }
+
+    /**
+     * Encrypt the remaining bytes of <code>src</code> into <code>dst</code>, binding additional
+     * data to the sealed message, as <code>encrypt(ByteBuffer, ByteBuffer)</code> does
+     *
+     * @param src the plaintext, from its position to its limit; its position is advanced to its limit
+     * @param dst receives the sealed message at its position, and needs
+     *            <code>src.remaining() + OVERHEAD</code> bytes remaining
+     * @param aad data that decryption must be given again, or null for none
+     * @return the number of bytes written to <code>dst</code>
+     * @throws GeneralSecurityException if the cipher cannot be used
+     */
+    public int encrypt(ByteBuffer src, ByteBuffer dst, byte[] aad) throws GeneralSecurityException {
+        byte[] nonce = nextNonce();
+        Cipher cipher = CIPHERS.get();
+        cipher.init(Cipher.ENCRYPT_MODE, secretKey, new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+        if (aad != null) {
+            cipher.updateAAD(aad);
+        }
+        int written = cipher.doFinal(src, dst);
+        dst.put(nonce);
+        return written + NONCE_LENGTH;
+    }
+
+    /**
+     * Decrypt the sealed message in the remaining bytes of <code>src</code> into <code>dst</code>.
+     * <code>dst</code> may share storage with <code>src</code> as long as it
+     * starts at the same position, which decrypts in place.
+     *
+     * @param src the sealed message, from its position to its limit; its position is advanced to its limit
+     * @param dst receives the plaintext at its position, and needs
+     *            <code>src.remaining() - OVERHEAD</code> bytes remaining
+     * @return the number of bytes written to <code>dst</code>
+     * @throws AEADBadTagException      if the message was tampered with or sealed under another key
+     * @throws GeneralSecurityException if the cipher cannot be used
+     */
+    public int decrypt(ByteBuffer src, ByteBuffer dst) throws GeneralSecurityException {
+        return decrypt(src, dst, null);
+    }
+
+    /**
+     * Decrypt the sealed message in the remaining bytes of <code>src</code> into <code>dst</code>,
+     * checking the additional data it was sealed with, as <code>decrypt(ByteBuffer, ByteBuffer)</code> does
+     *
+     * @param src the sealed message, from its position to its limit; its position is advanced to its limit
+     * @param dst receives the plaintext at its position, and needs
+     *            <code>src.remaining() - OVERHEAD</code> bytes remaining
+     * @param aad the data the message was sealed with, or null for none
+     * @return the number of bytes written to <code>dst</code>
+     * @throws AEADBadTagException      if the message was tampered with, sealed under another key
+     *                                  or sealed with other additional data
+     * @throws GeneralSecurityException if the cipher cannot be used
+     */
+    public int decrypt(ByteBuffer src, ByteBuffer dst, byte[] aad) throws GeneralSecurityException {
+        if (src.remaining() < OVERHEAD) {
+            throw new AEADBadTagException("sealed message is too short");
+        }
+        byte[] nonce = new byte[NONCE_LENGTH];
+        int end = src.limit();
+        ByteBuffer trailer = src.duplicate();
+        trailer.position(end - NONCE_LENGTH);
+        trailer.get(nonce);
+
+        Cipher cipher = CIPHERS.get();
+        cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+        if (aad != null) {
+            cipher.updateAAD(aad);
+        }
+        src.limit(end - NONCE_LENGTH);
+        try {
+            return cipher.doFinal(src, dst);
+        }
+        finally {
+            src.limit(end);
+            src.position(end);
+        }
+    }
+
+    /**
+     * Encrypt a buffer in place: the plaintext between its position and limit is
+     * replaced by the sealed message, and its limit is moved to the end of it
+     *
+     * @param buffer has at least <code>OVERHEAD</code> bytes of capacity past its limit
+     * @throws GeneralSecurityException if the cipher cannot be used
+     */
+    public void encryptInPlace(ByteBuffer buffer) throws GeneralSecurityException {
+        int start = buffer.position();
+        ByteBuffer dst = buffer.duplicate();
+        dst.limit(buffer.capacity());
+        int written = encrypt(buffer.duplicate(), dst);
+        buffer.limit(start + written);
+        buffer.position(start);
+    }
+
+    /**
+     * Decrypt a buffer in place: the sealed message between its position and limit is
+     * replaced by the plaintext, and its limit is moved to the end of it
+     *
+     * @param buffer holds a sealed message between its position and limit
+     * @throws AEADBadTagException      if the message was tampered with or sealed under another key
+     * @throws GeneralSecurityException if the cipher cannot be used
+     */
+    public void decryptInPlace(ByteBuffer buffer) throws GeneralSecurityException {
+        int start = buffer.position();
+        int written = decrypt(buffer.duplicate(), buffer.duplicate());
+        buffer.limit(start + written);
+        buffer.position(start);
+    }
+
+    /**
+     * Encrypt a byte array
+     *
+     * @param plaintext is not null
+     * @return the sealed message
+     * @throws GeneralSecurityException if the cipher cannot be used
+     */
+    public byte[] encrypt(byte[] plaintext) throws GeneralSecurityException {
+        return encrypt(plaintext, null);
+    }
+
+    /**
+     * Encrypt a byte array, binding additional data to it
+     *
+     * @param plaintext is not null
+     * @param aad       data that decryption must be given again, or null for none
+     * @return the sealed message
+     * @throws GeneralSecurityException if the cipher cannot be used
+     */
+    public byte[] encrypt(byte[] plaintext, byte[] aad) throws GeneralSecurityException {
+        byte[] sealed = new byte[plaintext.length + OVERHEAD];
+        encrypt(ByteBuffer.wrap(plaintext), ByteBuffer.wrap(sealed), aad);
+        return sealed;
+    }
+
+    /**
+     * Decrypt a byte array
+     *
+     * @param sealed a message sealed by this engine's key, is not null
+     * @return the plaintext
+     * @throws AEADBadTagException      if the message was tampered with or sealed under another key
+     * @throws GeneralSecurityException if the cipher cannot be used
+     */
+    public byte[] decrypt(byte[] sealed) throws GeneralSecurityException {
+        return decrypt(sealed, null);
+    }
+
+    /**
+     * Decrypt a byte array sealed with additional data
+     *
+     * @param sealed a message sealed by this engine's key, is not null
+     * @param aad    the data the message was sealed with, or null for none
+     * @return the plaintext
+     * @throws AEADBadTagException      if the message was tampered with, sealed under another key
+     *                                  or sealed with other additional data
+     * @throws GeneralSecurityException if the cipher cannot be used
+     */
+    public byte[] decrypt(byte[] sealed, byte[] aad) throws GeneralSecurityException {
+        if (sealed.length < OVERHEAD) {
+            throw new AEADBadTagException("sealed message is too short");
+        }
+        byte[] plaintext = new byte[sealed.length - OVERHEAD];
+        decrypt(ByteBuffer.wrap(sealed), ByteBuffer.wrap(plaintext), aad);
+        return plaintext;
+    }
+
+    /**
+     * Encrypt a string, as <code>AESCipher.encrypt</code> does
+     *
+     * @param strToEncrypt is not null
+     * @return the Base64 encoding of the sealed message
+     * @throws GeneralSecurityException if the cipher cannot be used
+     */
+    public String encrypt(final String strToEncrypt) throws GeneralSecurityException {
+        return Base64.getEncoder().encodeToString(encrypt(strToEncrypt.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Decrypt a string produced by <code>encrypt(String)</code>
+     *
+     * @param strToDecrypt is not null
+     * @return the decrypted string
+     * @throws GeneralSecurityException if the message was tampered with or the cipher cannot be used
+     */
+    public String decrypt(final String strToDecrypt) throws GeneralSecurityException {
+        return new String(decrypt(Base64.getDecoder().decode(strToDecrypt)), StandardCharsets.UTF_8);
+    }
+
+    private byte[] nextNonce() {
+        long counter = nonceCounter.getAndIncrement();
+        byte[] nonce = new byte[NONCE_LENGTH];
+        nonce[0] = (byte) (noncePrefix >>> 24);
+        nonce[1] = (byte) (noncePrefix >>> 16);
+        nonce[2] = (byte) (noncePrefix >>> 8);
+        nonce[3] = (byte) noncePrefix;
+        for (int i = 0; i < 8; i++) {
+            nonce[4 + i] = (byte) (counter >>> (56 - 8 * i));
+        }
+        return nonce;
+    }
+}
@@ -10,6 +10,7 @@ package security;
 
 import java.io.UnsupportedEncodingException;
 import java.security.SecureRandom;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * BlowfishCipher implements OpenBSD-style Blowfish password hashing using
@@ -58,6 +59,8 @@ public class BlowfishCipher {
     // BlowfishCipher parameters
     private static final int GENSALT_DEFAULT_LOG2_ROUNDS = 10;
     private static final int BLOWFISHCRYPT_SALT_LEN = 16;
+    // tasks allowed to wait per password-hashing thread before new work is shed
+    private static final int ASYNC_QUEUE_PER_THREAD = 16;
 
     // Blowfish parameters
     private static final int BLOWFISH_NUM_ROUNDS = 16;
@@ -362,9 +365,16 @@ public class BlowfishCipher {
         51, 52, 53, -1, -1, -1, -1, -1
     };
 
-    // Expanded Blowfish key
-    private int P[];
-    private int S[];
+    // One hasher per thread, so its key schedule buffers are reused across hashes
+    private static final ThreadLocal<BlowfishCipher> HASHER = ThreadLocal.withInitial(BlowfishCipher::new);
+
+    // Expanded Blowfish key, overwritten from P_orig/S_orig at the start of every hash
+    private final int P[] = new int[P_orig.length];
+    private final int S[] = new int[S_orig.length];
+
+    // Working buffers, reused so the expensive loop never allocates
+    private final int lr[] = new int[2];
+    private final int cdata[] = new int[bf_crypt_ciphertext.length];
 
     /**
      * Encode a byte array using bcrypt's slightly-modified base64
@@ -482,27 +492,36 @@ public class BlowfishCipher {
     }
 
     /**
-     * Cyclically extract a word of key material
+     * Cyclically extract a word of key material; the caller
+     * advances its offset with <code>nextoff</code>
      *
      * @param data the string to extract the data from
-     * @param offp a "pointer" (as a one-entry array) to the
-     *             current offset into data
+     * @param off  the current offset into data
      * @return the next word of material from data
      */
-    private static int streamtoword(byte data[], int offp[]) {
+    private static int streamtoword(byte data[], int off) {
         int i;
         int word = 0;
-        int off = offp[0];
 
         for (i = 0; i < 4; i++) {
             word = (word << 8) | (data[off] & 0xff);
-            off = (off + 1) % data.length;
+            off = (off + 1 == data.length) ? 0 : off + 1;
         }
 
-        offp[0] = off;
         return word;
     }
 
+    /**
+     * Get the offset of the word after the one at <code>off</code>
+     *
+     * @param data the string the data is extracted from
+     * @param off  the current offset into data
+     * @return the offset of the next word of material
+     */
+    private static int nextoff(byte data[], int off) {
+        return (off + 4) % data.length;
+    }
+
     /**
      * Hash a password using the OpenBSD bcrypt scheme
      *
@@ -517,7 +536,7 @@ public class BlowfishCipher {
         byte passwordb[], saltb[], hashed[];
         char minor = (char) 0;
         int rounds, off = 0;
-        StringBuffer rs = new StringBuffer();
+        StringBuilder rs = new StringBuilder();
 
         if (salt.charAt(0) != '$' || salt.charAt(1) != '2') {
             throw new IllegalArgumentException("Invalid salt version");
@@ -548,7 +567,7 @@ public class BlowfishCipher {
 
         saltb = decode_base64(real_salt, BLOWFISHCRYPT_SALT_LEN);
 
-        B = new BlowfishCipher();
+        B = HASHER.get();
         hashed = B.crypt_raw(passwordb, saltb, rounds);
 
         rs.append("$2");
@@ -627,6 +646,112 @@ public class BlowfishCipher {
         return (hashed.compareTo(hashPassword(plaintext, hashed)) == 0);
     }
 
+    /**
+     * Find the work factor whose hashing time on this host is closest
+     * to, without exceeding, a target latency. Each step up doubles
+     * the work, so hashing is timed at increasing log_rounds until a
+     * hash takes at least half the target.
+     *
+     * @param targetMillis the longest a single hash should take, > 0
+     * @return the largest log_rounds, between 4 and 31, whose hashing
+     * time is at most targetMillis (4 if even that is slower)
+     */
+    public static int calibrateLogRounds(long targetMillis) {
+        int rounds = 4;
+        // warm up so the first measurement is not dominated by the JIT
+        for (int i = 0; i < 3; i++) {
+            timeHash(rounds);
+        }
+        double millis = timeHash(rounds);
+        while (rounds < 31) {
+            if (millis * 2 > targetMillis) {
+                return rounds;
+            }
+            rounds++;
+            if (millis * 4 > targetMillis) {
+                // the next step up would be close to the target: measure it rather than estimate
+                millis = timeHash(rounds);
+                if (millis > targetMillis) {
+                    return rounds - 1;
+                }
+            }
+            else {
+                millis = millis * 2;
+            }
+        }
+        return rounds;
+    }
+
+    // the fastest of a few hashes at the given work factor, in milliseconds
+    private static double timeHash(int log_rounds) {
+        String salt = gensalt(log_rounds);
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 2; i++) {
+            long start = System.nanoTime();
+            hashPassword("calibration", salt);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1e6;
+    }
+
+    /**
+     * Obtain the work factor a hash was made with
+     *
+     * @param hashed a hash produced by hashPassword
+     * @return the log2 of the number of rounds the hash was made with
+     */
+    public static int getLogRounds(String hashed) {
+        int off = hashed.charAt(2) == '$' ? 3 : 4;
+        if (hashed.charAt(0) != '$' || hashed.charAt(1) != '2' || hashed.charAt(off + 2) != '$') {
+            throw new IllegalArgumentException("Invalid hash");
+        }
+        return Integer.parseInt(hashed.substring(off, off + 2));
+    }
+
+    /**
+     * Hash a password on the shared password-hashing pool instead of
+     * the calling thread
+     *
+     * @param password the password to hash
+     * @param salt     the salt to hash with (perhaps generated
+     *                 using BlowfishCipher.gensalt)
+     * @return a future completed with the hashed password, or
+     * exceptionally with a RejectedExecutionException if the pool is saturated
+     */
+    public static CompletableFuture<String> hashPasswordAsync(String password, String salt) {
+        return AsyncHolder.EXECUTOR.hashPassword(password, salt);
+    }
+
+    /**
+     * Check that a plaintext password matches a previously hashed
+     * one, on the shared password-hashing pool instead of the calling thread
+     *
+     * @param plaintext the plaintext password to verify
+     * @param hashed    the previously-hashed password
+     * @return a future completed with whether the passwords match, or
+     * exceptionally with a RejectedExecutionException if the pool is saturated
+     */
+    public static CompletableFuture<Boolean> verifyPasswordAsync(String plaintext, String hashed) {
+        return AsyncHolder.EXECUTOR.verifyPassword(plaintext, hashed);
+    }
+
+    /**
+     * Obtain the shared pool used by the asynchronous methods,
+     * for its queue depth and timing metrics
+     *
+     * @return the shared password-hashing executor
+     */
+    public static PasswordHashingExecutor getAsyncExecutor() {
+        return AsyncHolder.EXECUTOR;
+    }
+
+    // created on first use, so callers that only hash synchronously never start the pool
+    private static class AsyncHolder {
+        private static final int THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        private static final PasswordHashingExecutor EXECUTOR =
+            new PasswordHashingExecutor(THREADS, THREADS * ASYNC_QUEUE_PER_THREAD);
+    }
+
     /**
      * Blowfish encipher a single 64-bit block encoded as
      * two 32-bit halves
@@ -661,8 +786,8 @@ public class BlowfishCipher {
      * Initialise the Blowfish key schedule
      */
     private void init_key() {
-        P = (int[]) P_orig.clone();
-        S = (int[]) S_orig.clone();
+        System.arraycopy(P_orig, 0, P, 0, P_orig.length);
+        System.arraycopy(S_orig, 0, S, 0, S_orig.length);
     }
 
     /**
@@ -672,12 +797,14 @@ public class BlowfishCipher {
      */
     private void key(byte key[]) {
         int i;
-        int koffp[] = {0};
-        int lr[] = {0, 0};
+        int koff = 0;
         int plen = P.length, slen = S.length;
 
+        lr[0] = 0;
+        lr[1] = 0;
         for (i = 0; i < plen; i++) {
-            P[i] = P[i] ^ streamtoword(key, koffp);
+            P[i] = P[i] ^ streamtoword(key, koff);
+            koff = nextoff(key, koff);
         }
 
         for (i = 0; i < plen; i += 2) {
@@ -703,25 +830,31 @@ public class BlowfishCipher {
      */
     private void ekskey(byte data[], byte key[]) {
         int i;
-        int koffp[] = {0}, doffp[] = {0};
-        int lr[] = {0, 0};
+        int koff = 0, doff = 0;
         int plen = P.length, slen = S.length;
 
+        lr[0] = 0;
+        lr[1] = 0;
         for (i = 0; i < plen; i++) {
-            P[i] = P[i] ^ streamtoword(key, koffp);
+            P[i] = P[i] ^ streamtoword(key, koff);
+            koff = nextoff(key, koff);
         }
 
         for (i = 0; i < plen; i += 2) {
-            lr[0] ^= streamtoword(data, doffp);
-            lr[1] ^= streamtoword(data, doffp);
+            lr[0] ^= streamtoword(data, doff);
+            doff = nextoff(data, doff);
+            lr[1] ^= streamtoword(data, doff);
+            doff = nextoff(data, doff);
             encipher(lr, 0);
             P[i] = lr[0];
             P[i + 1] = lr[1];
         }
 
         for (i = 0; i < slen; i += 2) {
-            lr[0] ^= streamtoword(data, doffp);
-            lr[1] ^= streamtoword(data, doffp);
+            lr[0] ^= streamtoword(data, doff);
+            doff = nextoff(data, doff);
+            lr[1] ^= streamtoword(data, doff);
+            doff = nextoff(data, doff);
             encipher(lr, 0);
             S[i] = lr[0];
             S[i + 1] = lr[1];
@@ -740,7 +873,6 @@ public class BlowfishCipher {
      */
     private byte[] crypt_raw(byte password[], byte salt[], int log_rounds) {
         int rounds, i, j;
-        int cdata[] = (int[]) bf_crypt_ciphertext.clone();
         int clen = cdata.length;
         byte ret[];
 
@@ -752,6 +884,7 @@ public class BlowfishCipher {
             throw new IllegalArgumentException("Bad salt length");
         }
 
+        System.arraycopy(bf_crypt_ciphertext, 0, cdata, 0, clen);
         init_key();
         ekskey(salt, password);
         for (i = 0; i < rounds; i++) {
@@ -0,0 +1,169 @@
+package security;
+
+import com.google.gson.Gson;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Provides envelope encryption for messages sent to many receivers.
+ *
+ * <p>
+ * The content is encrypted once, with an <code>AESEngine</code> under a
+ * fresh random data key, and only that 32-byte data key is then wrapped
+ * (AES key wrap, RFC 3394) under each receiver's own key. Sending to N
+ * receivers costs one content encryption plus N small key wraps, instead
+ * of N content encryptions.
+ * </p>
+ *
+ * <p>
+ * The header, every receiver with its wrapped key, is authenticated as
+ * additional data of the content encryption, so an envelope whose wrapped
+ * keys were added, dropped or swapped for those of another envelope does
+ * not open.
+ * </p>
+ *
+ * <p>
+ * An <code>Envelope</code> carries the ciphertext together with every
+ * wrapped key, and converts to and from JSON so that it can travel as
+ * the content of a <code>PubSubMessage</code>:
+ * <code>EnvelopeCipher.seal(text, keys).toJson()</code>.
+ * A receiver recovers the text with
+ * <code>EnvelopeCipher.open(Envelope.fromJson(content), receiverID, receiverKey)</code>.
+ * </p>
+ */
+public class EnvelopeCipher {
+
+    private static final String WRAP_ALGORITHM = "AESWrap";
+    private static final int DATA_KEY_LENGTH = 32;
+    private static final String HEADER_VERSION = "envelope/1";
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final Gson GSON = new Gson();
+    private static final ThreadLocal<Cipher> WRAP_CIPHERS =
+        ThreadLocal.withInitial(() -> newCipher(WRAP_ALGORITHM));
+
+    /**
+     * The encrypted content of a message with its data key wrapped for each receiver.
+     */
+    public static class Envelope {
+        private final String ciphertext;
+        private final Map<UUID, String> wrappedKeys;
+
+        private Envelope(byte[] ciphertext, Map<UUID, String> wrappedKeys) {
+            this.ciphertext = Base64.getEncoder().encodeToString(ciphertext);
+            this.wrappedKeys = wrappedKeys;
+        }
+
+        /**
+         * Check whether the envelope can be opened by a receiver
+         *
+         * @param receiver is not null
+         * @return true if the data key was wrapped for <code>receiver</code>
+         */
+        public boolean isFor(UUID receiver) {
+            return wrappedKeys.containsKey(receiver);
+        }
+
+        /**
+         * Encode the envelope as JSON
+         *
+         * @return the JSON form of this envelope
+         */
+        public String toJson() {
+            return GSON.toJson(this);
+        }
+
+        /**
+         * Decode an envelope from JSON
+         *
+         * @param json is the output of <code>toJson</code>
+         * @return the decoded envelope
+         */
+        public static Envelope fromJson(String json) {
+            return GSON.fromJson(json, Envelope.class);
+        }
+    }
+
+    private EnvelopeCipher() {
+    }
+
+    /**
+     * Encrypt a message once for many receivers
+     *
+     * @param content      is not null
+     * @param receiverKeys maps each receiver to its AES key, is not null
+     * @return an envelope every receiver in <code>receiverKeys</code> can open
+     * @throws GeneralSecurityException if a cipher cannot be used or a receiver key is invalid
+     */
+    public static Envelope seal(String content, Map<UUID, ? extends Key> receiverKeys)
+        throws GeneralSecurityException {
+        byte[] dataKeyBytes = new byte[DATA_KEY_LENGTH];
+        RANDOM.nextBytes(dataKeyBytes);
+        SecretKey dataKey = new SecretKeySpec(dataKeyBytes, "AES");
+
+        // wrap first: the wrapped keys are part of the header the content is bound to
+        Map<UUID, String> wrappedKeys = new HashMap<>();
+        Cipher wrap = WRAP_CIPHERS.get();
+        for (Map.Entry<UUID, ? extends Key> receiver : receiverKeys.entrySet()) {
+            wrap.init(Cipher.WRAP_MODE, receiver.getValue());
+            wrappedKeys.put(receiver.getKey(), Base64.getEncoder().encodeToString(wrap.wrap(dataKey)));
+        }
+        byte[] ciphertext = new AESEngine(dataKey).encrypt(content.getBytes(StandardCharsets.UTF_8),
+            header(wrappedKeys));
+        return new Envelope(ciphertext, wrappedKeys);
+    }
+
+    /**
+     * Decrypt a message as one of its receivers
+     *
+     * @param envelope    is not null
+     * @param receiver    is a receiver the envelope was sealed for
+     * @param receiverKey is that receiver's AES key
+     * @return the decrypted content
+     * @throws GeneralSecurityException if the envelope is not for <code>receiver</code>,
+     *                                  the key is wrong, or the content or header was tampered with
+     */
+    public static String open(Envelope envelope, UUID receiver, Key receiverKey)
+        throws GeneralSecurityException {
+        String wrapped = envelope.wrappedKeys.get(receiver);
+        if (wrapped == null) {
+            throw new GeneralSecurityException("envelope is not addressed to " + receiver);
+        }
+        Cipher unwrap = WRAP_CIPHERS.get();
+        unwrap.init(Cipher.UNWRAP_MODE, receiverKey);
+        SecretKey dataKey = (SecretKey) unwrap.unwrap(Base64.getDecoder().decode(wrapped), "AES", Cipher.SECRET_KEY);
+
+        byte[] content = new AESEngine(dataKey).decrypt(Base64.getDecoder().decode(envelope.ciphertext),
+            header(envelope.wrappedKeys));
+        return new String(content, StandardCharsets.UTF_8);
+    }
+
+    // the receivers and their wrapped keys in receiver order, so both ends encode the same bytes
+    private static byte[] header(Map<UUID, String> wrappedKeys) {
+        StringBuilder header = new StringBuilder(HEADER_VERSION);
+        for (Map.Entry<UUID, String> receiver : new TreeMap<>(wrappedKeys).entrySet()) {
+            header.append('\n').append(receiver.getKey()).append(' ').append(receiver.getValue());
+        }
+        return header.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Cipher newCipher(String algorithm) {
+        try {
+            return Cipher.getInstance(algorithm);
+        }
+        catch (GeneralSecurityException e) {
+            throw new IllegalStateException(algorithm + " is not supported", e);
+        }
+    }
+}
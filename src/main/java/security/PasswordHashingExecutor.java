@@ -0,0 +1,179 @@
+package security;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Runs bcrypt password work on a dedicated, bounded pool of threads,
+ * so that slow hashing never runs on the caller's thread.
+ *
+ * <p>
+ * Tasks wait in a queue of fixed capacity. When the queue is
+ * full, new work is shed: the returned future completes
+ * exceptionally with a <code>RejectedExecutionException</code>
+ * instead of letting the backlog grow.
+ * </p>
+ *
+ * <p>
+ * The executor keeps counters of submitted, completed and
+ * rejected tasks, and of the time tasks spent waiting in the
+ * queue and computing.
+ * </p>
+ */
+public class PasswordHashingExecutor {
+
+    private final ThreadPoolExecutor pool;
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong computeNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    /**
+     * Create a new PasswordHashingExecutor
+     *
+     * @param threads       the number of threads hashing at once, > 0
+     * @param queueCapacity the most tasks that may wait for a thread, > 0
+     */
+    public PasswordHashingExecutor(int threads, int queueCapacity) {
+        this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            task -> {
+                Thread thread = new Thread(task, "bcrypt");
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Hash a password on the pool
+     *
+     * @param password the password to hash
+     * @param salt     the salt to hash with
+     * @return a future completed with the hashed password, or exceptionally if the work was shed
+     */
+    public CompletableFuture<String> hashPassword(String password, String salt) {
+        return submit(() -> BlowfishCipher.hashPassword(password, salt));
+    }
+
+    /**
+     * Check a plaintext password against a hash on the pool
+     *
+     * @param plaintext the plaintext password to verify
+     * @param hashed    the previously-hashed password
+     * @return a future completed with whether the passwords match, or exceptionally if the work was shed
+     */
+    public CompletableFuture<Boolean> verifyPassword(String plaintext, String hashed) {
+        return submit(() -> BlowfishCipher.verifyPassword(plaintext, hashed));
+    }
+
+    // package-private so tests can submit work that fails in ways hashing does not
+    <T> CompletableFuture<T> submit(Supplier<T> work) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        long enqueued = System.nanoTime();
+        submitted.incrementAndGet();
+        try {
+            pool.execute(() -> {
+                long started = System.nanoTime();
+                long waited = started - enqueued;
+                waitNanos.addAndGet(waited);
+                maxWaitNanos.accumulateAndGet(waited, Math::max);
+                try {
+                    result.complete(work.get());
+                }
+                catch (Throwable t) {
+                    // whatever goes wrong, the caller hears about it rather than waiting forever
+                    result.completeExceptionally(t);
+                }
+                finally {
+                    computeNanos.addAndGet(System.nanoTime() - started);
+                    completed.incrementAndGet();
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Get the number of tasks waiting for a thread
+     *
+     * @return the current queue depth
+     */
+    public int getQueueDepth() {
+        return pool.getQueue().size();
+    }
+
+    /**
+     * Get the number of tasks handed to the pool
+     *
+     * @return the number of tasks submitted since the executor was created, including refused ones
+     */
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    /**
+     * Get the number of tasks that finished running
+     *
+     * @return the number of tasks that finished, successfully or not
+     */
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    /**
+     * Get the number of tasks the pool refused
+     *
+     * @return the number of tasks refused because the queue was full or the pool shut down
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Get the average time a completed task waited in the queue
+     *
+     * @return the mean wait time in milliseconds, 0 if nothing has completed
+     */
+    public double getMeanWaitMillis() {
+        long done = completed.get();
+        return done == 0 ? 0 : waitNanos.get() / 1e6 / done;
+    }
+
+    /**
+     * Get the longest time a task waited in the queue
+     *
+     * @return the maximum wait time in milliseconds
+     */
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1e6;
+    }
+
+    /**
+     * Get the average time a completed task spent hashing
+     *
+     * @return the mean compute time in milliseconds, 0 if nothing has completed
+     */
+    public double getMeanComputeMillis() {
+        long done = completed.get();
+        return done == 0 ? 0 : computeNanos.get() / 1e6 / done;
+    }
+
+    /**
+     * Stop accepting work; tasks already queued still run
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,318 @@
+package security;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Encrypts and decrypts streams of arbitrary length, such as journal
+ * segments, without holding them in memory.
+ *
+ * <p>
+ * Each segment is encrypted under its own AES key, derived from the master
+ * key as <code>HMAC-SHA256(master, segmentId)</code>, so the master key
+ * itself never encrypts data. The stream is cut into chunks of
+ * <code>CHUNK_SIZE</code> bytes that are sealed separately with AES-GCM.
+ * A chunk's nonce is a random prefix written at the start of the stream,
+ * the chunk's index, and a flag marking the last chunk, so chunks cannot be
+ * reordered, and a truncated stream is detected because it lacks a final
+ * chunk.
+ * </p>
+ *
+ * <p>
+ * A sealed stream is laid out as
+ * <code>magic (4 bytes) || nonce prefix (7 bytes)</code> followed by chunks of
+ * <code>last flag (1 byte) || length (4 bytes) || ciphertext || tag (16 bytes)</code>.
+ * </p>
+ */
+public class SegmentCipher {
+
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final int MAGIC = 0x50484a31; // "PHJ1"
+    private static final int PREFIX_LENGTH = 7;
+    private static final int NONCE_LENGTH = 12;
+    private static final int TAG_LENGTH = 16;
+    private static final String AES_ALGORITHM = "AES/GCM/NoPadding";
+    private static final String KDF_ALGORITHM = "HmacSHA256";
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final ThreadLocal<Mac> kdf;
+
+    /**
+     * Create a SegmentCipher
+     *
+     * @param masterKey the key segment keys are derived from, at least 16 bytes, is not null
+     */
+    public SegmentCipher(final byte[] masterKey) {
+        SecretKeySpec master = new SecretKeySpec(masterKey.clone(), KDF_ALGORITHM);
+        this.kdf = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(KDF_ALGORITHM);
+                mac.init(master);
+                return mac;
+            }
+            catch (GeneralSecurityException e) {
+                throw new IllegalStateException(KDF_ALGORITHM + " is not supported", e);
+            }
+        });
+    }
+
+    /**
+     * Derive the key of a segment
+     *
+     * @param segmentId names the segment, is not null
+     * @return the 256-bit AES key of that segment
+     */
+    public SecretKey segmentKey(String segmentId) {
+        byte[] key = kdf.get().doFinal(segmentId.getBytes(StandardCharsets.UTF_8));
+        return new SecretKeySpec(key, "AES");
+    }
+
+    /**
+     * Open a stream that encrypts everything written to it into <code>out</code>.
+     * The stream must be closed to write its final chunk; closing it also closes <code>out</code>.
+     *
+     * @param out       receives the sealed segment, is not null
+     * @param segmentId names the segment, is not null
+     * @return an output stream accepting the plaintext of the segment
+     * @throws IOException if the header cannot be written
+     */
+    public OutputStream encrypt(OutputStream out, String segmentId) throws IOException {
+        return new EncryptingOutputStream(out, segmentKey(segmentId));
+    }
+
+    /**
+     * Open a stream that decrypts a segment read from <code>in</code> as it is read.
+     * Closing it also closes <code>in</code>.
+     *
+     * @param in        supplies the sealed segment, is not null
+     * @param segmentId names the segment, the same as it was encrypted with
+     * @return an input stream of the plaintext of the segment; reading it throws an
+     * IOException if the segment was tampered with, truncated, or sealed under another key
+     * @throws IOException if the header cannot be read
+     */
+    public InputStream decrypt(InputStream in, String segmentId) throws IOException {
+        return new DecryptingInputStream(in, segmentKey(segmentId));
+    }
+
+    private static Cipher newCipher() {
+        try {
+            return Cipher.getInstance(AES_ALGORITHM);
+        }
+        catch (GeneralSecurityException e) {
+            throw new IllegalStateException(AES_ALGORITHM + " is not supported", e);
+        }
+    }
+
+    private static byte[] nonce(byte[] prefix, int index, boolean last) {
+        byte[] nonce = Arrays.copyOf(prefix, NONCE_LENGTH);
+        nonce[PREFIX_LENGTH] = (byte) (index >>> 24);
+        nonce[PREFIX_LENGTH + 1] = (byte) (index >>> 16);
+        nonce[PREFIX_LENGTH + 2] = (byte) (index >>> 8);
+        nonce[PREFIX_LENGTH + 3] = (byte) index;
+        nonce[NONCE_LENGTH - 1] = (byte) (last ? 1 : 0);
+        return nonce;
+    }
+
+    private static class EncryptingOutputStream extends FilterOutputStream {
+        private final SecretKey key;
+        private final Cipher cipher = newCipher();
+        private final byte[] prefix = new byte[PREFIX_LENGTH];
+        private final byte[] plain = new byte[CHUNK_SIZE];
+        private final byte[] sealed = new byte[CHUNK_SIZE + TAG_LENGTH];
+        private int buffered;
+        private int index;
+        private boolean closed;
+
+        EncryptingOutputStream(OutputStream out, SecretKey key) throws IOException {
+            super(out);
+            this.key = key;
+            RANDOM.nextBytes(prefix);
+            writeInt(MAGIC);
+            out.write(prefix);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (buffered == CHUNK_SIZE) {
+                seal(false);
+            }
+            plain[buffered++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                // a full chunk is sealed only once more data arrives, so that close() can flag it as the last
+                if (buffered == CHUNK_SIZE) {
+                    seal(false);
+                }
+                int n = Math.min(len, CHUNK_SIZE - buffered);
+                System.arraycopy(b, off, plain, buffered, n);
+                buffered += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // only whole chunks can be written, so a partial chunk stays buffered until it fills or the stream closes
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                seal(true);
+                out.flush();
+            }
+            finally {
+                out.close();
+            }
+        }
+
+        private void seal(boolean last) throws IOException {
+            if (index == Integer.MAX_VALUE) {
+                throw new IOException("segment is too long");
+            }
+            int length;
+            try {
+                cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, nonce(prefix, index, last)));
+                length = cipher.doFinal(plain, 0, buffered, sealed, 0);
+            }
+            catch (GeneralSecurityException e) {
+                throw new IOException("cannot seal chunk " + index, e);
+            }
+            out.write(last ? 1 : 0);
+            writeInt(length);
+            out.write(sealed, 0, length);
+            buffered = 0;
+            index++;
+        }
+
+        private void writeInt(int v) throws IOException {
+            out.write(v >>> 24);
+            out.write(v >>> 16);
+            out.write(v >>> 8);
+            out.write(v);
+        }
+    }
+
+    private static class DecryptingInputStream extends InputStream {
+        private final DataInputStream in;
+        private final SecretKey key;
+        private final Cipher cipher = newCipher();
+        private final byte[] prefix = new byte[PREFIX_LENGTH];
+        private final byte[] sealed = new byte[CHUNK_SIZE + TAG_LENGTH];
+        private final byte[] plain = new byte[CHUNK_SIZE];
+        private int position;
+        private int limit;
+        private int index;
+        private boolean last;
+
+        DecryptingInputStream(InputStream in, SecretKey key) throws IOException {
+            this.in = new DataInputStream(in);
+            this.key = key;
+            if (this.in.readInt() != MAGIC) {
+                throw new IOException("not an encrypted segment");
+            }
+            this.in.readFully(prefix);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return plain[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, limit - position);
+            System.arraycopy(plain, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return limit - position;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        // decrypt chunks until there is plaintext to return; false once the final chunk is used up
+        private boolean fill() throws IOException {
+            while (position == limit) {
+                if (last) {
+                    if (in.read() != -1) {
+                        throw new IOException("data after the final chunk");
+                    }
+                    return false;
+                }
+                int flag;
+                int length;
+                try {
+                    flag = in.readUnsignedByte();
+                    length = in.readInt();
+                }
+                catch (EOFException e) {
+                    throw new IOException("segment is truncated", e);
+                }
+                if (flag > 1 || length < TAG_LENGTH || length > sealed.length) {
+                    throw new IOException("corrupt chunk header at chunk " + index);
+                }
+                try {
+                    in.readFully(sealed, 0, length);
+                }
+                catch (EOFException e) {
+                    throw new IOException("segment is truncated", e);
+                }
+                last = flag == 1;
+                try {
+                    cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, nonce(prefix, index, last)));
+                    limit = cipher.doFinal(sealed, 0, length, plain, 0);
+                }
+                catch (AEADBadTagException e) {
+                    throw new IOException("chunk " + index + " failed authentication", e);
+                }
+                catch (GeneralSecurityException e) {
+                    throw new IOException("cannot open chunk " + index, e);
+                }
+                position = 0;
+                index++;
+            }
+            return true;
+        }
+    }
+}
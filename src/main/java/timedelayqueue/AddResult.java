@@ -0,0 +1,28 @@
+package timedelayqueue;
+
+/**
+ * The outcome of offering a message to a TimeDelayQueue.
+ */
+public enum AddResult {
+
+    /** The message was queued in memory. */
+    ADDED,
+
+    /** The message was queued on disk, because the queue is full and spills to disk. */
+    SPILLED,
+
+    /** A message with the same ID is already queued; nothing changed. */
+    DUPLICATE,
+
+    /** The queue is full, or the message alone exceeds its capacity, and the message was refused. */
+    REJECTED;
+
+    /**
+     * Check whether the message is now in the queue because of this offer
+     *
+     * @return true for ADDED and SPILLED
+     */
+    public boolean isAccepted() {
+        return this == ADDED || this == SPILLED;
+    }
+}
@@ -2,7 +2,8 @@ package timedelayqueue;
 
 public enum BasicMessageType implements MessageType {
     SIMPLEMSG("A simple message from a sender to one or more recipients"),
-    TWEET("A tweet from Twitter with all the metadata");
+    TWEET("A tweet from Twitter with all the metadata"),
+    TOPICMSG("A message published to a topic and delivered to its subscribers");
 
     private String description;
 
@@ -0,0 +1,17 @@
+package timedelayqueue;
+
+import java.util.UUID;
+
+/**
+ * Mints the IDs of messages created without an explicit ID.
+ * Implementations must be safe to call from many threads at once.
+ */
+public interface MessageIdGenerator {
+
+    /**
+     * Mint a new message ID
+     *
+     * @return an ID no other call has returned
+     */
+    UUID nextId();
+}
@@ -0,0 +1,25 @@
+package timedelayqueue;
+
+/**
+ * What a bounded TimeDelayQueue does with a message that does not fit within its capacity.
+ * Under every policy, transient messages that have already expired are dropped first,
+ * since getNext can never return them.
+ */
+public enum OverflowPolicy {
+
+    /** Refuse the new message and keep every queued one. */
+    REJECT_NEW,
+
+    /** Drop the earliest queued messages until the new one fits. */
+    DROP_OLDEST,
+
+    /** Drop queued transient messages, earliest first, then the earliest other messages. */
+    DROP_TRANSIENT_FIRST,
+
+    /**
+     * Keep the earliest messages in memory and move the rest to sorted segments on disk, which are
+     * read back ahead of need as the queue drains. Memory then holds at most the capacity plus a
+     * segment being written and a segment being read ahead, each a quarter of the capacity.
+     */
+    SPILL_TO_DISK
+}
@@ -0,0 +1,86 @@
+package timedelayqueue;
+
+/*
+ * Class Description:
+ * A snapshot of how a bounded TimeDelayQueue has dealt with overflow, and of how full it is.
+ * Snapshots of several queues can be added up into totals.
+ *
+ * Rep Invariant & Abstraction Function:
+ * every count >= 0
+ *
+ * Thread Safety Argument:
+ * immutable
+ * */
+public class OverflowStats {
+
+    public static final OverflowStats NONE = new OverflowStats(0, 0, 0, 0, 0, 0);
+
+    private final long rejected;
+    private final long dropped;
+    private final long spilled;
+    private final long messagesInMemory;
+    private final long bytesInMemory;
+    private final long messagesOnDisk;
+
+    /**
+     * Create a snapshot
+     *
+     * @param rejected         messages refused so far
+     * @param dropped          queued messages dropped so far to make room
+     * @param spilled          messages moved or written to disk so far
+     * @param messagesInMemory messages queued in memory now
+     * @param bytesInMemory    estimated bytes of the messages queued in memory now
+     * @param messagesOnDisk   messages queued on disk now
+     */
+    public OverflowStats(long rejected, long dropped, long spilled,
+                         long messagesInMemory, long bytesInMemory, long messagesOnDisk) {
+        this.rejected = rejected;
+        this.dropped = dropped;
+        this.spilled = spilled;
+        this.messagesInMemory = messagesInMemory;
+        this.bytesInMemory = bytesInMemory;
+        this.messagesOnDisk = messagesOnDisk;
+    }
+
+    /**
+     * Add two snapshots
+     *
+     * @param other is not null
+     * @return a snapshot whose every count is the sum of the two
+     */
+    public OverflowStats plus(OverflowStats other) {
+        return new OverflowStats(rejected + other.rejected, dropped + other.dropped, spilled + other.spilled,
+                messagesInMemory + other.messagesInMemory, bytesInMemory + other.bytesInMemory,
+                messagesOnDisk + other.messagesOnDisk);
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+
+    public long getSpilled() {
+        return spilled;
+    }
+
+    public long getMessagesInMemory() {
+        return messagesInMemory;
+    }
+
+    public long getBytesInMemory() {
+        return bytesInMemory;
+    }
+
+    public long getMessagesOnDisk() {
+        return messagesOnDisk;
+    }
+
+    @Override
+    public String toString() {
+        return "rejected " + rejected + ", dropped " + dropped + ", spilled " + spilled
+                + ", in memory " + messagesInMemory + " (" + bytesInMemory + " bytes), on disk " + messagesOnDisk;
+    }
+}
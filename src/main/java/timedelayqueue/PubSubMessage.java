@@ -14,6 +14,8 @@ public class PubSubMessage implements TimestampedObject {
         ZERO_UUID,
         "",
         BasicMessageType.SIMPLEMSG);
+    // mints the IDs of messages created with implicit args
+    private static volatile MessageIdGenerator idGenerator = new TimeOrderedIdGenerator();
     private final String content;
     private final boolean isTransient;
     private final UUID sender;
@@ -53,7 +55,7 @@ public class PubSubMessage implements TimestampedObject {
     // create a PubSubMessage instance with implicit args
     public PubSubMessage(UUID sender, UUID receiver, String content) {
         this(
-            UUID.randomUUID(),
+            idGenerator.nextId(),
             new Timestamp(System.currentTimeMillis()),
             sender, receiver,
             content,
@@ -64,7 +66,7 @@ public class PubSubMessage implements TimestampedObject {
     // create a PubSubMessage instance with implicit args
     public PubSubMessage(UUID sender, List<UUID> receiver, String content) {
         this(
-            UUID.randomUUID(),
+            idGenerator.nextId(),
             new Timestamp(System.currentTimeMillis()),
             sender, receiver,
             content,
@@ -72,6 +74,17 @@ public class PubSubMessage implements TimestampedObject {
         );
     }
 
+    // mint the ID of a message created with implicit args
+    static UUID nextId() {
+        return idGenerator.nextId();
+    }
+
+    // change how the IDs of messages created with implicit args are minted;
+    // the default mints time-ordered IDs with a TimeOrderedIdGenerator
+    public static void setIdGenerator(MessageIdGenerator generator) {
+        idGenerator = generator;
+    }
+
     @Override
     public UUID getId() {
         return id;
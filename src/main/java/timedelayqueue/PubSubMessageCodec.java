@@ -0,0 +1,150 @@
+package timedelayqueue;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/*
+ * Class Description:
+ * Converts PubSubMessages to and from JSON objects one field at a time with Gson's streaming
+ * JsonWriter and JsonReader, so that a long run of messages can be encoded to or decoded from a
+ * stream without building an object tree for each one. Transient messages keep their lifetime and
+ * topic messages their topic.
+ *
+ * A message is written as
+ * {"id":..., "timestamp":<epoch millis>, "sender":..., "receiver":[...], "content":...,
+ *  "type":<BasicMessageType name>[, "lifetime":<millis>][, "topic":...]}
+ * and only messages whose type is a BasicMessageType can be encoded.
+ *
+ * Rep Invariant & Abstraction Function:
+ * stateless
+ *
+ * Thread Safety Argument:
+ * stateless; each call only uses the writer or reader it is given
+ * */
+public class PubSubMessageCodec {
+
+    private PubSubMessageCodec() {
+    }
+
+    /**
+     * Write a message as a JSON object
+     *
+     * @param out is not null
+     * @param msg is a message whose type is a BasicMessageType
+     * @throws IOException if out cannot be written to
+     */
+    public static void write(JsonWriter out, PubSubMessage msg) throws IOException {
+        write(out, msg, msg.getReceiver());
+    }
+
+    /**
+     * Write a message as a JSON object, addressed to some of its receivers only
+     *
+     * @param out       is not null
+     * @param msg       is a message whose type is a BasicMessageType
+     * @param receivers the receivers to record in place of the message's own
+     * @throws IOException if out cannot be written to
+     */
+    public static void write(JsonWriter out, PubSubMessage msg, List<UUID> receivers) throws IOException {
+        if (!(msg.getType() instanceof BasicMessageType)) {
+            throw new IllegalArgumentException("cannot encode message type " + msg.getType());
+        }
+        out.beginObject();
+        out.name("id").value(msg.getId().toString());
+        out.name("timestamp").value(msg.getTimestamp().getTime());
+        out.name("sender").value(msg.getSender().toString());
+        out.name("receiver").beginArray();
+        for (UUID receiver : receivers) {
+            out.value(receiver.toString());
+        }
+        out.endArray();
+        out.name("content").value(msg.getContent());
+        out.name("type").value(((BasicMessageType) msg.getType()).name());
+        if (msg.isTransient()) {
+            out.name("lifetime").value(((TransientPubSubMessage) msg).getLifetime());
+        }
+        if (msg instanceof TopicPubSubMessage) {
+            out.name("topic").value(((TopicPubSubMessage) msg).getTopic());
+        }
+        out.endObject();
+    }
+
+    /**
+     * Read a message written by <code>write</code>
+     *
+     * @param in is positioned at the start of a message object
+     * @return the decoded message, a TransientPubSubMessage if it was written with a lifetime or a
+     * TopicPubSubMessage if it was written with a topic
+     * @throws IOException if in cannot be read or does not hold a complete message
+     */
+    public static PubSubMessage read(JsonReader in) throws IOException {
+        UUID id = null;
+        Timestamp timestamp = null;
+        UUID sender = null;
+        List<UUID> receivers = new ArrayList<>();
+        String content = null;
+        MessageType type = BasicMessageType.SIMPLEMSG;
+        Integer lifetime = null;
+        String topic = null;
+
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "id":
+                    id = UUID.fromString(in.nextString());
+                    break;
+                case "timestamp":
+                    timestamp = new Timestamp(in.nextLong());
+                    break;
+                case "sender":
+                    sender = UUID.fromString(in.nextString());
+                    break;
+                case "receiver":
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        receivers.add(UUID.fromString(in.nextString()));
+                    }
+                    in.endArray();
+                    break;
+                case "content":
+                    content = in.nextString();
+                    break;
+                case "type":
+                    type = BasicMessageType.valueOf(in.nextString());
+                    break;
+                case "lifetime":
+                    lifetime = in.nextInt();
+                    break;
+                case "topic":
+                    topic = in.nextString();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+
+        if (id == null || timestamp == null || sender == null || content == null) {
+            throw new IOException("incomplete message " + id);
+        }
+        if (lifetime != null) {
+            return new TransientPubSubMessage(id, timestamp, sender, receivers, content, type, lifetime);
+        }
+        if (topic != null) {
+            return new TopicPubSubMessage(id, timestamp, sender, receivers, content, topic);
+        }
+        return new PubSubMessage(id, timestamp, sender, receivers, content, type);
+    }
+}
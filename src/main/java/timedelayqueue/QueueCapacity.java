@@ -0,0 +1,93 @@
+package timedelayqueue;
+
+import java.io.File;
+
+/*
+ * Class Description:
+ * The limits of a TimeDelayQueue, in messages and in estimated bytes of heap, and the policy it
+ * follows when a message would take it past either limit. The size of a message is estimated from
+ * its content and number of receivers, which dominate its footprint, plus a fixed overhead.
+ *
+ * Rep Invariant & Abstraction Function:
+ * maxMessages > 0 && maxBytes > 0 && policy != null
+ * spillDir != null if policy == SPILL_TO_DISK
+ *
+ * Thread Safety Argument:
+ * immutable
+ * */
+public class QueueCapacity {
+
+    // object headers, ID, timestamp, sender and list of a message, measured on a 64-bit JVM
+    private static final long MESSAGE_OVERHEAD = 200;
+    private static final long RECEIVER_OVERHEAD = 40;
+
+    public static final QueueCapacity UNBOUNDED =
+            new QueueCapacity(Integer.MAX_VALUE, Long.MAX_VALUE, OverflowPolicy.REJECT_NEW);
+
+    private final int maxMessages;
+    private final long maxBytes;
+    private final OverflowPolicy policy;
+    private final File spillDir;
+
+    /**
+     * Create limits for a queue that does not spill to disk
+     *
+     * @param maxMessages the most messages held, > 0
+     * @param maxBytes    the most estimated bytes held, > 0
+     * @param policy      is not SPILL_TO_DISK
+     * @throws IllegalArgumentException if a limit is not positive or the policy is SPILL_TO_DISK
+     */
+    public QueueCapacity(int maxMessages, long maxBytes, OverflowPolicy policy) {
+        this(maxMessages, maxBytes, policy, null);
+    }
+
+    /**
+     * Create limits for a queue
+     *
+     * @param maxMessages the most messages held in memory, > 0
+     * @param maxBytes    the most estimated bytes held in memory, > 0
+     * @param policy      is not null
+     * @param spillDir    an existing directory for spilled messages if the policy is
+     *                    SPILL_TO_DISK, otherwise ignored
+     * @throws IllegalArgumentException if a limit is not positive, or the policy is SPILL_TO_DISK
+     *                                  and spillDir is not a directory
+     */
+    public QueueCapacity(int maxMessages, long maxBytes, OverflowPolicy policy, File spillDir) {
+        if (maxMessages <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("limits must be positive: " + maxMessages + ", " + maxBytes);
+        }
+        if (policy == OverflowPolicy.SPILL_TO_DISK && (spillDir == null || !spillDir.isDirectory())) {
+            throw new IllegalArgumentException("spilling needs a directory: " + spillDir);
+        }
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.policy = policy;
+        this.spillDir = policy == OverflowPolicy.SPILL_TO_DISK ? spillDir : null;
+    }
+
+    /**
+     * Estimate how much heap a message takes
+     *
+     * @param msg is not null
+     * @return the estimated size of the message in bytes
+     */
+    public static long estimateSize(PubSubMessage msg) {
+        return MESSAGE_OVERHEAD + 2L * msg.getContent().length() + RECEIVER_OVERHEAD * msg.getReceiver().size();
+    }
+
+    public int getMaxMessages() {
+        return maxMessages;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    public File getSpillDir() {
+        return spillDir;
+    }
+}
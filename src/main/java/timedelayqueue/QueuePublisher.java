@@ -0,0 +1,280 @@
+package timedelayqueue;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/*
+ * Class Description:
+ * Publishes the messages of a TimeDelayQueue to Flow subscribers as they become active, instead of
+ * making consumers poll getNext. Each message is taken from the queue and sent to exactly one
+ * subscriber, so several subscribers to the same queue share its messages like several callers of
+ * getNext would. A subscription takes only as many messages as its subscriber has requested;
+ * everything else stays in the queue, so a slow subscriber costs no buffering at all.
+ *
+ * Signals are sent by tasks run on the publisher's executor, or on the one given with a subscriber,
+ * one task at a time per subscription, so one publisher can serve callers with their own executors; no
+ * thread ever waits for a message: a subscription with outstanding demand is woken by the queue's
+ * readiness listener when messages are added, or by a shared timer when the earliest message in
+ * the queue becomes active. Idle subscriptions therefore cost memory but no threads, and an
+ * executor of virtual threads or a small pool serves any number of them.
+ *
+ * Rep Invariant & Abstraction Function:
+ * subscriptions holds every subscription that is neither cancelled nor completed; a subscription's
+ * demand is the number of messages requested and not yet sent, Long.MAX_VALUE meaning unbounded
+ *
+ * Thread Safety Argument:
+ * subscriptions is a concurrent set; each subscription's state is atomic or volatile, and its
+ * signals are serialized by a work-in-progress counter, so only one task signals a subscriber at a time
+ * */
+public class QueuePublisher implements Flow.Publisher<PubSubMessage> {
+
+    // the most messages taken from the queue at once
+    private static final int MAX_BATCH = 256;
+    private static final long NOT_SCHEDULED = Long.MAX_VALUE;
+
+    // one timer thread for every publisher; it only hands wakeups to the publishers' executors
+    private static final ScheduledExecutorService TIMER = createTimer();
+
+    private final TimeDelayQueue queue;
+    private final Executor executor;
+    private final Consumer<PubSubMessage> onSent;
+    private final Set<QueueSubscription> subscriptions;
+    private final ReadinessListener listener;
+    private volatile boolean closed;
+
+    /**
+     * Create a publisher of a queue's messages
+     *
+     * @param queue    is not null
+     * @param executor runs the tasks that signal subscribers, is not null
+     */
+    public QueuePublisher(TimeDelayQueue queue, Executor executor) {
+        this(queue, executor, msg -> { });
+    }
+
+    /**
+     * Create a publisher of a queue's messages that reports each message sent
+     *
+     * @param queue    is not null
+     * @param executor runs the tasks that signal subscribers, is not null
+     * @param onSent   is called with each message after a subscriber's onNext returns
+     */
+    public QueuePublisher(TimeDelayQueue queue, Executor executor, Consumer<PubSubMessage> onSent) {
+        this.queue = queue;
+        this.executor = executor;
+        this.onSent = onSent;
+        this.subscriptions = ConcurrentHashMap.newKeySet();
+        this.listener = (q, eligibleAt) -> {
+            for (QueueSubscription subscription : subscriptions) {
+                if (subscription.demand.get() > 0) {
+                    subscription.wakeAt(eligibleAt);
+                }
+            }
+        };
+        queue.addReadinessListener(listener);
+    }
+
+    private static ScheduledExecutorService createTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, task -> {
+            Thread thread = new Thread(task, "queue-publisher-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super PubSubMessage> subscriber) {
+        subscribe(subscriber, executor);
+    }
+
+    /**
+     * Add a subscriber whose signals are sent by tasks run on its own executor
+     *
+     * @param subscriber is not null
+     * @param executor   runs the tasks that signal <code>subscriber</code>, is not null
+     */
+    public void subscribe(Flow.Subscriber<? super PubSubMessage> subscriber, Executor executor) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        QueueSubscription subscription = new QueueSubscription(subscriber, executor);
+        subscriptions.add(subscription);
+        // checked after adding, so close either completes this subscription or is seen here
+        if (closed) {
+            subscription.completed = true;
+        }
+        subscription.signal();
+    }
+
+    /**
+     * Complete every subscription and stop watching the queue; messages still in the queue stay there
+     */
+    public void close() {
+        closed = true;
+        queue.removeReadinessListener(listener);
+        for (QueueSubscription subscription : subscriptions) {
+            subscription.completed = true;
+            subscription.signal();
+        }
+    }
+
+    /**
+     * Get the number of active subscriptions
+     *
+     * @return the number of subscriptions neither cancelled nor completed
+     */
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    private class QueueSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super PubSubMessage> subscriber;
+        private final Executor executor;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private final AtomicLong wakeAt = new AtomicLong(NOT_SCHEDULED);
+        private volatile boolean subscribed;
+        private volatile boolean cancelled;
+        private volatile boolean completed;
+        private volatile Throwable error;
+
+        QueueSubscription(Flow.Subscriber<? super PubSubMessage> subscriber, Executor executor) {
+            this.subscriber = subscriber;
+            this.executor = executor;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("non-positive request: " + n);
+            } else {
+                demand.getAndUpdate(d -> d + n < 0 ? Long.MAX_VALUE : d + n);
+            }
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+
+        // wake up at a given time, unless a wakeup at or before it is already scheduled
+        void wakeAt(long time) {
+            long delay = time - System.currentTimeMillis();
+            if (delay <= 0) {
+                signal();
+                return;
+            }
+            long scheduled = wakeAt.get();
+            while (time < scheduled) {
+                if (wakeAt.compareAndSet(scheduled, time)) {
+                    TIMER.schedule(() -> {
+                        wakeAt.compareAndSet(time, NOT_SCHEDULED);
+                        signal();
+                    }, delay, TimeUnit.MILLISECONDS);
+                    return;
+                }
+                scheduled = wakeAt.get();
+            }
+        }
+
+        // run drain on the executor, unless it is already running; then it runs once more
+        void signal() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            try {
+                executor.execute(this::drain);
+            }
+            catch (RejectedExecutionException e) {
+                wip.set(0);
+                cancel();
+            }
+        }
+
+        private void drain() {
+            int missed = 1;
+            do {
+                try {
+                    drainOnce();
+                }
+                catch (RuntimeException e) {
+                    // onSubscribe, onError or onComplete threw, which breaks the Flow contract
+                    cancel();
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drainOnce() {
+            if (cancelled) {
+                return;
+            }
+            if (!subscribed) {
+                subscribed = true;
+                subscriber.onSubscribe(this);
+            }
+            if (error != null) {
+                cancel();
+                subscriber.onError(error);
+                return;
+            }
+            if (completed) {
+                cancel();
+                subscriber.onComplete();
+                return;
+            }
+            long requested = demand.get();
+            while (requested > 0 && !cancelled) {
+                long now = System.currentTimeMillis();
+                if (queue.nextEligibleTime() > now) {
+                    break;
+                }
+                List<PubSubMessage> batch = queue.getNext((int) Math.min(requested, MAX_BATCH), now);
+                if (batch.isEmpty()) {
+                    break;
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    boolean sent = false;
+                    if (!cancelled) {
+                        try {
+                            subscriber.onNext(batch.get(i));
+                            sent = true;
+                        }
+                        catch (RuntimeException e) {
+                            // a subscriber that throws breaks the Flow contract; stop sending to it
+                            cancel();
+                        }
+                    }
+                    if (!sent) {
+                        // put back what this subscriber never got
+                        queue.putBack(batch.subList(i, batch.size()));
+                        return;
+                    }
+                    onSent.accept(batch.get(i));
+                }
+                requested = requested == Long.MAX_VALUE
+                        ? Long.MAX_VALUE : demand.addAndGet(-batch.size());
+            }
+            if (requested > 0 && !cancelled) {
+                long next = queue.nextEligibleTime();
+                if (next != Long.MAX_VALUE) {
+                    wakeAt(next);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package timedelayqueue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/*
+ * Class Description:
+ * Multiplexes readiness over many TimeDelayQueues, like a selector over channels, so a few worker
+ * threads can serve a great many queues without polling each one. Queues are registered under a
+ * key. The selector keeps a min-heap of the time each queue next has a message to return, fed by
+ * the queues' readiness listeners, and select blocks until the earliest of those times and hands
+ * back the queues that are ready, in the order they became ready.
+ *
+ * A selected queue is owned by the caller that selected it and is not selected again until that
+ * caller calls rearm, typically after draining it; messages added in between are picked up by
+ * rearm. This lets several threads select at once without two of them serving the same queue.
+ *
+ * Rep Invariant & Abstraction Function:
+ * registrations maps each registered key to its queue; a registration that is not selected and
+ * whose queue has a message to return has scheduledAt equal to the time that message is active,
+ * and heap holds a wakeup with that time for it; otherwise scheduledAt == IDLE. Wakeups whose
+ * time differs from their registration's scheduledAt are stale and skipped
+ *
+ * Thread Safety Argument:
+ * registrations, heap and every registration's state are guarded by this selector's lock. Queue
+ * methods are never called while holding it, because queues call back into the selector while
+ * adding messages
+ * */
+public class QueueSelector<K> {
+
+    private static final long IDLE = Long.MAX_VALUE;
+
+    private class Registration implements ReadinessListener {
+        final K key;
+        final TimeDelayQueue queue;
+        long scheduledAt = IDLE;
+        boolean selected;
+        boolean cancelled;
+
+        Registration(K key, TimeDelayQueue queue) {
+            this.key = key;
+            this.queue = queue;
+        }
+
+        @Override
+        public void messagesAdded(TimeDelayQueue queue, long eligibleAt) {
+            schedule(this, eligibleAt);
+        }
+    }
+
+    private class Wakeup {
+        final long time;
+        final Registration registration;
+
+        Wakeup(long time, Registration registration) {
+            this.time = time;
+            this.registration = registration;
+        }
+
+        boolean isStale() {
+            return registration.cancelled || registration.selected || registration.scheduledAt != time;
+        }
+    }
+
+    private final Map<K, Registration> registrations;
+    private final PriorityQueue<Wakeup> heap;
+    private int wakeups;
+
+    /**
+     * Create a new QueueSelector with no queues registered
+     */
+    public QueueSelector() {
+        this.registrations = new HashMap<>();
+        this.heap = new PriorityQueue<>((w1, w2) -> Long.compare(w1.time, w2.time));
+    }
+
+    /**
+     * Register a queue
+     *
+     * @param key   identifies the queue, is not null
+     * @param queue is not registered with another key
+     * @throws IllegalArgumentException if the key is already registered
+     */
+    public void register(K key, TimeDelayQueue queue) {
+        Registration registration = new Registration(key, queue);
+        synchronized (this) {
+            if (registrations.containsKey(key)) {
+                throw new IllegalArgumentException("already registered: " + key);
+            }
+            registrations.put(key, registration);
+        }
+        queue.addReadinessListener(registration);
+        schedule(registration, queue.nextEligibleTime());
+    }
+
+    /**
+     * Stop watching a queue
+     *
+     * @param key identifies the queue
+     * @return true if the key was registered
+     */
+    public boolean deregister(K key) {
+        Registration registration;
+        synchronized (this) {
+            registration = registrations.remove(key);
+            if (registration == null) {
+                return false;
+            }
+            registration.cancelled = true;
+        }
+        registration.queue.removeReadinessListener(registration);
+        return true;
+    }
+
+    /**
+     * Wait until at least one registered queue has a message to return and select it
+     *
+     * @param timeoutMillis the longest time to wait, in milliseconds; 0 to return at once
+     * @param maxBatch      the most queues to select, > 0
+     * @return the selected queues by key, in the order they became ready; empty if none became
+     * ready in time or wakeup was called
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public Map<K, TimeDelayQueue> select(long timeoutMillis, int maxBatch) throws InterruptedException {
+        if (maxBatch <= 0) {
+            throw new IllegalArgumentException("maxBatch must be positive: " + maxBatch);
+        }
+        long deadline = System.currentTimeMillis() + Math.max(timeoutMillis, 0);
+        while (true) {
+            List<Registration> due = new ArrayList<>();
+            synchronized (this) {
+                int seenWakeups = wakeups;
+                while (true) {
+                    long now = System.currentTimeMillis();
+                    long next = takeDue(now, maxBatch, due);
+                    if (!due.isEmpty()) {
+                        break;
+                    }
+                    long wait = Math.min(next, deadline) - now;
+                    if (wait <= 0 || wakeups != seenWakeups) {
+                        return new LinkedHashMap<>();
+                    }
+                    wait(wait);
+                }
+            }
+
+            // messages may have been taken by other means since the queue was scheduled
+            Map<K, TimeDelayQueue> ready = new LinkedHashMap<>();
+            long now = System.currentTimeMillis();
+            for (Registration registration : due) {
+                long eligibleAt = registration.queue.nextEligibleTime();
+                if (eligibleAt <= now) {
+                    ready.put(registration.key, registration.queue);
+                } else {
+                    release(registration, eligibleAt);
+                }
+            }
+            if (!ready.isEmpty()) {
+                return ready;
+            }
+        }
+    }
+
+    /**
+     * Make a selected queue selectable again, once it has a message to return
+     *
+     * @param key identifies a queue returned by select
+     */
+    public void rearm(K key) {
+        Registration registration;
+        synchronized (this) {
+            registration = registrations.get(key);
+            if (registration == null || !registration.selected) {
+                return;
+            }
+            registration.selected = false;
+        }
+        schedule(registration, registration.queue.nextEligibleTime());
+    }
+
+    /**
+     * Make every thread blocked in select return at once
+     */
+    public synchronized void wakeup() {
+        wakeups++;
+        notifyAll();
+    }
+
+    /**
+     * Get the time when the next queue that is not selected becomes ready
+     *
+     * @return the time in epoch milliseconds, which may already have passed; Long.MAX_VALUE if
+     * no such queue has a message to return
+     */
+    public synchronized long nextEligibleTime() {
+        dropStale();
+        return heap.isEmpty() ? Long.MAX_VALUE : heap.peek().time;
+    }
+
+    /**
+     * Get the number of registered queues
+     *
+     * @return the number of registered queues
+     */
+    public synchronized int size() {
+        return registrations.size();
+    }
+
+    // move up to maxBatch registrations due by now into due, returning the next wakeup time after that
+    private long takeDue(long now, int maxBatch, List<Registration> due) {
+        while (true) {
+            dropStale();
+            if (heap.isEmpty()) {
+                return Long.MAX_VALUE;
+            }
+            Wakeup next = heap.peek();
+            if (next.time > now || due.size() == maxBatch) {
+                return next.time;
+            }
+            heap.poll();
+            next.registration.selected = true;
+            next.registration.scheduledAt = IDLE;
+            due.add(next.registration);
+        }
+    }
+
+    private void dropStale() {
+        while (!heap.isEmpty() && heap.peek().isStale()) {
+            heap.poll();
+        }
+    }
+
+    private synchronized void release(Registration registration, long eligibleAt) {
+        registration.selected = false;
+        schedule(registration, eligibleAt);
+    }
+
+    private synchronized void schedule(Registration registration, long eligibleAt) {
+        if (registration.cancelled || registration.selected || eligibleAt >= registration.scheduledAt) {
+            return;
+        }
+        registration.scheduledAt = eligibleAt;
+        Wakeup wakeup = new Wakeup(eligibleAt, registration);
+        heap.add(wakeup);
+        dropStale();
+        // only a new earliest wakeup shortens the time selecting threads wait
+        if (heap.peek() == wakeup) {
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package timedelayqueue;
+
+/**
+ * Is told when messages are added to a TimeDelayQueue, and when the earliest of them
+ * becomes active. Called on the adding thread after the queue's lock is released,
+ * so implementations must be safe to call from many threads at once and should return quickly.
+ */
+public interface ReadinessListener {
+
+    /**
+     * Called after messages are added to a queue
+     *
+     * @param queue      the queue the messages were added to
+     * @param eligibleAt the time, in epoch milliseconds, when the earliest added message becomes
+     *                   active; it may already have passed
+     */
+    void messagesAdded(TimeDelayQueue queue, long eligibleAt);
+}
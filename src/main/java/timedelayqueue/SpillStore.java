@@ -0,0 +1,472 @@
+package timedelayqueue;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import security.SegmentCipher;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Class Description:
+ * Holds the messages a TimeDelayQueue moved to disk, as sorted segments whose ranges do not overlap,
+ * so the earliest spilled messages are always the first segment and can be taken back without reading
+ * the others. A segment is a file of at most a given number of messages and bytes, encoded by
+ * PubSubMessageCodec and encrypted by a SegmentCipher under a random key that only ever exists in
+ * memory, so spilled content cannot be read back after the process ends.
+ * Single messages are staged in memory and written a segment at a time; a batch that falls within
+ * existing segments is merged into just those segments. The first segment can be read ahead on a
+ * shared background thread, so taking it does not wait for the disk.
+ * Memory use is bounded by one staged and one prefetched segment, plus the first and last message
+ * and a Bloom filter of about ten bits per message for each segment on disk.
+ *
+ * Rep Invariant & Abstraction Function:
+ * segments are in order, and every message of segments[i] is ordered before every message of segments[i + 1];
+ * staged is in order and holds at most segmentMessages messages and segmentBytes estimated bytes;
+ * the spilled messages are those of all segments and staged, size of them in total;
+ * prefetch, if not null, reads the messages of prefetched, which is segments[0]
+ *
+ * Thread Safety Argument:
+ * not thread-safe; the owning queue calls it while holding its own lock.
+ * A prefetch task only reads a segment file, which is not written again and is deleted only
+ * after the task is cancelled or its result taken
+ * */
+class SpillStore {
+
+    private static final String SEGMENT_SUFFIX = ".spill";
+    private static final int IO_BUFFER = 64 * 1024;
+    private static final int KEY_BYTES = 32;
+    private static final int BLOOM_BITS_PER_MESSAGE = 10;
+    private static final int BLOOM_HASHES = 5;
+
+    private static final ExecutorService PREFETCHER = createPrefetcher();
+
+    private final Path dir;
+    private final String prefix;
+    private final SegmentCipher cipher;
+    private final Comparator<PubSubMessage> order;
+    private final int segmentMessages;
+    private final long segmentBytes;
+    private final List<Segment> segments;
+    private final List<PubSubMessage> staged;
+    private long stagedBytes;
+    private int size;
+    private long nextSegment;
+    private Segment prefetched;
+    private Future<List<PubSubMessage>> prefetch;
+
+    /**
+     * Create an empty store
+     *
+     * @param dir             an existing directory, which may be shared with other stores
+     * @param order           the order of the owning queue
+     * @param segmentMessages the most messages in a segment, > 0
+     * @param segmentBytes    the most estimated bytes in a segment, > 0; a segment always holds at least one message
+     */
+    SpillStore(File dir, Comparator<PubSubMessage> order, int segmentMessages, long segmentBytes) {
+        SecureRandom random = new SecureRandom();
+        byte[] key = new byte[KEY_BYTES];
+        random.nextBytes(key);
+        this.dir = dir.toPath();
+        this.prefix = UUID.randomUUID().toString();
+        this.cipher = new SegmentCipher(key);
+        this.order = order;
+        this.segmentMessages = segmentMessages;
+        this.segmentBytes = segmentBytes;
+        this.segments = new ArrayList<>();
+        this.staged = new ArrayList<>();
+    }
+
+    private static ExecutorService createPrefetcher() {
+        return Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), task -> {
+            Thread thread = new Thread(task, "spill-prefetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Spill a single message, which is staged in memory until a segment's worth is waiting
+     *
+     * @param msg is not already spilled
+     * @throws UncheckedIOException if the staged messages cannot be written
+     */
+    void add(PubSubMessage msg) {
+        int pos = Collections.binarySearch(staged, msg, order);
+        staged.add(-(pos + 1), msg);
+        stagedBytes += QueueCapacity.estimateSize(msg);
+        size++;
+        if (staged.size() >= segmentMessages || stagedBytes >= segmentBytes) {
+            List<PubSubMessage> batch = new ArrayList<>(staged);
+            staged.clear();
+            stagedBytes = 0;
+            size -= batch.size();
+            write(batch);
+        }
+    }
+
+    /**
+     * Write a batch of messages to disk. Messages ordered before or after every segment become new
+     * segments; the others are merged into the segments they fall within.
+     *
+     * @param sorted messages in order, none already spilled
+     * @throws UncheckedIOException if a segment cannot be read or written
+     */
+    void write(List<PubSubMessage> sorted) {
+        if (sorted.isEmpty()) {
+            return;
+        }
+        size += sorted.size();
+        if (segments.isEmpty() || order.compare(sorted.get(sorted.size() - 1), segments.get(0).first) < 0) {
+            segments.addAll(0, writeSegments(sorted));
+            return;
+        }
+        Segment last = segments.get(segments.size() - 1);
+        int end = sorted.size();
+        while (end > 0 && order.compare(sorted.get(end - 1), last.last) > 0) {
+            end--;
+        }
+        List<Segment> appended = writeSegments(sorted.subList(end, sorted.size()));
+        int start = 0;
+        while (start < end && order.compare(sorted.get(start), segments.get(0).first) < 0) {
+            start++;
+        }
+        List<Segment> prepended = writeSegments(sorted.subList(0, start));
+        // each remaining message belongs to the last segment that starts before it
+        int i = 0;
+        while (start < end) {
+            while (i + 1 < segments.size() && order.compare(sorted.get(start), segments.get(i + 1).first) > 0) {
+                i++;
+            }
+            int groupEnd = start;
+            while (groupEnd < end && (i + 1 == segments.size()
+                    || order.compare(sorted.get(groupEnd), segments.get(i + 1).first) < 0)) {
+                groupEnd++;
+            }
+            List<Segment> merged = writeSegments(merge(load(segments.get(i)), sorted.subList(start, groupEnd)));
+            delete(segments.set(i, merged.get(0)));
+            segments.addAll(i + 1, merged.subList(1, merged.size()));
+            i += merged.size() - 1;
+            start = groupEnd;
+        }
+        segments.addAll(0, prepended);
+        segments.addAll(appended);
+    }
+
+    /**
+     * Take the earliest spilled messages back: the first segment, with any staged messages ordered
+     * within it, or the staged messages if no segment is on disk
+     *
+     * @return the messages taken, in order; every message still spilled is ordered after them
+     * @throws UncheckedIOException if the segment cannot be read
+     */
+    List<PubSubMessage> takeFirst() {
+        List<PubSubMessage> taken;
+        if (segments.isEmpty()) {
+            taken = new ArrayList<>(staged);
+            staged.clear();
+            stagedBytes = 0;
+        } else {
+            Segment first = segments.remove(0);
+            List<PubSubMessage> msgs = load(first);
+            delete(first);
+            int end = 0;
+            while (end < staged.size() && order.compare(staged.get(end), first.last) < 0) {
+                stagedBytes -= QueueCapacity.estimateSize(staged.get(end));
+                end++;
+            }
+            List<PubSubMessage> within = staged.subList(0, end);
+            taken = merge(msgs, within);
+            within.clear();
+        }
+        size -= taken.size();
+        return taken;
+    }
+
+    /**
+     * Start reading the first segment in the background, unless it is already being read
+     */
+    void prefetch() {
+        if (segments.isEmpty() || prefetched == segments.get(0)) {
+            return;
+        }
+        cancelPrefetch();
+        Segment first = segments.get(0);
+        prefetched = first;
+        prefetch = PREFETCHER.submit(() -> read(first));
+    }
+
+    /**
+     * Read every spilled message, leaving them on disk
+     *
+     * @return the spilled messages in order
+     * @throws UncheckedIOException if a segment cannot be read
+     */
+    List<PubSubMessage> readAll() {
+        List<PubSubMessage> all = new ArrayList<>(size);
+        for (Segment segment : segments) {
+            all.addAll(read(segment));
+        }
+        return merge(all, staged);
+    }
+
+    /**
+     * Delete every spilled message
+     *
+     * @throws UncheckedIOException if a segment cannot be deleted
+     */
+    void clear() {
+        cancelPrefetch();
+        for (Segment segment : segments) {
+            delete(segment);
+        }
+        segments.clear();
+        staged.clear();
+        stagedBytes = 0;
+        size = 0;
+    }
+
+    /**
+     * Get the earliest spilled message
+     *
+     * @return the earliest spilled message, or null if none are spilled
+     */
+    PubSubMessage first() {
+        PubSubMessage first = segments.isEmpty() ? null : segments.get(0).first;
+        if (!staged.isEmpty() && (first == null || order.compare(staged.get(0), first) < 0)) {
+            first = staged.get(0);
+        }
+        return first;
+    }
+
+    /**
+     * Check whether a message is spilled. Only the segment whose range the message falls within is
+     * searched, and it is read only if its Bloom filter cannot rule the message out.
+     *
+     * @param msg is not null
+     * @return true if a spilled message has the ID of msg and would be ordered in the same place
+     * @throws UncheckedIOException if a segment cannot be read
+     */
+    boolean contains(PubSubMessage msg) {
+        UUID id = msg.getId();
+        for (PubSubMessage currMsg : staged) {
+            if (currMsg.getId().equals(id)) {
+                return true;
+            }
+        }
+        int lo = 0;
+        int hi = segments.size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            Segment segment = segments.get(mid);
+            if (order.compare(msg, segment.first) < 0) {
+                hi = mid - 1;
+            } else if (order.compare(msg, segment.last) > 0) {
+                lo = mid + 1;
+            } else {
+                if (segment.mightContain(id)) {
+                    for (PubSubMessage currMsg : read(segment)) {
+                        if (currMsg.getId().equals(id)) {
+                            return true;
+                        }
+                    }
+                }
+                return false;
+            }
+        }
+        return false;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int getSegmentCount() {
+        return segments.size();
+    }
+
+    // the messages of a segment, from the prefetch if it has read them
+    private List<PubSubMessage> load(Segment segment) {
+        if (segment != prefetched) {
+            return read(segment);
+        }
+        try {
+            return prefetch.get();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return read(segment);
+        }
+        catch (ExecutionException ee) {
+            if (ee.getCause() instanceof UncheckedIOException) {
+                throw (UncheckedIOException) ee.getCause();
+            }
+            throw new IllegalStateException("cannot read spilled messages", ee.getCause());
+        }
+        finally {
+            prefetched = null;
+            prefetch = null;
+        }
+    }
+
+    private void cancelPrefetch() {
+        if (prefetch != null) {
+            prefetch.cancel(false);
+            prefetch = null;
+            prefetched = null;
+        }
+    }
+
+    // write sorted messages as new segments within the size limits, splitting them evenly so none is left tiny
+    private List<Segment> writeSegments(List<PubSubMessage> sorted) {
+        List<Segment> written = new ArrayList<>();
+        int pieces = (sorted.size() + segmentMessages - 1) / segmentMessages;
+        int perSegment = pieces == 0 ? 0 : (sorted.size() + pieces - 1) / pieces;
+        int start = 0;
+        while (start < sorted.size()) {
+            int end = start;
+            long bytes = 0;
+            while (end < sorted.size() && end - start < perSegment) {
+                bytes += QueueCapacity.estimateSize(sorted.get(end));
+                if (end > start && bytes > segmentBytes) {
+                    break;
+                }
+                end++;
+            }
+            written.add(writeSegment(sorted.subList(start, end)));
+            start = end;
+        }
+        return written;
+    }
+
+    private Segment writeSegment(List<PubSubMessage> sorted) {
+        String name = prefix + "-" + nextSegment++;
+        try (JsonWriter out = new JsonWriter(new OutputStreamWriter(cipher.encrypt(
+                new BufferedOutputStream(Files.newOutputStream(file(name)), IO_BUFFER), name), StandardCharsets.UTF_8))) {
+            out.beginArray();
+            for (PubSubMessage msg : sorted) {
+                PubSubMessageCodec.write(out, msg);
+            }
+            out.endArray();
+        }
+        catch (IOException ioe) {
+            throw new UncheckedIOException("cannot spill messages", ioe);
+        }
+        return new Segment(name, sorted);
+    }
+
+    private List<PubSubMessage> read(Segment segment) {
+        List<PubSubMessage> msgs = new ArrayList<>(segment.count);
+        try (JsonReader in = new JsonReader(new InputStreamReader(cipher.decrypt(
+                new BufferedInputStream(Files.newInputStream(file(segment.name)), IO_BUFFER), segment.name),
+                StandardCharsets.UTF_8))) {
+            in.beginArray();
+            while (in.peek() != JsonToken.END_ARRAY) {
+                msgs.add(PubSubMessageCodec.read(in));
+            }
+            in.endArray();
+        }
+        catch (IOException ioe) {
+            throw new UncheckedIOException("cannot read spilled messages", ioe);
+        }
+        return msgs;
+    }
+
+    private void delete(Segment segment) {
+        if (segment == prefetched) {
+            cancelPrefetch();
+        }
+        try {
+            Files.deleteIfExists(file(segment.name));
+        }
+        catch (IOException ioe) {
+            throw new UncheckedIOException("cannot delete spilled messages", ioe);
+        }
+    }
+
+    private List<PubSubMessage> merge(List<PubSubMessage> a, List<PubSubMessage> b) {
+        List<PubSubMessage> merged = new ArrayList<>(a.size() + b.size());
+        int i = 0;
+        int j = 0;
+        while (i < a.size() || j < b.size()) {
+            if (j == b.size() || (i < a.size() && order.compare(a.get(i), b.get(j)) < 0)) {
+                merged.add(a.get(i++));
+            } else {
+                merged.add(b.get(j++));
+            }
+        }
+        return merged;
+    }
+
+    private Path file(String name) {
+        return dir.resolve(name + SEGMENT_SUFFIX);
+    }
+
+    // what is kept in memory about a segment on disk
+    private static class Segment {
+        private final String name;
+        private final PubSubMessage first;
+        private final PubSubMessage last;
+        private final int count;
+        private final long[] bloom;
+
+        Segment(String name, List<PubSubMessage> sorted) {
+            this.name = name;
+            this.first = sorted.get(0);
+            this.last = sorted.get(sorted.size() - 1);
+            this.count = sorted.size();
+            this.bloom = new long[(int) Math.max(1, ((long) count * BLOOM_BITS_PER_MESSAGE + 63) / 64)];
+            for (PubSubMessage msg : sorted) {
+                UUID id = msg.getId();
+                long h1 = mix(id.getMostSignificantBits());
+                long h2 = mix(id.getLeastSignificantBits()) | 1;
+                for (int k = 0; k < BLOOM_HASHES; k++) {
+                    int bit = bit(h1 + k * h2);
+                    bloom[bit >>> 6] |= 1L << bit;
+                }
+            }
+        }
+
+        boolean mightContain(UUID id) {
+            long h1 = mix(id.getMostSignificantBits());
+            long h2 = mix(id.getLeastSignificantBits()) | 1;
+            for (int k = 0; k < BLOOM_HASHES; k++) {
+                int bit = bit(h1 + k * h2);
+                if ((bloom[bit >>> 6] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int bit(long hash) {
+            return (int) Long.remainderUnsigned(hash, (long) bloom.length * 64);
+        }
+
+        // the finalizer of SplitMix64, so that time-ordered IDs spread evenly over the bits
+        private static long mix(long x) {
+            x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+            x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+            return x ^ (x >>> 31);
+        }
+    }
+}
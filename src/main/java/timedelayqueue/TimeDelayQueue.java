@@ -1,65 +1,448 @@
 package timedelayqueue;
 
+import java.io.UncheckedIOException;
 import java.sql.Time;
-import java.sql.Timestamp;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /*
  * Class Description:
  * Stores items that implement TimestampedObject interface, returns objects in an order that is determined by their timestamps and delay parameter.
+ * A queue may be bounded by a QueueCapacity, in messages and in estimated bytes; a message that does not fit is handled
+ * by the capacity's OverflowPolicy. When spilling to disk, the queue is tiered: memory is a hot window of the earliest
+ * messages, and the colder rest is kept by the spill store in sorted segments of a quarter of the capacity each.
+ * Once memory is half empty it is refilled a segment at a time, and the next segment is read ahead in the background,
+ * so getNext does not wait for the disk however deep the backlog is.
  *
  * Rep Invariant & Abstraction Function:
  * delay >= 0
+ * queue.size() <= capacity.getMaxMessages() && usedBytes <= capacity.getMaxBytes(), and usedBytes is the sum of the
+ * estimated sizes of the messages in queue, except that putBack may exceed the limits until messages are taken again;
+ * if spill holds messages, every message in queue is ordered before all of them; ids holds exactly the IDs of the messages in queue
  *
  * Thread Safety Argument:
- * Synchronization due to multiple threads adding messages at once that must be sorted into chronological order
+ * Synchronization due to multiple threads adding messages at once that must be sorted into chronological order.
+ * The ID set and the action log are only used while holding the queue's lock.
+ * Readiness listeners are kept in a copy-on-write list and are called after the lock is released, so they may call back into the queue
  * */
 public class TimeDelayQueue {
     // here
 
     private List<PubSubMessage> queue;
-    private List<Timestamp> actionsLog;
+    // IDs of the messages in queue, so a duplicate is found without scanning it
+    private final Set<UUID> ids;
+    private final ActionLog actionsLog;
 
     private int DELAY;
 
     private int counting;
 
+    private final List<ReadinessListener> listeners = new CopyOnWriteArrayList<>();
+
+    private static final Comparator<PubSubMessage> CHRONOLOGICAL = new PubSubMessageComparator();
+    // the most recent operations remembered for the peak load; older ones are forgotten
+    private static final int MAX_LOGGED_ACTIONS = 1 << 14;
+
+    private final QueueCapacity capacity;
+    private final SpillStore spill;
+    private long usedBytes;
+    private long rejected;
+    private long dropped;
+    private long spilled;
+
     /**
-     * Create a new TimeDelayQueue
+     * Create a new TimeDelayQueue without limits
      *
      * @param delay the delay, in milliseconds, that the queue can tolerate, >= 0
      */
     public TimeDelayQueue(int delay) {
+        this(delay, QueueCapacity.UNBOUNDED);
+    }
+
+    /**
+     * Create a new TimeDelayQueue that holds at most a given number of messages and bytes
+     *
+     * @param delay    the delay, in milliseconds, that the queue can tolerate, >= 0
+     * @param capacity the limits of the queue and what to do with messages beyond them, is not null
+     */
+    public TimeDelayQueue(int delay, QueueCapacity capacity) {
         this.queue = Collections.synchronizedList(new ArrayList<PubSubMessage>());
-        this.actionsLog = Collections.synchronizedList(new ArrayList<Timestamp>());
+        this.ids = new HashSet<>();
+        this.actionsLog = new ActionLog(MAX_LOGGED_ACTIONS);
         this.DELAY = delay;
+        this.capacity = capacity;
+        this.spill = capacity.getPolicy() == OverflowPolicy.SPILL_TO_DISK
+                ? new SpillStore(capacity.getSpillDir(), CHRONOLOGICAL,
+                        Math.max(1, capacity.getMaxMessages() / 4), Math.max(1, capacity.getMaxBytes() / 4))
+                : null;
     }
 
     /**
      * Add a message to the TimeDelayQueue
      *
      * @param msg is a valid message to be added to queue
-     * @return false if message already exists in queue, true if added successfully
+     * @return false if message already exists in queue or does not fit, true if added successfully
+     */
+    public boolean add(PubSubMessage msg) {
+        return offer(msg).isAccepted();
+    }
+
+    /**
+     * Add a message to the TimeDelayQueue, following the queue's overflow policy if it is full
+     *
+     * @param msg is a valid message to be added to queue
+     * @return what became of the message
+     * @throws UncheckedIOException if the queue spills to disk and the disk cannot be written
      */
-    public synchronized boolean add(PubSubMessage msg) {
-        if (queue.size() == 0) {
-            queue.add(msg);
+    public AddResult offer(PubSubMessage msg) {
+        AddResult result;
+        synchronized (this) {
+            result = insert(msg);
+            // a duplicate or refused message leaves the queue as it was, so it is no operation on it
+            if (result.isAccepted()) {
+                actionsLog.add(System.currentTimeMillis());
+            }
+        }
+        if (result.isAccepted()) {
+            notifyAdded(eligibleTime(msg));
+        }
+        return result;
+    }
+
+    private AddResult insert(PubSubMessage msg) {
+        if (contains(msg)) {
+            return AddResult.DUPLICATE;
+        }
+        long size = QueueCapacity.estimateSize(msg);
+        if (size > capacity.getMaxBytes()) {
+            rejected++;
+            return AddResult.REJECTED;
+        }
+        // while messages are spilled, memory only holds the ones ordered before all of them
+        if (spill != null && spill.size() > 0 && CHRONOLOGICAL.compare(msg, spill.first()) > 0) {
+            spill.add(msg);
+            spilled++;
             counting++;
-            actionsLog.add(new Timestamp(System.currentTimeMillis()));
-            return true;
+            return AddResult.SPILLED;
+        }
+        if (!fits(size)) {
+            dropExpired();
+        }
+        if (!fits(size) && spill == null && !makeRoom(msg, size)) {
+            rejected++;
+            return AddResult.REJECTED;
+        }
+        int pos = Collections.binarySearch(queue, msg, CHRONOLOGICAL);
+        queue.add(-(pos + 1), msg);
+        ids.add(msg.getId());
+        usedBytes += size;
+        counting++;
+        if (spill != null && (queue.size() > capacity.getMaxMessages() || usedBytes > capacity.getMaxBytes())) {
+            spillTail();
+            if (CHRONOLOGICAL.compare(msg, spill.first()) >= 0) {
+                return AddResult.SPILLED;
+            }
+        }
+        return AddResult.ADDED;
+    }
+
+    private boolean contains(PubSubMessage msg) {
+        return ids.contains(msg.getId()) || spill != null && spill.contains(msg);
+    }
+
+    // remove the message at position i from memory
+    private PubSubMessage remove(int i) {
+        PubSubMessage msg = queue.remove(i);
+        ids.remove(msg.getId());
+        usedBytes -= QueueCapacity.estimateSize(msg);
+        return msg;
+    }
+
+    private boolean fits(long size) {
+        return queue.size() < capacity.getMaxMessages() && usedBytes + size <= capacity.getMaxBytes();
+    }
+
+    // drop queued messages by the overflow policy until msg fits; false if msg should be refused instead
+    private boolean makeRoom(PubSubMessage msg, long size) {
+        OverflowPolicy policy = capacity.getPolicy();
+        if (policy == OverflowPolicy.REJECT_NEW) {
+            return false;
         }
-        for (TimestampedObject currMsg : queue) {
-            if (currMsg.getId() == msg.getId()) {
+        if (policy == OverflowPolicy.DROP_TRANSIENT_FIRST) {
+            for (int i = 0; i < queue.size() && !fits(size); ) {
+                if (queue.get(i).isTransient()) {
+                    drop(i);
+                } else {
+                    i++;
+                }
+            }
+            // a transient message does not displace messages that are not transient
+            if (!fits(size) && msg.isTransient()) {
                 return false;
             }
         }
-        queue.add(msg);
-        counting++;
-        queue.sort(new PubSubMessageComparator());
-        actionsLog.add(new Timestamp(System.currentTimeMillis()));
+        // msg would be the oldest message, so it is the one to drop
+        if (!fits(size) && CHRONOLOGICAL.compare(msg, queue.get(0)) < 0) {
+            return false;
+        }
+        while (!fits(size)) {
+            drop(0);
+        }
         return true;
     }
 
+    // drop transient messages that have expired, which getNext can never return
+    private void dropExpired() {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < queue.size(); ) {
+            PubSubMessage currMsg = queue.get(i);
+            if (currMsg.isTransient()
+                    && now - currMsg.getTimestamp().getTime() > ((TransientPubSubMessage) currMsg).getLifetime()) {
+                drop(i);
+            } else {
+                i++;
+            }
+        }
+    }
+
+    private void drop(int i) {
+        remove(i);
+        dropped++;
+    }
+
+    // move the latest messages to disk until memory is at most three quarters full
+    private void spillTail() {
+        long keepMessages = capacity.getMaxMessages() * 3L / 4;
+        long keepBytes = capacity.getMaxBytes() / 4 * 3;
+        int end = queue.size();
+        long bytes = usedBytes;
+        while (end > 0 && (end > keepMessages || bytes > keepBytes)) {
+            end--;
+            bytes -= QueueCapacity.estimateSize(queue.get(end));
+        }
+        List<PubSubMessage> tail = queue.subList(end, queue.size());
+        spill.write(new ArrayList<>(tail));
+        spilled += tail.size();
+        for (PubSubMessage msg : tail) {
+            ids.remove(msg.getId());
+        }
+        tail.clear();
+        usedBytes = bytes;
+    }
+
+    // bring a spilled segment back once memory is half empty, and read the next segment ahead
+    private void refill() {
+        if (spill == null || spill.size() == 0) {
+            return;
+        }
+        // one segment per call, which was read ahead by the call before it; memory is at most half
+        // full and a segment and the staged messages at most a quarter of it each, so memory stays within capacity
+        if (halfEmpty()) {
+            for (PubSubMessage msg : spill.takeFirst()) {
+                queue.add(msg);
+                ids.add(msg.getId());
+                usedBytes += QueueCapacity.estimateSize(msg);
+            }
+        }
+        spill.prefetch();
+    }
+
+    private boolean halfEmpty() {
+        return queue.size() <= capacity.getMaxMessages() / 2 && usedBytes <= capacity.getMaxBytes() / 2;
+    }
+
+    /**
+     * Add many messages to the TimeDelayQueue at once, sorting the queue only once;
+     * the whole batch counts as a single operation towards the peak load
+     *
+     * @param msgs are valid messages to be added to queue
+     * @return the number of messages added, leaving out those already in the queue or that do not fit
+     */
+    public int addAll(Collection<PubSubMessage> msgs) {
+        int added = 0;
+        for (AddResult result : offerAll(msgs)) {
+            if (result.isAccepted()) {
+                added++;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Add many messages to the TimeDelayQueue at once, following the queue's overflow policy for
+     * each message that does not fit; the whole batch counts as a single operation towards the peak load
+     *
+     * @param msgs are valid messages to be added to queue
+     * @return what became of each message, in the order of <code>msgs</code>
+     * @throws UncheckedIOException if the queue spills to disk and the disk cannot be written
+     */
+    public List<AddResult> offerAll(Collection<PubSubMessage> msgs) {
+        List<AddResult> results = insertAll(msgs);
+        long earliest = Long.MAX_VALUE;
+        int i = 0;
+        for (PubSubMessage msg : msgs) {
+            if (results.get(i++).isAccepted()) {
+                earliest = Math.min(earliest, eligibleTime(msg));
+            }
+        }
+        notifyAdded(earliest);
+        return results;
+    }
+
+    private synchronized List<AddResult> insertAll(Collection<PubSubMessage> msgs) {
+        List<AddResult> results = new ArrayList<>(msgs.size());
+        if (capacity != QueueCapacity.UNBOUNDED) {
+            // a bounded queue applies its overflow policy to each message in turn
+            for (PubSubMessage msg : msgs) {
+                results.add(insert(msg));
+            }
+            logIfAccepted(results);
+            return results;
+        }
+        for (PubSubMessage msg : msgs) {
+            if (ids.add(msg.getId())) {
+                queue.add(msg);
+                usedBytes += QueueCapacity.estimateSize(msg);
+                counting++;
+                results.add(AddResult.ADDED);
+            } else {
+                results.add(AddResult.DUPLICATE);
+            }
+        }
+        queue.sort(CHRONOLOGICAL);
+        logIfAccepted(results);
+        return results;
+    }
+
+    // a batch is one operation, if it added anything
+    private void logIfAccepted(List<AddResult> results) {
+        for (AddResult result : results) {
+            if (result.isAccepted()) {
+                actionsLog.add(System.currentTimeMillis());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Return messages taken from this queue but never delivered, e.g. because a subscriber failed.
+     * They were in the queue already, so they skip the capacity checks and overflow policy, are
+     * not counted as rejected, dropped or processed, and do not count towards the peak load
+     *
+     * @param msgs messages returned by getNext on this queue and not offered to it since
+     */
+    void putBack(Collection<PubSubMessage> msgs) {
+        long earliest = Long.MAX_VALUE;
+        synchronized (this) {
+            for (PubSubMessage msg : msgs) {
+                if (contains(msg)) {
+                    continue;
+                }
+                if (spill != null && spill.size() > 0 && CHRONOLOGICAL.compare(msg, spill.first()) > 0) {
+                    spill.add(msg);
+                }
+                else {
+                    int pos = Collections.binarySearch(queue, msg, CHRONOLOGICAL);
+                    queue.add(-(pos + 1), msg);
+                    ids.add(msg.getId());
+                    usedBytes += QueueCapacity.estimateSize(msg);
+                }
+                earliest = Math.min(earliest, eligibleTime(msg));
+            }
+        }
+        notifyAdded(earliest);
+    }
+
+    /**
+     * Get the overflow counters of the queue and how full it is
+     *
+     * @return a snapshot of the queue's overflow counters and usage
+     */
+    public synchronized OverflowStats getOverflowStats() {
+        return new OverflowStats(rejected, dropped, spilled, queue.size(), usedBytes,
+                spill == null ? 0 : spill.size());
+    }
+
+    /**
+     * Delete any messages the queue spilled to disk; they are lost
+     */
+    public synchronized void discardSpilled() {
+        if (spill != null) {
+            spill.clear();
+        }
+    }
+
+    /**
+     * Tell a listener about messages added to this queue from now on
+     *
+     * @param listener is not null
+     */
+    public void addReadinessListener(ReadinessListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Stop telling a listener about added messages
+     *
+     * @param listener a listener added before
+     */
+    public void removeReadinessListener(ReadinessListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Get the time when getNext will next return a message, without counting it as an operation
+     *
+     * @return the time, in epoch milliseconds, when the earliest message that can still be
+     * returned is active, which may already have passed; Long.MAX_VALUE if there is none
+     */
+    public synchronized long nextEligibleTime() {
+        long now = System.currentTimeMillis();
+        // the queue is sorted, so the first message that has not expired is the earliest
+        for (PubSubMessage currMsg : queue) {
+            long eligibleAt = eligibleTime(currMsg);
+            if (eligibleAt != Long.MAX_VALUE && !(currMsg.isTransient()
+                    && now - currMsg.getTimestamp().getTime() > ((TransientPubSubMessage) currMsg).getLifetime())) {
+                return eligibleAt;
+            }
+        }
+        if (spill != null && spill.size() > 0) {
+            return eligibleTime(spill.first());
+        }
+        return Long.MAX_VALUE;
+    }
+
+    // when a message becomes active, or Long.MAX_VALUE if it expires before it does
+    private long eligibleTime(PubSubMessage msg) {
+        if (msg.isTransient() && ((TransientPubSubMessage) msg).getLifetime() < DELAY) {
+            return Long.MAX_VALUE;
+        }
+        return msg.getTimestamp().getTime() + DELAY;
+    }
+
+    // called without holding the lock, so a listener may call back into this queue
+    private void notifyAdded(long eligibleAt) {
+        if (eligibleAt == Long.MAX_VALUE) {
+            return;
+        }
+        for (ReadinessListener listener : listeners) {
+            listener.messagesAdded(this, eligibleAt);
+        }
+    }
+
+    /**
+     * Get a copy of the messages still in the queue, without counting it as an operation
+     *
+     * @return the queued messages in chronological order, including any not yet eligible
+     */
+    public synchronized List<PubSubMessage> getPending() {
+        List<PubSubMessage> pending = new ArrayList<>(queue);
+        if (spill != null) {
+            pending.addAll(spill.readAll());
+        }
+        return pending;
+    }
+
     /**
      * Get the count of the total number of messages processed
      * by this TimeDelayQueue
@@ -77,59 +460,105 @@ public class TimeDelayQueue {
      * @return active message that is next in chronological order
      */
     public synchronized PubSubMessage getNext() {
-        //current time
-        Timestamp currTime = new Timestamp(System.currentTimeMillis());
-        if (queue.size() == 0) {
-            actionsLog.add(new Timestamp(System.currentTimeMillis()));
-            return PubSubMessage.NO_MSG;
+        refill();
+        PubSubMessage next = takeNext(System.currentTimeMillis());
+        if (next == PubSubMessage.NO_MSG && spill != null && spill.size() > 0) {
+            // expired messages must not keep the spilled ones from being read
+            dropExpired();
+            refill();
+            next = takeNext(System.currentTimeMillis());
         }
+        actionsLog.add(System.currentTimeMillis());
+        return next;
+    }
+
+    // remove and return the first active message, or NO_MSG
+    private PubSubMessage takeNext(long now) {
         for (int i = 0; i < queue.size(); i++) {
             PubSubMessage currMsg = queue.get(i);
-            if (currTime.getTime() - currMsg.getTimestamp().getTime() >= DELAY) {
-                if (currMsg.isTransient()) {
-                    TransientPubSubMessage tMsg = (TransientPubSubMessage) currMsg;
-                    if (currTime.getTime() - tMsg.getTimestamp().getTime() <= tMsg.getLifetime()) {
-                        queue.remove(i);
-                        actionsLog.add(new Timestamp(System.currentTimeMillis()));
-                        return tMsg;
-                    }
-                } else {
-                    queue.remove(i);
-                    actionsLog.add(new Timestamp(System.currentTimeMillis()));
-                    return currMsg;
+            if (now - currMsg.getTimestamp().getTime() < DELAY) {
+                // the queue is sorted, so no later message is active either
+                break;
+            }
+            if (currMsg.isTransient()) {
+                TransientPubSubMessage tMsg = (TransientPubSubMessage) currMsg;
+                if (now - tMsg.getTimestamp().getTime() <= tMsg.getLifetime()) {
+                    remove(i);
+                    return tMsg;
                 }
+            } else {
+                remove(i);
+                return currMsg;
             }
         }
-
-        actionsLog.add(new Timestamp(System.currentTimeMillis()));
         return PubSubMessage.NO_MSG;
     }
 
+    /**
+     * Remove up to <code>limit</code> messages in chronological order, taking only messages
+     * that were already active at time <code>asOf</code>; the whole batch counts as a single
+     * operation towards the peak load
+     *
+     * @param limit the most messages to return, > 0
+     * @param asOf  a time in epoch milliseconds, no later than now
+     * @return the messages removed, in chronological order
+     */
+    public synchronized List<PubSubMessage> getNext(int limit, long asOf) {
+        long now = System.currentTimeMillis();
+        List<PubSubMessage> taken = new ArrayList<>(Math.min(limit, queue.size()));
+        boolean more = true;
+        while (more) {
+            refill();
+            int end = 0;
+            // the queue is sorted, so the messages active at asOf are a prefix of it
+            while (end < queue.size() && taken.size() < limit) {
+                PubSubMessage currMsg = queue.get(end);
+                long timestamp = currMsg.getTimestamp().getTime();
+                if (asOf - timestamp < DELAY) {
+                    break;
+                }
+                // an expired transient message can never be returned, so it is dropped with the batch
+                if (currMsg.isTransient() && now - timestamp > ((TransientPubSubMessage) currMsg).getLifetime()) {
+                    dropped++;
+                } else {
+                    taken.add(currMsg);
+                }
+                usedBytes -= QueueCapacity.estimateSize(currMsg);
+                ids.remove(currMsg.getId());
+                end++;
+            }
+            // only a fully drained memory can have active messages left on disk
+            more = end == queue.size() && taken.size() < limit && spill != null && spill.size() > 0;
+            queue.subList(0, end).clear();
+        }
+        actionsLog.add(now);
+        return taken;
+    }
+
     /**
      * Get peak load of the TimeDelayQueue
      *
      * @param timeWindow > 0
-     * @return the maximum number of operations (add and getNext) performed on this TimeDelayQueue over any time of length timeWindow
+     * @return the maximum number of operations (add and getNext) performed on this TimeDelayQueue over any time of length timeWindow,
+     * among its most recent MAX_LOGGED_ACTIONS operations; adds that were refused or duplicates are not operations
      */
     public synchronized int getPeakLoad(int timeWindow) {
-        Collections.sort(actionsLog);
-        if (actionsLog.size() == 0) {
+        long[] actions = actionsLog.toSortedArray();
+        if (actions.length == 0) {
             return 0;
         }
-        if (actionsLog.get(0).getTime() - actionsLog.get(actionsLog.size() - 1).getTime() <= timeWindow) {
-            return actionsLog.size();
+        if (actions[0] - actions[actions.length - 1] <= timeWindow) {
+            return actions.length;
         }
 
         List<Integer> numActions = new ArrayList<>();
 
-        for (int i = 0; i < actionsLog.size(); i++) {
-            Timestamp startAction = actionsLog.get(i);
-            long startTime = startAction.getTime();
-            for (int j = i + 1; j < actionsLog.size() - 1; j++) {
-                Timestamp currAction = actionsLog.get(j);
-                long currTime = currAction.getTime();
+        for (int i = 0; i < actions.length; i++) {
+            long startTime = actions[i];
+            for (int j = i + 1; j < actions.length - 1; j++) {
+                long currTime = actions[j];
                 if (startTime - currTime >= timeWindow) {
-                    numActions.add(actionsLog.subList(i, j - 1).size());
+                    numActions.add(j - 1 - i);
                     break;
                 }
             }
@@ -138,10 +567,42 @@ public class TimeDelayQueue {
         return Collections.max(numActions);
     }
 
-    // a comparator to sort messages by chronological order
+    // the times of the most recent operations, in a ring that grows up to a fixed size
+    private static class ActionLog {
+        private final int maxSize;
+        private long[] times = new long[16];
+        private int next;
+        private int size;
+
+        ActionLog(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        void add(long time) {
+            if (size == times.length && size < maxSize) {
+                times = Arrays.copyOf(times, Math.min(maxSize, size * 2));
+            }
+            times[next] = time;
+            next = (next + 1) % times.length;
+            size = Math.min(size + 1, times.length);
+        }
+
+        long[] toSortedArray() {
+            long[] sorted = Arrays.copyOf(times, size);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+
+    // a comparator to sort messages by chronological order;
+    // messages with the same timestamp are ordered by ID, which is minting order for time-ordered IDs
     private static class PubSubMessageComparator implements Comparator<PubSubMessage> {
         public int compare(PubSubMessage msg1, PubSubMessage msg2) {
-            return msg1.getTimestamp().compareTo(msg2.getTimestamp());
+            int cmp = msg1.getTimestamp().compareTo(msg2.getTimestamp());
+            if (cmp != 0) {
+                return cmp;
+            }
+            return TimeOrderedIdGenerator.compareUnsigned(msg1.getId(), msg2.getId());
         }
     }
 
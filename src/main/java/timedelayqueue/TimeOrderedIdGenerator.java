@@ -0,0 +1,78 @@
+package timedelayqueue;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * Class Description:
+ * Mints version 7 UUIDs (RFC 9562): the first 48 bits are the Unix time in milliseconds, followed
+ * by the version, a 12-bit counter, the variant, and 62 random bits. IDs therefore sort by the
+ * time they were minted when compared as unsigned 128-bit numbers.
+ *
+ * Each thread keeps its own clock and counter, so minting takes no lock and no shared state: the
+ * counter orders IDs a thread mints within the same millisecond, and when it runs out the thread
+ * moves on to the next millisecond early, so each thread's IDs strictly increase even if the
+ * system clock steps back. The random bits come from ThreadLocalRandom rather than the shared
+ * SecureRandom behind UUID.randomUUID(), and keep IDs minted by different threads apart.
+ *
+ * Rep Invariant & Abstraction Function:
+ * for each thread, state[0] is the millisecond of the last ID it minted and state[1] the counter
+ * used in it, 0 <= state[1] <= MAX_COUNTER
+ *
+ * Thread Safety Argument:
+ * state is thread-local and ThreadLocalRandom is per-thread, so threads share nothing
+ * */
+public class TimeOrderedIdGenerator implements MessageIdGenerator {
+
+    private static final int MAX_COUNTER = 0xfff;
+    private static final long VERSION = 0x7000L;
+    private static final long VARIANT = 0x8000000000000000L;
+
+    private final ThreadLocal<long[]> state = ThreadLocal.withInitial(() -> new long[]{Long.MIN_VALUE, 0});
+
+    @Override
+    public UUID nextId() {
+        long[] clock = state.get();
+        long now = System.currentTimeMillis();
+        if (now > clock[0]) {
+            clock[0] = now;
+            clock[1] = 0;
+        }
+        else if (clock[1] < MAX_COUNTER) {
+            clock[1]++;
+        }
+        else {
+            clock[0]++;
+            clock[1] = 0;
+        }
+        long msb = (clock[0] << 16) | VERSION | clock[1];
+        long lsb = VARIANT | (ThreadLocalRandom.current().nextLong() >>> 2);
+        return new UUID(msb, lsb);
+    }
+
+    /**
+     * Get the time a version 7 UUID was minted
+     *
+     * @param id is a version 7 UUID
+     * @return its timestamp in epoch milliseconds
+     */
+    public static long timestampOf(UUID id) {
+        return id.getMostSignificantBits() >>> 16;
+    }
+
+    /**
+     * Compare two UUIDs as unsigned 128-bit numbers, which orders version 7 UUIDs by the time
+     * they were minted (UUID.compareTo compares the halves as signed numbers)
+     *
+     * @param a is not null
+     * @param b is not null
+     * @return a negative number, zero, or a positive number as a is less than, equal to, or greater than b
+     */
+    public static int compareUnsigned(UUID a, UUID b) {
+        int cmp = Long.compareUnsigned(a.getMostSignificantBits(), b.getMostSignificantBits());
+        if (cmp != 0) {
+            return cmp;
+        }
+        return Long.compareUnsigned(a.getLeastSignificantBits(), b.getLeastSignificantBits());
+    }
+}
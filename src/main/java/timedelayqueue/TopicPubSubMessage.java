@@ -0,0 +1,24 @@
+package timedelayqueue;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.UUID;
+
+public class TopicPubSubMessage extends PubSubMessage {
+    private final String topic;
+
+    public TopicPubSubMessage(UUID id, Timestamp timestamp,
+                              UUID sender, List<UUID> receiver, String content, String topic) {
+        super(id, timestamp, sender, receiver, content, BasicMessageType.TOPICMSG);
+        this.topic = topic;
+    }
+
+    public TopicPubSubMessage(UUID sender, List<UUID> receiver, String content, String topic) {
+        this(nextId(), new Timestamp(System.currentTimeMillis()), sender, receiver, content, topic);
+    }
+
+    // the topic the message was published to, e.g. "team.backend.alerts"
+    public String getTopic() {
+        return topic;
+    }
+}
@@ -0,0 +1,409 @@
+package twitter;
+
+import com.google.gson.JsonParseException;
+import io.github.redouane59.twitter.dto.tweet.TweetV2;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/* Class Description:
+ * A TweetSource that keeps every timeline it fetches in segment files on disk, keyed by account
+ * and time range, so that a restarted listener is served from local disk. A request is split into
+ * the parts already covered by segments, which are read locally, and the missing intervals, which
+ * are fetched from the upstream source and written as new segments. Small segments that end where
+ * a new one starts are merged with it by appending, so frequent polling does not leave behind many
+ * tiny files nor rewrite them. The last freshnessMarginMillis before now are never cached: tweets
+ * can still show up upstream for a while after they are made, so that part of a request is always
+ * fetched from the upstream source.
+ *
+ * Segments live in <cacheDir>/<account ID>/<start millis>-<end millis>.jsonl, one TweetData JSON
+ * object per line, and user name lookups are kept in <cacheDir>/users.tsv. The directory must not
+ * be shared with another live source, in this process or another; inFreeDirectory finds one that
+ * is not, holding a file lock on it for as long as the process runs.
+ *
+ * Rep Invariant & Abstraction Function:
+ * upstream, cacheDir, userIDs, accounts != null && freshnessMarginMillis >= 0
+ * claim is null or a valid lock on the lock file next to cacheDir
+ * the segments of an account do not overlap; each holds every tweet the upstream source returned
+ * for its [start, end) range, in epoch milliseconds of the system time zone, and ends at least
+ * freshnessMarginMillis before the time it was fetched
+ *
+ * Thread Safety Argument:
+ * userIDs is guarded by this source's lock; each account's segments are guarded by that
+ * account's own lock, so different accounts can be read and filled concurrently
+ * */
+public class CachingTweetSource implements TweetSource {
+
+    // a segment with fewer tweets than this is merged with the segment fetched right after it
+    private static final int MERGE_BELOW_TWEETS = 1000;
+    private static final String SEGMENT_SUFFIX = ".jsonl";
+    private static final String USERS_FILE = "users.tsv";
+    private static final long DEFAULT_FRESHNESS_MARGIN = 5 * 60 * 1000;
+    private static final String LOCK_SUFFIX = ".lock";
+    // how many directories inFreeDirectory tries before giving up
+    private static final int MAX_CLAIM_ATTEMPTS = 64;
+
+    private static class Segment {
+        final long start;
+        final long end;
+        final Path file;
+        final int size;
+
+        Segment(long start, long end, Path file, int size) {
+            this.start = start;
+            this.end = end;
+            this.file = file;
+            this.size = size;
+        }
+    }
+
+    private static class AccountCache {
+        final Path dir;
+        final TreeMap<Long, Segment> segments = new TreeMap<>();
+
+        AccountCache(Path dir) {
+            this.dir = dir;
+        }
+    }
+
+    private final TweetSource upstream;
+    private final Path cacheDir;
+    private final long freshnessMarginMillis;
+    private final Map<String, String> userIDs;
+    private final Map<String, AccountCache> accounts;
+    // the lock that keeps other sources out of cacheDir, or null if the caller vouches for that
+    private final FileLock claim;
+
+    /**
+     * Create a new CachingTweetSource, picking up any segments already in the cache directory
+     *
+     * @param upstream where missing tweets are fetched from, is not null
+     * @param cacheDir the directory segments are stored in, created if missing
+     */
+    public CachingTweetSource(TweetSource upstream, File cacheDir) {
+        this(upstream, cacheDir, DEFAULT_FRESHNESS_MARGIN);
+    }
+
+    /**
+     * Create a new CachingTweetSource, picking up any segments already in the cache directory
+     *
+     * @param upstream              where missing tweets are fetched from, is not null
+     * @param cacheDir              the directory segments are stored in, created if missing
+     * @param freshnessMarginMillis tweets made this recently are always fetched upstream and never cached, >= 0
+     */
+    public CachingTweetSource(TweetSource upstream, File cacheDir, long freshnessMarginMillis) {
+        this(upstream, cacheDir, freshnessMarginMillis, null);
+    }
+
+    private CachingTweetSource(TweetSource upstream, File cacheDir, long freshnessMarginMillis, FileLock claim) {
+        this.upstream = upstream;
+        this.claim = claim;
+        this.cacheDir = cacheDir.toPath();
+        this.freshnessMarginMillis = freshnessMarginMillis;
+        this.userIDs = new HashMap<>();
+        this.accounts = new HashMap<>();
+        try {
+            Files.createDirectories(this.cacheDir);
+            Path users = this.cacheDir.resolve(USERS_FILE);
+            if (Files.exists(users)) {
+                for (String line : Files.readAllLines(users, StandardCharsets.UTF_8)) {
+                    int tab = line.indexOf('\t');
+                    if (tab > 0) {
+                        userIDs.put(line.substring(0, tab), line.substring(tab + 1));
+                    }
+                }
+            }
+        }
+        catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    /**
+     * Create a new CachingTweetSource in a directory no other live source uses. The directory is
+     * <parentDir>/<name> unless another source, in this process or another, holds it, in which case
+     * the first free one of <name>-1, <name>-2, ... is used instead; it stays claimed until the
+     * process exits, so a restarted process picks up the cache of the one before it
+     *
+     * @param upstream  where missing tweets are fetched from, is not null
+     * @param parentDir the directory the cache directory is created in, created if missing
+     * @param name      the name of the preferred cache directory, a valid file name
+     * @return a source caching in a directory it holds exclusively
+     */
+    public static CachingTweetSource inFreeDirectory(TweetSource upstream, File parentDir, String name) {
+        try {
+            Files.createDirectories(parentDir.toPath());
+            for (int i = 0; i < MAX_CLAIM_ATTEMPTS; i++) {
+                String slot = i == 0 ? name : name + "-" + i;
+                FileChannel channel = FileChannel.open(parentDir.toPath().resolve(slot + LOCK_SUFFIX),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                FileLock lock;
+                try {
+                    lock = channel.tryLock();
+                }
+                catch (OverlappingFileLockException e) {
+                    // held by another source in this process
+                    lock = null;
+                }
+                if (lock != null) {
+                    return new CachingTweetSource(upstream, new File(parentDir, slot), DEFAULT_FRESHNESS_MARGIN, lock);
+                }
+                channel.close();
+            }
+        }
+        catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+        throw new UncheckedIOException(new IOException("no free cache directory for " + name + " in " + parentDir));
+    }
+
+    /**
+     * Get the directory this source keeps its cache in
+     *
+     * @return the cache directory
+     */
+    public File getCacheDir() {
+        return cacheDir.toFile();
+    }
+
+    @Override
+    public String getUserID(String twitterUserName) {
+        synchronized (this) {
+            if (userIDs.containsKey(twitterUserName)) {
+                return userIDs.get(twitterUserName);
+            }
+        }
+        String userID = upstream.getUserID(twitterUserName);
+        if (userID == null) {
+            return null;
+        }
+        synchronized (this) {
+            if (userIDs.putIfAbsent(twitterUserName, userID) == null) {
+                try {
+                    Files.writeString(cacheDir.resolve(USERS_FILE), twitterUserName + "\t" + userID + "\n",
+                            StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                }
+                catch (IOException ioe) {
+                    throw new UncheckedIOException(ioe);
+                }
+            }
+        }
+        return userID;
+    }
+
+    @Override
+    public List<TweetV2.TweetData> getUserTimeline(String userID, LocalDateTime startTime, LocalDateTime endTime) {
+        long start = toMillis(startTime);
+        long end = toMillis(endTime);
+        long cacheableEnd = Math.min(end, System.currentTimeMillis() - freshnessMarginMillis);
+        if (cacheableEnd <= start) {
+            return upstream.getUserTimeline(userID, startTime, endTime);
+        }
+        List<TweetV2.TweetData> tweets = cachedTimeline(userID, start, cacheableEnd);
+        if (cacheableEnd < end) {
+            tweets.addAll(upstream.getUserTimeline(userID, toLocal(cacheableEnd), endTime));
+        }
+        return tweets;
+    }
+
+    private List<TweetV2.TweetData> cachedTimeline(String userID, long start, long end) {
+        AccountCache account = account(userID);
+        synchronized (account) {
+            long covered = start;
+            // walk the segments overlapping [start, end), fetching whatever lies between them
+            Map.Entry<Long, Segment> floor = account.segments.floorEntry(start);
+            List<Segment> overlapping = new ArrayList<>();
+            if (floor != null && floor.getValue().end > start) {
+                overlapping.add(floor.getValue());
+            }
+            overlapping.addAll(account.segments.subMap(start, false, end, false).values());
+
+            List<Segment> used = new ArrayList<>();
+            for (Segment segment : overlapping) {
+                if (segment.start > covered) {
+                    addFilled(used, fill(account, userID, covered, segment.start));
+                }
+                used.add(segment);
+                covered = Math.max(covered, segment.end);
+            }
+            if (covered < end) {
+                addFilled(used, fill(account, userID, covered, end));
+            }
+            return read(used, start, end);
+        }
+    }
+
+    // a filled segment may have absorbed the segment before it, which then must not be read
+    private static void addFilled(List<Segment> used, Segment filled) {
+        if (!used.isEmpty() && used.get(used.size() - 1).start == filled.start) {
+            used.remove(used.size() - 1);
+        }
+        used.add(filled);
+    }
+
+    /**
+     * Get the number of segments cached for an account
+     *
+     * @param userID is not null
+     * @return the number of segment files for the account
+     */
+    public int getSegmentCount(String userID) {
+        AccountCache account = account(userID);
+        synchronized (account) {
+            return account.segments.size();
+        }
+    }
+
+    private synchronized AccountCache account(String userID) {
+        AccountCache account = accounts.get(userID);
+        if (account != null) {
+            return account;
+        }
+        account = new AccountCache(cacheDir.resolve(sanitize(userID)));
+        try {
+            Files.createDirectories(account.dir);
+            File[] files = account.dir.toFile().listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+            for (File file : files == null ? new File[0] : files) {
+                String name = file.getName();
+                String[] range = name.substring(0, name.length() - SEGMENT_SUFFIX.length()).split("-");
+                int size;
+                try (BufferedReader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                    size = (int) in.lines().count();
+                }
+                long segmentStart = Long.parseLong(range[0]);
+                account.segments.put(segmentStart, new Segment(segmentStart, Long.parseLong(range[1]),
+                        file.toPath(), size));
+            }
+        }
+        catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+        accounts.put(userID, account);
+        return account;
+    }
+
+    // fetch a missing interval upstream and store it, appended to a small segment ending where it starts
+    private Segment fill(AccountCache account, String userID, long start, long end) {
+        List<TweetV2.TweetData> fetched = upstream.getUserTimeline(userID, toLocal(start), toLocal(end));
+        Map.Entry<Long, Segment> before = account.segments.lowerEntry(start);
+        if (before == null || before.getValue().end != start || before.getValue().size >= MERGE_BELOW_TWEETS) {
+            Path file = account.dir.resolve(start + "-" + end + SEGMENT_SUFFIX);
+            write(file, fetched);
+            Segment segment = new Segment(start, end, file, fetched.size());
+            account.segments.put(start, segment);
+            return segment;
+        }
+
+        // append, then rename to the new range; a crash in between leaves a segment that merely
+        // holds tweets past its end, which reads filter out and a later fill appends again
+        Segment previous = before.getValue();
+        Path file = account.dir.resolve(previous.start + "-" + end + SEGMENT_SUFFIX);
+        try {
+            try (BufferedWriter out = Files.newBufferedWriter(previous.file, StandardCharsets.UTF_8,
+                    StandardOpenOption.APPEND)) {
+                // start on a fresh line in case an earlier append was torn
+                out.newLine();
+                writeLines(out, fetched);
+            }
+            Files.move(previous.file, file, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+        Segment segment = new Segment(previous.start, end, file, previous.size + fetched.size());
+        account.segments.put(previous.start, segment);
+        return segment;
+    }
+
+    private static List<TweetV2.TweetData> read(List<Segment> segments, long start, long end) {
+        Map<String, TweetV2.TweetData> tweets = new LinkedHashMap<>();
+        for (Segment segment : segments) {
+            for (TweetV2.TweetData tweet : readSegment(segment.file)) {
+                if (tweet.getCreatedAt() == null || within(tweet.getCreatedAt(), start, end)) {
+                    tweets.putIfAbsent(tweet.getId(), tweet);
+                }
+            }
+        }
+        return new ArrayList<>(tweets.values());
+    }
+
+    private static boolean within(LocalDateTime time, long start, long end) {
+        long millis = toMillis(time);
+        return millis >= start && millis < end;
+    }
+
+    private static List<TweetV2.TweetData> readSegment(Path file) {
+        List<TweetV2.TweetData> tweets = new ArrayList<>();
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    tweets.add(TweetJson.GSON.fromJson(line, TweetV2.TweetData.class));
+                }
+                catch (JsonParseException e) {
+                    // the torn last line of an append cut short by a crash, whose range is fetched again
+                }
+            }
+        }
+        catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+        return tweets;
+    }
+
+    // write to a temporary file first, so a crash never leaves a half-written segment behind
+    private static void write(Path file, List<TweetV2.TweetData> tweets) {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                writeLines(out, tweets);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    private static void writeLines(BufferedWriter out, List<TweetV2.TweetData> tweets) throws IOException {
+        for (TweetV2.TweetData tweet : tweets) {
+            out.write(TweetJson.GSON.toJson(tweet));
+            out.newLine();
+        }
+    }
+
+    private static String sanitize(String userID) {
+        return userID.replaceAll("[^A-Za-z0-9_]", "_");
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static LocalDateTime toLocal(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+}
@@ -0,0 +1,140 @@
+package twitter;
+
+/* Class Description:
+ * A circuit breaker for calls to an upstream service. After failureThreshold consecutive failures
+ * the breaker opens and refuses calls for openMillis; then it lets a single trial call through,
+ * closing again if the trial succeeds and re-opening if it fails.
+ *
+ * Rep Invariant & Abstraction Function:
+ * failureThreshold > 0 && openMillis > 0 && consecutiveFailures >= 0
+ * state == OPEN implies openedAt is when it last opened
+ * state == HALF_OPEN implies trialInFlight tells whether the single trial call has been let through
+ *
+ * Thread Safety Argument:
+ * Every method that reads or writes the breaker's state is synchronized
+ * */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private State state;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    private long totalFailures;
+    private long rejectedCalls;
+    private long timesOpened;
+
+    /**
+     * Create a new, closed CircuitBreaker
+     *
+     * @param failureThreshold the number of consecutive failures that opens the breaker, > 0
+     * @param openMillis       how long the breaker stays open before allowing a trial call, > 0
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.state = State.CLOSED;
+    }
+
+    /**
+     * Ask whether a call may go through
+     *
+     * @return true if the call may go through, false if it must fail fast
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMillis) {
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.HALF_OPEN && !trialInFlight) {
+            trialInFlight = true;
+            return true;
+        }
+        rejectedCalls++;
+        return false;
+    }
+
+    /**
+     * Record that a call went through successfully
+     */
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        state = State.CLOSED;
+    }
+
+    /**
+     * Record that a call failed
+     */
+    public synchronized void recordFailure() {
+        totalFailures++;
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            if (state != State.OPEN) {
+                timesOpened++;
+            }
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Give back a trial call that was let through but never reached the upstream service, e.g.
+     * because it could not be scheduled or its caller was interrupted, so the next call may try instead
+     */
+    public synchronized void releaseTrial() {
+        if (state == State.HALF_OPEN) {
+            trialInFlight = false;
+        }
+    }
+
+    /**
+     * Get the state of the breaker
+     *
+     * @return the current state; an open breaker whose open period has passed is reported as HALF_OPEN
+     */
+    public synchronized State getState() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMillis) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    /**
+     * Get the number of failed calls recorded since the breaker was created
+     *
+     * @return the total number of failures, >= 0
+     */
+    public synchronized long getTotalFailures() {
+        return totalFailures;
+    }
+
+    /**
+     * Get the number of calls refused since the breaker was created
+     *
+     * @return the number of calls that had to fail fast, >= 0
+     */
+    public synchronized long getRejectedCalls() {
+        return rejectedCalls;
+    }
+
+    /**
+     * Get the number of times the breaker has opened since it was created
+     *
+     * @return the number of times it went from closed or half-open to open, >= 0
+     */
+    public synchronized long getTimesOpened() {
+        return timesOpened;
+    }
+}
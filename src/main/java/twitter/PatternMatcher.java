@@ -0,0 +1,294 @@
+package twitter;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+
+/* Class Description:
+ * Matches a text against many case-insensitive patterns at once using an Aho-Corasick automaton.
+ * Each pattern is registered on behalf of a subscriber, and a single scan of the text finds every
+ * subscriber with at least one pattern occurring in it.
+ *
+ * Patterns live in two tries: a main trie, linked once, and a small pending trie that new patterns
+ * go into. Adding a pattern only unlinks the pending trie, which is relinked before the next scan;
+ * once the pending trie holds about the square root of the main trie's patterns it is folded into
+ * the main trie, which is then relinked once. Adding a subscriber to a pattern already linked in
+ * the main trie, and removing a pattern, change no links at all. A scan walks both tries.
+ *
+ * Rep Invariant & Abstraction Function:
+ * main != null && pending != null && size >= 0 && size == main.patterns + pending.patterns
+ * in each trie, every node's keys are sorted and keys.length == children.length (up to childCount);
+ * if the trie is linked, every node's fail link points to the node for its longest proper suffix
+ * present in that trie, and its output link points to the nearest node on its fail chain that had
+ * subscribers when last linked
+ * a node's subscribers are those who registered the lowercase string spelled out by the path to it;
+ * the subscribers of a pattern are the union of its subscribers in both tries
+ *
+ * Thread Safety Argument:
+ * Every method that reads or writes the tries is synchronized
+ * */
+public class PatternMatcher<T> {
+
+    // the pending trie is folded into the main one once it holds this many patterns, at least
+    private static final int MIN_PENDING = 16;
+
+    private static class Node<T> {
+        char[] keys = new char[0];
+        Node<T>[] children = newChildren(0);
+        int childCount;
+        Node<T> fail;
+        Node<T> output;
+        Set<T> subscribers;
+
+        Node<T> child(char c) {
+            int i = Arrays.binarySearch(keys, 0, childCount, c);
+            return i >= 0 ? children[i] : null;
+        }
+
+        Node<T> addChild(char c) {
+            int i = Arrays.binarySearch(keys, 0, childCount, c);
+            if (i >= 0) {
+                return children[i];
+            }
+            i = -(i + 1);
+            if (childCount == keys.length) {
+                int capacity = Math.max(2, childCount * 2);
+                keys = Arrays.copyOf(keys, capacity);
+                children = Arrays.copyOf(children, capacity);
+            }
+            System.arraycopy(keys, i, keys, i + 1, childCount - i);
+            System.arraycopy(children, i, children, i + 1, childCount - i);
+            Node<T> node = new Node<>();
+            keys[i] = c;
+            children[i] = node;
+            childCount++;
+            return node;
+        }
+
+        @SuppressWarnings("unchecked")
+        static <T> Node<T>[] newChildren(int n) {
+            return (Node<T>[]) new Node[n];
+        }
+    }
+
+    private static class Trie<T> {
+        final Node<T> root = new Node<>();
+        boolean linked;
+        // the number of (pattern, subscriber) pairs in this trie
+        int patterns;
+
+        Node<T> insert(String pattern) {
+            Node<T> node = root;
+            for (int i = 0; i < pattern.length(); i++) {
+                node = node.addChild(Character.toLowerCase(pattern.charAt(i)));
+            }
+            return node;
+        }
+
+        Node<T> find(String pattern) {
+            Node<T> node = root;
+            for (int i = 0; i < pattern.length() && node != null; i++) {
+                node = node.child(Character.toLowerCase(pattern.charAt(i)));
+            }
+            return node;
+        }
+
+        boolean remove(String pattern, T subscriber) {
+            Node<T> node = find(pattern);
+            if (node == null || node.subscribers == null || !node.subscribers.remove(subscriber)) {
+                return false;
+            }
+            if (node.subscribers.isEmpty()) {
+                // the node stays in the trie, output links simply skip it until the next relink
+                node.subscribers = null;
+            }
+            patterns--;
+            return true;
+        }
+
+        // add the subscribers of every pattern in this trie to another trie
+        void copyInto(Trie<T> target) {
+            copyInto(root, new StringBuilder(), target);
+        }
+
+        private void copyInto(Node<T> node, StringBuilder path, Trie<T> target) {
+            if (node.subscribers != null) {
+                Node<T> copy = target.insert(path.toString());
+                if (copy.subscribers == null) {
+                    copy.subscribers = new HashSet<>();
+                    target.linked = false;
+                }
+                for (T subscriber : node.subscribers) {
+                    if (copy.subscribers.add(subscriber)) {
+                        target.patterns++;
+                    }
+                }
+            }
+            for (int i = 0; i < node.childCount; i++) {
+                path.append(node.keys[i]);
+                copyInto(node.children[i], path, target);
+                path.setLength(path.length() - 1);
+            }
+        }
+
+        // add the subscribers of every pattern occurring in text to found; true if any were found
+        boolean scan(String text, boolean firstOnly, Set<T> found) {
+            if (patterns == 0) {
+                return false;
+            }
+            if (!linked) {
+                link();
+            }
+            boolean any = false;
+            Node<T> state = root;
+            for (int i = 0; i < text.length(); i++) {
+                char c = Character.toLowerCase(text.charAt(i));
+                Node<T> next = state.child(c);
+                while (next == null && state != root) {
+                    state = state.fail;
+                    next = state.child(c);
+                }
+                state = next == null ? root : next;
+                for (Node<T> out = state.subscribers != null ? state : state.output; out != null; out = out.output) {
+                    if (out.subscribers != null) {
+                        found.addAll(out.subscribers);
+                        any = true;
+                        if (firstOnly) {
+                            return true;
+                        }
+                    }
+                }
+            }
+            return any;
+        }
+
+        // breadth-first pass computing the failure and output links of every node
+        void link() {
+            Queue<Node<T>> pending = new ArrayDeque<>();
+            root.fail = root;
+            root.output = null;
+            for (int i = 0; i < root.childCount; i++) {
+                Node<T> child = root.children[i];
+                child.fail = root;
+                child.output = null;
+                pending.add(child);
+            }
+            while (!pending.isEmpty()) {
+                Node<T> node = pending.remove();
+                for (int i = 0; i < node.childCount; i++) {
+                    char c = node.keys[i];
+                    Node<T> child = node.children[i];
+                    Node<T> f = node.fail;
+                    Node<T> target = f.child(c);
+                    while (target == null && f != root) {
+                        f = f.fail;
+                        target = f.child(c);
+                    }
+                    child.fail = target == null ? root : target;
+                    child.output = child.fail.subscribers != null ? child.fail : child.fail.output;
+                    pending.add(child);
+                }
+            }
+            linked = true;
+        }
+    }
+
+    private Trie<T> main;
+    private Trie<T> pending;
+
+    /**
+     * Create a new PatternMatcher with no patterns
+     */
+    public PatternMatcher() {
+        this.main = new Trie<>();
+        this.pending = new Trie<>();
+    }
+
+    /**
+     * Register a pattern on behalf of a subscriber
+     *
+     * @param pattern    is not null and not empty
+     * @param subscriber is not null
+     * @return true if the pattern was added, false if the subscriber already had it
+     */
+    public synchronized boolean addPattern(String pattern, T subscriber) {
+        Node<T> node = main.find(pattern);
+        if (node != null && node.subscribers != null) {
+            // the pattern is already linked, so another subscriber changes no links
+            if (node.subscribers.contains(subscriber)) {
+                return false;
+            }
+            Node<T> other = pending.find(pattern);
+            if (other != null && other.subscribers != null && other.subscribers.contains(subscriber)) {
+                return false;
+            }
+            node.subscribers.add(subscriber);
+            main.patterns++;
+            return true;
+        }
+        node = pending.insert(pattern);
+        if (node.subscribers == null) {
+            node.subscribers = new HashSet<>();
+            pending.linked = false;
+        }
+        if (!node.subscribers.add(subscriber)) {
+            return false;
+        }
+        pending.patterns++;
+        if (pending.patterns >= Math.max(MIN_PENDING, (int) Math.sqrt(main.patterns))) {
+            pending.copyInto(main);
+            pending = new Trie<>();
+        }
+        return true;
+    }
+
+    /**
+     * Remove a pattern registered on behalf of a subscriber
+     *
+     * @param pattern    is not null
+     * @param subscriber is not null
+     * @return true if the pattern was removed, false if the subscriber did not have it
+     */
+    public synchronized boolean removePattern(String pattern, T subscriber) {
+        return main.remove(pattern, subscriber) || pending.remove(pattern, subscriber);
+    }
+
+    /**
+     * Get the number of (pattern, subscriber) pairs registered
+     *
+     * @return the number of registered patterns
+     */
+    public synchronized int size() {
+        return main.patterns + pending.patterns;
+    }
+
+    /**
+     * Check whether any registered pattern occurs in a text
+     *
+     * @param text is not null
+     * @return true if at least one pattern occurs in text, false otherwise
+     */
+    public synchronized boolean matches(String text) {
+        Set<T> found = new HashSet<>();
+        return main.scan(text, true, found) || pending.scan(text, true, found);
+    }
+
+    /**
+     * Find every subscriber with at least one pattern occurring in a text
+     *
+     * @param text is not null
+     * @return the set of matching subscribers, empty if there are none
+     */
+    public synchronized Set<T> match(String text) {
+        if (size() == 0) {
+            return Collections.emptySet();
+        }
+        Set<T> found = new HashSet<>();
+        main.scan(text, false, found);
+        pending.scan(text, false, found);
+        return found;
+    }
+}
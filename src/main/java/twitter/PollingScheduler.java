@@ -0,0 +1,325 @@
+package twitter;
+
+import io.github.redouane59.twitter.dto.tweet.TweetV2;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.BiConsumer;
+
+/* Class Description:
+ * Polls Twitter accounts for new tweets off the read path. Each account's poll interval adapts to
+ * its observed tweet rate, every upstream call spends a token from a global TokenBucket, and when
+ * the budget cannot cover every due account, the accounts with the most subscribers go first.
+ *
+ * Rep Invariant & Abstraction Function:
+ * source, sink, budget != null && 0 < minIntervalMillis <= maxIntervalMillis
+ * accounts maps each registered account ID to its state; due holds the states of the accounts that
+ * are not being polled right now, ordered by when they are next due
+ * an account's cursor is the time up to which its tweets have been handed to the sink; its
+ * tweetsPerSecond is only meaningful once polls >= 2, as the first poll is a catch-up
+ *
+ * Thread Safety Argument:
+ * accounts, due and the account states are only touched while holding this scheduler's lock.
+ * The lock is released while calling the source and the sink, and an account being polled is
+ * out of the due queue, so no account is polled twice at once.
+ * */
+public class PollingScheduler {
+
+    // aim to pick up about this many tweets per poll of a busy account
+    private static final double TARGET_TWEETS_PER_POLL = 5;
+    // weight of the latest poll in the exponentially weighted tweet rate
+    private static final double RATE_SMOOTHING = 0.3;
+
+    private static class Account {
+        final String userID;
+        int subscribers;
+        long intervalMillis;
+        long nextPollMillis;
+        double tweetsPerSecond;
+        LocalDateTime cursor;
+        long polls;
+        boolean registered = true;
+
+        Account(String userID, int subscribers, long intervalMillis, LocalDateTime cursor) {
+            this.userID = userID;
+            this.subscribers = subscribers;
+            this.intervalMillis = intervalMillis;
+            this.nextPollMillis = System.currentTimeMillis();
+            this.cursor = cursor;
+        }
+    }
+
+    private final TweetSource source;
+    private final BiConsumer<String, List<TweetV2.TweetData>> sink;
+    private final TokenBucket budget;
+    private final long minIntervalMillis;
+    private final long maxIntervalMillis;
+
+    private final Map<String, Account> accounts = new HashMap<>();
+    private final PriorityQueue<Account> due = new PriorityQueue<>(
+            Comparator.comparingLong((Account a) -> a.nextPollMillis)
+                    .thenComparing(a -> -a.subscribers));
+
+    private long throttledPolls;
+    private long failedPolls;
+    private Thread worker;
+
+    /**
+     * Create a new PollingScheduler
+     *
+     * @param source            where tweets are fetched from, is not null
+     * @param sink              receives each account ID with the tweets fetched for it, is not null
+     * @param budget            limits the rate of upstream calls across all accounts, is not null
+     * @param minIntervalMillis the shortest time between two polls of an account, > 0
+     * @param maxIntervalMillis the longest time between two polls of an account, >= minIntervalMillis
+     */
+    public PollingScheduler(TweetSource source,
+                            BiConsumer<String, List<TweetV2.TweetData>> sink,
+                            TokenBucket budget,
+                            long minIntervalMillis,
+                            long maxIntervalMillis) {
+        this.source = source;
+        this.sink = sink;
+        this.budget = budget;
+        this.minIntervalMillis = minIntervalMillis;
+        this.maxIntervalMillis = maxIntervalMillis;
+    }
+
+    /**
+     * Start polling an account, or update its subscriber count if it is already registered
+     *
+     * @param userID      is the ID of a valid Twitter user
+     * @param subscribers the number of subscribers to the account, >= 0
+     * @param since       tweets made before this time are not fetched, is not null
+     */
+    public synchronized void register(String userID, int subscribers, LocalDateTime since) {
+        Account account = accounts.get(userID);
+        if (account != null) {
+            // re-queue so the priority order sees the new count
+            boolean queued = due.remove(account);
+            account.subscribers = subscribers;
+            if (queued) {
+                due.add(account);
+            }
+            return;
+        }
+        account = new Account(userID, subscribers, minIntervalMillis, since);
+        accounts.put(userID, account);
+        due.add(account);
+        notifyAll();
+    }
+
+    /**
+     * Stop polling an account
+     *
+     * @param userID is not null
+     * @return true if the account was registered, false otherwise
+     */
+    public synchronized boolean unregister(String userID) {
+        Account account = accounts.remove(userID);
+        if (account == null) {
+            return false;
+        }
+        account.registered = false;
+        due.remove(account);
+        return true;
+    }
+
+    /**
+     * Poll every account that is due, as far as the budget allows
+     *
+     * @return the number of accounts polled
+     */
+    public int pollDue() {
+        List<Account> batch = takeDue();
+        for (Account account : batch) {
+            poll(account);
+        }
+        return batch.size();
+    }
+
+    /**
+     * Start polling in a background thread
+     */
+    public synchronized void start() {
+        if (worker != null) {
+            return;
+        }
+        worker = new Thread(this::run, "polling-scheduler");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Stop the background thread started by <code>start</code>
+     */
+    public synchronized void stop() {
+        if (worker == null) {
+            return;
+        }
+        worker.interrupt();
+        worker = null;
+    }
+
+    /**
+     * Get how far behind real time an account's tweets are
+     *
+     * @param userID is not null
+     * @return milliseconds between now and the time up to which the account has been fetched, -1 if not registered
+     */
+    public synchronized long getFreshnessLag(String userID) {
+        Account account = accounts.get(userID);
+        if (account == null) {
+            return -1;
+        }
+        return Duration.between(account.cursor, LocalDateTime.now()).toMillis();
+    }
+
+    /**
+     * Get how far behind real time every account's tweets are
+     *
+     * @return map from account ID to its freshness lag in milliseconds
+     */
+    public synchronized Map<String, Long> getFreshnessLags() {
+        Map<String, Long> lags = new HashMap<>();
+        LocalDateTime now = LocalDateTime.now();
+        for (Account account : accounts.values()) {
+            lags.put(account.userID, Duration.between(account.cursor, now).toMillis());
+        }
+        return lags;
+    }
+
+    /**
+     * Get the current poll interval of an account
+     *
+     * @param userID is not null
+     * @return the poll interval in milliseconds, -1 if not registered
+     */
+    public synchronized long getPollInterval(String userID) {
+        Account account = accounts.get(userID);
+        return account == null ? -1 : account.intervalMillis;
+    }
+
+    /**
+     * Get the number of times a due account had to wait because the budget was spent
+     *
+     * @return the number of throttled polls
+     */
+    public synchronized long getThrottledPolls() {
+        return throttledPolls;
+    }
+
+    /**
+     * Get the number of polls whose upstream call failed
+     *
+     * @return the number of failed polls
+     */
+    public synchronized long getFailedPolls() {
+        return failedPolls;
+    }
+
+    // remove the due accounts from the queue, most subscribed first, while there are tokens to poll them
+    private synchronized List<Account> takeDue() {
+        long now = System.currentTimeMillis();
+        List<Account> ready = new ArrayList<>();
+        while (!due.isEmpty() && due.peek().nextPollMillis <= now) {
+            ready.add(due.remove());
+        }
+        ready.sort(Comparator.comparingInt((Account a) -> a.subscribers).reversed());
+
+        List<Account> batch = new ArrayList<>();
+        for (Account account : ready) {
+            if (budget.tryAcquire()) {
+                batch.add(account);
+            }
+            else {
+                throttledPolls++;
+                due.add(account);
+            }
+        }
+        return batch;
+    }
+
+    private void poll(Account account) {
+        LocalDateTime start;
+        synchronized (this) {
+            start = account.cursor;
+        }
+        LocalDateTime end = LocalDateTime.now();
+        List<TweetV2.TweetData> tweets;
+        try {
+            tweets = source.getUserTimeline(account.userID, start, end);
+        }
+        catch (RuntimeException e) {
+            synchronized (this) {
+                failedPolls++;
+                // back off without moving the cursor, so the next poll covers the missed window
+                reschedule(account, Math.min(maxIntervalMillis, account.intervalMillis * 2));
+            }
+            return;
+        }
+        if (!tweets.isEmpty()) {
+            sink.accept(account.userID, tweets);
+        }
+        synchronized (this) {
+            account.polls++;
+            account.cursor = end;
+            if (account.polls == 1) {
+                // the first poll catches up from `since`, which says nothing about the current rate,
+                // so the next poll comes soon and its window seeds the rate instead
+                reschedule(account, minIntervalMillis);
+                return;
+            }
+            double seconds = Math.max(0.001, Duration.between(start, end).toMillis() / 1000.0);
+            double observed = tweets.size() / seconds;
+            account.tweetsPerSecond = account.polls == 2
+                    ? observed
+                    : RATE_SMOOTHING * observed + (1 - RATE_SMOOTHING) * account.tweetsPerSecond;
+            reschedule(account, intervalFor(account.tweetsPerSecond));
+        }
+    }
+
+    private long intervalFor(double tweetsPerSecond) {
+        if (tweetsPerSecond <= 0) {
+            return maxIntervalMillis;
+        }
+        long interval = (long) (TARGET_TWEETS_PER_POLL / tweetsPerSecond * 1000);
+        return Math.max(minIntervalMillis, Math.min(maxIntervalMillis, interval));
+    }
+
+    private void reschedule(Account account, long intervalMillis) {
+        account.intervalMillis = intervalMillis;
+        account.nextPollMillis = System.currentTimeMillis() + intervalMillis;
+        if (account.registered) {
+            due.add(account);
+            notifyAll();
+        }
+    }
+
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            pollDue();
+            try {
+                synchronized (this) {
+                    long wait = maxIntervalMillis;
+                    if (!due.isEmpty()) {
+                        wait = Math.max(due.peek().nextPollMillis - System.currentTimeMillis(),
+                                budget.millisUntilAvailable());
+                    }
+                    if (wait > 0) {
+                        wait(wait);
+                    }
+                }
+            }
+            catch (InterruptedException ie) {
+                return;
+            }
+        }
+    }
+}
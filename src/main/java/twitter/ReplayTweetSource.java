@@ -0,0 +1,168 @@
+package twitter;
+
+import io.github.redouane59.twitter.dto.tweet.TweetV2;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/* Class Description:
+ * A TweetSource that replays tweets recorded in a file, one TweetData JSON object per line,
+ * so that ingestion can be load-tested without the live Twitter API.
+ *
+ * Tweets are released in file order at a fixed rate: the i-th recorded tweet becomes visible
+ * i / tweetsPerSecond seconds after the replay starts. A timeline request returns the released
+ * tweets of the author whose release time falls within the requested range.
+ *
+ * Rep Invariant & Abstraction Function:
+ * tweets != null && byAuthor != null && userIDs != null
+ * every index array in byAuthor is sorted and refers to tweets by that author
+ * tweetsPerSecond <= 0 means every tweet is released as soon as the replay starts
+ *
+ * Thread Safety Argument:
+ * The recording is immutable once loaded; replayStart is volatile and only ever replaced whole
+ * */
+public class ReplayTweetSource implements TweetSource {
+
+    private final List<TweetV2.TweetData> tweets;
+    private final Map<String, int[]> byAuthor;
+    private final Map<String, String> userIDs;
+    private final double tweetsPerSecond;
+    private volatile long replayStart;
+
+    /**
+     * Create a new ReplayTweetSource where each user name is its own user ID
+     *
+     * @param recording       is a file of TweetData JSON lines
+     * @param tweetsPerSecond how many recorded tweets are released per second, or <= 0 to release all at once
+     */
+    public ReplayTweetSource(File recording, double tweetsPerSecond) {
+        this(recording, new HashMap<>(), tweetsPerSecond);
+    }
+
+    /**
+     * Create a new ReplayTweetSource
+     *
+     * @param recording       is a file of TweetData JSON lines
+     * @param userIDs         maps Twitter user names to the author IDs used in the recording, is not null
+     * @param tweetsPerSecond how many recorded tweets are released per second, or <= 0 to release all at once
+     */
+    public ReplayTweetSource(File recording, Map<String, String> userIDs, double tweetsPerSecond) {
+        this.tweets = load(recording);
+        this.userIDs = new HashMap<>(userIDs);
+        this.tweetsPerSecond = tweetsPerSecond;
+
+        Map<String, List<Integer>> indices = new HashMap<>();
+        for (int i = 0; i < tweets.size(); i++) {
+            indices.computeIfAbsent(tweets.get(i).getAuthorId(), author -> new ArrayList<>()).add(i);
+        }
+        this.byAuthor = new HashMap<>();
+        for (Map.Entry<String, List<Integer>> entry : indices.entrySet()) {
+            byAuthor.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+        this.replayStart = System.currentTimeMillis();
+    }
+
+    /**
+     * Restart the replay, so that no tweet is released yet (unless the rate is unlimited)
+     */
+    public void rewind() {
+        replayStart = System.currentTimeMillis();
+    }
+
+    /**
+     * Get the number of recorded tweets
+     *
+     * @return the number of tweets in the recording
+     */
+    public int size() {
+        return tweets.size();
+    }
+
+    @Override
+    public String getUserID(String twitterUserName) {
+        String userID = userIDs.getOrDefault(twitterUserName, twitterUserName);
+        return byAuthor.containsKey(userID) ? userID : null;
+    }
+
+    @Override
+    public List<TweetV2.TweetData> getUserTimeline(String userID, LocalDateTime startTime, LocalDateTime endTime) {
+        int[] authored = byAuthor.get(userID);
+        List<TweetV2.TweetData> timeline = new ArrayList<>();
+        if (authored == null) {
+            return timeline;
+        }
+        long now = System.currentTimeMillis();
+        int from = releasedBy(toMillis(startTime));
+        int to = Math.min(releasedBy(toMillis(endTime)), releasedBy(now));
+
+        int i = Arrays.binarySearch(authored, from);
+        for (i = i >= 0 ? i : -(i + 1); i < authored.length && authored[i] < to; i++) {
+            timeline.add(tweets.get(authored[i]));
+        }
+        return timeline;
+    }
+
+    /**
+     * Record tweets so that they can be replayed later
+     *
+     * @param tweets    is not null
+     * @param recording is the file to write the TweetData JSON lines to
+     */
+    public static void record(Collection<TweetV2.TweetData> tweets, File recording) {
+        try (BufferedWriter out = Files.newBufferedWriter(recording.toPath(), StandardCharsets.UTF_8)) {
+            for (TweetV2.TweetData tweet : tweets) {
+                out.write(TweetJson.GSON.toJson(tweet));
+                out.newLine();
+            }
+        }
+        catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    // number of tweets released at or before the given time
+    private int releasedBy(long millis) {
+        long elapsed = millis - replayStart;
+        if (elapsed < 0) {
+            return 0;
+        }
+        if (tweetsPerSecond <= 0) {
+            return tweets.size();
+        }
+        double released = Math.floor(elapsed * tweetsPerSecond / 1000.0) + 1;
+        return (int) Math.min(released, tweets.size());
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static List<TweetV2.TweetData> load(File recording) {
+        List<TweetV2.TweetData> loaded = new ArrayList<>();
+        try (BufferedReader in = Files.newBufferedReader(recording.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.isBlank()) {
+                    loaded.add(TweetJson.GSON.fromJson(line, TweetV2.TweetData.class));
+                }
+            }
+        }
+        catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+        return loaded;
+    }
+}
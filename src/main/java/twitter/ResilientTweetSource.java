@@ -0,0 +1,182 @@
+package twitter;
+
+import io.github.redouane59.twitter.dto.tweet.TweetV2;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/* Class Description:
+ * A TweetSource that guards another one. Each endpoint (user lookup and timeline) has its own
+ * timeout and circuit breaker, and a failed call is retried with jittered exponential backoff.
+ * Once a breaker opens, calls to that endpoint fail fast with a TweetSourceUnavailableException
+ * instead of blocking the caller. At most MAX_CALLS_IN_FLIGHT calls run at once; a call beyond that
+ * fails fast too, so calls hung upstream cannot pile up threads without bound.
+ *
+ * Rep Invariant & Abstraction Function:
+ * delegate, userBreaker, timelineBreaker, executor != null
+ * userTimeoutMillis > 0 && timelineTimeoutMillis > 0 && maxAttempts > 0 && baseBackoffMillis >= 0
+ *
+ * Thread Safety Argument:
+ * The configuration is immutable, the breakers are thread-safe, and each call runs as its own task
+ * */
+public class ResilientTweetSource implements TweetSource {
+
+    private static final long DEFAULT_USER_TIMEOUT = 2_000;
+    private static final long DEFAULT_TIMELINE_TIMEOUT = 5_000;
+    private static final int DEFAULT_MAX_ATTEMPTS = 3;
+    private static final long DEFAULT_BASE_BACKOFF = 100;
+    private static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    private static final long DEFAULT_OPEN_MILLIS = 30_000;
+    private static final int MAX_CALLS_IN_FLIGHT = 16;
+    private static final long IDLE_THREAD_MILLIS = 60_000;
+
+    private final TweetSource delegate;
+    private final long userTimeoutMillis;
+    private final long timelineTimeoutMillis;
+    private final int maxAttempts;
+    private final long baseBackoffMillis;
+    private final CircuitBreaker userBreaker;
+    private final CircuitBreaker timelineBreaker;
+    private final ExecutorService executor;
+
+    /**
+     * Create a new ResilientTweetSource with default timeouts, retries and breakers
+     *
+     * @param delegate is not null
+     */
+    public ResilientTweetSource(TweetSource delegate) {
+        this(delegate, DEFAULT_USER_TIMEOUT, DEFAULT_TIMELINE_TIMEOUT, DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_BACKOFF,
+                DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS);
+    }
+
+    /**
+     * Create a new ResilientTweetSource
+     *
+     * @param delegate              is not null
+     * @param userTimeoutMillis     how long a user lookup may take, > 0
+     * @param timelineTimeoutMillis how long a timeline request may take, > 0
+     * @param maxAttempts           how many times a call is tried before giving up, > 0
+     * @param baseBackoffMillis     the backoff before the first retry, doubled for each further retry, >= 0
+     * @param failureThreshold      consecutive failed calls that open an endpoint's breaker, > 0
+     * @param openMillis            how long an open breaker fails fast before a trial call, > 0
+     */
+    public ResilientTweetSource(TweetSource delegate,
+                                long userTimeoutMillis,
+                                long timelineTimeoutMillis,
+                                int maxAttempts,
+                                long baseBackoffMillis,
+                                int failureThreshold,
+                                long openMillis) {
+        this.delegate = delegate;
+        this.userTimeoutMillis = userTimeoutMillis;
+        this.timelineTimeoutMillis = timelineTimeoutMillis;
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.userBreaker = new CircuitBreaker(failureThreshold, openMillis);
+        this.timelineBreaker = new CircuitBreaker(failureThreshold, openMillis);
+        this.executor = new ThreadPoolExecutor(0, MAX_CALLS_IN_FLIGHT, IDLE_THREAD_MILLIS, TimeUnit.MILLISECONDS,
+                new SynchronousQueue<>(), task -> {
+                    Thread thread = new Thread(task, "tweet-source-call");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    @Override
+    public String getUserID(String twitterUserName) {
+        return call("user lookup", userBreaker, userTimeoutMillis,
+                () -> delegate.getUserID(twitterUserName));
+    }
+
+    @Override
+    public List<TweetV2.TweetData> getUserTimeline(String userID, LocalDateTime startTime, LocalDateTime endTime) {
+        return call("timeline", timelineBreaker, timelineTimeoutMillis,
+                () -> delegate.getUserTimeline(userID, startTime, endTime));
+    }
+
+    /**
+     * Get the circuit breaker guarding user lookups
+     *
+     * @return the user lookup breaker, for its state and counters
+     */
+    public CircuitBreaker getUserBreaker() {
+        return userBreaker;
+    }
+
+    /**
+     * Get the circuit breaker guarding timeline requests
+     *
+     * @return the timeline breaker, for its state and counters
+     */
+    public CircuitBreaker getTimelineBreaker() {
+        return timelineBreaker;
+    }
+
+    private <T> T call(String endpoint, CircuitBreaker breaker, long timeoutMillis, Callable<T> task) {
+        Throwable lastFailure = null;
+        for (int attempt = 0; attempt < maxAttempts; attempt++) {
+            if (!breaker.allowRequest()) {
+                throw new TweetSourceUnavailableException(endpoint + " circuit is open", lastFailure);
+            }
+            Future<T> future;
+            try {
+                future = executor.submit(task);
+            }
+            catch (RejectedExecutionException e) {
+                breaker.releaseTrial();
+                // saturated by calls still running upstream, which says nothing new about its health
+                throw new TweetSourceUnavailableException(endpoint + " has too many calls in flight", e);
+            }
+            try {
+                T result = future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+                breaker.recordSuccess();
+                return result;
+            }
+            catch (TimeoutException e) {
+                future.cancel(true);
+                lastFailure = e;
+            }
+            catch (ExecutionException e) {
+                lastFailure = e.getCause();
+            }
+            catch (InterruptedException e) {
+                future.cancel(true);
+                breaker.releaseTrial();
+                Thread.currentThread().interrupt();
+                throw new TweetSourceUnavailableException(endpoint + " call interrupted", e);
+            }
+            breaker.recordFailure();
+            if (attempt + 1 < maxAttempts && !backoff(attempt)) {
+                break;
+            }
+        }
+        throw new TweetSourceUnavailableException(endpoint + " failed after " + maxAttempts + " attempts",
+                lastFailure);
+    }
+
+    // sleep for a random time up to baseBackoffMillis * 2^attempt; false if interrupted
+    private boolean backoff(int attempt) {
+        long ceiling = baseBackoffMillis << Math.min(attempt, 20);
+        if (ceiling <= 0) {
+            return true;
+        }
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+            return true;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
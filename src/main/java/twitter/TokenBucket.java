@@ -0,0 +1,76 @@
+package twitter;
+
+/* Class Description:
+ * A token bucket that limits how often an operation may run: it holds up to capacity tokens,
+ * refills at a fixed rate, and each operation spends one token.
+ *
+ * Rep Invariant & Abstraction Function:
+ * capacity > 0 && refillPerSecond > 0 && 0 <= tokens <= capacity
+ * tokens is the number of operations that may run right now, as of lastRefill
+ *
+ * Thread Safety Argument:
+ * Every method that reads or writes the token count is synchronized
+ * */
+public class TokenBucket {
+
+    private final double capacity;
+    private final double refillPerSecond;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * Create a new, full TokenBucket
+     *
+     * @param capacity        the most tokens the bucket can hold, > 0
+     * @param refillPerSecond how many tokens are added per second, > 0
+     */
+    public TokenBucket(double capacity, double refillPerSecond) {
+        this.capacity = capacity;
+        this.refillPerSecond = refillPerSecond;
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Take a token if one is available
+     *
+     * @return true if a token was taken, false if the bucket is empty
+     */
+    public synchronized boolean tryAcquire() {
+        refill();
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    /**
+     * Get how long until a token is available
+     *
+     * @return the number of milliseconds until a token can be taken, 0 if one is available now
+     */
+    public synchronized long millisUntilAvailable() {
+        refill();
+        if (tokens >= 1) {
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) * 1000 / refillPerSecond);
+    }
+
+    /**
+     * Get the number of tokens currently available
+     *
+     * @return the number of whole tokens in the bucket
+     */
+    public synchronized int available() {
+        refill();
+        return (int) tokens;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * refillPerSecond / 1e9);
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,33 @@
+package twitter;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSerializer;
+
+import java.time.LocalDateTime;
+
+/**
+ * Shared JSON settings for recorded tweets.
+ *
+ * <p>
+ *     Tweets are stored one <code>TweetData</code> object per line,
+ *     with timestamps written as ISO-8601 local date-times.
+ * </p>
+ */
+public final class TweetJson {
+
+    /**
+     * A Gson instance that can read and write <code>TweetData</code>
+     */
+    public static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(LocalDateTime.class,
+                    (JsonSerializer<LocalDateTime>) (time, type, context) -> new JsonPrimitive(time.toString()))
+            .registerTypeAdapter(LocalDateTime.class,
+                    (JsonDeserializer<LocalDateTime>) (json, type, context) -> LocalDateTime.parse(json.getAsString()))
+            .create();
+
+    private TweetJson() {
+    }
+}
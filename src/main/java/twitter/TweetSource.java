@@ -0,0 +1,37 @@
+package twitter;
+
+import io.github.redouane59.twitter.dto.tweet.TweetV2;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * A TweetSource is where a TwitterListener obtains
+ * Twitter users and their tweets from.
+ *
+ * <p>
+ *     The live Twitter API is one such source; recorded
+ *     tweets replayed from a file are another, which allows
+ *     ingestion to be exercised without network access.
+ * </p>
+ */
+public interface TweetSource {
+
+    /**
+     * Look up the ID of a Twitter user
+     *
+     * @param twitterUserName is not null
+     * @return the ID of the user, or null if there is no such user
+     */
+    String getUserID(String twitterUserName);
+
+    /**
+     * Get the tweets made by a user within a time range
+     *
+     * @param userID    is the ID of a valid user
+     * @param startTime is not null and is in local time
+     * @param endTime   is not null and is in local time
+     * @return list of tweets made by the user within the time range, never null
+     */
+    List<TweetV2.TweetData> getUserTimeline(String userID, LocalDateTime startTime, LocalDateTime endTime);
+}
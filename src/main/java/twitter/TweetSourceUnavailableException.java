@@ -0,0 +1,16 @@
+package twitter;
+
+/**
+ * Thrown when a TweetSource cannot be reached: the call failed,
+ * timed out, or was refused because its circuit breaker is open.
+ */
+public class TweetSourceUnavailableException extends RuntimeException {
+
+    public TweetSourceUnavailableException(String message) {
+        super(message);
+    }
+
+    public TweetSourceUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
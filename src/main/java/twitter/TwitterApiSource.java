@@ -0,0 +1,54 @@
+package twitter;
+
+import io.github.redouane59.twitter.TwitterClient;
+import io.github.redouane59.twitter.dto.endpoints.AdditionalParameters;
+import io.github.redouane59.twitter.dto.tweet.TweetList;
+import io.github.redouane59.twitter.dto.tweet.TweetV2;
+import io.github.redouane59.twitter.dto.user.User;
+
+import java.io.File;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/* Class Description:
+ * A TweetSource backed by the live Twitter API.
+ *
+ * Rep Invariant & Abstraction Function:
+ * twitter != null
+ *
+ * Thread Safety Argument:
+ * Holds no mutable state of its own; calls are handed straight to the TwitterClient
+ * */
+public class TwitterApiSource implements TweetSource {
+
+    private final TwitterClient twitter;
+
+    /**
+     * Create a new TwitterApiSource
+     *
+     * @param credentialsFile is a file containing a valid apiKey, apiSecretKey, accessToken, and accessTokenSecret
+     */
+    public TwitterApiSource(File credentialsFile) {
+        this.twitter = new TwitterClient(TwitterClient.getAuthentication(credentialsFile));
+    }
+
+    @Override
+    public String getUserID(String twitterUserName) {
+        User twitterUser = twitter.getUserFromUserName(twitterUserName);
+        if (twitterUser == null) {
+            return null;
+        }
+        return twitterUser.getId();
+    }
+
+    @Override
+    public List<TweetV2.TweetData> getUserTimeline(String userID, LocalDateTime startTime, LocalDateTime endTime) {
+        TweetList twList = twitter.getUserTimeline(userID,
+                AdditionalParameters.builder().startTime(startTime).endTime(endTime).build());
+        if (twList == null || twList.getData() == null) {
+            return new ArrayList<>();
+        }
+        return twList.getData();
+    }
+}
@@ -1,15 +1,13 @@
 package twitter;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import io.github.redouane59.twitter.TwitterClient;
-import io.github.redouane59.twitter.dto.endpoints.AdditionalParameters;
-import io.github.redouane59.twitter.dto.tweet.TweetList;
 import io.github.redouane59.twitter.dto.tweet.TweetV2;
-import io.github.redouane59.twitter.dto.user.User;
-import timedelayqueue.TimeDelayQueue;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
@@ -29,11 +27,20 @@ import java.util.Map;
  * */
 public class TwitterListener {
 
-    TwitterClient twitter;
-    private static final LocalDateTime OCT_1_2022 = LocalDateTime.parse("2022-10-01T00:00:00");
+    private final TweetSource source;
+    // tweets made before this time are never fetched
+    public static final LocalDateTime FIRST_FETCH_START = LocalDateTime.parse("2022-10-01T00:00:00");
+    // where the default sources keep fetched timelines, one directory per credentials file, so a
+    // restarted listener is served from disk
+    private static final File DEFAULT_CACHE_ROOT = new File(System.getProperty("java.io.tmpdir"), "pheme-tweet-cache");
+    // the default source of each credentials file in this process, keyed by a digest of the file
+    private static final Map<String, TweetSource> DEFAULT_SOURCES = new HashMap<>();
 
-    private Map<User, List<String>> subscribers;
-    //Who they are subscribed to matched to the patterns they are subscribed to.
+    private Map<String, List<String>> subscribers;
+    //ID of who they are subscribed to matched to the patterns they are subscribed to.
+
+    //          ID of subscribed Twitter user, automaton over all of that user's patterns.
+    private Map<String, PatternMatcher<String>> matchers;
 
 
 
@@ -43,8 +50,64 @@ public class TwitterListener {
      * @param credentialsFile is a file containing a valid apiKey, apiSecretKey, accessToken, and accessTokenSecret
      */
     public TwitterListener(File credentialsFile) {
-        this.twitter = new TwitterClient(TwitterClient.getAuthentication(credentialsFile));
+        this(defaultSource(credentialsFile));
+    }
+
+    /**
+     * Create the source a listener built from a credentials file uses: the Twitter API behind
+     * timeouts, retries and circuit breakers, with fetched timelines cached on disk. Listeners in
+     * this process with the same credentials share one source; the cache directory is kept apart
+     * from those of other credentials and locked against other processes
+     *
+     * @param credentialsFile is a file containing a valid apiKey, apiSecretKey, accessToken, and accessTokenSecret
+     * @return a TweetSource over the Twitter API
+     */
+    public static TweetSource defaultSource(File credentialsFile) {
+        String key = credentialsKey(credentialsFile);
+        synchronized (DEFAULT_SOURCES) {
+            return DEFAULT_SOURCES.computeIfAbsent(key, k -> CachingTweetSource.inFreeDirectory(
+                    new ResilientTweetSource(new TwitterApiSource(credentialsFile)), DEFAULT_CACHE_ROOT, k));
+        }
+    }
+
+    /**
+     * Create a source over the Twitter API like defaultSource, caching in a given directory
+     *
+     * @param credentialsFile is a file containing a valid apiKey, apiSecretKey, accessToken, and accessTokenSecret
+     * @param cacheDir        the directory fetched timelines are kept in, not used by any other live source
+     * @return a TweetSource over the Twitter API
+     */
+    public static TweetSource defaultSource(File credentialsFile, File cacheDir) {
+        return new CachingTweetSource(new ResilientTweetSource(new TwitterApiSource(credentialsFile)), cacheDir);
+    }
+
+    // a digest of the credentials, so caches are never shared between accounts nor name them
+    private static String credentialsKey(File credentialsFile) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(credentialsFile.toPath()));
+            StringBuilder key = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                key.append(String.format("%02x", digest[i]));
+            }
+            return key.toString();
+        }
+        catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Create a new TwitterListener that obtains tweets from a given source
+     *
+     * @param source is not null
+     */
+    public TwitterListener(TweetSource source) {
+        this.source = source;
         this.subscribers = new HashMap<>();
+        this.matchers = new HashMap<>();
         // ... add other elements ...
     }
 
@@ -55,7 +118,7 @@ public class TwitterListener {
      * @return false if subscription already exists, true if subscription is added successfully
      */
     public boolean addSubscription(String twitterUserName) {
-        User twitterUser = twitter.getUserFromUserName(twitterUserName);
+        String twitterUser = lookupUserID(twitterUserName);
         if(subscribers.containsKey(twitterUser) || twitterUser == null) {
             return false;
         }
@@ -63,13 +126,28 @@ public class TwitterListener {
         return true;
 
     }
+    /**
+     * Look up the ID of a Twitter user, treating an unreachable tweet source as an unknown user
+     *
+     * @param twitterUserName is not null
+     * @return the ID of the user, or null if there is no such user or the source is unavailable
+     */
+    private String lookupUserID(String twitterUserName) {
+        try {
+            return source.getUserID(twitterUserName);
+        }
+        catch (TweetSourceUnavailableException e) {
+            return null;
+        }
+    }
+
     /**
      * Check if a Twitter username is a valid user
      * @param twitterUserName is not null
      * @return true if the username is valid, false otherwise
      **/
     private boolean isValidUser(String twitterUserName) {
-        User twitterUser = twitter.getUserFromUserName(twitterUserName);
+        String twitterUser = lookupUserID(twitterUserName);
 
         if(twitterUser == null) {
             return false;
@@ -88,7 +166,7 @@ public class TwitterListener {
      * @return false if subscription already exists, true if subscription is added successfully
      */
     public boolean addSubscription(String twitterUserName, String pattern) {
-        User twitterUser = twitter.getUserFromUserName(twitterUserName);
+        String twitterUser = lookupUserID(twitterUserName);
 
         if(twitterUser == null) {
             return false;
@@ -100,6 +178,8 @@ public class TwitterListener {
             subscribers.put(twitterUser, new ArrayList<>());
             subscribers.get(twitterUser).add(pattern.toLowerCase());
         }
+        matchers.computeIfAbsent(twitterUser, user -> new PatternMatcher<>())
+                .addPattern(pattern.toLowerCase(), pattern.toLowerCase());
 
         return true;
     }
@@ -111,7 +191,7 @@ public class TwitterListener {
      * @return true if subscription is cancelled successfully, false otherwise
      */
     public boolean cancelSubscription(String twitterUserName) {
-        User twitterUser = twitter.getUserFromUserName(twitterUserName);
+        String twitterUser = lookupUserID(twitterUserName);
 
         if(twitterUser == null) {
             return false;
@@ -120,6 +200,7 @@ public class TwitterListener {
             return false;
         }
         subscribers.remove(twitterUser);
+        matchers.remove(twitterUser);
         return true;
     }
 
@@ -128,23 +209,32 @@ public class TwitterListener {
      *
      * @param twitterUserName is a valid user
      * @param pattern         is not null
-     * @return true if subscription is cancelled successfully, false otherwise
+     * @return true if subscription is cancelled successfully, false if there was no such pattern
      */
     public boolean cancelSubscription(String twitterUserName, String pattern) {
-        User twitterUser = twitter.getUserFromUserName(twitterUserName);
+        String twitterUser = lookupUserID(twitterUserName);
 
         if (twitterUser == null) {
             return false;
         }
-        if(!subscribers.containsKey(twitterUser)) {
+        List<String> patterns = subscribers.get(twitterUser);
+        String lowerPattern = pattern.toLowerCase();
+        if (patterns == null || !patterns.removeIf(lowerPattern::equals)) {
             return false;
         }
-        subscribers.remove(twitterUser);
+        // without patterns the subscription would keep every tweet, so it ends with its last pattern
+        if (patterns.isEmpty()) {
+            subscribers.remove(twitterUser);
+            matchers.remove(twitterUser);
+        } else {
+            matchers.get(twitterUser).removePattern(lowerPattern, lowerPattern);
+        }
 
         return true;
     }
 
     List<LocalDateTime> getRecentTweetsEndTimes = new ArrayList<>();
+    private boolean upstreamAvailable = true;
 
     /**
      * Get all subscribed tweets since last tweet or set of tweets was obtained
@@ -154,25 +244,58 @@ public class TwitterListener {
     public List<TweetV2.TweetData> getRecentTweets() {
 
         List<TweetV2.TweetData> tweets = new ArrayList<>();
-        if(getRecentTweetsEndTimes.size() == 0) {
-            LocalDateTime start = LocalDateTime.of(2022,10,1,0,0,0,0);
-            LocalDateTime end = LocalDateTime.now();
-            getRecentTweetsEndTimes.add(end);
+        LocalDateTime start = FIRST_FETCH_START;
+        if(getRecentTweetsEndTimes.size() != 0) {
+            start = getRecentTweetsEndTimes.get(getRecentTweetsEndTimes.size()-1);
+        }
+        LocalDateTime end = LocalDateTime.now();
 
-            for(User user : subscribers.keySet()) {
-                tweets.addAll(getTweetsByUser(user.getName(), start, end));
+        boolean reachedAll = true;
+        for(String userID : subscribers.keySet()) {
+            try {
+                tweets.addAll(filter(userID, source.getUserTimeline(userID, start, end)));
+            }
+            catch (TweetSourceUnavailableException e) {
+                // keep the old end time, so the missed window is fetched again next time
+                reachedAll = false;
             }
         }
-        else {
-            // LocalDateTime start = timeStamper.getNext().getTimestamp().toLocalDateTime();
-            LocalDateTime start = getRecentTweetsEndTimes.get(getRecentTweetsEndTimes.size()-1);
-            LocalDateTime end = LocalDateTime.now();
+        upstreamAvailable = reachedAll;
+        if(reachedAll) {
+            getRecentTweetsEndTimes.add(end);
+        }
+        return tweets;
+    }
 
-            for(User user : subscribers.keySet()) {
-                tweets.addAll(getTweetsByUser(user.getName(), start, end));
+    /**
+     * Check whether the last call to getRecentTweets reached every subscribed Twitter user
+     *
+     * @return false if the tweet source was unavailable for some user during the last fetch, true otherwise
+     */
+    public boolean isUpstreamAvailable() {
+        return upstreamAvailable;
+    }
+
+    /**
+     * Keep only the tweets that match at least one pattern subscribed to for a Twitter user;
+     * a subscription without patterns keeps every tweet
+     *
+     * @param twitterUserID is the ID of a subscribed user
+     * @param tweets        is not null
+     * @return the tweets from <code>tweets</code> that the subscription asks for
+     */
+    private List<TweetV2.TweetData> filter(String twitterUserID, List<TweetV2.TweetData> tweets) {
+        PatternMatcher<String> matcher = matchers.get(twitterUserID);
+        if (matcher == null || matcher.size() == 0 || tweets == null) {
+            return tweets == null ? new ArrayList<>() : tweets;
+        }
+        List<TweetV2.TweetData> matching = new ArrayList<>();
+        for (TweetV2.TweetData tweet : tweets) {
+            if (tweet.getText() != null && matcher.matches(tweet.getText())) {
+                matching.add(tweet);
             }
         }
-        return tweets;
+        return matching;
     }
 
     /**
@@ -186,15 +309,14 @@ public class TwitterListener {
     public List<TweetV2.TweetData> getTweetsByUser(String twitterUserName,
                                                    LocalDateTime startTime,
                                                    LocalDateTime endTime) {
-        User twUser = twitter.getUserFromUserName(twitterUserName);
-        if (twUser == null) {
+        String twUserID = source.getUserID(twitterUserName);
+        if (twUserID == null) {
             throw new IllegalArgumentException();
         }
-        TweetList twList = twitter.getUserTimeline(twUser.getId(), AdditionalParameters.builder().startTime(startTime).endTime(endTime).build());
-        return twList.getData();
+        return source.getUserTimeline(twUserID, startTime, endTime);
     }
 
-    public Map<User, List<String>> getSubscribers() {
+    public Map<String, List<String>> getSubscribers() {
         return subscribers;
     }
 }
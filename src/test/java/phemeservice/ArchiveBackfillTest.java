@@ -0,0 +1,168 @@
+package phemeservice;
+
+import io.github.redouane59.twitter.dto.tweet.TweetV2;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pheme.ArchiveBackfill;
+import pheme.PhemeService;
+import timedelayqueue.PubSubMessage;
+import twitter.TweetSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ArchiveBackfillTest {
+
+    private final UUID alice = UUID.randomUUID();
+    private final UUID bob = UUID.randomUUID();
+
+    @TempDir
+    File dir;
+
+    private File archive(List<String> lines) throws IOException {
+        File file = new File(dir, "archive.jsonl");
+        Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    private static String tweet(String id, String author, String text) {
+        return "{\"id\":\"" + id + "\",\"text\":\"" + text + "\",\"authorId\":\"" + author
+                + "\",\"createdAt\":\"2022-10-02T10:00:00\"}";
+    }
+
+    private static Set<String> contents(List<PubSubMessage> msgs) {
+        Set<String> contents = new HashSet<>();
+        for (PubSubMessage msg : msgs) {
+            contents.add(msg.getContent());
+        }
+        return contents;
+    }
+
+    @Test
+    public void testSubscriptionsAndFieldStyles() throws IOException {
+        ArchiveBackfill backfill = new ArchiveBackfill();
+        backfill.subscribe("ubc", alice, List.of());
+        backfill.subscribe("ubc", bob, List.of("exams"));
+        backfill.subscribe("sfu", bob, List.of());
+        File file = archive(List.of(
+                tweet("1", "ubc", "Exams start Monday"),
+                "{\"id\":\"2\",\"text\":\"Library open late\",\"author_id\":\"ubc\","
+                        + "\"created_at\":\"2022-10-02T17:00:00.000Z\",\"lang\":\"en\"}",
+                tweet("3", "sfu", "Go team"),
+                tweet("4", "uvic", "Nobody listens")));
+
+        Map<UUID, List<PubSubMessage>> inboxes = backfill.run(file, 2);
+        assertEquals(Set.of("Exams start Monday", "Library open late"), contents(inboxes.get(alice)));
+        assertEquals(Set.of("Exams start Monday", "Go team"), contents(inboxes.get(bob)));
+        assertEquals(0, backfill.getMalformedLines());
+        // the same tweet is one message per receiver
+        assertNotEquals(inboxes.get(alice).get(0).getId(), inboxes.get(bob).get(0).getId());
+    }
+
+    @Test
+    public void testMalformedLinesSkipped() throws IOException {
+        ArchiveBackfill backfill = new ArchiveBackfill();
+        backfill.subscribe("ubc", alice, List.of());
+        File file = archive(List.of(
+                tweet("1", "ubc", "first"),
+                "not json at all",
+                "{\"id\":\"2\",\"text\":\"no author\",\"createdAt\":\"2022-10-02T10:00:00\"}",
+                "",
+                "{\"id\":\"3\",\"text\":\"bad time\",\"authorId\":\"ubc\",\"createdAt\":\"yesterday\"}",
+                "[\"an\", \"array\"]",
+                "{\"id\":\"4\",\"text\":\"cut off",
+                tweet("5", "ubc", "last")));
+
+        Map<UUID, List<PubSubMessage>> inboxes = backfill.run(file, 3);
+        assertEquals(Set.of("first", "last"), contents(inboxes.get(alice)));
+        assertEquals(5, backfill.getMalformedLines());
+    }
+
+    @Test
+    public void testManyChunks() throws IOException {
+        ArchiveBackfill backfill = new ArchiveBackfill();
+        backfill.subscribe("ubc", alice, List.of());
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            lines.add(tweet(Integer.toString(i), "ubc", "tweet " + "x".repeat(i % 40) + i));
+        }
+        File file = archive(lines);
+        for (int threads : new int[]{1, 4, 7, 64}) {
+            assertEquals(500, backfill.run(file, threads).get(alice).size());
+        }
+        assertEquals(0, backfill.getMalformedLines());
+    }
+
+    @Test
+    public void testChunksHandedOnInOrder() throws IOException {
+        ArchiveBackfill backfill = new ArchiveBackfill();
+        backfill.subscribe("ubc", alice, List.of());
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            lines.add(tweet(Integer.toString(i), "ubc", "tweet " + i));
+        }
+        File file = archive(lines);
+        List<String> handedOn = new ArrayList<>();
+        int[] parts = new int[1];
+        backfill.run(file, 4, part -> {
+            parts[0]++;
+            for (PubSubMessage msg : part.get(alice)) {
+                handedOn.add(msg.getContent());
+            }
+        });
+        assertTrue(parts[0] > 1);
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            expected.add("tweet " + i);
+        }
+        assertEquals(expected, handedOn);
+    }
+
+    @Test
+    public void testPhemeServiceBackfill() throws IOException {
+        List<TweetV2.TweetData> live = new ArrayList<>();
+        PhemeService srv = new PhemeService(new TweetSource() {
+            @Override
+            public String getUserID(String twitterUserName) {
+                return twitterUserName;
+            }
+
+            @Override
+            public List<TweetV2.TweetData> getUserTimeline(String userID, LocalDateTime startTime, LocalDateTime endTime) {
+                return new ArrayList<>(live);
+            }
+        });
+        srv.addUser(alice, "alice", "hash a");
+        srv.addUser(bob, "bob", "hash b");
+        assertTrue(srv.addSubscription("alice", "hash a", "ubc"));
+        assertTrue(srv.addSubscription("bob", "hash b", "ubc", "exams"));
+        File file = archive(List.of(
+                tweet("1", "ubc", "Exams start Monday"),
+                tweet("2", "ubc", "Library open late"),
+                "{oops"));
+
+        assertEquals(3, srv.backfill(file));
+        assertEquals(1, srv.getMalformedArchiveLines());
+        assertEquals(Set.of("Exams start Monday", "Library open late"), contents(srv.getAllRecent("alice", "hash a")));
+        assertEquals(Set.of("Exams start Monday"), contents(srv.getAllRecent("bob", "hash b")));
+
+        // a backfilled tweet is not delivered again when fetched from Twitter, nor by another backfill
+        live.add(TweetV2.TweetData.builder().id("1").text("Exams start Monday").authorId("ubc")
+                .createdAt(LocalDateTime.parse("2022-10-02T10:00:00")).build());
+        assertTrue(srv.getAllRecent("alice", "hash a").isEmpty());
+        assertTrue(srv.getAllRecent("bob", "hash b").isEmpty());
+        assertEquals(0, srv.backfill(file));
+        assertEquals(2, srv.getMalformedArchiveLines());
+    }
+}
@@ -0,0 +1,104 @@
+package phemeservice;
+
+import org.junit.jupiter.api.Test;
+import pheme.DeliveryIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DeliveryIndexTest {
+
+    @Test
+    public void testBulkQuery() {
+        DeliveryIndex index = new DeliveryIndex(60_000, 100);
+        UUID msgID = UUID.randomUUID();
+        List<UUID> receivers = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            receivers.add(UUID.randomUUID());
+        }
+        index.record(msgID, 1000, receivers);
+        for (int i = 0; i < 50; i += 2) {
+            index.markDelivered(msgID, 1000 + i, receivers.get(i));
+        }
+
+        UUID stranger = UUID.randomUUID();
+        List<UUID> query = new ArrayList<>(receivers);
+        query.add(stranger);
+        List<Boolean> delivered = index.isDelivered(msgID, query);
+        assertEquals(51, delivered.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(i % 2 == 0, delivered.get(i));
+        }
+        assertFalse(delivered.get(50));
+        assertEquals(List.of(false, false), index.isDelivered(UUID.randomUUID(), List.of(stranger, receivers.get(0))));
+        assertEquals(1048, index.getWatermark(receivers.get(48)));
+        assertEquals(0, index.getWatermark(stranger));
+    }
+
+    @Test
+    public void testDeliveryToUnaddressedReceiver() {
+        DeliveryIndex index = new DeliveryIndex(60_000, 100);
+        UUID msgID = UUID.randomUUID();
+        UUID receiver = UUID.randomUUID();
+        UUID other = UUID.randomUUID();
+        index.markDelivered(msgID, 1000, receiver);
+        index.markDelivered(msgID, 1000, other);
+        assertTrue(index.isDelivered(msgID, receiver));
+        assertTrue(index.isDelivered(msgID, other));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void testWatermark() {
+        DeliveryIndex index = new DeliveryIndex(60_000, 100);
+        UUID receiver = UUID.randomUUID();
+        UUID stranger = UUID.randomUUID();
+        UUID early = UUID.randomUUID();
+        UUID late = UUID.randomUUID();
+        index.record(early, 1000, List.of(receiver, stranger));
+        index.markDelivered(UUID.randomUUID(), 2000, stranger);
+        assertFalse(index.isDelivered(early, receiver));
+        // reaching a newer message covers every older one addressed to the receiver
+        index.markDelivered(UUID.randomUUID(), 2000, receiver);
+        assertEquals(List.of(true, true), index.isDelivered(early, List.of(receiver, stranger)));
+
+        // a message recorded behind the watermark waits until it is marked itself
+        index.record(late, 1500, List.of(receiver));
+        assertFalse(index.isDelivered(late, receiver));
+        assertFalse(index.isDelivered(late, stranger));
+        index.markDelivered(late, 1500, receiver);
+        assertTrue(index.isDelivered(late, receiver));
+        assertEquals(2000, index.getWatermark(receiver));
+
+        index.forgetReceiver(receiver);
+        assertFalse(index.isDelivered(early, receiver));
+    }
+
+    @Test
+    public void testBoundedSize() {
+        DeliveryIndex index = new DeliveryIndex(60_000, 100);
+        UUID receiver = UUID.randomUUID();
+        UUID first = UUID.randomUUID();
+        index.markDelivered(first, 0, receiver);
+        for (int i = 0; i < 1000; i++) {
+            index.markDelivered(UUID.randomUUID(), i, receiver);
+        }
+        assertEquals(100, index.size());
+        assertFalse(index.isDelivered(first, receiver));
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        DeliveryIndex index = new DeliveryIndex(50, 100);
+        UUID receiver = UUID.randomUUID();
+        UUID msgID = UUID.randomUUID();
+        index.markDelivered(msgID, 0, receiver);
+        Thread.sleep(100);
+        index.markDelivered(UUID.randomUUID(), 0, receiver);
+        assertFalse(index.isDelivered(msgID, receiver));
+        assertEquals(1, index.size());
+    }
+}
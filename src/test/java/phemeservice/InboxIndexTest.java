@@ -0,0 +1,94 @@
+package phemeservice;
+
+import org.junit.jupiter.api.Test;
+import pheme.InboxIndex;
+import pheme.PhemeService;
+import timedelayqueue.BasicMessageType;
+import timedelayqueue.PubSubMessage;
+import timedelayqueue.TransientPubSubMessage;
+import twitter.EmptyTweetSource;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InboxIndexTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    private final UUID receiver = UUID.randomUUID();
+    private final UUID alice = UUID.randomUUID();
+    private final UUID bob = UUID.randomUUID();
+    private final long start = System.currentTimeMillis() - HOUR;
+
+    private PubSubMessage msg(UUID sender, long offset, BasicMessageType type) {
+        return new PubSubMessage(UUID.randomUUID(), new Timestamp(start + offset), sender, receiver, "m" + offset, type);
+    }
+
+    @Test
+    public void testQueries() {
+        InboxIndex index = new InboxIndex(24 * HOUR, 1000);
+        List<PubSubMessage> fromAlice = new ArrayList<>();
+        List<PubSubMessage> tweets = new ArrayList<>();
+        // added out of order; queries come back oldest first
+        for (int i = 99; i >= 0; i--) {
+            PubSubMessage m = msg(i % 2 == 0 ? alice : bob, i * 1000, i % 3 == 0 ? BasicMessageType.TWEET : BasicMessageType.SIMPLEMSG);
+            index.add(m);
+            if (i % 2 == 0) {
+                fromAlice.add(0, m);
+            }
+            if (i % 3 == 0) {
+                tweets.add(0, m);
+            }
+        }
+
+        assertEquals(fromAlice, index.query(alice, null, null, null, 1000));
+        assertEquals(tweets, index.query(null, BasicMessageType.TWEET, null, null, 1000));
+        assertEquals(fromAlice.subList(0, 5), index.query(alice, null, null, null, 5));
+
+        List<PubSubMessage> range = index.query(null, null, new Timestamp(start + 10_000), new Timestamp(start + 19_000), 1000);
+        assertEquals(10, range.size());
+        assertEquals(start + 10_000, range.get(0).getTimestamp().getTime());
+
+        // alice's tweets are every 6th message
+        List<PubSubMessage> both = index.query(alice, BasicMessageType.TWEET, null, new Timestamp(start + 30_000), 1000);
+        assertEquals(6, both.size());
+        for (PubSubMessage m : both) {
+            assertEquals(alice, m.getSender());
+            assertEquals(BasicMessageType.TWEET, m.getType());
+        }
+
+        assertTrue(index.query(UUID.randomUUID(), null, null, null, 10).isEmpty());
+        assertTrue(index.query(null, null, new Timestamp(start + 5000), new Timestamp(start), 10).isEmpty());
+    }
+
+    @Test
+    public void testRetentionAndExpiry() {
+        InboxIndex index = new InboxIndex(HOUR / 2, 10);
+        index.add(msg(alice, 0, BasicMessageType.SIMPLEMSG));
+        assertEquals(0, index.size());
+        for (int i = 0; i < 20; i++) {
+            index.add(msg(alice, HOUR - 60_000 + i, BasicMessageType.SIMPLEMSG));
+        }
+        assertEquals(10, index.size());
+        index.add(new TransientPubSubMessage(UUID.randomUUID(), new Timestamp(System.currentTimeMillis() - 5000),
+                bob, receiver, "gone", BasicMessageType.SIMPLEMSG, 1000));
+        assertTrue(index.query(bob, null, null, null, 10).isEmpty());
+    }
+
+    @Test
+    public void testReadMessagesStaySearchable() {
+        PhemeService srv = new PhemeService(new EmptyTweetSource());
+        srv.addUser(alice, "alice", "hash a");
+        srv.addUser(receiver, "receiver", "hash r");
+        PubSubMessage m = msg(alice, 0, BasicMessageType.SIMPLEMSG);
+        srv.sendMessage("alice", "hash a", m);
+        assertEquals(List.of(m), srv.findMessages("receiver", "hash r", alice, null, null, null, 10));
+        assertEquals(m, srv.getNext("receiver", "hash r"));
+        assertEquals(List.of(m), srv.findMessages("receiver", "hash r", null, BasicMessageType.SIMPLEMSG, null, null, 10));
+        assertTrue(srv.findMessages("receiver", "wrong", alice, null, null, null, 10).isEmpty());
+    }
+}
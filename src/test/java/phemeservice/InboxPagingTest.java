@@ -0,0 +1,83 @@
+package phemeservice;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import pheme.InboxPage;
+import pheme.PhemeService;
+import security.BlowfishCipher;
+import timedelayqueue.BasicMessageType;
+import timedelayqueue.PubSubMessage;
+import twitter.EmptyTweetSource;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InboxPagingTest {
+
+    private PhemeService srv;
+    private UUID userID1;
+    private UUID userID2;
+    private List<PubSubMessage> sent;
+
+    @BeforeEach
+    public void setup() {
+        srv = new PhemeService(new EmptyTweetSource());
+        userID1 = UUID.randomUUID();
+        userID2 = UUID.randomUUID();
+        srv.addUser(userID1, "user 1", "hash 1");
+        srv.addUser(userID2, "user 2", BlowfishCipher.hashPassword("password 2", BlowfishCipher.gensalt(4)));
+        sent = new ArrayList<>();
+        long start = System.currentTimeMillis() - 60_000;
+        for (int i = 0; i < 25; i++) {
+            PubSubMessage msg = new PubSubMessage(UUID.randomUUID(), new Timestamp(start + i), userID1, userID2,
+                    "msg " + i, BasicMessageType.SIMPLEMSG);
+            sent.add(msg);
+            srv.sendMessage("user 1", "hash 1", msg);
+        }
+    }
+
+    @Test
+    public void testPages() {
+        String token = srv.login("user 2", "password 2");
+        List<PubSubMessage> read = new ArrayList<>();
+        InboxPage page = srv.getRecent(token, 10, null);
+        assertEquals(10, page.getMessages().size());
+        read.addAll(page.getMessages());
+
+        // a message that becomes active after the read started waits for the next read
+        PubSubMessage late = new PubSubMessage(userID1, userID2, "late");
+        srv.sendMessage("user 1", "hash 1", late);
+
+        page = srv.getRecent(token, 10, page.getNextCursor());
+        assertEquals(10, page.getMessages().size());
+        read.addAll(page.getMessages());
+        page = srv.getRecent(token, 10, page.getNextCursor());
+        assertEquals(5, page.getMessages().size());
+        assertFalse(page.hasMore());
+        read.addAll(page.getMessages());
+
+        assertEquals(sent, read);
+        assertEquals(List.of(late), srv.getRecent(token, 10, null).getMessages());
+    }
+
+    @Test
+    public void testStream() {
+        String token = srv.login("user 2", "password 2");
+        assertEquals(sent, srv.streamRecent(token, 7).collect(Collectors.toList()));
+        assertEquals(0, srv.getRecent(token, 7, null).getMessages().size());
+    }
+
+    @Test
+    public void testInvalidCredentialsAndCursor() {
+        assertEquals(0, srv.getRecent("user 2", "wrong hash", 10, null).getMessages().size());
+        assertEquals(0, srv.getRecent("bad token", 10, null).getMessages().size());
+        String token = srv.login("user 2", "password 2");
+        assertThrows(IllegalArgumentException.class, () -> srv.getRecent(token, 10, "not a cursor!"));
+        assertThrows(IllegalArgumentException.class, () -> srv.getRecent(token, 0, null));
+    }
+}
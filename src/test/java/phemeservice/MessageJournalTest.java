@@ -0,0 +1,101 @@
+package phemeservice;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pheme.MessageJournal;
+import pheme.PhemeService;
+import timedelayqueue.BasicMessageType;
+import timedelayqueue.PubSubMessage;
+import timedelayqueue.TopicPubSubMessage;
+import timedelayqueue.TransientPubSubMessage;
+import twitter.EmptyTweetSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageJournalTest {
+
+    private static final byte[] MASTER_KEY = "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    @TempDir
+    File dir;
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        List<PubSubMessage> msgs = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            msgs.add(new PubSubMessage(UUID.randomUUID(), UUID.randomUUID(), "secret message " + i));
+        }
+        msgs.add(new TopicPubSubMessage(UUID.randomUUID(), List.of(UUID.randomUUID()), "secret alert", "team.alerts"));
+        msgs.add(new TransientPubSubMessage(UUID.randomUUID(), new Timestamp(1000), UUID.randomUUID(),
+                List.of(UUID.randomUUID(), UUID.randomUUID()), "secret tweet", BasicMessageType.TWEET, 500));
+
+        MessageJournal journal = new MessageJournal(dir, MASTER_KEY);
+        String segment = journal.writeSegment(msgs);
+        byte[] sealed = Files.readAllBytes(dir.toPath().resolve(segment + ".seg"));
+        assertFalse(new String(sealed, StandardCharsets.ISO_8859_1).contains("secret"));
+
+        List<PubSubMessage> recovered = new ArrayList<>();
+        assertEquals(msgs.size(), new MessageJournal(dir, MASTER_KEY).recover(recovered::add));
+        assertEquals(msgs, recovered);
+        TransientPubSubMessage last = (TransientPubSubMessage) recovered.get(recovered.size() - 1);
+        assertEquals(500, last.getLifetime());
+        assertEquals(BasicMessageType.TWEET, last.getType());
+        assertEquals(msgs.get(msgs.size() - 1).getReceiver(), last.getReceiver());
+        TopicPubSubMessage alert = (TopicPubSubMessage) recovered.get(recovered.size() - 2);
+        assertEquals("team.alerts", alert.getTopic());
+        assertEquals(BasicMessageType.TOPICMSG, alert.getType());
+    }
+
+    @Test
+    public void testTamperingDetected() throws IOException {
+        MessageJournal journal = new MessageJournal(dir, MASTER_KEY);
+        String segment = journal.writeSegment(List.of(new PubSubMessage(UUID.randomUUID(), UUID.randomUUID(), "hi")));
+        Path file = dir.toPath().resolve(segment + ".seg");
+        byte[] sealed = Files.readAllBytes(file);
+        sealed[sealed.length - 1] ^= 1;
+        Files.write(file, sealed);
+        assertThrows(UncheckedIOException.class, () -> journal.recover(msg -> { }));
+    }
+
+    @Test
+    public void testWrongKeyRejected() {
+        new MessageJournal(dir, MASTER_KEY).writeSegment(List.of(new PubSubMessage(UUID.randomUUID(), UUID.randomUUID(), "hi")));
+        MessageJournal other = new MessageJournal(dir, "another key, 16+ bytes".getBytes(StandardCharsets.US_ASCII));
+        assertThrows(UncheckedIOException.class, () -> other.recover(msg -> { }));
+    }
+
+    @Test
+    public void testCheckpointAndRestore() throws InterruptedException {
+        UUID userID1 = UUID.randomUUID();
+        UUID userID2 = UUID.randomUUID();
+        PhemeService srv = new PhemeService(new EmptyTweetSource());
+        srv.addUser(userID1, "user 1", "hash 1");
+        srv.addUser(userID2, "user 2", "hash 2");
+        PubSubMessage msg = new PubSubMessage(userID1, List.of(userID1, userID2), "hello");
+        srv.sendMessage("user 1", "hash 1", msg);
+        assertEquals(msg, srv.getNext("user 1", "hash 1"));
+
+        MessageJournal journal = new MessageJournal(dir, MASTER_KEY);
+        assertEquals(1, srv.checkpoint(journal));
+        assertEquals(1, srv.checkpoint(journal));
+        assertEquals(1, journal.getSegments().size());
+
+        PhemeService restarted = new PhemeService(new EmptyTweetSource());
+        restarted.addUser(userID1, "user 1", "hash 1");
+        restarted.addUser(userID2, "user 2", "hash 2");
+        assertEquals(1, restarted.restore(journal));
+        assertEquals(msg, restarted.getNext("user 2", "hash 2"));
+        assertEquals(PubSubMessage.NO_MSG, restarted.getNext("user 1", "hash 1"));
+    }
+}
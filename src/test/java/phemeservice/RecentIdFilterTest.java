@@ -0,0 +1,91 @@
+package phemeservice;
+
+import org.junit.jupiter.api.Test;
+import io.github.redouane59.twitter.dto.tweet.TweetV2;
+import pheme.PhemeService;
+import pheme.RecentIdFilter;
+import timedelayqueue.OverflowPolicy;
+import timedelayqueue.PubSubMessage;
+import timedelayqueue.QueueCapacity;
+import twitter.TweetSource;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RecentIdFilterTest {
+
+    @Test
+    public void testRepeatDropped() {
+        RecentIdFilter filter = new RecentIdFilter(4, 60_000, 16);
+        UUID id = UUID.randomUUID();
+        assertTrue(filter.markSeen(id));
+        assertFalse(filter.markSeen(id));
+        assertTrue(filter.contains(id));
+    }
+
+    @Test
+    public void testWindowIsBounded() {
+        RecentIdFilter filter = new RecentIdFilter(2, 60_000, 4);
+        for (int i = 0; i < 100; i++) {
+            filter.markSeen(UUID.randomUUID());
+        }
+        assertTrue(filter.size() <= 8);
+    }
+
+    @Test
+    public void testOldBucketsExpire() {
+        RecentIdFilter filter = new RecentIdFilter(2, 10, 16);
+        UUID id = UUID.randomUUID();
+        filter.markSeen(id);
+        try {
+            Thread.sleep(50);
+        }
+        catch (InterruptedException ie) {
+            fail();
+        }
+        filter.markSeen(UUID.randomUUID());
+        assertFalse(filter.contains(id));
+    }
+
+    @Test
+    public void testTweetMessageIDIsDeterministic() {
+        UUID receiver = UUID.randomUUID();
+        assertEquals(PhemeService.tweetMessageID("1585", receiver), PhemeService.tweetMessageID("1585", receiver));
+        assertNotEquals(PhemeService.tweetMessageID("1585", receiver),
+                PhemeService.tweetMessageID("1585", UUID.randomUUID()));
+    }
+
+    @Test
+    public void testRefusedTweetOfferedAgain() {
+        List<TweetV2.TweetData> tweets = List.of(
+                TweetV2.TweetData.builder().id("1").text("first").authorId("ubc")
+                        .createdAt(LocalDateTime.parse("2022-10-02T10:00:00")).build(),
+                TweetV2.TweetData.builder().id("2").text("second").authorId("ubc")
+                        .createdAt(LocalDateTime.parse("2022-10-02T11:00:00")).build());
+        PhemeService srv = new PhemeService(new TweetSource() {
+            @Override
+            public String getUserID(String twitterUserName) {
+                return twitterUserName;
+            }
+
+            @Override
+            public List<TweetV2.TweetData> getUserTimeline(String userID, LocalDateTime startTime, LocalDateTime endTime) {
+                return tweets;
+            }
+        }, new QueueCapacity(1, Long.MAX_VALUE, OverflowPolicy.REJECT_NEW));
+        srv.addUser(UUID.randomUUID(), "alice", "hash a");
+        assertTrue(srv.addSubscription("alice", "hash a", "ubc"));
+
+        // the queue holds one message, so the second tweet is refused the first time round
+        List<PubSubMessage> first = srv.getAllRecent("alice", "hash a");
+        assertEquals(1, first.size());
+        assertEquals("first", first.get(0).getContent());
+        List<PubSubMessage> second = srv.getAllRecent("alice", "hash a");
+        assertEquals(1, second.size());
+        assertEquals("second", second.get(0).getContent());
+        assertTrue(srv.getAllRecent("alice", "hash a").isEmpty());
+    }
+}
@@ -0,0 +1,143 @@
+package phemeservice;
+
+import org.junit.jupiter.api.Test;
+import pheme.PhemeService;
+import pheme.SearchIndex;
+import security.BlowfishCipher;
+import timedelayqueue.BasicMessageType;
+import timedelayqueue.PubSubMessage;
+import timedelayqueue.QueueCapacity;
+import twitter.EmptyTweetSource;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SearchIndexTest {
+
+    private static final long DAY = 24 * 60 * 60 * 1000;
+
+    private final UUID sender = UUID.randomUUID();
+    private final UUID receiver = UUID.randomUUID();
+    private final long start = System.currentTimeMillis() - 60 * 60 * 1000;
+
+    private PubSubMessage msg(int i, String content) {
+        return new PubSubMessage(UUID.randomUUID(), new Timestamp(start + i), sender, receiver, content,
+                BasicMessageType.SIMPLEMSG);
+    }
+
+    @Test
+    public void testTokenize() {
+        assertEquals(List.of("hello", "world", "42"),
+                new ArrayList<>(SearchIndex.tokenize("Hello, WORLD! hello #42")));
+        assertTrue(SearchIndex.tokenize(" ,.!? ").isEmpty());
+        assertEquals(Set.of("caf\u00e9", "\u00fcn\u00efcode"), SearchIndex.tokenize("Caf\u00e9 / \u00dcN\u00cfCODE"));
+    }
+
+    @Test
+    public void testSearchAcrossSegments() throws InterruptedException {
+        SearchIndex index = new SearchIndex(DAY, 1_000_000, Long.MAX_VALUE);
+        List<PubSubMessage> sent = new ArrayList<>();
+        // enough messages to flush many segments and trigger merges
+        for (int i = 0; i < 50_000; i++) {
+            String content = "message " + i + (i % 7 == 0 ? " lucky" : "") + (i % 11 == 0 ? " Seven" : "");
+            PubSubMessage m = msg(i, content);
+            sent.add(m);
+            index.add(m);
+        }
+        // merges run in the background; results must not depend on them having finished
+        List<PubSubMessage> both = index.search("lucky seven", 1_000_000, Long.MAX_VALUE);
+        List<PubSubMessage> expected = new ArrayList<>();
+        for (int i = sent.size() - 1; i >= 0; i--) {
+            if (i % 77 == 0) {
+                expected.add(sent.get(i));
+            }
+        }
+        assertEquals(expected, both);
+        assertEquals(expected.subList(0, 3), index.search("SEVEN, lucky!", 3, Long.MAX_VALUE));
+        assertEquals(List.of(sent.get(12345)), index.search("12345", 10, Long.MAX_VALUE));
+        assertTrue(index.search("lucky unheard", 10, Long.MAX_VALUE).isEmpty());
+        assertTrue(index.search("   ", 10, Long.MAX_VALUE).isEmpty());
+
+        for (int i = 0; i < 100 && index.getSegmentCount() > 4; i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(index.getSegmentCount() <= 4 * 4);
+        assertEquals(expected, index.search("seven lucky", 1_000_000, Long.MAX_VALUE));
+        // asOf leaves out messages with later timestamps
+        assertEquals(List.of(sent.get(0)), index.search("lucky seven", 10, start + 76));
+    }
+
+    @Test
+    public void testDropOldest() {
+        SearchIndex index = new SearchIndex(DAY, 10_000, Long.MAX_VALUE);
+        List<PubSubMessage> sent = new ArrayList<>();
+        for (int i = 0; i < 30_000; i++) {
+            PubSubMessage m = msg(i, "common " + i);
+            sent.add(m);
+            index.add(m);
+        }
+        assertEquals(10_000, index.size());
+        assertTrue(index.search("5", 10, Long.MAX_VALUE).isEmpty());
+        assertEquals(List.of(sent.get(25_000)), index.search("25000", 10, Long.MAX_VALUE));
+        List<PubSubMessage> all = index.search("common", 100_000, Long.MAX_VALUE);
+        assertEquals(10_000, all.size());
+        assertEquals(sent.get(29_999), all.get(0));
+        assertEquals(sent.get(20_000), all.get(9_999));
+    }
+
+    @Test
+    public void testRetentionAndByteLimit() {
+        PubSubMessage stale = new PubSubMessage(UUID.randomUUID(), new Timestamp(start - DAY), sender, receiver,
+                "common stale", BasicMessageType.SIMPLEMSG);
+        SearchIndex index = new SearchIndex(DAY, 1_000, Long.MAX_VALUE);
+        index.add(msg(0, "common first"));
+        // added after a newer message, so it is only skipped until the one before it is dropped
+        index.add(stale);
+        assertEquals(1, index.search("common", 10, Long.MAX_VALUE).size());
+        assertTrue(index.search("stale", 10, Long.MAX_VALUE).isEmpty());
+        assertEquals(2, index.size());
+
+        PubSubMessage first = msg(0, "common 0");
+        long limit = 3 * QueueCapacity.estimateSize(first);
+        SearchIndex bounded = new SearchIndex(DAY, 1_000, limit);
+        List<PubSubMessage> sent = new ArrayList<>();
+        sent.add(first);
+        bounded.add(first);
+        for (int i = 1; i < 10; i++) {
+            PubSubMessage m = msg(i, "common " + i);
+            sent.add(m);
+            bounded.add(m);
+        }
+        assertEquals(3, bounded.size());
+        assertTrue(bounded.getBytes() <= limit);
+        assertEquals(List.of(sent.get(9), sent.get(8), sent.get(7)), bounded.search("common", 10, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testServiceSearch() {
+        PhemeService srv = new PhemeService(new EmptyTweetSource());
+        srv.addUser(sender, "sender", "hash s");
+        srv.addUser(receiver, "receiver", BlowfishCipher.hashPassword("password r", BlowfishCipher.gensalt(4)));
+        PubSubMessage lunch = msg(0, "Lunch at noon?");
+        PubSubMessage dinner = msg(1, "Dinner at eight");
+        srv.sendMessage("sender", "hash s", lunch);
+        srv.sendMessage("sender", "hash s", dinner);
+        String token = srv.login("receiver", "password r");
+        // a message sent just now is not active yet
+        srv.sendMessage("sender", "hash s", new PubSubMessage(sender, receiver, "breakfast by nine"));
+        assertTrue(srv.search(token, "breakfast", 10).isEmpty());
+        assertEquals(List.of(dinner, lunch), srv.search(token, "at", 10));
+        assertEquals(List.of(lunch), srv.search(token, "noon", 10));
+        srv.getAllRecent(token);
+        // read messages stay searchable
+        assertEquals(List.of(dinner), srv.search(token, "EIGHT", 10));
+        assertTrue(srv.search("bad token", "noon", 10).isEmpty());
+        assertTrue(srv.search("receiver", "wrong hash", "noon", 10).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> srv.search(token, "noon", 0));
+    }
+}
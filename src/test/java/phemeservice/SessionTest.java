@@ -0,0 +1,130 @@
+package phemeservice;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import pheme.PhemeService;
+import security.BlowfishCipher;
+import timedelayqueue.PubSubMessage;
+import twitter.EmptyTweetSource;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SessionTest {
+
+    // no Twitter accounts at all, so nothing but direct messages reaches the inboxes
+    private PhemeService srv;
+    private UUID userID1;
+    private UUID userID2;
+
+    @BeforeEach
+    public void setup() {
+        srv = new PhemeService(new EmptyTweetSource());
+        userID1 = UUID.randomUUID();
+        userID2 = UUID.randomUUID();
+        srv.addUser(userID1, "user 1", BlowfishCipher.hashPassword("password 1", BlowfishCipher.gensalt(4)));
+        srv.addUser(userID2, "user 2", BlowfishCipher.hashPassword("password 2", BlowfishCipher.gensalt(4)));
+    }
+
+    @Test
+    public void testLogin() {
+        assertNotNull(srv.login("user 1", "password 1"));
+        assertNull(srv.login("user 1", "password 2"));
+        assertNull(srv.login("nobody", "password 1"));
+    }
+
+    @Test
+    public void testDuplicateUserRejected() {
+        assertFalse(srv.addUser(UUID.randomUUID(), "user 1", "hash"));
+        // reusing an ID under a new name leaves the service untouched
+        assertFalse(srv.addUser(userID1, "user 1 again", "hash"));
+        assertNull(srv.login("user 1 again", "hash"));
+        assertNotNull(srv.login("user 1", "password 1"));
+    }
+
+    @Test
+    public void testSendAndReceiveWithTokens() throws InterruptedException {
+        String token1 = srv.login("user 1", "password 1");
+        String token2 = srv.login("user 2", "password 2");
+        PubSubMessage msg = new PubSubMessage(userID1, userID2, "hello");
+        assertTrue(srv.sendMessage(token1, msg));
+        Thread.sleep(PhemeService.DELAY + 100);
+        assertEquals(msg, srv.getNext(token2));
+        assertTrue(srv.getAllRecent(token2).isEmpty());
+    }
+
+    @Test
+    public void testCannotSendAsAnotherUser() {
+        String token1 = srv.login("user 1", "password 1");
+        String token2 = srv.login("user 2", "password 2");
+        assertFalse(srv.sendMessage(token1, new PubSubMessage(userID2, userID1, "forged")));
+        assertEquals(PubSubMessage.NO_MSG, srv.getNext(token1));
+        assertTrue(srv.sendMessage(token2, new PubSubMessage(userID2, userID1, "genuine")));
+    }
+
+    @Test
+    public void testInvalidToken() {
+        PubSubMessage msg = new PubSubMessage(userID1, userID2, "hello");
+        assertFalse(srv.sendMessage("not a token", msg));
+        assertEquals(PubSubMessage.NO_MSG, srv.getNext("not a token"));
+        assertTrue(srv.getAllRecent("not a token").isEmpty());
+    }
+
+    @Test
+    public void testLoginAfterRehash() {
+        // once calibrated, the first login re-hashes the gensalt(4) hash at the calibrated cost
+        int logRounds = PhemeService.getLogRounds();
+        assertEquals(4, srv.getPasswordLogRounds("user 1"));
+        assertNotNull(srv.login("user 1", "password 1"));
+        assertEquals(logRounds, srv.getPasswordLogRounds("user 1"));
+        assertNotNull(srv.login("user 1", "password 1"));
+        assertNull(srv.login("user 1", "password 2"));
+        assertEquals(-1, srv.getPasswordLogRounds("nobody"));
+    }
+
+    @Test
+    public void testHashCredentialSurvivesRehash() throws Exception {
+        int logRounds = PhemeService.getLogRounds();
+        String hashPwd = BlowfishCipher.hashPassword("password 3", BlowfishCipher.gensalt(4));
+        srv.addUser(UUID.randomUUID(), "user 3", hashPwd);
+        assertNotNull(srv.login("user 3", "password 3"));
+        assertEquals(logRounds, srv.getPasswordLogRounds("user 3"));
+        // the registered hash stays the client's credential after the login hash is upgraded
+        assertTrue(srv.sendMessage("user 3", hashPwd, new PubSubMessage(userID1, userID2, "hello")));
+        assertNotNull(srv.login("user 3", "password 3"));
+
+        String hashPwd4 = BlowfishCipher.hashPassword("password 4", BlowfishCipher.gensalt(4));
+        srv.addUser(UUID.randomUUID(), "user 4", hashPwd4);
+        assertNotNull(srv.loginAsync("user 4", "password 4").get());
+        // loginAsync upgrades in the background, and the caller's thread swaps the new hash in
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (srv.getPasswordLogRounds("user 4") == 4 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(logRounds, srv.getPasswordLogRounds("user 4"));
+        assertNotNull(srv.loginAsync("user 4", "password 4").get());
+        assertTrue(srv.sendMessage("user 4", hashPwd4, new PubSubMessage(userID1, userID2, "hello")));
+    }
+
+    @Test
+    public void testLoginAsync() throws Exception {
+        String token = srv.loginAsync("user 1", "password 1").get();
+        assertNotNull(token);
+        assertTrue(srv.sendMessage(token, new PubSubMessage(userID1, userID2, "hello")));
+        assertNull(srv.loginAsync("user 1", "password 2").get());
+        assertNull(srv.loginAsync("nobody", "password 1").get());
+
+        // a stored hash that is not a bcrypt hash matches no password
+        srv.addUser(UUID.randomUUID(), "user 3", "hash 3");
+        assertNull(srv.loginAsync("user 3", "hash 3").get());
+    }
+
+    @Test
+    public void testLogout() {
+        String token = srv.login("user 1", "password 1");
+        assertTrue(srv.logout(token));
+        assertFalse(srv.sendMessage(token, new PubSubMessage(userID1, userID2, "hello")));
+    }
+}
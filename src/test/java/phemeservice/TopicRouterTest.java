@@ -0,0 +1,92 @@
+package phemeservice;
+
+import org.junit.jupiter.api.Test;
+import pheme.PhemeService;
+import pheme.TopicRouter;
+import security.BlowfishCipher;
+import timedelayqueue.BasicMessageType;
+import timedelayqueue.PubSubMessage;
+import timedelayqueue.TopicPubSubMessage;
+import twitter.EmptyTweetSource;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TopicRouterTest {
+
+    private final UUID alice = UUID.randomUUID();
+    private final UUID bob = UUID.randomUUID();
+    private final UUID carol = UUID.randomUUID();
+
+    @Test
+    public void testWildcards() {
+        TopicRouter router = new TopicRouter();
+        assertTrue(router.subscribe(alice, "team.backend.alerts"));
+        assertFalse(router.subscribe(alice, "team.backend.alerts"));
+        assertTrue(router.subscribe(bob, "team.*.alerts"));
+        assertTrue(router.subscribe(carol, "team.#"));
+        assertTrue(router.subscribe(alice, "#"));
+
+        assertEquals(Set.of(alice, bob, carol), router.route("team.backend.alerts"));
+        assertEquals(Set.of(alice, bob, carol), router.route("team.frontend.alerts"));
+        assertEquals(Set.of(alice, carol), router.route("team.backend.alerts.disk"));
+        assertEquals(Set.of(alice, carol), router.route("team"));
+        assertEquals(Set.of(alice), router.route("ops.alerts"));
+
+        assertTrue(router.unsubscribe(alice, "#"));
+        assertFalse(router.unsubscribe(alice, "#"));
+        assertEquals(Set.of(), router.route("ops.alerts"));
+        assertEquals(Set.of("team.backend.alerts"), router.getSubscriptions(alice));
+
+        router.unsubscribeAll(carol);
+        assertEquals(Set.of(alice, bob), router.route("team.backend.alerts"));
+        assertTrue(router.getSubscriptions(carol).isEmpty());
+    }
+
+    @Test
+    public void testInvalidTopics() {
+        TopicRouter router = new TopicRouter();
+        assertThrows(IllegalArgumentException.class, () -> router.subscribe(alice, ""));
+        assertThrows(IllegalArgumentException.class, () -> router.subscribe(alice, "team..alerts"));
+        assertThrows(IllegalArgumentException.class, () -> router.subscribe(alice, "team.#.alerts"));
+        assertThrows(IllegalArgumentException.class, () -> router.subscribe(alice, "team.back*"));
+        assertThrows(IllegalArgumentException.class, () -> router.route("team.*.alerts"));
+    }
+
+    @Test
+    public void testPublish() throws InterruptedException {
+        PhemeService srv = new PhemeService(new EmptyTweetSource());
+        srv.addUser(alice, "alice", "hash a");
+        srv.addUser(bob, "bob", BlowfishCipher.hashPassword("password b", BlowfishCipher.gensalt(4)));
+        srv.addUser(carol, "carol", "hash c");
+        String token = srv.login("bob", "password b");
+        assertTrue(srv.subscribeTopic(token, "team.*.alerts"));
+        assertTrue(srv.subscribeTopic("carol", "hash c", "team.backend.#"));
+        assertFalse(srv.subscribeTopic("carol", "wrong hash", "team.#"));
+
+        PubSubMessage msg = srv.publish("alice", "hash a", "team.backend.alerts", "disk full");
+        assertEquals(Set.of(bob, carol), Set.copyOf(msg.getReceiver()));
+        assertEquals(alice, msg.getSender());
+        assertEquals(BasicMessageType.TOPICMSG, msg.getType());
+        assertEquals("team.backend.alerts", ((TopicPubSubMessage) msg).getTopic());
+        assertTrue(srv.isDelivered(msg.getId(), bob));
+        assertTrue(srv.isDelivered(msg.getId(), carol));
+        assertFalse(srv.isDelivered(msg.getId(), alice));
+        // the receivers can tell which topic the message was published to
+        Thread.sleep(PhemeService.DELAY + 100);
+        List<PubSubMessage> received = srv.getAllRecent(token);
+        assertEquals(List.of(msg), received);
+        assertEquals("team.backend.alerts", ((TopicPubSubMessage) received.get(0)).getTopic());
+
+        assertTrue(srv.unsubscribeTopic(token, "team.*.alerts"));
+        PubSubMessage second = srv.publish("alice", "hash a", "team.frontend.alerts", "build broken");
+        assertTrue(second.getReceiver().isEmpty());
+        assertNull(srv.publish("bad token", "team.backend.alerts", "x"));
+
+        srv.removeUser("carol", "hash c");
+        assertTrue(srv.publish("alice", "hash a", "team.backend.alerts", "again").getReceiver().isEmpty());
+    }
+}
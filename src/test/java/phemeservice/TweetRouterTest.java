@@ -0,0 +1,56 @@
+package phemeservice;
+
+import org.junit.jupiter.api.Test;
+import pheme.TweetRouter;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TweetRouterTest {
+
+    private final UUID alice = UUID.randomUUID();
+    private final UUID bob = UUID.randomUUID();
+
+    @Test
+    public void testRouteToAllSubscribers() {
+        TweetRouter router = new TweetRouter();
+        router.update(alice, Map.of(), Map.of("ubc", List.of()));
+        router.update(bob, Map.of(), Map.of("ubc", List.of("exams", "library"), "sfu", List.of()));
+
+        assertEquals(Set.of(alice, bob), router.route("ubc", "Exams start Monday"));
+        assertEquals(Set.of(alice), router.route("ubc", "Go team"));
+        assertEquals(Set.of(bob), router.route("sfu", "anything"));
+        assertTrue(router.route("uvic", "anything").isEmpty());
+        assertTrue(router.isSubscribed("sfu"));
+        assertFalse(router.isSubscribed("uvic"));
+    }
+
+    @Test
+    public void testUpdatesApplyTheDifference() {
+        TweetRouter router = new TweetRouter();
+        Map<String, List<String>> subscriptions = new HashMap<>();
+        subscriptions.put("ubc", List.of("exams", "library"));
+        router.update(bob, Map.of(), subscriptions);
+
+        Map<String, List<String>> before = TweetRouter.snapshot(subscriptions);
+        subscriptions.put("ubc", List.of("library"));
+        router.update(bob, before, subscriptions);
+        assertTrue(router.route("ubc", "Exams start Monday").isEmpty());
+        assertEquals(Set.of(bob), router.route("ubc", "Library open late"));
+
+        // a subscription to every tweet replaces the patterns
+        before = TweetRouter.snapshot(subscriptions);
+        subscriptions.put("ubc", List.of());
+        router.update(bob, before, subscriptions);
+        assertEquals(Set.of(bob), router.route("ubc", "Go team"));
+
+        router.update(bob, TweetRouter.snapshot(subscriptions), Map.of());
+        assertTrue(router.route("ubc", "Go team").isEmpty());
+        assertFalse(router.isSubscribed("ubc"));
+    }
+}
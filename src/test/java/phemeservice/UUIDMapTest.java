@@ -0,0 +1,59 @@
+package phemeservice;
+
+import org.junit.jupiter.api.Test;
+import pheme.UUIDMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UUIDMapTest {
+
+    @Test
+    public void testPutGetRemove() {
+        UUIDMap<String> map = new UUIDMap<>();
+        UUID key = UUID.randomUUID();
+        assertNull(map.put(key, "a"));
+        assertEquals("a", map.put(key, "b"));
+        assertEquals("b", map.get(key));
+        assertTrue(map.containsKey(key));
+        assertEquals(1, map.size());
+        assertEquals("b", map.remove(key));
+        assertNull(map.get(key));
+        assertNull(map.remove(key));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testMatchesHashMap() {
+        // few distinct keys with clustered bits, so probe runs are long and removals shift entries
+        Random random = new Random(42);
+        List<UUID> keys = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            keys.add(new UUID(i / 7, i % 7));
+        }
+        UUIDMap<Integer> map = new UUIDMap<>();
+        Map<UUID, Integer> expected = new HashMap<>();
+        for (int step = 0; step < 200_000; step++) {
+            UUID key = keys.get(random.nextInt(keys.size()));
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            }
+            else {
+                assertEquals(expected.put(key, step), map.put(key, step));
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (UUID key : keys) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+        Map<UUID, Integer> iterated = new HashMap<>();
+        map.forEach(iterated::put);
+        assertEquals(expected, iterated);
+    }
+}
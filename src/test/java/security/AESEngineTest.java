@@ -0,0 +1,78 @@
+package security;
+
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.AEADBadTagException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AESEngineTest {
+
+    @Test
+    public void testStringRoundTrip() throws GeneralSecurityException {
+        AESEngine aes = AESEngine.fromSeed("secret key");
+        String sealed = aes.encrypt("Test Msg");
+        assertNotEquals("Test Msg", sealed);
+        assertEquals("Test Msg", aes.decrypt(sealed));
+    }
+
+    @Test
+    public void testSamePlaintextSealsDifferently() throws GeneralSecurityException {
+        AESEngine aes = AESEngine.fromSeed("secret key");
+        assertNotEquals(aes.encrypt("Test Msg"), aes.encrypt("Test Msg"));
+    }
+
+    @Test
+    public void testInPlaceDirectBuffer() throws GeneralSecurityException {
+        AESEngine aes = AESEngine.fromSeed("secret key");
+        byte[] text = "in place, off heap".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(text.length + AESEngine.OVERHEAD);
+        buffer.put(text).flip();
+
+        aes.encryptInPlace(buffer);
+        assertEquals(text.length + AESEngine.OVERHEAD, buffer.remaining());
+        aes.decryptInPlace(buffer);
+        byte[] result = new byte[buffer.remaining()];
+        buffer.get(result);
+        assertArrayEquals(text, result);
+    }
+
+    @Test
+    public void testTamperingDetected() throws GeneralSecurityException {
+        AESEngine aes = AESEngine.fromSeed("secret key");
+        byte[] sealed = aes.encrypt("Test Msg".getBytes(StandardCharsets.UTF_8));
+        sealed[0] ^= 1;
+        assertThrows(AEADBadTagException.class, () -> aes.decrypt(sealed));
+    }
+
+    @Test
+    public void testWrongKey() throws GeneralSecurityException {
+        String sealed = AESEngine.fromSeed("secret key").encrypt("Test Msg");
+        assertThrows(AEADBadTagException.class, () -> AESEngine.fromSeed("other key").decrypt(sealed));
+    }
+
+    @Test
+    public void testAdditionalData() throws GeneralSecurityException {
+        AESEngine aes = AESEngine.fromSeed("secret key");
+        byte[] header = "header".getBytes(StandardCharsets.UTF_8);
+        byte[] sealed = aes.encrypt("Test Msg".getBytes(StandardCharsets.UTF_8), header);
+        assertEquals("Test Msg", new String(aes.decrypt(sealed, header), StandardCharsets.UTF_8));
+        assertThrows(AEADBadTagException.class, () -> aes.decrypt(sealed, "other".getBytes(StandardCharsets.UTF_8)));
+        assertThrows(AEADBadTagException.class, () -> aes.decrypt(sealed));
+    }
+
+    @Test
+    public void testEnginesShareThreadCiphers() throws GeneralSecurityException {
+        AESEngine first = AESEngine.fromSeed("first key");
+        AESEngine second = AESEngine.fromSeed("second key");
+        // interleaved use on one thread must not leak one engine's key into the other
+        byte[] a = first.encrypt("a".getBytes(StandardCharsets.UTF_8));
+        byte[] b = second.encrypt("b".getBytes(StandardCharsets.UTF_8));
+        assertEquals("b", new String(second.decrypt(b), StandardCharsets.UTF_8));
+        assertEquals("a", new String(first.decrypt(a), StandardCharsets.UTF_8));
+        assertThrows(AEADBadTagException.class, () -> second.decrypt(a));
+    }
+}
@@ -0,0 +1,86 @@
+package security;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlowfishCipherTest {
+
+    // plaintext, salt, expected hash: the jBCrypt reference vectors, then two more computed with the
+    // implementation as it was before the key schedule buffers were reused
+    private static final String[][] VECTORS = {
+        {"", "$2a$06$DCq7YPn5Rq63x1Lad4cll.", "$2a$06$DCq7YPn5Rq63x1Lad4cll.TV4S6ytwfsfvkgY8jIucDrjc8deX1s."},
+        {"", "$2a$08$HqWuK6/Ng6sg9gQzbLrgb.", "$2a$08$HqWuK6/Ng6sg9gQzbLrgb.Tl.ZHfXLhvt/SgVyWhQqgqcZ7ZuUtye"},
+        {"a", "$2a$06$m0CrhHm10qJ3lXRY.5zDGO", "$2a$06$m0CrhHm10qJ3lXRY.5zDGO3rS2KdeeWLuGmsfGlMfOxih58VYVfxe"},
+        {"abc", "$2a$06$If6bvum7DFjUnE9p2uDeDu", "$2a$06$If6bvum7DFjUnE9p2uDeDu0YHzrHM6tf.iqN8.yx.jNN1ILEf7h0i"},
+        {"abcdefghijklmnopqrstuvwxyz", "$2a$06$.rCVZVOThsIa97pEDOxvGu",
+            "$2a$06$.rCVZVOThsIa97pEDOxvGuRRgzG64bvtJ0938xuqzv18d3ZpQhstC"},
+        {"~!@#$%^&*()      ~!@#$%^&*()PNBFRD", "$2a$06$fPIsBO8qRqkjj273rfaOI.",
+            "$2a$06$fPIsBO8qRqkjj273rfaOI.HtSV9jLDpTbZn782DC6/t7qT67P6FfO"},
+        {"password 1", "$2a$10$abcdefghijklmnopqrstuu", "$2a$10$abcdefghijklmnopqrstuu5ikV77QIm.UKnK5VjSuue4r3qcdR1wq"},
+        {"unicode \u00fc\u20ac", "$2a$05$0123456789ABCDEFGHIJKu",
+            "$2a$05$0123456789ABCDEFGHIJKu2ffb2NrbxkUwgzGHWruDnOhHYV1FRiO"},
+    };
+
+    @Test
+    public void testKnownAnswers() {
+        for (String[] vector : VECTORS) {
+            assertEquals(vector[2], BlowfishCipher.hashPassword(vector[0], vector[1]));
+            assertTrue(BlowfishCipher.verifyPassword(vector[0], vector[2]));
+            assertFalse(BlowfishCipher.verifyPassword(vector[0] + "x", vector[2]));
+        }
+    }
+
+    @Test
+    public void testGetLogRounds() {
+        assertEquals(6, BlowfishCipher.getLogRounds(VECTORS[0][2]));
+        assertEquals(8, BlowfishCipher.getLogRounds(VECTORS[1][2]));
+        assertEquals(10, BlowfishCipher.getLogRounds(VECTORS[6][2]));
+        assertEquals(12, BlowfishCipher.getLogRounds(BlowfishCipher.gensalt(12)));
+        // the original "$2$" prefix has no minor version
+        assertEquals(5, BlowfishCipher.getLogRounds("$2$05$abcdefghijklmnopqrstuu"));
+        assertThrows(IllegalArgumentException.class, () -> BlowfishCipher.getLogRounds("hash 1"));
+        assertThrows(IllegalArgumentException.class, () -> BlowfishCipher.getLogRounds("$2a$6$abcdefghijklmnopqrstuu"));
+    }
+
+    @Test
+    public void testCalibrateLogRounds() {
+        // nothing is cheaper than the minimum cost
+        assertEquals(4, BlowfishCipher.calibrateLogRounds(1));
+
+        int rounds = BlowfishCipher.calibrateLogRounds(100);
+        assertTrue(rounds >= 4 && rounds < 31);
+        assertTrue(rounds >= BlowfishCipher.calibrateLogRounds(25));
+        // the chosen cost stays within the target, allowing for timing noise
+        String salt = BlowfishCipher.gensalt(rounds);
+        long start = System.nanoTime();
+        BlowfishCipher.hashPassword("calibration", salt);
+        assertTrue((System.nanoTime() - start) / 1_000_000 < 3 * 100);
+    }
+
+    @Test
+    public void testKnownAnswersAcrossThreads() throws Exception {
+        // each thread reuses its own key schedule buffers, so interleaved hashes must not disturb each other
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> hashes = new ArrayList<>();
+            for (int round = 0; round < 5; round++) {
+                for (String[] vector : VECTORS) {
+                    hashes.add(pool.submit(() -> BlowfishCipher.hashPassword(vector[0], vector[1])));
+                }
+            }
+            for (int i = 0; i < hashes.size(); i++) {
+                assertEquals(VECTORS[i % VECTORS.length][2], hashes.get(i).get());
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package security;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EnvelopeCipherTest {
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static SecretKey newKey() {
+        byte[] key = new byte[32];
+        RANDOM.nextBytes(key);
+        return new SecretKeySpec(key, "AES");
+    }
+
+    @Test
+    public void testEveryReceiverCanOpen() throws GeneralSecurityException {
+        Map<UUID, SecretKey> keys = new HashMap<>();
+        for (int i = 0; i < 5; i++) {
+            keys.put(UUID.randomUUID(), newKey());
+        }
+        String json = EnvelopeCipher.seal("Test Msg", keys).toJson();
+        assertFalse(json.contains("Test Msg"));
+
+        EnvelopeCipher.Envelope envelope = EnvelopeCipher.Envelope.fromJson(json);
+        for (Map.Entry<UUID, SecretKey> receiver : keys.entrySet()) {
+            assertTrue(envelope.isFor(receiver.getKey()));
+            assertEquals("Test Msg", EnvelopeCipher.open(envelope, receiver.getKey(), receiver.getValue()));
+        }
+    }
+
+    @Test
+    public void testOthersCannotOpen() throws GeneralSecurityException {
+        UUID receiver = UUID.randomUUID();
+        UUID stranger = UUID.randomUUID();
+        SecretKey key = newKey();
+        EnvelopeCipher.Envelope envelope = EnvelopeCipher.seal("Test Msg", Map.of(receiver, key));
+
+        assertFalse(envelope.isFor(stranger));
+        assertThrows(GeneralSecurityException.class, () -> EnvelopeCipher.open(envelope, stranger, key));
+        assertThrows(GeneralSecurityException.class, () -> EnvelopeCipher.open(envelope, receiver, newKey()));
+    }
+
+    @Test
+    public void testHeaderIsBound() throws GeneralSecurityException {
+        UUID receiver = UUID.randomUUID();
+        UUID other = UUID.randomUUID();
+        SecretKey key = newKey();
+        String json = EnvelopeCipher.seal("Test Msg", Map.of(receiver, key, other, newKey())).toJson();
+
+        // dropping another receiver's wrapped key breaks the envelope for everyone
+        JsonObject stripped = JsonParser.parseString(json).getAsJsonObject();
+        stripped.getAsJsonObject("wrappedKeys").remove(other.toString());
+        EnvelopeCipher.Envelope tampered = EnvelopeCipher.Envelope.fromJson(stripped.toString());
+        assertTrue(tampered.isFor(receiver));
+        assertThrows(GeneralSecurityException.class, () -> EnvelopeCipher.open(tampered, receiver, key));
+
+        // and so does adding one
+        JsonObject padded = JsonParser.parseString(json).getAsJsonObject();
+        padded.getAsJsonObject("wrappedKeys").addProperty(UUID.randomUUID().toString(), "AAAA");
+        assertThrows(GeneralSecurityException.class,
+            () -> EnvelopeCipher.open(EnvelopeCipher.Envelope.fromJson(padded.toString()), receiver, key));
+
+        assertEquals("Test Msg", EnvelopeCipher.open(EnvelopeCipher.Envelope.fromJson(json), receiver, key));
+    }
+}
@@ -0,0 +1,96 @@
+package security;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PasswordHashingExecutorTest {
+
+    // a task that holds its thread until released
+    private static CompletableFuture<String> block(PasswordHashingExecutor executor, CountDownLatch release) {
+        return executor.submit(() -> {
+            try {
+                release.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "done";
+        });
+    }
+
+    @Test
+    public void testShedsLoadWhenQueueFull() throws Exception {
+        PasswordHashingExecutor executor = new PasswordHashingExecutor(1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> running = block(executor, release);
+        CompletableFuture<String> queued = block(executor, release);
+        CompletableFuture<String> shed = executor.hashPassword("password", BlowfishCipher.gensalt(4));
+
+        ExecutionException e = assertThrows(ExecutionException.class, shed::get);
+        assertTrue(e.getCause() instanceof RejectedExecutionException);
+        assertEquals(1, executor.getQueueDepth());
+        assertEquals(3, executor.getSubmitted());
+        assertEquals(1, executor.getRejected());
+
+        release.countDown();
+        assertEquals("done", running.get());
+        assertEquals("done", queued.get());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        PasswordHashingExecutor executor = new PasswordHashingExecutor(1, 4);
+        assertEquals(0.0, executor.getMeanWaitMillis());
+        assertEquals(0.0, executor.getMeanComputeMillis());
+        String salt = BlowfishCipher.gensalt(6);
+        CompletableFuture<String> first = executor.hashPassword("one", salt);
+        CompletableFuture<String> second = executor.hashPassword("two", salt);
+        assertEquals(BlowfishCipher.hashPassword("one", salt), first.get());
+        assertEquals(BlowfishCipher.hashPassword("two", salt), second.get());
+        assertTrue(executor.verifyPassword("two", second.get()).get());
+
+        // the completion counter is bumped just after the future completes
+        while (executor.getCompleted() < 3) {
+            Thread.sleep(1);
+        }
+        assertEquals(3, executor.getSubmitted());
+        assertEquals(0, executor.getRejected());
+        assertTrue(executor.getMeanComputeMillis() > 0);
+        assertTrue(executor.getMaxWaitMillis() >= executor.getMeanWaitMillis());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testFailuresCompleteTheFuture() throws Exception {
+        PasswordHashingExecutor executor = new PasswordHashingExecutor(1, 1);
+        ExecutionException bad = assertThrows(ExecutionException.class,
+                () -> executor.hashPassword("password", "not a salt").get());
+        assertTrue(bad.getCause() instanceof IllegalArgumentException);
+
+        ExecutionException error = assertThrows(ExecutionException.class,
+                () -> executor.submit(() -> {
+                    throw new OutOfMemoryError("simulated");
+                }).get());
+        assertTrue(error.getCause() instanceof OutOfMemoryError);
+
+        // the pool still works afterwards
+        assertTrue(executor.verifyPassword("pw", BlowfishCipher.hashPassword("pw", BlowfishCipher.gensalt(4))).get());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testSharedPool() throws Exception {
+        String hash = BlowfishCipher.hashPasswordAsync("password", BlowfishCipher.gensalt(4)).get();
+        assertEquals(4, BlowfishCipher.getLogRounds(hash));
+        assertTrue(BlowfishCipher.verifyPasswordAsync("password", hash).get());
+        assertFalse(BlowfishCipher.verifyPasswordAsync("wrong", hash).get());
+        assertTrue(BlowfishCipher.getAsyncExecutor().getSubmitted() >= 3);
+    }
+}
@@ -0,0 +1,277 @@
+package timedelayqueue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pheme.PhemeService;
+import twitter.EmptyTweetSource;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BoundedQueueTest {
+
+    private static final int DELAY = 0;
+
+    private final UUID sender = UUID.randomUUID();
+    private final UUID receiver = UUID.randomUUID();
+
+    @TempDir
+    File dir;
+
+    private PubSubMessage msg(long timestamp, String content) {
+        return new PubSubMessage(UUID.randomUUID(), new Timestamp(timestamp), sender, receiver, content,
+                BasicMessageType.SIMPLEMSG);
+    }
+
+    private TransientPubSubMessage transientMsg(long timestamp, int lifetime) {
+        return new TransientPubSubMessage(UUID.randomUUID(), new Timestamp(timestamp), sender, receiver, "t",
+                BasicMessageType.SIMPLEMSG, lifetime);
+    }
+
+    @Test
+    public void testRejectNew() {
+        long now = System.currentTimeMillis();
+        TimeDelayQueue tdq = new TimeDelayQueue(DELAY, new QueueCapacity(3, Long.MAX_VALUE, OverflowPolicy.REJECT_NEW));
+        PubSubMessage first = msg(now - 3, "a");
+        assertEquals(AddResult.ADDED, tdq.offer(first));
+        assertEquals(AddResult.DUPLICATE, tdq.offer(first));
+        assertTrue(tdq.add(msg(now - 2, "b")));
+        assertTrue(tdq.add(msg(now - 1, "c")));
+        assertEquals(AddResult.REJECTED, tdq.offer(msg(now, "d")));
+        assertFalse(tdq.add(msg(now, "e")));
+
+        OverflowStats stats = tdq.getOverflowStats();
+        assertEquals(2, stats.getRejected());
+        assertEquals(0, stats.getDropped());
+        assertEquals(3, stats.getMessagesInMemory());
+        assertEquals(first, tdq.getNext());
+        assertEquals(AddResult.ADDED, tdq.offer(msg(now, "f")));
+    }
+
+    @Test
+    public void testByteLimit() {
+        long now = System.currentTimeMillis();
+        PubSubMessage small = msg(now - 2, "x");
+        long limit = 2 * QueueCapacity.estimateSize(small);
+        TimeDelayQueue tdq = new TimeDelayQueue(DELAY, new QueueCapacity(100, limit, OverflowPolicy.DROP_OLDEST));
+        assertTrue(tdq.add(small));
+        assertTrue(tdq.add(msg(now - 1, "y")));
+        assertEquals(limit, tdq.getOverflowStats().getBytesInMemory());
+
+        // a message larger than the whole queue is refused even by a dropping policy
+        assertEquals(AddResult.REJECTED, tdq.offer(msg(now, "z".repeat(1000))));
+        assertEquals(2, tdq.getOverflowStats().getMessagesInMemory());
+
+        tdq.getNext();
+        tdq.getNext();
+        assertEquals(0, tdq.getOverflowStats().getBytesInMemory());
+    }
+
+    @Test
+    public void testDropOldest() {
+        long now = System.currentTimeMillis();
+        TimeDelayQueue tdq = new TimeDelayQueue(DELAY, new QueueCapacity(2, Long.MAX_VALUE, OverflowPolicy.DROP_OLDEST));
+        PubSubMessage a = msg(now - 30, "a");
+        PubSubMessage b = msg(now - 20, "b");
+        PubSubMessage c = msg(now - 10, "c");
+        tdq.add(b);
+        tdq.add(c);
+        // a message older than everything queued would be dropped first, so it is refused
+        assertEquals(AddResult.REJECTED, tdq.offer(a));
+
+        PubSubMessage d = msg(now, "d");
+        assertEquals(AddResult.ADDED, tdq.offer(d));
+        assertEquals(1, tdq.getOverflowStats().getDropped());
+        assertEquals(List.of(c, d), tdq.getPending());
+    }
+
+    @Test
+    public void testDropTransientFirst() {
+        long now = System.currentTimeMillis();
+        TimeDelayQueue tdq = new TimeDelayQueue(DELAY,
+                new QueueCapacity(3, Long.MAX_VALUE, OverflowPolicy.DROP_TRANSIENT_FIRST));
+        PubSubMessage a = msg(now - 30, "a");
+        TransientPubSubMessage t = transientMsg(now - 20, 60_000);
+        PubSubMessage b = msg(now - 10, "b");
+        tdq.add(a);
+        tdq.add(t);
+        tdq.add(b);
+
+        PubSubMessage c = msg(now, "c");
+        assertEquals(AddResult.ADDED, tdq.offer(c));
+        assertEquals(List.of(a, b, c), tdq.getPending());
+
+        // with no transient messages left, a transient message does not displace durable ones
+        assertEquals(AddResult.REJECTED, tdq.offer(transientMsg(now, 60_000)));
+        // but a durable message displaces the oldest
+        PubSubMessage d = msg(now + 1, "d");
+        assertEquals(AddResult.ADDED, tdq.offer(d));
+        assertEquals(List.of(b, c, d), tdq.getPending());
+        assertEquals(2, tdq.getOverflowStats().getDropped());
+    }
+
+    @Test
+    public void testExpiredDroppedFirst() {
+        long now = System.currentTimeMillis();
+        TimeDelayQueue tdq = new TimeDelayQueue(DELAY, new QueueCapacity(2, Long.MAX_VALUE, OverflowPolicy.REJECT_NEW));
+        tdq.add(transientMsg(now - 10_000, 10));
+        tdq.add(msg(now - 5, "a"));
+        // the expired message makes room even though the policy refuses new messages
+        assertEquals(AddResult.ADDED, tdq.offer(msg(now, "b")));
+        assertEquals(1, tdq.getOverflowStats().getDropped());
+    }
+
+    @Test
+    public void testBatchDropsExpired() {
+        long now = System.currentTimeMillis();
+        TimeDelayQueue tdq = new TimeDelayQueue(DELAY, new QueueCapacity(10, Long.MAX_VALUE, OverflowPolicy.REJECT_NEW));
+        PubSubMessage a = msg(now - 30, "a");
+        PubSubMessage b = msg(now - 10, "b");
+        tdq.add(transientMsg(now - 10_000, 10));
+        tdq.add(a);
+        tdq.add(transientMsg(now - 5_000, 10));
+        tdq.add(b);
+        assertEquals(List.of(a, b), tdq.getNext(10, now));
+        // the expired messages left the queue with the batch instead of being kept behind
+        OverflowStats stats = tdq.getOverflowStats();
+        assertEquals(2, stats.getDropped());
+        assertEquals(0, stats.getMessagesInMemory());
+        assertEquals(0, stats.getBytesInMemory());
+    }
+
+    @Test
+    public void testSpillAndRefill() throws Exception {
+        long now = System.currentTimeMillis();
+        TimeDelayQueue tdq = new TimeDelayQueue(DELAY, new QueueCapacity(8, Long.MAX_VALUE, OverflowPolicy.SPILL_TO_DISK, dir));
+        List<PubSubMessage> msgs = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            msgs.add(msg(now - 1000 + i, "secret " + i));
+        }
+        // add out of order, so later messages go straight to disk and earlier ones push others out
+        for (int i = 0; i < 40; i += 2) {
+            assertTrue(tdq.offer(msgs.get(i)).isAccepted());
+        }
+        for (int i = 1; i < 40; i += 2) {
+            assertTrue(tdq.offer(msgs.get(i)).isAccepted());
+        }
+        assertEquals(AddResult.DUPLICATE, tdq.offer(msgs.get(39)));
+
+        OverflowStats stats = tdq.getOverflowStats();
+        assertTrue(stats.getMessagesInMemory() <= 8);
+        assertEquals(40, stats.getMessagesInMemory() + stats.getMessagesOnDisk());
+        assertEquals(0, stats.getRejected());
+        assertEquals(msgs, tdq.getPending());
+
+        // spilled messages are not stored in the clear
+        File[] runs = dir.listFiles();
+        assertNotNull(runs);
+        assertTrue(runs.length > 0);
+        for (File run : runs) {
+            assertFalse(new String(Files.readAllBytes(run.toPath()), StandardCharsets.ISO_8859_1).contains("secret"));
+        }
+
+        List<PubSubMessage> taken = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            taken.add(tdq.getNext());
+        }
+        taken.addAll(tdq.getNext(30, System.currentTimeMillis()));
+        while (taken.size() < 40) {
+            taken.add(tdq.getNext());
+        }
+        assertEquals(msgs, taken);
+        assertEquals(PubSubMessage.NO_MSG, tdq.getNext());
+        assertEquals(0, tdq.getOverflowStats().getMessagesOnDisk());
+    }
+
+    @Test
+    public void testAddAll() {
+        long now = System.currentTimeMillis();
+        TimeDelayQueue tdq = new TimeDelayQueue(DELAY, new QueueCapacity(3, Long.MAX_VALUE, OverflowPolicy.REJECT_NEW));
+        PubSubMessage a = msg(now - 4, "a");
+        // a duplicate and the messages past the capacity are not counted
+        assertEquals(3, tdq.addAll(List.of(a, msg(now - 3, "b"), a, msg(now - 2, "c"), msg(now - 1, "d"))));
+        assertEquals(1, tdq.getOverflowStats().getRejected());
+        assertEquals(0, tdq.addAll(List.of()));
+        assertEquals(a, tdq.getNext());
+        assertEquals(1, tdq.addAll(List.of(a, msg(now, "e"))));
+        assertEquals(3, tdq.getPending().size());
+    }
+
+    @Test
+    public void testOfferAllAndDiscard() {
+        long now = System.currentTimeMillis();
+        TimeDelayQueue tdq = new TimeDelayQueue(DELAY, new QueueCapacity(4, Long.MAX_VALUE, OverflowPolicy.SPILL_TO_DISK, dir));
+        List<PubSubMessage> batch = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            batch.add(msg(now + i, "m" + i));
+        }
+        batch.add(batch.get(3));
+        List<AddResult> results = tdq.offerAll(batch);
+        assertEquals(11, results.size());
+        assertEquals(AddResult.DUPLICATE, results.get(10));
+        assertEquals(AddResult.SPILLED, results.get(9));
+        assertEquals(batch.subList(0, 10), tdq.getPending());
+        assertEquals(now, tdq.nextEligibleTime());
+
+        tdq.discardSpilled();
+        assertEquals(0, tdq.getOverflowStats().getMessagesOnDisk());
+        String[] left = dir.list();
+        assertNotNull(left);
+        assertEquals(0, left.length);
+    }
+
+    @Test
+    public void testRefusedOffersAreNoLoad() {
+        long now = System.currentTimeMillis();
+        TimeDelayQueue tdq = new TimeDelayQueue(DELAY, new QueueCapacity(2, Long.MAX_VALUE, OverflowPolicy.REJECT_NEW));
+        PubSubMessage a = msg(now - 2, "a");
+        assertTrue(tdq.add(a));
+        assertTrue(tdq.add(msg(now - 1, "b")));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(AddResult.REJECTED, tdq.offer(msg(now, "c" + i)));
+            assertEquals(AddResult.DUPLICATE, tdq.offer(a));
+        }
+        assertEquals(0, tdq.addAll(List.of(a, msg(now, "d"))));
+        assertEquals(2, tdq.getPeakLoad(60_000));
+
+        // the ID set follows messages out of the queue, so a taken message can be offered again
+        assertEquals(a, tdq.getNext());
+        assertEquals(AddResult.ADDED, tdq.offer(a));
+        assertEquals(4, tdq.getPeakLoad(60_000));
+    }
+
+    @Test
+    public void testActionLogIsBounded() {
+        long now = System.currentTimeMillis();
+        TimeDelayQueue tdq = new TimeDelayQueue(DELAY);
+        for (int i = 0; i < 20_000; i++) {
+            tdq.add(msg(now - 20_000 + i, "m"));
+        }
+        // only the most recent operations are remembered
+        assertEquals(1 << 14, tdq.getPeakLoad(60_000));
+        assertEquals(20_000, tdq.getTotalMsgCount());
+    }
+
+    @Test
+    public void testSendReportsRefusal() {
+        PhemeService srv = new PhemeService(new EmptyTweetSource(),
+                new QueueCapacity(1, Long.MAX_VALUE, OverflowPolicy.REJECT_NEW));
+        UUID other = UUID.randomUUID();
+        srv.addUser(sender, "sender", "hash s");
+        srv.addUser(receiver, "receiver", "hash r");
+        srv.addUser(other, "other", "hash o");
+        assertTrue(srv.sendMessage("sender", "hash s", new PubSubMessage(sender, receiver, "first")));
+        // the receiver's queue is full, so nobody takes the message
+        assertFalse(srv.sendMessage("sender", "hash s", new PubSubMessage(sender, receiver, "second")));
+        assertFalse(srv.sendMessage("sender", "hash s", new PubSubMessage(sender, UUID.randomUUID(), "nobody")));
+        // one receiver taking it is enough
+        assertTrue(srv.sendMessage("sender", "hash s", new PubSubMessage(sender, List.of(receiver, other), "both")));
+    }
+}
@@ -0,0 +1,250 @@
+package timedelayqueue;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import pheme.PhemeService;
+import twitter.EmptyTweetSource;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QueuePublisherTest {
+
+    private static final int DELAY = 100;
+
+    private final UUID sender = UUID.randomUUID();
+    private final UUID receiver = UUID.randomUUID();
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    // records signals and lets each test decide when to request more
+    private static class Recorder implements Flow.Subscriber<PubSubMessage> {
+        final List<PubSubMessage> received = new CopyOnWriteArrayList<>();
+        final long initialRequest;
+        final BiConsumer<Recorder, PubSubMessage> onMessage;
+        volatile Flow.Subscription subscription;
+        volatile Throwable error;
+        volatile boolean completed;
+        final CountDownLatch subscribed = new CountDownLatch(1);
+
+        Recorder(long initialRequest) {
+            this(initialRequest, (r, m) -> { });
+        }
+
+        Recorder(long initialRequest, BiConsumer<Recorder, PubSubMessage> onMessage) {
+            this.initialRequest = initialRequest;
+            this.onMessage = onMessage;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscribed.countDown();
+            if (initialRequest > 0) {
+                subscription.request(initialRequest);
+            }
+        }
+
+        @Override
+        public void onNext(PubSubMessage item) {
+            received.add(item);
+            onMessage.accept(this, item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+
+    @AfterEach
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private PubSubMessage msg(long timestamp) {
+        return new PubSubMessage(UUID.randomUUID(), new Timestamp(timestamp), sender, receiver, "m",
+                BasicMessageType.SIMPLEMSG);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 500 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    @Test
+    public void testDemand() throws InterruptedException {
+        TimeDelayQueue queue = new TimeDelayQueue(DELAY);
+        long past = System.currentTimeMillis() - 1000;
+        List<PubSubMessage> sent = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            sent.add(msg(past + i));
+            queue.add(sent.get(i));
+        }
+        QueuePublisher publisher = new QueuePublisher(queue, executor);
+        Recorder recorder = new Recorder(2);
+        publisher.subscribe(recorder);
+        await(() -> recorder.received.size() == 2);
+        Thread.sleep(50);
+        // what was not requested stays in the queue
+        assertEquals(2, recorder.received.size());
+        assertEquals(3, queue.getPending().size());
+
+        recorder.subscription.request(10);
+        await(() -> recorder.received.size() == 5);
+        assertEquals(sent, recorder.received);
+
+        // later messages are pushed once they become active
+        long start = System.currentTimeMillis();
+        PubSubMessage late = msg(start);
+        queue.add(late);
+        await(() -> recorder.received.size() == 6);
+        assertTrue(System.currentTimeMillis() - start >= DELAY);
+        assertEquals(late, recorder.received.get(5));
+    }
+
+    @Test
+    public void testCancelAndErrors() throws InterruptedException {
+        TimeDelayQueue queue = new TimeDelayQueue(DELAY);
+        long past = System.currentTimeMillis() - 1000;
+        for (int i = 0; i < 5; i++) {
+            queue.add(msg(past + i));
+        }
+        QueuePublisher publisher = new QueuePublisher(queue, executor);
+        // cancels after its first message; the rest of the batch goes back to the queue
+        Recorder canceller = new Recorder(5, (r, m) -> r.subscription.cancel());
+        publisher.subscribe(canceller);
+        await(() -> queue.getPending().size() == 4);
+        Thread.sleep(50);
+        assertEquals(1, canceller.received.size());
+        assertEquals(0, publisher.getSubscriberCount());
+
+        Recorder bad = new Recorder(0);
+        publisher.subscribe(bad);
+        bad.subscribed.await(5, TimeUnit.SECONDS);
+        bad.subscription.request(0);
+        await(() -> bad.error instanceof IllegalArgumentException);
+
+        Recorder open = new Recorder(1);
+        publisher.subscribe(open);
+        await(() -> open.received.size() == 1);
+        publisher.close();
+        await(() -> open.completed);
+        Recorder afterClose = new Recorder(1);
+        publisher.subscribe(afterClose);
+        await(() -> afterClose.completed);
+        assertEquals(3, queue.getPending().size());
+    }
+
+    @Test
+    public void testPutBackIgnoresCapacity() throws InterruptedException {
+        TimeDelayQueue queue = new TimeDelayQueue(DELAY, new QueueCapacity(3, Long.MAX_VALUE, OverflowPolicy.REJECT_NEW));
+        long past = System.currentTimeMillis() - 1000;
+        List<PubSubMessage> sent = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            sent.add(msg(past + i));
+            queue.add(sent.get(i));
+        }
+        QueuePublisher publisher = new QueuePublisher(queue, executor);
+        // while the batch is out, new messages fill the queue; then the subscriber cancels
+        Recorder canceller = new Recorder(3, (r, m) -> {
+            for (int i = 0; i < 3; i++) {
+                queue.add(msg(System.currentTimeMillis() + 60_000 + i));
+            }
+            r.subscription.cancel();
+        });
+        publisher.subscribe(canceller);
+        await(() -> queue.getPending().size() == 5);
+        // the undelivered messages went back even though the queue was full, and refused nothing
+        assertEquals(sent.subList(1, 3), queue.getPending().subList(0, 2));
+        assertEquals(0, queue.getOverflowStats().getRejected());
+        assertEquals(6, queue.getTotalMsgCount());
+    }
+
+    @Test
+    public void testCompetingSubscribers() throws InterruptedException {
+        TimeDelayQueue queue = new TimeDelayQueue(DELAY);
+        QueuePublisher publisher = new QueuePublisher(queue, executor);
+        Recorder first = new Recorder(Long.MAX_VALUE);
+        Recorder second = new Recorder(Long.MAX_VALUE);
+        publisher.subscribe(first);
+        publisher.subscribe(second);
+        long past = System.currentTimeMillis() - 1000;
+        for (int i = 0; i < 1000; i++) {
+            queue.add(msg(past + i));
+        }
+        await(() -> first.received.size() + second.received.size() == 1000);
+        Set<PubSubMessage> all = new HashSet<>(first.received);
+        all.addAll(second.received);
+        assertEquals(1000, all.size());
+    }
+
+    @Test
+    public void testManySubscribers() throws InterruptedException {
+        int subscribers = 20_000;
+        List<TimeDelayQueue> queues = new ArrayList<>();
+        AtomicInteger received = new AtomicInteger();
+        for (int i = 0; i < subscribers; i++) {
+            TimeDelayQueue queue = new TimeDelayQueue(DELAY);
+            queues.add(queue);
+            new QueuePublisher(queue, executor).subscribe(new Recorder(1, (r, m) -> received.incrementAndGet()));
+        }
+        long now = System.currentTimeMillis();
+        for (TimeDelayQueue queue : queues) {
+            queue.add(msg(now));
+        }
+        await(() -> received.get() == subscribers);
+    }
+
+    @Test
+    public void testInboxPublisher() throws InterruptedException {
+        PhemeService srv = new PhemeService(new EmptyTweetSource());
+        srv.addUser(sender, "sender", "hash s");
+        srv.addUser(receiver, "receiver", "hash r");
+        assertNull(srv.inboxPublisher("receiver", "wrong hash", executor));
+
+        Recorder recorder = new Recorder(10);
+        srv.inboxPublisher("receiver", "hash r", executor).subscribe(recorder);
+        PubSubMessage m = new PubSubMessage(sender, receiver, "pushed");
+        srv.sendMessage("sender", "hash s", m);
+        await(() -> recorder.received.size() == 1);
+        assertEquals(m, recorder.received.get(0));
+        assertTrue(srv.isDelivered(m.getId(), receiver));
+        assertEquals(PubSubMessage.NO_MSG, srv.getNext("receiver", "hash r"));
+
+        // a second caller shares the user's publisher but is signalled on its own executor
+        AtomicInteger tasks = new AtomicInteger();
+        Recorder second = new Recorder(10);
+        srv.inboxPublisher("receiver", "hash r", task -> {
+            tasks.incrementAndGet();
+            executor.execute(task);
+        }).subscribe(second);
+        await(() -> second.subscription != null);
+        assertTrue(tasks.get() > 0);
+
+        srv.removeUser("receiver", "hash r");
+        await(() -> recorder.completed);
+        await(() -> second.completed);
+    }
+}
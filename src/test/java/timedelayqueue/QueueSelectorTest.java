@@ -0,0 +1,186 @@
+package timedelayqueue;
+
+import org.junit.jupiter.api.Test;
+import pheme.PhemeService;
+import twitter.EmptyTweetSource;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QueueSelectorTest {
+
+    private static final int DELAY = 200;
+
+    private final UUID sender = UUID.randomUUID();
+    private final UUID receiver = UUID.randomUUID();
+
+    private PubSubMessage msg(long timestamp) {
+        return new PubSubMessage(UUID.randomUUID(), new Timestamp(timestamp), sender, receiver, "m",
+                BasicMessageType.SIMPLEMSG);
+    }
+
+    @Test
+    public void testReadyOrder() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        QueueSelector<String> selector = new QueueSelector<>();
+        TimeDelayQueue a = new TimeDelayQueue(DELAY);
+        TimeDelayQueue b = new TimeDelayQueue(DELAY);
+        TimeDelayQueue c = new TimeDelayQueue(DELAY);
+        b.add(msg(now - 2000));
+        selector.register("a", a);
+        selector.register("b", b);
+        selector.register("c", c);
+        assertThrows(IllegalArgumentException.class, () -> selector.register("a", a));
+        a.add(msg(now - 1000));
+        c.add(msg(now + 60_000));
+
+        Map<String, TimeDelayQueue> ready = selector.select(0, 10);
+        assertEquals(List.of("b", "a"), new ArrayList<>(ready.keySet()));
+        assertSame(b, ready.get("b"));
+        assertEquals(now + 60_000 + DELAY, selector.nextEligibleTime());
+
+        // selected queues are not selected again until they are rearmed
+        a.add(msg(now - 500));
+        assertTrue(selector.select(0, 10).isEmpty());
+        a.getNext(10, System.currentTimeMillis());
+        selector.rearm("a");
+        b.add(msg(now - 100));
+        selector.rearm("b");
+        assertEquals(List.of("b"), new ArrayList<>(selector.select(0, 10).keySet()));
+    }
+
+    @Test
+    public void testBlocksUntilEligible() throws InterruptedException {
+        QueueSelector<String> selector = new QueueSelector<>();
+        TimeDelayQueue queue = new TimeDelayQueue(DELAY);
+        selector.register("q", queue);
+        assertEquals(Long.MAX_VALUE, selector.nextEligibleTime());
+
+        long start = System.currentTimeMillis();
+        new Thread(() -> queue.add(msg(System.currentTimeMillis()))).start();
+        Map<String, TimeDelayQueue> ready = selector.select(5000, 1);
+        assertEquals(List.of("q"), new ArrayList<>(ready.keySet()));
+        assertTrue(System.currentTimeMillis() - start >= DELAY);
+        assertEquals(1, queue.getNext(10, System.currentTimeMillis()).size());
+
+        // a queue drained by other means is not reported
+        selector.rearm("q");
+        queue.add(msg(System.currentTimeMillis() - DELAY));
+        queue.getNext();
+        assertTrue(selector.select(50, 1).isEmpty());
+
+        assertTrue(selector.deregister("q"));
+        queue.add(msg(System.currentTimeMillis() - DELAY));
+        assertTrue(selector.select(0, 1).isEmpty());
+        assertEquals(0, selector.size());
+    }
+
+    @Test
+    public void testWakeup() throws InterruptedException {
+        QueueSelector<String> selector = new QueueSelector<>();
+        selector.register("q", new TimeDelayQueue(DELAY));
+        new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            }
+            catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            selector.wakeup();
+        }).start();
+        long start = System.currentTimeMillis();
+        assertTrue(selector.select(10_000, 1).isEmpty());
+        assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    @Test
+    public void testDeliveryWorkers() throws InterruptedException {
+        PhemeService srv = new PhemeService(new EmptyTweetSource());
+        srv.addUser(sender, "sender", "hash s");
+        List<UUID> users = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            UUID user = UUID.randomUUID();
+            srv.addUser(user, "user " + i, "hash " + i);
+            users.add(user);
+        }
+
+        Map<UUID, List<PubSubMessage>> pushed = new ConcurrentHashMap<>();
+        AtomicInteger total = new AtomicInteger();
+        List<Thread> workers = new ArrayList<>();
+        for (int w = 0; w < 4; w++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    while (total.get() < 300) {
+                        srv.deliverReady(1000, 16, 2, (user, batch) -> {
+                            pushed.computeIfAbsent(user, u -> new ArrayList<>()).addAll(batch);
+                            total.addAndGet(batch.size());
+                        });
+                    }
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+
+        List<PubSubMessage> sent = new ArrayList<>();
+        for (int round = 0; round < 3; round++) {
+            for (UUID user : users) {
+                PubSubMessage m = new PubSubMessage(sender, user, "round " + round);
+                sent.add(m);
+                srv.sendMessage("sender", "hash s", m);
+            }
+        }
+        for (Thread worker : workers) {
+            worker.join(10_000);
+        }
+        srv.wakeDeliveryWorkers();
+
+        assertEquals(300, total.get());
+        for (PubSubMessage m : sent) {
+            UUID user = m.getReceiver().get(0);
+            assertTrue(pushed.get(user).contains(m));
+        }
+        assertEquals(3, pushed.get(users.get(0)).size());
+        assertTrue(srv.getAllRecent("user 0", "hash 0").isEmpty());
+    }
+
+    @Test
+    public void testDeliverReadyCapsMessagesPerUser() throws InterruptedException {
+        PhemeService srv = new PhemeService(new EmptyTweetSource());
+        UUID sender = UUID.randomUUID();
+        UUID receiver = UUID.randomUUID();
+        srv.addUser(sender, "sender", "hash s");
+        srv.addUser(receiver, "receiver", "hash r");
+        List<PubSubMessage> sent = new ArrayList<>();
+        long past = System.currentTimeMillis() - 2 * PhemeService.DELAY;
+        for (int i = 0; i < 5; i++) {
+            // already active, so all five are ready together
+            PubSubMessage m = new PubSubMessage(UUID.randomUUID(), new Timestamp(past + i), sender, receiver,
+                    "msg " + i, BasicMessageType.SIMPLEMSG);
+            sent.add(m);
+            assertTrue(srv.sendMessage("sender", "hash s", m));
+        }
+        assertThrows(IllegalArgumentException.class, () -> srv.deliverReady(0, 1, 0, (user, batch) -> { }));
+
+        List<Integer> sizes = new ArrayList<>();
+        List<PubSubMessage> pushed = new ArrayList<>();
+        while (pushed.size() < 5 && srv.deliverReady(PhemeService.DELAY, 1, 2, (user, batch) -> {
+            sizes.add(batch.size());
+            pushed.addAll(batch);
+        }) > 0) {
+            // the user stays ready while messages beyond each batch remain
+        }
+        assertEquals(List.of(2, 2, 1), sizes);
+        assertEquals(sent, pushed);
+    }
+}
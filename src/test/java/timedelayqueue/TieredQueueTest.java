@@ -0,0 +1,129 @@
+package timedelayqueue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TieredQueueTest {
+
+    private static final int DELAY = 0;
+    private static final int HOT_MESSAGES = 64;
+
+    private final UUID sender = UUID.randomUUID();
+    private final UUID receiver = UUID.randomUUID();
+
+    @TempDir
+    File dir;
+
+    private PubSubMessage msg(long timestamp) {
+        return new PubSubMessage(UUID.randomUUID(), new Timestamp(timestamp), sender, receiver, "m" + timestamp,
+                BasicMessageType.SIMPLEMSG);
+    }
+
+    private TimeDelayQueue tieredQueue() {
+        return new TimeDelayQueue(DELAY, new QueueCapacity(HOT_MESSAGES, Long.MAX_VALUE, OverflowPolicy.SPILL_TO_DISK, dir));
+    }
+
+    @Test
+    public void testDeepBacklogInOrder() {
+        long now = System.currentTimeMillis();
+        List<PubSubMessage> msgs = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            msgs.add(msg(now - 10_000 + i));
+        }
+        List<PubSubMessage> shuffled = new ArrayList<>(msgs);
+        Collections.shuffle(shuffled, new Random(42));
+
+        TimeDelayQueue tdq = tieredQueue();
+        for (PubSubMessage m : shuffled) {
+            assertTrue(tdq.offer(m).isAccepted());
+            assertTrue(tdq.getOverflowStats().getMessagesInMemory() <= HOT_MESSAGES);
+        }
+        // spilled messages are found on disk, whether staged or in a segment
+        assertEquals(AddResult.DUPLICATE, tdq.offer(msgs.get(4999)));
+        assertEquals(AddResult.DUPLICATE, tdq.offer(msgs.get(2500)));
+
+        OverflowStats stats = tdq.getOverflowStats();
+        assertEquals(5000, stats.getMessagesInMemory() + stats.getMessagesOnDisk());
+        // the backlog is split into segments of a quarter of the hot window
+        String[] segments = dir.list();
+        assertNotNull(segments);
+        assertTrue(segments.length >= 4900 / (HOT_MESSAGES / 4));
+        assertEquals(msgs, tdq.getPending());
+        assertEquals(now - 10_000 + DELAY, tdq.nextEligibleTime());
+
+        List<PubSubMessage> taken = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            taken.add(tdq.getNext());
+            assertTrue(tdq.getOverflowStats().getMessagesInMemory() <= HOT_MESSAGES);
+        }
+        taken.addAll(tdq.getNext(3000, System.currentTimeMillis()));
+        while (taken.size() < 5000) {
+            PubSubMessage next = tdq.getNext();
+            assertNotEquals(PubSubMessage.NO_MSG, next);
+            taken.add(next);
+        }
+        assertEquals(msgs, taken);
+        assertEquals(PubSubMessage.NO_MSG, tdq.getNext());
+        assertEquals(0, tdq.getOverflowStats().getMessagesOnDisk());
+        String[] left = dir.list();
+        assertNotNull(left);
+        assertEquals(0, left.length);
+    }
+
+    @Test
+    public void testFutureMessagesWaitOnDisk() {
+        long now = System.currentTimeMillis();
+        TimeDelayQueue tdq = tieredQueue();
+        List<PubSubMessage> ready = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            ready.add(msg(now - 1000 + i));
+        }
+        // far-from-ready messages arrive first and are spilled once the ready ones push them out
+        for (int i = 0; i < 2000; i++) {
+            tdq.add(msg(now + 3_600_000 + i));
+        }
+        tdq.addAll(ready);
+
+        assertEquals(now - 1000 + DELAY, tdq.nextEligibleTime());
+        assertEquals(ready, tdq.getNext(100, System.currentTimeMillis()));
+        assertEquals(PubSubMessage.NO_MSG, tdq.getNext());
+        OverflowStats stats = tdq.getOverflowStats();
+        assertEquals(2000, stats.getMessagesInMemory() + stats.getMessagesOnDisk());
+        assertTrue(stats.getMessagesInMemory() <= HOT_MESSAGES);
+        assertEquals(now + 3_600_000 + DELAY, tdq.nextEligibleTime());
+    }
+
+    @Test
+    public void testLateMessagesMergeIntoSegments() {
+        long now = System.currentTimeMillis();
+        TimeDelayQueue tdq = tieredQueue();
+        List<PubSubMessage> msgs = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            msgs.add(msg(now - 100_000 + 10L * i));
+        }
+        for (PubSubMessage m : msgs) {
+            tdq.add(m);
+        }
+        int segments = dir.list().length;
+        // messages falling between spilled ones are merged into the segments that cover them
+        for (int i = 500; i < 1000; i += 3) {
+            PubSubMessage late = msg(now - 100_000 + 10L * i + 5);
+            tdq.add(late);
+            msgs.add(late);
+        }
+        msgs.sort((a, b) -> a.getTimestamp().compareTo(b.getTimestamp()));
+        assertTrue(dir.list().length < segments * 2);
+        assertEquals(msgs, tdq.getPending());
+        assertEquals(msgs, tdq.getNext(msgs.size(), System.currentTimeMillis()));
+    }
+}
@@ -0,0 +1,72 @@
+package timedelayqueue;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TimeOrderedIdGeneratorTest {
+
+    @Test
+    public void testIdsIncreaseWithinThread() {
+        TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator();
+        long before = System.currentTimeMillis();
+        UUID previous = generator.nextId();
+        assertEquals(7, previous.version());
+        assertEquals(2, previous.variant());
+        assertTrue(TimeOrderedIdGenerator.timestampOf(previous) >= before);
+        // well past 4096 IDs per millisecond, so the counter rolls over
+        for (int i = 0; i < 100_000; i++) {
+            UUID next = generator.nextId();
+            assertTrue(TimeOrderedIdGenerator.compareUnsigned(previous, next) < 0);
+            previous = next;
+        }
+    }
+
+    @Test
+    public void testUniqueAcrossThreads() throws InterruptedException {
+        TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator();
+        Set<UUID> ids = ConcurrentHashMap.newKeySet();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    ids.add(generator.nextId());
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(8 * 20_000, ids.size());
+    }
+
+    @Test
+    public void testQueueBreaksTiesById() throws InterruptedException {
+        TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator();
+        Timestamp timestamp = new Timestamp(System.currentTimeMillis() - 1000);
+        UUID sender = UUID.randomUUID();
+        UUID receiver = UUID.randomUUID();
+        List<PubSubMessage> msgs = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            msgs.add(new PubSubMessage(generator.nextId(), timestamp, sender, receiver, "msg " + i,
+                    BasicMessageType.SIMPLEMSG));
+        }
+        TimeDelayQueue queue = new TimeDelayQueue(0);
+        for (int i = msgs.size() - 1; i >= 0; i--) {
+            queue.add(msgs.get(i));
+        }
+        for (PubSubMessage msg : msgs) {
+            assertEquals(msg, queue.getNext());
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package twitter;
+
+import io.github.redouane59.twitter.dto.tweet.TweetV2;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CachingTweetSourceTest {
+
+    private static final LocalDateTime T0 = LocalDateTime.parse("2022-10-01T00:00:00");
+    private static final long MARGIN = 60_000;
+
+    // tweets once a minute, on the minute, and records every range it is asked for
+    private static class CountingSource implements TweetSource {
+        final List<LocalDateTime[]> requests = new ArrayList<>();
+        int userLookups;
+
+        @Override
+        public String getUserID(String twitterUserName) {
+            userLookups++;
+            return "id-" + twitterUserName;
+        }
+
+        @Override
+        public List<TweetV2.TweetData> getUserTimeline(String userID, LocalDateTime startTime, LocalDateTime endTime) {
+            requests.add(new LocalDateTime[]{startTime, endTime});
+            List<TweetV2.TweetData> tweets = new ArrayList<>();
+            LocalDateTime time = startTime.truncatedTo(ChronoUnit.MINUTES);
+            if (time.isBefore(startTime)) {
+                time = time.plusMinutes(1);
+            }
+            for (; time.isBefore(endTime); time = time.plusMinutes(1)) {
+                tweets.add(TweetV2.TweetData.builder().id(userID + "@" + time).text("at " + time)
+                        .authorId(userID).createdAt(time).build());
+            }
+            return tweets;
+        }
+    }
+
+    @TempDir
+    File dir;
+
+    private final CountingSource upstream = new CountingSource();
+
+    private static List<String> ids(List<TweetV2.TweetData> tweets) {
+        List<String> ids = new ArrayList<>();
+        for (TweetV2.TweetData tweet : tweets) {
+            ids.add(tweet.getId());
+        }
+        ids.sort(null);
+        return ids;
+    }
+
+    @Test
+    public void testMissThenHit() {
+        CachingTweetSource source = new CachingTweetSource(upstream, dir, MARGIN);
+        List<TweetV2.TweetData> first = source.getUserTimeline("ubc", T0, T0.plusMinutes(10));
+        assertEquals(10, first.size());
+        assertEquals(1, upstream.requests.size());
+
+        // a range inside the cached one is served locally
+        List<TweetV2.TweetData> inside = source.getUserTimeline("ubc", T0.plusMinutes(2), T0.plusMinutes(5));
+        assertEquals(ids(upstream.getUserTimeline("ubc", T0.plusMinutes(2), T0.plusMinutes(5))), ids(inside));
+        assertEquals(2, upstream.requests.size());
+
+        // and so is everything after a restart
+        CachingTweetSource restarted = new CachingTweetSource(upstream, dir, MARGIN);
+        assertEquals(ids(first), ids(restarted.getUserTimeline("ubc", T0, T0.plusMinutes(10))));
+        assertEquals(2, upstream.requests.size());
+
+        assertEquals("id-ubc", restarted.getUserID("ubc"));
+        assertEquals("id-ubc", new CachingTweetSource(upstream, dir, MARGIN).getUserID("ubc"));
+        assertEquals(1, upstream.userLookups);
+    }
+
+    @Test
+    public void testOnlyMissingRangesFetched() {
+        CachingTweetSource source = new CachingTweetSource(upstream, dir, MARGIN);
+        source.getUserTimeline("ubc", T0, T0.plusMinutes(10));
+        source.getUserTimeline("ubc", T0.plusMinutes(20), T0.plusMinutes(30));
+        upstream.requests.clear();
+
+        List<TweetV2.TweetData> all = source.getUserTimeline("ubc", T0.minusMinutes(5), T0.plusMinutes(40));
+        assertEquals(45, all.size());
+        assertEquals(3, upstream.requests.size());
+        assertEquals(T0.minusMinutes(5), upstream.requests.get(0)[0]);
+        assertEquals(T0, upstream.requests.get(0)[1]);
+        assertEquals(T0.plusMinutes(10), upstream.requests.get(1)[0]);
+        assertEquals(T0.plusMinutes(20), upstream.requests.get(1)[1]);
+        assertEquals(T0.plusMinutes(30), upstream.requests.get(2)[0]);
+        assertEquals(T0.plusMinutes(40), upstream.requests.get(2)[1]);
+    }
+
+    @Test
+    public void testAdjacentRangesMerge() {
+        CachingTweetSource source = new CachingTweetSource(upstream, dir, MARGIN);
+        for (int i = 0; i < 6; i++) {
+            source.getUserTimeline("ubc", T0.plusMinutes(i * 10), T0.plusMinutes(i * 10 + 10));
+        }
+        assertEquals(1, source.getSegmentCount("ubc"));
+
+        // the merged segment still answers every part of its range, also after a restart
+        CachingTweetSource restarted = new CachingTweetSource(upstream, dir, MARGIN);
+        upstream.requests.clear();
+        assertEquals(60, restarted.getUserTimeline("ubc", T0, T0.plusMinutes(60)).size());
+        assertEquals(ids(upstream.getUserTimeline("ubc", T0.plusMinutes(15), T0.plusMinutes(25))),
+                ids(restarted.getUserTimeline("ubc", T0.plusMinutes(15), T0.plusMinutes(25))));
+        assertEquals(1, upstream.requests.size());
+        assertEquals(1, restarted.getSegmentCount("ubc"));
+    }
+
+    @Test
+    public void testFreshTweetsNotCached() {
+        CachingTweetSource source = new CachingTweetSource(upstream, dir, MARGIN);
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime start = now.minusMinutes(10);
+        source.getUserTimeline("ubc", start, now);
+        // the old part is cached, the last minute is fetched separately
+        assertEquals(2, upstream.requests.size());
+        assertTrue(upstream.requests.get(1)[0].isAfter(now.minusMinutes(2)));
+
+        // asking again fetches the last minute again, and at most the sliver that aged out of it since
+        upstream.requests.clear();
+        assertEquals(10, source.getUserTimeline("ubc", start, now).size());
+        LocalDateTime[] fresh = upstream.requests.get(upstream.requests.size() - 1);
+        assertEquals(now, fresh[1]);
+        assertTrue(fresh[0].isAfter(now.minusMinutes(2)));
+        for (LocalDateTime[] request : upstream.requests) {
+            assertTrue(request[0].isAfter(now.minusMinutes(2)));
+        }
+
+        // a range entirely within the margin never touches the cache
+        upstream.requests.clear();
+        source.getUserTimeline("ubc", now.minusSeconds(30), now);
+        assertEquals(1, upstream.requests.size());
+        assertEquals(1, source.getSegmentCount("ubc"));
+    }
+
+    @Test
+    public void testFreeDirectoryNotShared() {
+        CachingTweetSource first = CachingTweetSource.inFreeDirectory(upstream, dir, "account");
+        CachingTweetSource second = CachingTweetSource.inFreeDirectory(upstream, dir, "account");
+        // the first directory is still held, so the second source gets one of its own
+        assertEquals(new File(dir, "account"), first.getCacheDir());
+        assertEquals(new File(dir, "account-1"), second.getCacheDir());
+        assertEquals(new File(dir, "other"), CachingTweetSource.inFreeDirectory(upstream, dir, "other").getCacheDir());
+
+        first.getUserTimeline("ubc", T0, T0.plusMinutes(10));
+        second.getUserTimeline("ubc", T0, T0.plusMinutes(10));
+        assertEquals(1, first.getSegmentCount("ubc"));
+        assertEquals(1, second.getSegmentCount("ubc"));
+        assertEquals(2, upstream.requests.size());
+    }
+}
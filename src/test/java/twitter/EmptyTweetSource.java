@@ -0,0 +1,23 @@
+package twitter;
+
+import io.github.redouane59.twitter.dto.tweet.TweetV2;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A TweetSource for tests that never reach Twitter: no account exists and no tweets are made
+ */
+public class EmptyTweetSource implements TweetSource {
+
+    @Override
+    public String getUserID(String twitterUserName) {
+        return null;
+    }
+
+    @Override
+    public List<TweetV2.TweetData> getUserTimeline(String userID, LocalDateTime startTime, LocalDateTime endTime) {
+        return new ArrayList<>();
+    }
+}
@@ -0,0 +1,71 @@
+package twitter;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PatternMatcherTest {
+
+    @Test
+    public void testOverlappingPatterns() {
+        PatternMatcher<String> matcher = new PatternMatcher<>();
+        matcher.addPattern("he", "A");
+        matcher.addPattern("she", "B");
+        matcher.addPattern("hers", "C");
+        assertEquals(Set.of("A", "B", "C"), matcher.match("uSHErs"));
+    }
+
+    @Test
+    public void testNoMatch() {
+        PatternMatcher<String> matcher = new PatternMatcher<>();
+        matcher.addPattern("#T20WorldCup", "A");
+        assertFalse(matcher.matches("ceremonies today"));
+        assertTrue(matcher.matches("watching the #t20worldcup"));
+    }
+
+    @Test
+    public void testIncrementalChanges() {
+        PatternMatcher<String> matcher = new PatternMatcher<>();
+        matcher.addPattern("she", "B");
+        assertEquals(Set.of("B"), matcher.match("ushers"));
+        matcher.removePattern("she", "B");
+        assertTrue(matcher.match("ushers").isEmpty());
+        matcher.addPattern("us", "E");
+        matcher.addPattern("he", "A");
+        assertEquals(Set.of("A", "E"), matcher.match("ushers"));
+        assertEquals(2, matcher.size());
+    }
+
+    @Test
+    public void testDuplicatePattern() {
+        PatternMatcher<Integer> matcher = new PatternMatcher<>();
+        assertTrue(matcher.addPattern("ubc", 1));
+        assertFalse(matcher.addPattern("UBC", 1));
+        assertTrue(matcher.addPattern("ubc", 2));
+        assertEquals(Set.of(1, 2), matcher.match("Go UBC!"));
+    }
+
+    @Test
+    public void testManyAdditionsBetweenScans() {
+        PatternMatcher<Integer> matcher = new PatternMatcher<>();
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(matcher.addPattern("tag" + i + "x", i));
+            // every pattern is found right after it is added, whether it is pending or folded in
+            assertEquals(Set.of(i), matcher.match("see #TAG" + i + "X now"));
+        }
+        assertEquals(1000, matcher.size());
+        assertEquals(Set.of(7, 77, 777), matcher.match("tag7x tag77x tag777x"));
+        assertFalse(matcher.addPattern("tag7x", 7));
+        assertTrue(matcher.addPattern("tag7x", 8));
+        assertEquals(Set.of(7, 8), matcher.match("tag7x"));
+        assertTrue(matcher.removePattern("tag7x", 7));
+        assertTrue(matcher.removePattern("tag999x", 999));
+        assertEquals(Set.of(8), matcher.match("tag7x tag999x"));
+        // a pattern that is a suffix of linked ones is found inside them
+        assertTrue(matcher.addPattern("g12", -1));
+        assertEquals(Set.of(-1, 12), matcher.match("tag12x"));
+        assertEquals(1000, matcher.size());
+    }
+}
@@ -0,0 +1,153 @@
+package twitter;
+
+import io.github.redouane59.twitter.dto.tweet.TweetV2;
+import org.junit.jupiter.api.Test;
+import pheme.PhemeService;
+import timedelayqueue.PubSubMessage;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PollingSchedulerTest {
+
+    private static final long MIN_INTERVAL = 100;
+    private static final long MAX_INTERVAL = 10_000;
+
+    // "busy" tweets 100 times per call, "down" always fails, every other account is quiet
+    private static final TweetSource SOURCE = new TweetSource() {
+        @Override
+        public String getUserID(String twitterUserName) {
+            return twitterUserName;
+        }
+
+        @Override
+        public List<TweetV2.TweetData> getUserTimeline(String userID, LocalDateTime startTime, LocalDateTime endTime) {
+            if (userID.equals("down")) {
+                throw new IllegalStateException("upstream unavailable");
+            }
+            List<TweetV2.TweetData> tweets = new ArrayList<>();
+            if (userID.equals("busy")) {
+                for (int i = 0; i < 100; i++) {
+                    tweets.add(TweetV2.TweetData.builder().id(userID + i).text("tweet " + i).authorId(userID)
+                            .createdAt(endTime).build());
+                }
+            }
+            return tweets;
+        }
+    };
+
+    private final Map<String, List<TweetV2.TweetData>> polled = new HashMap<>();
+
+    private PollingScheduler scheduler(TokenBucket budget) {
+        return new PollingScheduler(SOURCE, polled::put, budget, MIN_INTERVAL, MAX_INTERVAL);
+    }
+
+    @Test
+    public void testIntervalFollowsTweetRate() throws InterruptedException {
+        PollingScheduler ps = scheduler(new TokenBucket(10, 10));
+        LocalDateTime since = LocalDateTime.now().minusHours(1);
+        ps.register("busy", 1, since);
+        ps.register("quiet", 1, since);
+        assertEquals(2, ps.pollDue());
+        // the catch-up poll over the last hour does not set the rate; the next poll comes soon
+        assertEquals(MIN_INTERVAL, ps.getPollInterval("busy"));
+        assertEquals(MIN_INTERVAL, ps.getPollInterval("quiet"));
+
+        Thread.sleep(MIN_INTERVAL + 20);
+        assertEquals(2, ps.pollDue());
+        assertEquals(100, polled.get("busy").size());
+        assertFalse(polled.containsKey("quiet"));
+        assertEquals(MIN_INTERVAL, ps.getPollInterval("busy"));
+        assertEquals(MAX_INTERVAL, ps.getPollInterval("quiet"));
+        assertTrue(ps.getFreshnessLag("busy") < 1000);
+
+        // neither account is due again yet
+        assertEquals(0, ps.pollDue());
+        assertEquals(-1, ps.getPollInterval("unknown"));
+    }
+
+    @Test
+    public void testBudgetExhaustion() {
+        PollingScheduler ps = scheduler(new TokenBucket(1, 0.001));
+        LocalDateTime since = LocalDateTime.now().minusSeconds(1);
+        ps.register("quiet", 1, since);
+        ps.register("busy", 3, since);
+
+        // the one token goes to the most subscribed account
+        assertEquals(1, ps.pollDue());
+        assertTrue(polled.containsKey("busy"));
+        assertEquals(1, ps.getThrottledPolls());
+
+        // the throttled account stays due and is throttled again while the budget is spent
+        assertEquals(0, ps.pollDue());
+        assertEquals(2, ps.getThrottledPolls());
+        assertTrue(ps.unregister("quiet"));
+        assertFalse(ps.unregister("quiet"));
+        assertEquals(0, ps.pollDue());
+        assertEquals(2, ps.getThrottledPolls());
+    }
+
+    @Test
+    public void testFailureBacksOff() {
+        PollingScheduler ps = scheduler(new TokenBucket(10, 10));
+        LocalDateTime since = LocalDateTime.now().minusSeconds(1);
+        ps.register("down", 1, since);
+        assertEquals(1, ps.pollDue());
+        assertEquals(1, ps.getFailedPolls());
+        assertEquals(2 * MIN_INTERVAL, ps.getPollInterval("down"));
+        // the cursor did not move, so the missed window is fetched on the next poll
+        assertTrue(ps.getFreshnessLag("down") >= 1000);
+    }
+
+    @Test
+    public void testPolledTweetsReachPushConsumers() throws InterruptedException {
+        PhemeService srv = new PhemeService(SOURCE);
+        UUID alice = UUID.randomUUID();
+        UUID bob = UUID.randomUUID();
+        srv.addUser(alice, "alice", "hash a");
+        srv.addUser(bob, "bob", "hash b");
+        assertTrue(srv.addSubscription("alice", "hash a", "busy", "tweet 7"));
+        assertTrue(srv.addSubscription("bob", "hash b", "busy"));
+        assertTrue(srv.startPolling(new TokenBucket(10, 10), 10, 50));
+
+        // nobody reads; the poller alone gets the tweets to the delivery workers
+        Map<UUID, List<PubSubMessage>> pushed = new HashMap<>();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pushed.size() < 2 && System.currentTimeMillis() < deadline) {
+            srv.deliverReady(100, 10, 100, (user, msgs) -> pushed.computeIfAbsent(user, id -> new ArrayList<>()).addAll(msgs));
+        }
+        srv.stopPolling();
+        assertEquals(2, pushed.size());
+        for (PubSubMessage msg : pushed.get(alice)) {
+            assertTrue(msg.getContent().startsWith("tweet 7"));
+        }
+    }
+
+    @Test
+    public void testPhemeServiceDeliversPolledTweets() throws InterruptedException {
+        PhemeService srv = new PhemeService(SOURCE);
+        assertTrue(srv.startPolling(new TokenBucket(10, 10), 10, 50));
+        assertFalse(srv.startPolling(new TokenBucket(10, 10), 10, 50));
+        srv.addUser(UUID.randomUUID(), "alice", "hash a");
+        assertTrue(srv.addSubscription("alice", "hash a", "busy", "tweet 7"));
+
+        List<PubSubMessage> received = new ArrayList<>();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (received.isEmpty() && System.currentTimeMillis() < deadline) {
+            received.addAll(srv.getAllRecent("alice", "hash a"));
+            Thread.sleep(10);
+        }
+        srv.stopPolling();
+        assertFalse(received.isEmpty());
+        for (PubSubMessage msg : received) {
+            assertTrue(msg.getContent().startsWith("tweet 7"));
+        }
+        assertNull(srv.getPoller());
+    }
+}
@@ -0,0 +1,71 @@
+package twitter;
+
+import io.github.redouane59.twitter.dto.tweet.TweetV2;
+import org.junit.jupiter.api.Test;
+import pheme.PhemeService;
+import timedelayqueue.PubSubMessage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReplayTweetSourceTest {
+
+    private static final LocalDateTime START = LocalDateTime.parse("2022-10-01T00:00:00");
+
+    private static File recording(int numTweets) throws IOException {
+        File file = File.createTempFile("tweets", ".jsonl");
+        file.deleteOnExit();
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < numTweets; i++) {
+            lines.add(String.format(
+                "{\"id\":\"%d\",\"text\":\"tweet %d #ubc\",\"authorId\":\"%s\",\"createdAt\":\"2022-10-02T00:00:%02d\"}",
+                i, i, i % 2 == 0 ? "ubc" : "sfu", i % 60));
+        }
+        Files.write(file.toPath(), lines);
+        return file;
+    }
+
+    @Test
+    public void testUnlimitedRate() throws IOException {
+        ReplayTweetSource source = new ReplayTweetSource(recording(10), 0);
+        assertEquals("ubc", source.getUserID("ubc"));
+        assertNull(source.getUserID("nobody"));
+        List<TweetV2.TweetData> tweets = source.getUserTimeline("ubc", START, LocalDateTime.now().plusSeconds(1));
+        assertEquals(5, tweets.size());
+        assertEquals("tweet 0 #ubc", tweets.get(0).getText());
+    }
+
+    @Test
+    public void testRateLimitedRelease() throws IOException, InterruptedException {
+        ReplayTweetSource source = new ReplayTweetSource(recording(100), 10);
+        Thread.sleep(250);
+        int released = source.getUserTimeline("ubc", START, LocalDateTime.now()).size()
+            + source.getUserTimeline("sfu", START, LocalDateTime.now()).size();
+        assertTrue(released > 0);
+        assertTrue(released < 100);
+    }
+
+    @Test
+    public void testListenerFetchesOnce() throws IOException {
+        TwitterListener tl = new TwitterListener(new ReplayTweetSource(recording(10), 0));
+        assertTrue(tl.addSubscription("ubc"));
+        assertEquals(5, tl.getRecentTweets().size());
+        assertEquals(0, tl.getRecentTweets().size());
+    }
+
+    @Test
+    public void testPipelineToInbox() throws IOException {
+        PhemeService srv = new PhemeService(new ReplayTweetSource(recording(10), 0));
+        srv.addUser(UUID.randomUUID(), "replay user", "hash");
+        assertTrue(srv.addSubscription("replay user", "hash", "sfu"));
+        List<PubSubMessage> msgs = srv.getAllRecent("replay user", "hash");
+        assertEquals(5, msgs.size());
+    }
+}
@@ -0,0 +1,198 @@
+package twitter;
+
+import io.github.redouane59.twitter.dto.tweet.TweetV2;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResilientTweetSourceTest {
+
+    private static final LocalDateTime START = LocalDateTime.parse("2022-10-01T00:00:00");
+
+    // a local stand-in for the Twitter API that fails, hangs or answers on demand
+    private static class FakeTweetSource implements TweetSource {
+        volatile boolean failing;
+        volatile boolean hanging;
+        // the next calls to fail before the fake answers again
+        final AtomicInteger failuresLeft = new AtomicInteger();
+        final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public String getUserID(String twitterUserName) {
+            calls.incrementAndGet();
+            if (failing || failuresLeft.getAndDecrement() > 0) {
+                throw new IllegalStateException("upstream down");
+            }
+            return twitterUserName;
+        }
+
+        @Override
+        public List<TweetV2.TweetData> getUserTimeline(String userID, LocalDateTime startTime, LocalDateTime endTime) {
+            calls.incrementAndGet();
+            if (hanging) {
+                try {
+                    Thread.sleep(10_000);
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (failing) {
+                throw new IllegalStateException("upstream down");
+            }
+            return new ArrayList<>();
+        }
+    }
+
+    @Test
+    public void testRetriesThenSucceeds() {
+        FakeTweetSource fake = new FakeTweetSource();
+        fake.failuresLeft.set(2);
+        ResilientTweetSource source = new ResilientTweetSource(fake, 100, 100, 3, 1, 5, 1_000);
+        assertEquals("ubc", source.getUserID("ubc"));
+        assertEquals(3, fake.calls.get());
+        assertEquals(CircuitBreaker.State.CLOSED, source.getUserBreaker().getState());
+
+        // one failure too many exhausts the attempts
+        fake.failuresLeft.set(3);
+        assertThrows(TweetSourceUnavailableException.class, () -> source.getUserID("ubc"));
+        assertEquals(6, fake.calls.get());
+    }
+
+    @Test
+    public void testBreakerOpensAndFailsFast() {
+        FakeTweetSource fake = new FakeTweetSource();
+        fake.failing = true;
+        ResilientTweetSource source = new ResilientTweetSource(fake, 100, 100, 2, 1, 2, 60_000);
+        assertThrows(TweetSourceUnavailableException.class, () -> source.getUserID("ubc"));
+        assertEquals(CircuitBreaker.State.OPEN, source.getUserBreaker().getState());
+
+        int callsBefore = fake.calls.get();
+        assertThrows(TweetSourceUnavailableException.class, () -> source.getUserID("ubc"));
+        assertEquals(callsBefore, fake.calls.get());
+        assertTrue(source.getUserBreaker().getRejectedCalls() > 0);
+        // the timeline endpoint has its own breaker
+        assertEquals(CircuitBreaker.State.CLOSED, source.getTimelineBreaker().getState());
+    }
+
+    @Test
+    public void testTimeout() {
+        FakeTweetSource fake = new FakeTweetSource();
+        fake.hanging = true;
+        ResilientTweetSource source = new ResilientTweetSource(fake, 100, 50, 1, 1, 1, 60_000);
+        long start = System.currentTimeMillis();
+        assertThrows(TweetSourceUnavailableException.class,
+            () -> source.getUserTimeline("ubc", START, LocalDateTime.now()));
+        assertTrue(System.currentTimeMillis() - start < 5_000);
+        assertEquals(CircuitBreaker.State.OPEN, source.getTimelineBreaker().getState());
+    }
+
+    @Test
+    public void testCallsInFlightAreBounded() {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger started = new AtomicInteger();
+        // an upstream that ignores cancellation, so every call holds its thread until released
+        TweetSource stuck = new FakeTweetSource() {
+            @Override
+            public List<TweetV2.TweetData> getUserTimeline(String userID, LocalDateTime startTime, LocalDateTime endTime) {
+                started.incrementAndGet();
+                boolean released = false;
+                while (!released) {
+                    try {
+                        released = release.await(10, TimeUnit.SECONDS);
+                    }
+                    catch (InterruptedException ignored) {
+                        // keep holding the thread
+                    }
+                }
+                return new ArrayList<>();
+            }
+        };
+        // no retries and a breaker that never opens, so only the pool bound turns calls away
+        ResilientTweetSource source = new ResilientTweetSource(stuck, 10, 10, 1, 0, Integer.MAX_VALUE, 60_000);
+        int rejected = 0;
+        for (int i = 0; i < 40; i++) {
+            try {
+                source.getUserTimeline("ubc", START, LocalDateTime.now());
+            }
+            catch (TweetSourceUnavailableException e) {
+                if (e.getMessage().contains("in flight")) {
+                    rejected++;
+                }
+            }
+        }
+        release.countDown();
+        assertTrue(rejected > 0);
+        assertTrue(started.get() <= 16);
+    }
+
+    @Test
+    public void testBreakerRecovers() throws InterruptedException {
+        FakeTweetSource fake = new FakeTweetSource();
+        fake.failing = true;
+        ResilientTweetSource source = new ResilientTweetSource(fake, 100, 100, 1, 1, 1, 50);
+        assertThrows(TweetSourceUnavailableException.class, () -> source.getUserID("ubc"));
+        fake.failing = false;
+        Thread.sleep(100);
+        assertEquals("ubc", source.getUserID("ubc"));
+        assertEquals(CircuitBreaker.State.CLOSED, source.getUserBreaker().getState());
+    }
+
+    @Test
+    public void testInterruptedTrialIsReleased() throws InterruptedException {
+        FakeTweetSource fake = new FakeTweetSource();
+        fake.failing = true;
+        ResilientTweetSource source = new ResilientTweetSource(fake, 100, 1_000, 1, 1, 1, 50);
+        assertThrows(TweetSourceUnavailableException.class, () -> source.getUserTimeline("ubc", START, LocalDateTime.now()));
+        fake.failing = false;
+        fake.hanging = true;
+        Thread.sleep(100);
+        // the trial call is let through but its caller is interrupted while waiting for it
+        Thread.currentThread().interrupt();
+        try {
+            TweetSourceUnavailableException e = assertThrows(TweetSourceUnavailableException.class,
+                    () -> source.getUserTimeline("ubc", START, LocalDateTime.now()));
+            assertTrue(e.getMessage().contains("interrupted"));
+        }
+        finally {
+            Thread.interrupted();
+        }
+        // so the breaker lets the next call try instead of staying half-open for good
+        fake.hanging = false;
+        assertEquals(CircuitBreaker.State.HALF_OPEN, source.getTimelineBreaker().getState());
+        assertEquals(0, source.getUserTimeline("ubc", START, LocalDateTime.now()).size());
+        assertEquals(CircuitBreaker.State.CLOSED, source.getTimelineBreaker().getState());
+    }
+
+    @Test
+    public void testReleaseTrial() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(1, 20);
+        assertTrue(breaker.allowRequest());
+        breaker.recordFailure();
+        assertFalse(breaker.allowRequest());
+        Thread.sleep(50);
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+        breaker.releaseTrial();
+        assertTrue(breaker.allowRequest());
+        assertEquals(2, breaker.getRejectedCalls());
+        assertEquals(1, breaker.getTimesOpened());
+    }
+
+    @Test
+    public void testListenerKeepsWindowWhileDegraded() {
+        FakeTweetSource fake = new FakeTweetSource();
+        TwitterListener tl = new TwitterListener(new ResilientTweetSource(fake, 100, 100, 1, 1, 1, 60_000));
+        assertTrue(tl.addSubscription("ubc"));
+        fake.failing = true;
+        assertEquals(0, tl.getRecentTweets().size());
+        assertFalse(tl.isUpstreamAvailable());
+    }
+}
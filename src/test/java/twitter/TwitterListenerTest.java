@@ -0,0 +1,61 @@
+package twitter;
+
+import io.github.redouane59.twitter.dto.tweet.TweetV2;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TwitterListenerTest {
+
+    // every account exists and has tweeted the same three tweets
+    private static final TweetSource SOURCE = new TweetSource() {
+        @Override
+        public String getUserID(String twitterUserName) {
+            return twitterUserName;
+        }
+
+        @Override
+        public List<TweetV2.TweetData> getUserTimeline(String userID, LocalDateTime startTime, LocalDateTime endTime) {
+            List<TweetV2.TweetData> tweets = new ArrayList<>();
+            tweets.add(TweetV2.TweetData.builder().id(userID + "1").text("Exams start Monday").authorId(userID).build());
+            tweets.add(TweetV2.TweetData.builder().id(userID + "2").text("Library open late").authorId(userID).build());
+            tweets.add(TweetV2.TweetData.builder().id(userID + "3").text("Go team").authorId(userID).build());
+            return tweets;
+        }
+    };
+
+    @Test
+    public void testCancelOnePattern() {
+        TwitterListener tl = new TwitterListener(SOURCE);
+        assertTrue(tl.addSubscription("ubc", "exams"));
+        assertTrue(tl.addSubscription("ubc", "Library"));
+        assertEquals(2, tl.getRecentTweets().size());
+
+        assertFalse(tl.cancelSubscription("ubc", "team"));
+        assertTrue(tl.cancelSubscription("ubc", "EXAMS"));
+        assertEquals(List.of("library"), tl.getSubscribers().get("ubc"));
+        List<TweetV2.TweetData> tweets = tl.getRecentTweets();
+        assertEquals(1, tweets.size());
+        assertEquals("Library open late", tweets.get(0).getText());
+        assertFalse(tl.cancelSubscription("ubc", "exams"));
+    }
+
+    @Test
+    public void testCancelLastPatternEndsSubscription() {
+        TwitterListener tl = new TwitterListener(SOURCE);
+        assertTrue(tl.addSubscription("ubc", "exams"));
+        assertTrue(tl.addSubscription("sfu", "team"));
+        assertTrue(tl.cancelSubscription("ubc", "exams"));
+        assertFalse(tl.getSubscribers().containsKey("ubc"));
+
+        // only the other account is still fetched, and still filtered
+        List<TweetV2.TweetData> tweets = tl.getRecentTweets();
+        assertEquals(1, tweets.size());
+        assertEquals("sfu3", tweets.get(0).getId());
+        assertFalse(tl.cancelSubscription("ubc", "exams"));
+    }
+}